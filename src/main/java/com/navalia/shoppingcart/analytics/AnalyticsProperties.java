@@ -0,0 +1,45 @@
+package com.navalia.shoppingcart.analytics;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.analytics")
+public class AnalyticsProperties {
+
+    /** Whether cart changes are recorded for the live analytics. */
+    private boolean enabled = false;
+
+    /** Span of recent time the figures cover. */
+    private Duration window = Duration.ofMinutes(5);
+
+    /** Slices the window is cut in; the oldest one is dropped whole as time goes on. */
+    private int buckets = 60;
+
+    /** Events each recording thread can have waiting, rounded up to a power of two. */
+    private int ringSize = 4096;
+
+    /** Threads given a buffer of their own, past which threads share the common buffers. */
+    private int maxRings = 256;
+
+    /** Buffers shared by virtual threads and the threads past the limit, or 0 for two per processor. */
+    private int sharedRings = 0;
+
+    /**
+     * Pause of the consumer thread when it found no event waiting. A ring half full wakes it up sooner,
+     * so this mostly bounds how late the figures of a quiet instance are.
+     */
+    private Duration drainInterval = Duration.ofMillis(250);
+
+    /** Time between two refreshes of the figures served by the query endpoint. */
+    private Duration reportInterval = Duration.ofSeconds(1);
+
+    /** Most added items kept in the figures. */
+    private int topItems = 100;
+}
@@ -0,0 +1,35 @@
+package com.navalia.shoppingcart.analytics;
+
+import com.navalia.shoppingcart.dto.response.AnalyticsResponse;
+
+/**
+ * Live figures on what customers do with their carts, over a sliding window of recent time.
+ * <p>
+ * The cart service records every successful change on the request path, sometimes while it holds the
+ * cart, so recording must never block nor take a lock: implementations only hand the event over, and
+ * may drop it rather than wait when they fall behind. Amounts removed are the ones asked for, which
+ * can exceed what the cart held.
+ */
+public interface CartAnalytics {
+
+    void itemsAdded(int itemId, int amount);
+
+    void itemsRemoved(int itemId, int amount);
+
+    void cartEmptied();
+
+    /**
+     * Records the first close of a cart into an order.
+     */
+    void orderClosed();
+
+    /**
+     * Records a cart holding items that was dropped after staying idle for too long.
+     */
+    void cartAbandoned();
+
+    /**
+     * Figures of the current window, with the given number of most added items at most.
+     */
+    AnalyticsResponse report(int topItems);
+}
@@ -0,0 +1,132 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.LongConsumer;
+
+/**
+ * Bounded ring of events with a single producer and a single consumer, in the manner of the LMAX
+ * Disruptor. Events are packed into longs written to a preallocated array, so publishing one neither
+ * allocates nor takes a lock: the producer writes the slot, then moves its sequence forward with a
+ * release store, which makes the slot visible to the consumer reading that sequence. A full ring
+ * refuses the event instead of waiting for the consumer.
+ * <p>
+ * The sequences of the producer and of the consumer are padded to cache lines of their own, and the
+ * producer only reads the consumer's sequence again when the last value it read says the ring is half
+ * full or full. When the ring is still half full then, the producer wakes the consumer up, which lets
+ * the consumer sleep between drains without the ring filling up in the meantime.
+ */
+final class EventRing {
+
+    private final long[] events;
+    private final int mask;
+    private final Runnable halfFull;
+    private final Sequence published = new Sequence();
+    private final Sequence consumed = new Sequence();
+    // Owned by the producer
+    private long next;
+    // Sequence from which the consumer's sequence is read again
+    private long checkAt;
+
+    /**
+     * @param halfFull called by the producer when it finds the ring half full
+     */
+    EventRing(int capacity, Runnable halfFull) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.events = new long[size];
+        this.mask = size - 1;
+        this.halfFull = halfFull;
+        this.checkAt = size / 2;
+    }
+
+    /**
+     * Publishes the event. Only one thread at a time may call this method.
+     *
+     * @return false, publishing nothing, if the ring is full
+     */
+    boolean offer(long event) {
+        long sequence = next;
+
+        if (sequence >= checkAt) {
+            long consumedSequence = consumed.getAcquire();
+            long used = sequence - consumedSequence;
+            if (used >= events.length) {
+                return false;
+            }
+            if (used >= events.length / 2) {
+                halfFull.run();
+                checkAt = consumedSequence + events.length;
+            } else {
+                checkAt = consumedSequence + events.length / 2;
+            }
+        }
+
+        events[(int) sequence & mask] = event;
+        next = sequence + 1;
+        published.setRelease(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Hands every published event to the consumer, in order, and frees their slots. Only one thread
+     * at a time may call this method.
+     *
+     * @return the number of events drained
+     */
+    int drain(LongConsumer consumer) {
+        long from = consumed.getPlain();
+        long to = published.getAcquire();
+
+        for (long sequence = from; sequence < to; sequence++) {
+            consumer.accept(events[(int) sequence & mask]);
+        }
+        if (to > from) {
+            consumed.setRelease(to);
+        }
+        return (int) (to - from);
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    @SuppressWarnings("unused")
+    private abstract static class LeftPadding {
+        protected long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    private abstract static class Value extends LeftPadding {
+        protected long value;
+    }
+
+    /**
+     * Counter padded on both sides, so that it never shares a cache line with other data.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends Value {
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Value.class, "value", long.class);
+            } catch (ReflectiveOperationException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+
+        protected long p11, p12, p13, p14, p15, p16, p17;
+
+        private long getPlain() {
+            return value;
+        }
+
+        private long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        private void setRelease(long newValue) {
+            VALUE.setRelease(this, newValue);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import com.navalia.shoppingcart.dto.response.AnalyticsResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@link CartAnalytics} used when the analytics are disabled: nothing is recorded.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.analytics", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpCartAnalytics implements CartAnalytics {
+
+    @Override
+    public void itemsAdded(int itemId, int amount) {
+        // nothing is recorded
+    }
+
+    @Override
+    public void itemsRemoved(int itemId, int amount) {
+        // nothing is recorded
+    }
+
+    @Override
+    public void cartEmptied() {
+        // nothing is recorded
+    }
+
+    @Override
+    public void orderClosed() {
+        // nothing is recorded
+    }
+
+    @Override
+    public void cartAbandoned() {
+        // nothing is recorded
+    }
+
+    @Override
+    public AnalyticsResponse report(int topItems) {
+        return AnalyticsResponse.builder().topItems(List.of()).build();
+    }
+}
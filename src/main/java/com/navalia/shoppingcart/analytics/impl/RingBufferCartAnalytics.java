@@ -0,0 +1,308 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import com.navalia.shoppingcart.analytics.AnalyticsProperties;
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.dto.response.AnalyticsResponse;
+import com.navalia.shoppingcart.dto.response.ItemCountResponse;
+import com.navalia.shoppingcart.execution.VirtualThreads;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * {@link CartAnalytics} fed through lock-free rings of events, aggregated by a single consumer thread.
+ * <p>
+ * Each thread recording events gets an {@link EventRing} of its own the first time it records one, so
+ * recording an event is a thread-local lookup and a store into a preallocated slot, with no lock, no
+ * allocation and no write to memory shared with the other request threads. Virtual threads, and the
+ * threads past {@code cart.analytics.max-rings}, take turns on a few shared rings instead, claiming
+ * one with a compare-and-set. When the ring is full, or all the shared rings are taken, the event is
+ * dropped and counted rather than waited for.
+ * <p>
+ * The consumer thread drains the rings every drain interval, or as soon as a ring is half full, stamps
+ * the events with the time it read them, and adds them to
+ * a {@link SlidingWindow}. Every report interval it sums the window into an immutable snapshot, which
+ * is what queries read, so they never wait for the consumer either. The rings of threads that ended
+ * are dropped once drained.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.analytics", name = "enabled", havingValue = "true")
+public class RingBufferCartAnalytics implements CartAnalytics, InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[RingBufferCartAnalytics] ";
+    // An event is packed into a long: type in the top byte, then the item id, then the amount
+    private static final int TYPE_SHIFT = 56;
+    private static final int ITEM_SHIFT = 32;
+    private static final long ITEM_MASK = (1L << (TYPE_SHIFT - ITEM_SHIFT)) - 1;
+
+    private final CatalogRegistry catalogRegistry;
+    private final int ringSize;
+    private final int maxRings;
+    private final int topItems;
+    private final long drainIntervalNanos;
+    private final long reportIntervalNanos;
+    private final SlidingWindow window;
+    private final ThreadLocal<ProducerRing> localRing = ThreadLocal.withInitial(this::register);
+    private final ProducerRing[] sharedRings;
+    private final LongAdder dropped = new LongAdder();
+    private final LongConsumer recorder = this::record;
+    private final Thread thread;
+    private volatile ProducerRing[] rings = new ProducerRing[0];
+    private volatile SlidingWindow.Snapshot snapshot = SlidingWindow.Snapshot.EMPTY;
+    private volatile boolean running = true;
+    // Owned by the consumer thread
+    private long drainNanos;
+    private long reportedNanos;
+
+    public RingBufferCartAnalytics(CatalogRegistry catalogRegistry, CartMetrics cartMetrics, AnalyticsProperties properties) {
+        this.catalogRegistry = catalogRegistry;
+        this.ringSize = properties.getRingSize();
+        this.maxRings = properties.getMaxRings();
+        this.topItems = properties.getTopItems();
+        this.drainIntervalNanos = properties.getDrainInterval().toNanos();
+        this.reportIntervalNanos = properties.getReportInterval().toNanos();
+        this.window = new SlidingWindow(properties.getWindow().toNanos(), properties.getBuckets(), System.nanoTime());
+
+        int shared = properties.getSharedRings() > 0 ? properties.getSharedRings() : 2 * Runtime.getRuntime().availableProcessors();
+        this.sharedRings = new ProducerRing[shared];
+        for (int i = 0; i < shared; i++) {
+            sharedRings[i] = new ProducerRing(new EventRing(ringSize, this::wakeUp), null);
+        }
+
+        this.thread = new Thread(this::run, "cart-analytics");
+        this.thread.setDaemon(true);
+
+        cartMetrics.droppedAnalyticsEvents(dropped);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    @Override
+    public void itemsAdded(int itemId, int amount) {
+        publish(SlidingWindow.ITEMS_ADDED, itemId, amount);
+    }
+
+    @Override
+    public void itemsRemoved(int itemId, int amount) {
+        publish(SlidingWindow.ITEMS_REMOVED, itemId, amount);
+    }
+
+    @Override
+    public void cartEmptied() {
+        publish(SlidingWindow.CARTS_EMPTIED, 0, 1);
+    }
+
+    @Override
+    public void orderClosed() {
+        publish(SlidingWindow.ORDERS_CLOSED, 0, 1);
+    }
+
+    @Override
+    public void cartAbandoned() {
+        publish(SlidingWindow.CARTS_ABANDONED, 0, 1);
+    }
+
+    @Override
+    public AnalyticsResponse report(int topItems) {
+        var current = snapshot;
+        var catalog = catalogRegistry.current();
+        var items = new ArrayList<ItemCountResponse>();
+
+        for (int rank = 0; rank < Math.min(topItems, current.topItems()); rank++) {
+            int itemId = current.topItemId(rank);
+            int index = catalog.indexOf(itemId);
+            items.add(ItemCountResponse.builder()
+                    .itemId(itemId)
+                    .name(index >= 0 ? catalog.getName(index) : null)
+                    .units(current.topItemUnits(rank))
+                    .build());
+        }
+
+        long ordersClosed = current.count(SlidingWindow.ORDERS_CLOSED);
+        long cartsAbandoned = current.count(SlidingWindow.CARTS_ABANDONED);
+        return AnalyticsResponse.builder()
+                .windowSeconds(TimeUnit.NANOSECONDS.toSeconds(window.getWindowNanos()))
+                .itemsAdded(current.count(SlidingWindow.ITEMS_ADDED))
+                .itemsRemoved(current.count(SlidingWindow.ITEMS_REMOVED))
+                .cartsEmptied(current.count(SlidingWindow.CARTS_EMPTIED))
+                .ordersClosed(ordersClosed)
+                .cartsAbandoned(cartsAbandoned)
+                .abandonmentRate(cartsAbandoned == 0 ? 0 : cartsAbandoned / (double) (cartsAbandoned + ordersClosed))
+                .eventsDropped(dropped.sum())
+                .topItems(items)
+                .build();
+    }
+
+    /**
+     * Adds the events waiting in the rings to the window, then refreshes the figures served to queries,
+     * at the given time.
+     */
+    void maintain(long nowNanos) {
+        drain(nowNanos);
+        refresh(nowNanos);
+    }
+
+    /**
+     * Number of threads holding a ring of their own.
+     */
+    int getProducerRings() {
+        return rings.length;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                int drained = drain(now);
+                if (now - reportedNanos >= reportIntervalNanos) {
+                    refresh(now);
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(this, drainIntervalNanos);
+                }
+            } catch (RuntimeException ex) {
+                log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+                LockSupport.parkNanos(this, drainIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Publishes the event to the ring of the thread. Anything else is left to {@link #publishShared},
+     * which keeps this method small enough to be inlined into the cart service.
+     */
+    private void publish(int type, int itemId, int amount) {
+        long event = (long) type << TYPE_SHIFT | (long) itemId << ITEM_SHIFT | amount;
+        var ring = localRing.get();
+
+        if (ring == null || !ring.ring.offer(event)) {
+            publishShared(ring, event);
+        }
+    }
+
+    /**
+     * Publishes the event of a thread without a ring of its own to the first shared ring no other
+     * thread holds, starting from the one of the thread so that threads spread over the rings. Events
+     * of a thread whose own ring is full are dropped.
+     */
+    private void publishShared(ProducerRing own, long event) {
+        if (own != null) {
+            dropped.increment();
+            return;
+        }
+
+        int start = Math.floorMod(System.identityHashCode(Thread.currentThread()), sharedRings.length);
+
+        for (int i = 0; i < sharedRings.length; i++) {
+            var ring = sharedRings[(start + i) % sharedRings.length];
+            if (ring.claimed.compareAndSet(false, true)) {
+                boolean published;
+                try {
+                    published = ring.ring.offer(event);
+                } finally {
+                    ring.claimed.set(false);
+                }
+                if (published) {
+                    return;
+                }
+            }
+        }
+        dropped.increment();
+    }
+
+    /**
+     * Gives the calling thread a ring of its own, or none if it is a virtual thread, which would only
+     * record a few events before it ends, or once there are as many rings as allowed.
+     */
+    private ProducerRing register() {
+        var current = Thread.currentThread();
+        if (VirtualThreads.isVirtual(current)) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (rings.length >= maxRings) {
+                return null;
+            }
+
+            var ring = new ProducerRing(new EventRing(ringSize, this::wakeUp), current);
+            var next = Arrays.copyOf(rings, rings.length + 1);
+            next[next.length - 1] = ring;
+            rings = next;
+            return ring;
+        }
+    }
+
+    private void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    private synchronized void unregister(ProducerRing ring) {
+        rings = Arrays.stream(rings).filter(other -> other != ring).toArray(ProducerRing[]::new);
+    }
+
+    private int drain(long nowNanos) {
+        drainNanos = nowNanos;
+        int drained = 0;
+
+        for (var ring : sharedRings) {
+            drained += ring.ring.drain(recorder);
+        }
+        for (var ring : rings) {
+            // Checked before draining, so that nothing the thread published before it ended is left behind
+            boolean ended = !ring.owner.isAlive();
+            drained += ring.ring.drain(recorder);
+            if (ended) {
+                unregister(ring);
+            }
+        }
+        return drained;
+    }
+
+    private void record(long event) {
+        window.record(drainNanos, (int) (event >>> TYPE_SHIFT), (int) (event >>> ITEM_SHIFT & ITEM_MASK), (int) event);
+    }
+
+    private void refresh(long nowNanos) {
+        snapshot = window.snapshot(nowNanos, topItems);
+        reportedNanos = nowNanos;
+    }
+
+    /**
+     * Ring of one producer thread, or shared by the threads that claim it in turn.
+     */
+    private static final class ProducerRing {
+
+        private final EventRing ring;
+        private final Thread owner;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private ProducerRing(EventRing ring, Thread owner) {
+            this.ring = ring;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Counts of cart events over a window of recent time, cut into equal buckets. Events are added to the
+ * bucket of their time, and a bucket is cleared when time comes back to it, one full window later, so
+ * the counts always cover the last window to within one bucket. Only used by the consumer thread.
+ */
+final class SlidingWindow {
+
+    static final int ITEMS_ADDED = 0;
+    static final int ITEMS_REMOVED = 1;
+    static final int CARTS_EMPTIED = 2;
+    static final int ORDERS_CLOSED = 3;
+    static final int CARTS_ABANDONED = 4;
+    static final int TYPES = 5;
+
+    private final long originNanos;
+    private final long bucketNanos;
+    private final Bucket[] buckets;
+
+    SlidingWindow(long windowNanos, int buckets, long originNanos) {
+        this.originNanos = originNanos;
+        this.bucketNanos = Math.max(windowNanos / buckets, 1);
+        this.buckets = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Counts the amount under the type of event, and under the item for additions.
+     */
+    void record(long nowNanos, int type, int itemId, int amount) {
+        long slice = slice(nowNanos);
+        var bucket = buckets[(int) (slice % buckets.length)];
+
+        if (bucket.slice != slice) {
+            bucket.clear(slice);
+        }
+        bucket.counts[type] += amount;
+        if (type == ITEMS_ADDED) {
+            bucket.itemsAdded.add(itemId, amount);
+        }
+    }
+
+    /**
+     * Sums the buckets of the window ending at the given time.
+     */
+    Snapshot snapshot(long nowNanos, int topItems) {
+        long slice = slice(nowNanos);
+        var counts = new long[TYPES];
+        var itemsAdded = new ItemCounts();
+
+        for (var bucket : buckets) {
+            if (bucket.slice > slice - buckets.length && bucket.slice <= slice) {
+                for (int type = 0; type < TYPES; type++) {
+                    counts[type] += bucket.counts[type];
+                }
+                bucket.itemsAdded.forEach(itemsAdded::add);
+            }
+        }
+        return new Snapshot(counts, itemsAdded.top(topItems));
+    }
+
+    long getWindowNanos() {
+        return bucketNanos * buckets.length;
+    }
+
+    private long slice(long nowNanos) {
+        return Math.max(nowNanos - originNanos, 0) / bucketNanos;
+    }
+
+    private static final class Bucket {
+
+        // Slice of time the counts belong to
+        private long slice = -1;
+        private final long[] counts = new long[TYPES];
+        private final ItemCounts itemsAdded = new ItemCounts();
+
+        private void clear(long slice) {
+            this.slice = slice;
+            Arrays.fill(counts, 0);
+            itemsAdded.clear();
+        }
+    }
+
+    /**
+     * Counts of the window: units or events of each type, and the most added items first.
+     */
+    static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new long[TYPES], new long[0][]);
+
+        private final long[] counts;
+        // Pairs of item id and units added
+        private final long[][] topItems;
+
+        private Snapshot(long[] counts, long[][] topItems) {
+            this.counts = counts;
+            this.topItems = topItems;
+        }
+
+        long count(int type) {
+            return counts[type];
+        }
+
+        int topItems() {
+            return topItems.length;
+        }
+
+        int topItemId(int rank) {
+            return (int) topItems[rank][0];
+        }
+
+        long topItemUnits(int rank) {
+            return topItems[rank][1];
+        }
+    }
+
+    /**
+     * Units per item id, in an open addressing table of primitives that keeps its capacity when cleared.
+     */
+    static final class ItemCounts {
+
+        private static final int FREE = -1;
+
+        private int[] ids = newIds(16);
+        private long[] units = new long[16];
+        private int size;
+
+        void add(int itemId, long amount) {
+            int slot = slot(ids, itemId);
+            if (ids[slot] == FREE) {
+                if (2 * (size + 1) > ids.length) {
+                    grow();
+                    slot = slot(ids, itemId);
+                }
+                ids[slot] = itemId;
+                size++;
+            }
+            units[slot] += amount;
+        }
+
+        void forEach(ItemCountConsumer consumer) {
+            for (int slot = 0; slot < ids.length; slot++) {
+                if (ids[slot] != FREE) {
+                    consumer.accept(ids[slot], units[slot]);
+                }
+            }
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(ids, FREE);
+                Arrays.fill(units, 0);
+                size = 0;
+            }
+        }
+
+        /**
+         * Items with the most units, most first, as pairs of item id and units.
+         */
+        long[][] top(int count) {
+            var top = new PriorityQueue<long[]>(Math.max(count, 1), (a, b) -> Long.compare(a[1], b[1]));
+            forEach((itemId, amount) -> {
+                if (top.size() < count) {
+                    top.add(new long[]{itemId, amount});
+                } else if (count > 0 && top.peek()[1] < amount) {
+                    top.poll();
+                    top.add(new long[]{itemId, amount});
+                }
+            });
+
+            var sorted = new long[top.size()][];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                sorted[i] = top.poll();
+            }
+            return sorted;
+        }
+
+        private void grow() {
+            var oldIds = ids;
+            var oldUnits = units;
+            ids = newIds(oldIds.length * 2);
+            units = new long[oldIds.length * 2];
+            for (int slot = 0; slot < oldIds.length; slot++) {
+                if (oldIds[slot] != FREE) {
+                    int newSlot = slot(ids, oldIds[slot]);
+                    ids[newSlot] = oldIds[slot];
+                    units[newSlot] = oldUnits[slot];
+                }
+            }
+        }
+
+        private static int slot(int[] ids, int itemId) {
+            int mask = ids.length - 1;
+            int hash = itemId * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (ids[slot] != FREE && ids[slot] != itemId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static int[] newIds(int capacity) {
+            var ids = new int[capacity];
+            Arrays.fill(ids, FREE);
+            return ids;
+        }
+    }
+
+    @FunctionalInterface
+    interface ItemCountConsumer {
+
+        void accept(int itemId, long units);
+    }
+}
@@ -0,0 +1,299 @@
+package com.navalia.shoppingcart.binary;
+
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.service.CartTag;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Blocking client of the {@link BinaryProtocol}, for internal services and tests.
+ * <p>
+ * Requests are queued in a buffer, and only sent by {@link #flush()}, or once the buffer is full, so
+ * many of them can be pipelined on one connection. {@link #receive()} then returns their responses
+ * in order. The server stops reading a connection whose client does not read its responses, so keep
+ * the requests in flight to a few thousand before receiving. The client is not thread safe: use one
+ * per thread.
+ */
+public class BinaryCartClient implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final byte[] NO_CART = new byte[0];
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE).flip();
+    // Opcodes of the requests sent and not yet answered, to read their responses
+    private final ArrayDeque<Byte> pending = new ArrayDeque<>();
+    private int nextRequestId;
+
+    private BinaryCartClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public static BinaryCartClient connect(String host, int port) throws IOException {
+        var channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        return new BinaryCartClient(channel);
+    }
+
+    /**
+     * Queues an add, and returns its request id.
+     *
+     * @param expectedVersion version the cart must be at, or -1 for any
+     */
+    public int addToCart(String cartId, int itemId, int amount, long expectedVersion) throws IOException {
+        return item(BinaryProtocol.ADD, cartId, itemId, amount, expectedVersion);
+    }
+
+    public int removeFromCart(String cartId, int itemId, int amount, long expectedVersion) throws IOException {
+        return item(BinaryProtocol.REMOVE, cartId, itemId, amount, expectedVersion);
+    }
+
+    public int applyBatch(String cartId, BatchOrderRequest batch, long expectedVersion) throws IOException {
+        return batch(BinaryProtocol.BATCH, cartId, batch, expectedVersion);
+    }
+
+    /**
+     * Queues the batch of additions of a cart handed over by this instance, where it was at the given
+     * version.
+     */
+    public int handOver(String cartId, BatchOrderRequest batch, long version) throws IOException {
+        return batch(BinaryProtocol.HAND_OVER, cartId, batch, version);
+    }
+
+    /**
+     * Queues the removal of lines this instance handed over, whose units come back with them, if
+     * the cart is still at the expected version.
+     */
+    public int takeBack(String cartId, BatchOrderRequest batch, long expectedVersion) throws IOException {
+        return batch(BinaryProtocol.TAKE_BACK, cartId, batch, expectedVersion);
+    }
+
+    /**
+     * Queues a request for units of a product, answered with the units the other instance lends.
+     */
+    public int takeStock(int itemId, long amount) throws IOException {
+        int start = startRequest(BinaryProtocol.TAKE_STOCK, NO_CART, Integer.BYTES + Long.BYTES);
+
+        out.putInt(itemId).putLong(amount);
+        return endRequest(start);
+    }
+
+    /**
+     * Queues the units of the products from {@code from} to {@code to} of the arrays, given to the
+     * other instance.
+     */
+    public int giveStock(int[] itemIds, long[] units, int from, int to) throws IOException {
+        int start = startRequest(BinaryProtocol.GIVE_STOCK, NO_CART, Integer.BYTES + (to - from) * BinaryProtocol.STOCK_PRODUCT_SIZE);
+
+        out.putInt(to - from);
+        for (int product = from; product < to; product++) {
+            out.putInt(itemIds[product]).putLong(units[product]);
+        }
+        return endRequest(start);
+    }
+
+    public int emptyCart(String cartId, long expectedVersion) throws IOException {
+        int start = startRequest(BinaryProtocol.EMPTY, BinaryProtocol.stringBytes(cartId), Long.BYTES);
+
+        out.putLong(expectedVersion);
+        return endRequest(start);
+    }
+
+    public int quote(String cartId) throws IOException {
+        return quote(cartId, null);
+    }
+
+    /**
+     * Queues a quote, answered {@link BinaryProtocol#NOT_MODIFIED} if it still has the known tag.
+     *
+     * @param knownTag tag of the quote the client holds, or null
+     */
+    public int quote(String cartId, CartTag knownTag) throws IOException {
+        return tagged(BinaryProtocol.QUOTE, cartId, knownTag);
+    }
+
+    /**
+     * Queues a close, which is always answered with the order: a close is never {@link BinaryProtocol#NOT_MODIFIED}.
+     */
+    public int closeOrder(String cartId) throws IOException {
+        return tagged(BinaryProtocol.CLOSE, cartId, null);
+    }
+
+    public int previewOrder(String cartId) throws IOException {
+        return previewOrder(cartId, null);
+    }
+
+    /**
+     * Queues a preview of the order, which is priced like a close without being finalized.
+     *
+     * @param knownTag tag of the order the client holds, or null
+     */
+    public int previewOrder(String cartId, CartTag knownTag) throws IOException {
+        return tagged(BinaryProtocol.PREVIEW, cartId, knownTag);
+    }
+
+    /**
+     * Sends every queued request.
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Waits for the response to the oldest request not answered yet, sending the queued requests first.
+     */
+    public BinaryResponse receive() throws IOException {
+        if (pending.isEmpty()) {
+            throw new IllegalStateException("No request is waiting for a response.");
+        }
+        if (out.position() > 0) {
+            flush();
+        }
+
+        fill(Integer.BYTES);
+        int length = in.getInt(in.position());
+        fill(Integer.BYTES + length);
+        in.getInt();
+
+        byte opcode = pending.poll();
+        int requestId = in.getInt();
+        byte status = in.get();
+        var response = BinaryResponse.builder().requestId(requestId).status(status);
+
+        switch (status) {
+            case BinaryProtocol.OK:
+                readSuccess(opcode, response);
+                break;
+            case BinaryProtocol.REJECTED:
+                response.error(OrderErrorEnum.values()[in.get()]).message(BinaryProtocol.getString(in));
+                break;
+            default:
+                break;
+        }
+        return response.build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readSuccess(byte opcode, BinaryResponse.BinaryResponseBuilder response) {
+        if (opcode == BinaryProtocol.TAKE_STOCK) {
+            response.units(in.getLong());
+            return;
+        }
+        if (opcode == BinaryProtocol.GIVE_STOCK) {
+            return;
+        }
+        response.cartVersion(in.getLong());
+
+        if (opcode == BinaryProtocol.QUOTE) {
+            response.catalogVersion(in.getLong()).rulesVersion(in.getLong()).itemCount(in.getLong()).totalPrice(in.getLong());
+        } else if (opcode == BinaryProtocol.CLOSE || opcode == BinaryProtocol.PREVIEW) {
+            response.catalogVersion(in.getLong()).rulesVersion(in.getLong()).totalPrice(in.getLong()).orderId(in.getLong());
+
+            int lines = in.getInt();
+            var itemIds = new int[lines];
+            var amounts = new int[lines];
+            var pricesInCents = new long[lines];
+            long itemCount = 0;
+            for (int line = 0; line < lines; line++) {
+                itemIds[line] = in.getInt();
+                amounts[line] = in.getInt();
+                pricesInCents[line] = in.getLong();
+                itemCount += amounts[line];
+            }
+            response.itemIds(itemIds).amounts(amounts).pricesInCents(pricesInCents).itemCount(itemCount);
+        }
+    }
+
+    private int item(byte opcode, String cartId, int itemId, int amount, long expectedVersion) throws IOException {
+        int start = startRequest(opcode, BinaryProtocol.stringBytes(cartId), Long.BYTES + 2 * Integer.BYTES);
+
+        out.putLong(expectedVersion).putInt(itemId).putInt(amount);
+        return endRequest(start);
+    }
+
+    private int batch(byte opcode, String cartId, BatchOrderRequest batch, long version) throws IOException {
+        var operations = batch.getOperations();
+        int start = startRequest(opcode, BinaryProtocol.stringBytes(cartId),
+                Long.BYTES + Short.BYTES + operations.size() * BinaryProtocol.BATCH_OPERATION_SIZE);
+
+        out.putLong(version).putShort((short) operations.size());
+        for (var operation : operations) {
+            out.put(operation.getOperation().equals(OperationEnum.REMOVE) ? BinaryProtocol.REMOVE : BinaryProtocol.ADD)
+                    .putInt(operation.getItemId())
+                    .putInt(operation.getAmount());
+        }
+        return endRequest(start);
+    }
+
+    private int tagged(byte opcode, String cartId, CartTag knownTag) throws IOException {
+        int start = startRequest(opcode, BinaryProtocol.stringBytes(cartId), 3 * Long.BYTES);
+
+        if (knownTag == null) {
+            out.putLong(-1).putLong(-1).putLong(-1);
+        } else {
+            out.putLong(knownTag.getCartVersion()).putLong(knownTag.getCatalogVersion()).putLong(knownTag.getRulesVersion());
+        }
+        return endRequest(start);
+    }
+
+    private int startRequest(byte opcode, byte[] cartId, int bodySize) throws IOException {
+        int size = BinaryProtocol.HEADER_SIZE + 1 + BinaryProtocol.stringSize(cartId) + bodySize;
+
+        if (size > out.capacity()) {
+            throw new IllegalArgumentException("Requests cannot be larger than " + out.capacity() + " bytes.");
+        }
+        if (out.remaining() < size) {
+            flush();
+        }
+
+        int start = BinaryProtocol.startFrame(out, nextRequestId++);
+        out.put(opcode);
+        BinaryProtocol.putString(out, cartId);
+        pending.add(opcode);
+        return start;
+    }
+
+    private int endRequest(int start) {
+        BinaryProtocol.endFrame(out, start);
+        return out.getInt(start + Integer.BYTES);
+    }
+
+    /**
+     * Reads until the buffer holds at least the given number of bytes.
+     */
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        if (in.capacity() < bytes) {
+            var grown = ByteBuffer.allocate(bytes);
+            grown.put(in);
+            in = grown;
+        } else {
+            in.compact();
+        }
+
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("The server closed the connection.");
+            }
+        }
+        in.flip();
+    }
+}
@@ -0,0 +1,518 @@
+package com.navalia.shoppingcart.binary;
+
+import com.navalia.shoppingcart.constant.ExecutionModeEnum;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.execution.ExecutionProperties;
+import com.navalia.shoppingcart.execution.VirtualThreads;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.OrderResult;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the cart service over the {@link BinaryProtocol}, for internal clients that call it often
+ * enough for JSON and the servlet stack to be most of the cost.
+ * <p>
+ * A single selector thread accepts the connections and reads the requests into a buffer of each
+ * connection. The requests of a connection are then applied one after the other, in order, by a task
+ * on the worker threads (virtual threads in the virtual execution mode), so requests blocked on the
+ * journal never hold the selector. Every connection reuses its buffers for its whole life, and stops
+ * being read while its buffer is full of requests, or while its client does not read the responses.
+ * <p>
+ * The server always applies the requests to the carts of this instance, even when they are partitioned
+ * across a cluster: the other nodes forward the requests of the carts this node owns to it, and
+ * clients of the binary protocol pick the owner of a cart with the same
+ * {@link com.navalia.shoppingcart.cluster.HashRing}. It is started whenever the cluster is enabled.
+ */
+@Log4j2
+@Component
+@ConditionalOnExpression("${cart.binary.enabled:false} or ${cart.cluster.enabled:false}")
+public class BinaryCartServer implements InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[BinaryCartServer] ";
+
+    private final CartServiceImpl cartService;
+    private final int maxFrameSize;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public BinaryCartServer(CartServiceImpl cartService, BinaryProperties properties, ExecutionProperties executionProperties) throws IOException {
+        this.cartService = cartService;
+        this.maxFrameSize = properties.getMaxFrameSize();
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(properties.getPort()));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        if (executionProperties.getMode().equals(ExecutionModeEnum.VIRTUAL)) {
+            this.workers = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            var threads = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(properties.getWorkers(), runnable -> {
+                var worker = new Thread(runnable, "binary-cart-worker-" + threads.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+
+        this.thread = new Thread(this::selectLoop, "binary-cart-selector");
+        this.thread.setDaemon(true);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        thread.start();
+        log.info(String.join(" ", LOGGING_PREFIX, "Serving the binary cart protocol on port", String.valueOf(getPort())));
+    }
+
+    @Override
+    public void destroy() throws IOException, InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+        for (var key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select(this::ready);
+            } catch (IOException ex) {
+                log.error(String.join(" ", LOGGING_PREFIX, "Selector failed:", ex.getMessage()));
+                return;
+            }
+        }
+    }
+
+    private void ready(SelectionKey key) {
+        try {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+
+            var connection = (Connection) key.attachment();
+            if (key.isWritable()) {
+                connection.writable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.readable();
+            }
+        } catch (CancelledKeyException ex) {
+            // Closed by a worker in the meantime
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                var connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException ex) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Connection not accepted:", ex.getMessage()));
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        // Requests read ahead, and responses not yet sent; both in write mode and guarded by the connection
+        private final ByteBuffer in = ByteBuffer.allocate(maxFrameSize);
+        private ByteBuffer out = ByteBuffer.allocate(maxFrameSize);
+        private boolean scheduled;
+        private boolean closed;
+
+        // Only used by the task applying the requests, one at a time
+        private final ByteBuffer request = ByteBuffer.allocate(maxFrameSize);
+        private ByteBuffer response = ByteBuffer.allocate(maxFrameSize);
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void readable() {
+            synchronized (this) {
+                try {
+                    if (channel.read(in) < 0) {
+                        close();
+                        return;
+                    }
+                } catch (IOException ex) {
+                    close();
+                    return;
+                }
+
+                if (!in.hasRemaining()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                scheduleIfReady();
+            }
+        }
+
+        private void writable() {
+            synchronized (this) {
+                flush();
+                scheduleIfReady();
+            }
+        }
+
+        /**
+         * Applies the requests read so far, until none is left or the client falls behind on reading.
+         */
+        private void process() {
+            while (true) {
+                synchronized (this) {
+                    if (!canProcess()) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    int length = in.getInt(0);
+                    request.clear();
+                    request.put(in.array(), Integer.BYTES, length).flip();
+                    in.flip().position(Integer.BYTES + length);
+                    in.compact();
+                    if ((key.interestOps() & SelectionKey.OP_READ) == 0) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                        selector.wakeup();
+                    }
+                }
+
+                response.clear();
+                try {
+                    handle();
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    log.warn(String.join(" ", LOGGING_PREFIX, "Closing connection after a malformed request:", String.valueOf(ex.getMessage())));
+                    synchronized (this) {
+                        close();
+                    }
+                    return;
+                }
+
+                synchronized (this) {
+                    response.flip();
+                    if (out.remaining() < response.remaining()) {
+                        out = grow(out, out.position() + response.remaining());
+                    }
+                    out.put(response);
+                    flush();
+                }
+            }
+        }
+
+        private void handle() {
+            int requestId = request.getInt();
+            byte opcode = request.get();
+            String cartId = BinaryProtocol.getString(request);
+            int start = BinaryProtocol.startFrame(response, requestId);
+
+            // Malformed frames close the connection, while failures of the cart service only fail the request
+            boolean parsed = false;
+            try {
+                switch (opcode) {
+                    case BinaryProtocol.ADD:
+                        long addVersion = request.getLong();
+                        var added = orderRequest();
+                        parsed = true;
+                        writeResult(cartService.addToCart(cartId, added, addVersion));
+                        break;
+                    case BinaryProtocol.REMOVE:
+                        long removeVersion = request.getLong();
+                        var removed = orderRequest();
+                        parsed = true;
+                        writeResult(cartService.removeFromCart(cartId, removed, removeVersion));
+                        break;
+                    case BinaryProtocol.BATCH:
+                        long batchVersion = request.getLong();
+                        var batch = batchRequest();
+                        parsed = true;
+                        writeResult(cartService.applyBatch(cartId, batch, batchVersion));
+                        break;
+                    case BinaryProtocol.HAND_OVER:
+                        long handedVersion = request.getLong();
+                        var handed = batchRequest();
+                        parsed = true;
+                        writeResult(cartService.takeHandOver(cartId, handed, handedVersion));
+                        break;
+                    case BinaryProtocol.TAKE_BACK:
+                        long takenBackVersion = request.getLong();
+                        var takenBack = batchRequest();
+                        parsed = true;
+                        writeResult(cartService.giveBack(cartId, takenBack, takenBackVersion));
+                        break;
+                    case BinaryProtocol.TAKE_STOCK:
+                        int itemId = request.getInt();
+                        long wanted = request.getLong();
+                        parsed = true;
+                        response.put(BinaryProtocol.OK).putLong(cartService.lendStock(itemId, wanted));
+                        break;
+                    case BinaryProtocol.GIVE_STOCK:
+                        receiveStock();
+                        parsed = true;
+                        response.put(BinaryProtocol.OK);
+                        break;
+                    case BinaryProtocol.EMPTY:
+                        long emptyVersion = request.getLong();
+                        parsed = true;
+                        writeResult(cartService.emptyCart(cartId, emptyVersion));
+                        break;
+                    case BinaryProtocol.QUOTE:
+                        var quoted = knownTag();
+                        parsed = true;
+                        writeQuote(cartService.quote(cartId, quoted));
+                        break;
+                    case BinaryProtocol.CLOSE:
+                    case BinaryProtocol.PREVIEW:
+                        var closed = knownTag();
+                        parsed = true;
+                        writeClosed(cartId, closed, opcode == BinaryProtocol.CLOSE);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown opcode " + opcode);
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                if (!parsed) {
+                    throw ex;
+                }
+                failed(start, ex);
+            } catch (RuntimeException ex) {
+                failed(start, ex);
+            }
+
+            BinaryProtocol.endFrame(response, start);
+        }
+
+        private void failed(int start, RuntimeException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            response.position(start + BinaryProtocol.HEADER_SIZE);
+            response.put(BinaryProtocol.FAILED);
+        }
+
+        private OrderRequest orderRequest() {
+            return OrderRequest.builder().itemId(request.getInt()).amount(request.getInt()).build();
+        }
+
+        private BatchOrderRequest batchRequest() {
+            int count = request.getShort();
+
+            if (count < 0 || count * BinaryProtocol.BATCH_OPERATION_SIZE > request.remaining()) {
+                throw new IllegalArgumentException("Invalid operation count: " + count);
+            }
+
+            var operations = new ArrayList<OrderOperationRequest>(count);
+            for (int i = 0; i < count; i++) {
+                var operation = request.get() == BinaryProtocol.REMOVE ? OperationEnum.REMOVE : OperationEnum.ADD;
+                operations.add(OrderOperationRequest.builder().operation(operation).itemId(request.getInt()).amount(request.getInt()).build());
+            }
+            return BatchOrderRequest.builder().operations(operations).build();
+        }
+
+        private void receiveStock() {
+            int count = request.getInt();
+
+            if (count < 0 || (long) count * BinaryProtocol.STOCK_PRODUCT_SIZE > request.remaining()) {
+                throw new IllegalArgumentException("Invalid product count: " + count);
+            }
+            int products = request.position();
+            for (int i = 0; i < count; i++) {
+                if (request.getLong(products + i * BinaryProtocol.STOCK_PRODUCT_SIZE + Integer.BYTES) < 0) {
+                    throw new IllegalArgumentException("Invalid units given");
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                cartService.receiveStock(request.getInt(), request.getLong());
+            }
+        }
+
+        private CartTag knownTag() {
+            long cartVersion = request.getLong();
+            long catalogVersion = request.getLong();
+            long rulesVersion = request.getLong();
+
+            return cartVersion < 0 ? null : new CartTag(cartVersion, catalogVersion, rulesVersion);
+        }
+
+        private void writeResult(OrderResult result) {
+            if (result.isSuccess()) {
+                response.put(BinaryProtocol.OK).putLong(result.getResponse().getCartVersion());
+                return;
+            }
+
+            var message = BinaryProtocol.stringBytes(result.getMessage());
+            ensureResponseCapacity(1 + 1 + BinaryProtocol.stringSize(message));
+            response.put(BinaryProtocol.REJECTED).put((byte) result.getError().ordinal());
+            BinaryProtocol.putString(response, message);
+        }
+
+        private void writeQuote(QuoteResponse quote) {
+            if (quote == null) {
+                response.put(BinaryProtocol.NOT_MODIFIED);
+                return;
+            }
+
+            response.put(BinaryProtocol.OK)
+                    .putLong(quote.getCartVersion())
+                    .putLong(quote.getTag().getCatalogVersion())
+                    .putLong(quote.getTag().getRulesVersion())
+                    .putLong(quote.getItemCount())
+                    .putLong(quote.getTotalPrice());
+        }
+
+        private void writeClosed(String cartId, CartTag knownTag, boolean finalize) {
+            try {
+                var closed = finalize ? cartService.closeOrder(cartId) : cartService.previewOrder(cartId, knownTag);
+                if (closed == null) {
+                    response.put(BinaryProtocol.NOT_MODIFIED);
+                    return;
+                }
+
+                // Local orders keep their lines, from which the items are written without building them
+                var lines = closed.getLines();
+                var items = lines == null ? closed.getOrderedItems().getItems() : null;
+                int size = lines == null ? items.size() : lines.getLines();
+                ensureResponseCapacity(1 + 5 * Long.BYTES + Integer.BYTES + size * BinaryProtocol.CLOSED_LINE_SIZE);
+                response.put(BinaryProtocol.OK)
+                        .putLong(closed.getCartVersion())
+                        .putLong(closed.getCatalogVersion())
+                        .putLong(closed.getTag().getRulesVersion())
+                        .putLong(closed.getTotalPrice())
+                        .putLong(closed.getOrderId() == null ? 0 : closed.getOrderId())
+                        .putInt(size);
+                for (int line = 0; line < size; line++) {
+                    if (lines == null) {
+                        var item = items.get(line);
+                        response.putInt(item.getItemData().getId())
+                                .putInt(item.getAmount())
+                                .putLong(item.getItemData().getPriceInCents());
+                    } else {
+                        int product = lines.getLineProduct(line);
+                        response.putInt(lines.getCatalog().getId(product))
+                                .putInt(lines.getLineAmount(line))
+                                .putLong(lines.getCatalog().getPriceInCents(product));
+                    }
+                }
+            } catch (RejectedExecutionException ex) {
+                response.put(BinaryProtocol.UNAVAILABLE);
+            }
+        }
+
+        private void ensureResponseCapacity(int bytes) {
+            if (response.remaining() < bytes) {
+                response = grow(response, response.position() + bytes);
+            }
+        }
+
+        private boolean canProcess() {
+            // The response buffer is only flushed once the client reads, so stop while it holds a full frame
+            return !closed && out.position() < maxFrameSize && in.position() >= Integer.BYTES && frameLength() + Integer.BYTES <= in.position();
+        }
+
+        private int frameLength() {
+            int length = in.getInt(0);
+
+            if (length < Integer.BYTES || length > maxFrameSize - Integer.BYTES) {
+                close();
+                log.warn(String.join(" ", LOGGING_PREFIX, "Closing connection after a frame of", String.valueOf(length), "bytes."));
+                return Integer.MAX_VALUE - Integer.BYTES;
+            }
+            return length;
+        }
+
+        private void scheduleIfReady() {
+            if (!scheduled && canProcess()) {
+                scheduled = true;
+                try {
+                    workers.execute(this::process);
+                } catch (RejectedExecutionException ex) {
+                    close();
+                }
+            }
+        }
+
+        private void flush() {
+            if (closed) {
+                return;
+            }
+
+            try {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+
+            int interestOps = key.interestOps();
+            int wanted = out.position() > 0 ? interestOps | SelectionKey.OP_WRITE : interestOps & ~SelectionKey.OP_WRITE;
+            if (wanted != interestOps) {
+                key.interestOps(wanted);
+                selector.wakeup();
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                log.warn(String.join(" ", LOGGING_PREFIX, "Connection not closed cleanly:", ex.getMessage()));
+            }
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        var grown = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+}
@@ -0,0 +1,25 @@
+package com.navalia.shoppingcart.binary;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.binary")
+public class BinaryProperties {
+
+    /** Whether the binary cart protocol is served, next to the HTTP API. */
+    private boolean enabled = false;
+
+    /** Port of the binary cart protocol, or 0 for any free port. */
+    private int port = 5354;
+
+    /** Threads applying the requests to the carts, in the platform execution mode. */
+    private int workers = 16;
+
+    /** Largest request accepted, in bytes. It is also the bytes of requests read ahead on each connection. */
+    private int maxFrameSize = 65536;
+}
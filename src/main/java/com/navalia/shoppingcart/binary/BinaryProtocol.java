@@ -0,0 +1,118 @@
+package com.navalia.shoppingcart.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary cart protocol, spoken by {@link BinaryCartServer} and {@link BinaryCartClient}.
+ * <p>
+ * Every frame starts with its length as an int, not counting the length itself, followed by the id
+ * the client gave to the request, which its response repeats. All numbers are big-endian and strings
+ * are a short byte count followed by UTF-8 bytes.
+ * <pre>
+ * request:  length, requestId, opcode (byte), cartId, then
+ *           ADD/REMOVE: expectedVersion (long), itemId (int), amount (int)
+ *           BATCH:      expectedVersion (long), operations (short), per operation ADD/REMOVE (byte), itemId (int), amount (int)
+ *           HAND_OVER:  version (long), then operations like BATCH
+ *           TAKE_BACK:  expectedVersion (long), then operations like BATCH
+ *           TAKE_STOCK: itemId (int), amount (long), with an empty cartId
+ *           GIVE_STOCK: products (int), per product itemId (int), units (long), with an empty cartId
+ *           EMPTY:      expectedVersion (long)
+ *           QUOTE/CLOSE/PREVIEW: known cartVersion (long), catalogVersion (long), rulesVersion (long)
+ * response: length, requestId, status (byte), then
+ *           OK to ADD/REMOVE/BATCH/EMPTY/HAND_OVER/TAKE_BACK: cartVersion (long)
+ *           OK to TAKE_STOCK: units (long)
+ *           OK to GIVE_STOCK: nothing
+ *           OK to QUOTE: cartVersion (long), catalogVersion (long), rulesVersion (long), itemCount (long), totalPrice (long)
+ *           OK to CLOSE/PREVIEW: cartVersion (long), catalogVersion (long), rulesVersion (long), totalPrice (long),
+ *                        orderId (long, 0 if none), lines (int), per line itemId (int), amount (int), priceInCents (long)
+ *           REJECTED:    error (byte, ordinal of OrderErrorEnum), message
+ *           NOT_MODIFIED, UNAVAILABLE and FAILED: nothing
+ * </pre>
+ * The expected version is {@code -1} to apply the change whatever the version of the cart. The known
+ * versions of a quote or a preview are those of the {@link com.navalia.shoppingcart.service.CartTag} of
+ * the response the client holds, which is then answered NOT_MODIFIED, or {@code -1} if it holds none. Those
+ * of a close are ignored, as a close always places the order. Clients can send any number of requests
+ * without waiting for their responses, which come back in the order of the requests. A malformed frame
+ * closes the connection.
+ */
+public final class BinaryProtocol {
+
+    public static final byte ADD = 1;
+    public static final byte REMOVE = 2;
+    public static final byte BATCH = 3;
+    public static final byte EMPTY = 4;
+    public static final byte QUOTE = 5;
+    public static final byte CLOSE = 6;
+    /** Prices the order like CLOSE, without finalizing it. */
+    public static final byte PREVIEW = 7;
+    /** Takes the lines of a cart handed over by another instance, where it was at the given version, along with their units. */
+    public static final byte HAND_OVER = 8;
+    /** Removes lines handed over by HAND_OVER, whose units go back with them, if the cart is at the expected version. */
+    public static final byte TAKE_BACK = 9;
+    /** Lends units of a product to the instance asking for them, when its own stock runs short. */
+    public static final byte TAKE_STOCK = 10;
+    /** Adds units given by another instance to the stock of their products. */
+    public static final byte GIVE_STOCK = 11;
+
+    public static final byte OK = 0;
+    public static final byte REJECTED = 1;
+    /** The order could not be finalized for now, and the request can be retried. */
+    public static final byte UNAVAILABLE = 2;
+    public static final byte FAILED = 3;
+    /** The client already holds the quote or the closed order. */
+    public static final byte NOT_MODIFIED = 4;
+
+    /** Length and request id, which start every frame. */
+    public static final int HEADER_SIZE = 2 * Integer.BYTES;
+    public static final int BATCH_OPERATION_SIZE = 1 + 2 * Integer.BYTES;
+    public static final int CLOSED_LINE_SIZE = 2 * Integer.BYTES + Long.BYTES;
+    public static final int STOCK_PRODUCT_SIZE = Integer.BYTES + Long.BYTES;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Writes the length and request id of a frame, leaving the length to {@link #endFrame}.
+     *
+     * @return the position of the frame, to pass to {@link #endFrame}
+     */
+    public static int startFrame(ByteBuffer buffer, int requestId) {
+        int start = buffer.position();
+        buffer.putInt(0).putInt(requestId);
+        return start;
+    }
+
+    public static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - Integer.BYTES);
+    }
+
+    public static int stringSize(byte[] bytes) {
+        return Short.BYTES + bytes.length;
+    }
+
+    public static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    public static byte[] stringBytes(String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Strings cannot be longer than " + Short.MAX_VALUE + " bytes.");
+        }
+        return bytes;
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+
+        var value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+package com.navalia.shoppingcart.binary;
+
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.service.CartTag;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Response read by {@link BinaryCartClient}. Only the fields sent for its request and status are set.
+ */
+@Getter
+@Builder
+public class BinaryResponse {
+    private int requestId;
+    private byte status;
+    private long cartVersion;
+    private long itemCount;
+    private long totalPrice;
+    private long catalogVersion;
+    private long rulesVersion;
+    /** Order finalized by a close, or 0 if the cart was empty. */
+    private long orderId;
+    private int[] itemIds;
+    private int[] amounts;
+    private long[] pricesInCents;
+    /** Units lent in answer to a TAKE_STOCK. */
+    private long units;
+    private OrderErrorEnum error;
+    private String message;
+
+    public boolean isSuccess() {
+        return status == BinaryProtocol.OK;
+    }
+
+    /**
+     * Tag of the quote or the closed order answered.
+     */
+    public CartTag toTag() {
+        return new CartTag(cartVersion, catalogVersion, rulesVersion);
+    }
+}
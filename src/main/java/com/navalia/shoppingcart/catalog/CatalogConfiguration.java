@@ -0,0 +1,32 @@
+package com.navalia.shoppingcart.catalog;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the first version of the {@link ProductCatalog} on startup.
+ */
+@Log4j2
+@Configuration
+public class CatalogConfiguration {
+
+    private static final String LOGGING_PREFIX = "[CatalogConfiguration] ";
+
+    @Bean
+    public CatalogRegistry catalogRegistry(CatalogProperties properties) throws IOException {
+        long start = System.nanoTime();
+        boolean bundled = properties.getFile() == null || properties.getFile().isBlank();
+        var catalog = bundled ? ProductCatalog.defaultCatalog() : ProductCatalog.load(Paths.get(properties.getFile()));
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Loaded", String.valueOf(catalog.size()), "product(s) from",
+                bundled ? "the bundled catalog" : properties.getFile(), "in",
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms, using about",
+                String.valueOf(catalog.getEstimatedSizeInBytes() / 1024), "KB."));
+        return new CatalogRegistry(catalog);
+    }
+}
@@ -0,0 +1,16 @@
+package com.navalia.shoppingcart.catalog;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.catalog")
+public class CatalogProperties {
+
+    /** CSV file of the products that can be ordered. When blank, the catalog bundled with the application is used. */
+    private String file = "";
+}
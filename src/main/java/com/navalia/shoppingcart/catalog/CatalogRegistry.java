@@ -0,0 +1,76 @@
+package com.navalia.shoppingcart.catalog;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds the current {@link ProductCatalog} and replaces it when products or prices change.
+ * <p>
+ * The catalog is published through a volatile field: readers get it with a single read and never
+ * lock, and an operation that reads it once prices everything with that one version. The next version
+ * is built entirely by the thread that changes the catalog, off the request path, and carts move to
+ * it the next time they are used.
+ */
+@Log4j2
+public class CatalogRegistry {
+
+    private static final String LOGGING_PREFIX = "[CatalogRegistry] ";
+
+    private volatile ProductCatalog current;
+    private volatile Consumer<ProductCatalog> publicationListener = catalog -> {
+    };
+
+    public CatalogRegistry(ProductCatalog catalog) {
+        this.current = catalog;
+    }
+
+    public ProductCatalog current() {
+        return current;
+    }
+
+    /**
+     * Publishes a new version of the catalog with the price changes of the given file.
+     *
+     * @throws IllegalArgumentException if the file is malformed, or the new prices are rejected
+     * @see ProductCatalog#withPrices(byte[])
+     */
+    public synchronized ProductCatalog updatePrices(byte[] priceChanges) {
+        long start = System.nanoTime();
+        var next = current.withPrices(priceChanges);
+
+        publish(next, start);
+        return next;
+    }
+
+    /**
+     * Publishes a new version of the catalog holding the products of the given catalog file. Carts
+     * lose the products that are not in the new catalog.
+     *
+     * @throws IllegalArgumentException if the file is malformed, or the new catalog is rejected
+     */
+    public synchronized ProductCatalog replace(byte[] catalogFile) {
+        long start = System.nanoTime();
+        var next = ProductCatalog.parse(catalogFile, current.getVersion() + 1);
+
+        publish(next, start);
+        return next;
+    }
+
+    /**
+     * Sets the listener called with every new catalog right before it is published. The listener may
+     * reject the catalog by throwing an {@link IllegalArgumentException}.
+     */
+    public void setPublicationListener(Consumer<ProductCatalog> listener) {
+        this.publicationListener = listener;
+    }
+
+    private void publish(ProductCatalog next, long start) {
+        publicationListener.accept(next);
+        current = next;
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Published version", String.valueOf(next.getVersion()), "of the catalog, with",
+                String.valueOf(next.size()), "product(s), built in", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms."));
+    }
+}
@@ -0,0 +1,358 @@
+package com.navalia.shoppingcart.catalog;
+
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import com.navalia.shoppingcart.entity.Product;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Immutable catalog of the products that can be ordered, kept in primitive arrays so that hundreds of
+ * thousands of products cost a few bytes each and no object per product.
+ * <p>
+ * Products are stored in ascending price order, so the index of a product is also its price rank:
+ * carts keep their lines sorted by index to find their cheapest units first. Product ids are mapped
+ * to indexes by a dense array, which makes {@link #indexOf(int)} O(1) and allocation free.
+ * <p>
+ * Catalog files are CSV, with one {@code id,name,priceInCents,category} line per product and an
+ * optional header line. Names cannot contain commas.
+ * <p>
+ * A catalog never changes once built: new prices give a new catalog with the next version number,
+ * and indexes are only meaningful within the catalog they come from.
+ */
+public final class ProductCatalog {
+
+    /** Highest product id accepted, which bounds the id index to 64 MB. */
+    public static final int MAX_PRODUCT_ID = (1 << 24) - 1;
+    /** Highest price accepted, so that a price and a product index fit in one sort key. */
+    public static final long MAX_PRICE_IN_CENTS = (1L << 39) - 1;
+
+    private static final String DEFAULT_CATALOG = "catalog.csv";
+    private static final CategoryEnum[] CATEGORIES = CategoryEnum.values();
+    private static final byte[][] CATEGORY_NAMES = Arrays.stream(CATEGORIES)
+            .map(category -> category.name().getBytes(StandardCharsets.US_ASCII))
+            .toArray(byte[][]::new);
+
+    private final long version;
+    // Index + 1 of the product with each id, zero when there is none
+    private final int[] indexById;
+    private final int[] ids;
+    private final long[] prices;
+    private final byte[] categories;
+    private final byte[] names;
+    private final int[] nameOffsets;
+
+    private ProductCatalog(long version, int[] indexById, int[] ids, long[] prices, byte[] categories, byte[] names, int[] nameOffsets) {
+        this.version = version;
+        this.indexById = indexById;
+        this.ids = ids;
+        this.prices = prices;
+        this.categories = categories;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+    }
+
+    /**
+     * Catalog bundled with the application, holding the shop's original products.
+     */
+    public static ProductCatalog defaultCatalog() {
+        try (var in = ProductCatalog.class.getClassLoader().getResourceAsStream(DEFAULT_CATALOG)) {
+            if (in == null) {
+                throw new IllegalStateException(String.join(" ", "The bundled catalog", DEFAULT_CATALOG, "is missing."));
+            }
+            return parse(in.readAllBytes());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static ProductCatalog load(Path file) throws IOException {
+        return parse(Files.readAllBytes(file));
+    }
+
+    public static ProductCatalog load(InputStream in) throws IOException {
+        return parse(in.readAllBytes());
+    }
+
+    public static ProductCatalog parse(byte[] data) {
+        return parse(data, 1);
+    }
+
+    /**
+     * Parses a catalog file straight from its bytes.
+     *
+     * @throws IllegalArgumentException if a line is malformed, or two products share an id
+     */
+    public static ProductCatalog parse(byte[] data, long version) {
+        var parser = new Parser(data);
+        int capacity = parser.countLines();
+        var fileIds = new int[capacity];
+        var filePrices = new long[capacity];
+        var fileCategories = new byte[capacity];
+        var fileNameOffsets = new int[capacity + 1];
+        var fileNames = new byte[data.length];
+        int count = 0;
+        int namesLength = 0;
+        int maxId = 0;
+
+        // The sort key keeps 24 bits for the position of a product in the file
+        if (capacity > MAX_PRODUCT_ID) {
+            throw new IllegalArgumentException(String.join(" ", "Invalid catalog: more than", String.valueOf(MAX_PRODUCT_ID), "lines."));
+        }
+
+        parser.skipHeader();
+        while (parser.nextLine()) {
+            int id = (int) parser.number(MAX_PRODUCT_ID);
+            if (id == 0) {
+                throw parser.error("product ids start at 1");
+            }
+            parser.comma();
+
+            int nameStart = parser.position;
+            int nameEnd = parser.field();
+            if (nameEnd == nameStart) {
+                throw parser.error("the product has no name");
+            }
+            parser.comma();
+            System.arraycopy(data, nameStart, fileNames, namesLength, nameEnd - nameStart);
+            namesLength += nameEnd - nameStart;
+
+            fileIds[count] = id;
+            filePrices[count] = parser.number(MAX_PRICE_IN_CENTS);
+            parser.comma();
+            fileCategories[count] = parser.category();
+            fileNameOffsets[++count] = namesLength;
+            maxId = Math.max(maxId, id);
+            parser.endLine();
+        }
+
+        return sortByPrice(version, count, maxId, fileIds, filePrices, fileCategories, fileNames, fileNameOffsets);
+    }
+
+    /**
+     * Builds the next version of the catalog, applying the price changes of a CSV file with one
+     * {@code id,priceInCents} line per product and an optional header line. This catalog is left as is.
+     *
+     * @throws IllegalArgumentException if a line is malformed, or names a product that is not in the catalog
+     */
+    public ProductCatalog withPrices(byte[] priceChanges) {
+        var parser = new Parser(priceChanges);
+        var newPrices = prices.clone();
+
+        parser.skipHeader();
+        while (parser.nextLine()) {
+            int id = (int) parser.number(MAX_PRODUCT_ID);
+            int index = indexOf(id);
+            if (index < 0) {
+                throw parser.error(String.join(" ", "product", String.valueOf(id), "is not in the catalog"));
+            }
+            parser.comma();
+            newPrices[index] = parser.number(MAX_PRICE_IN_CENTS);
+            parser.endLine();
+        }
+
+        // The current index order plays the part of the file order
+        return sortByPrice(version + 1, ids.length, indexById.length - 1, ids, newPrices, categories, names, nameOffsets);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Index of the product with the given id, or -1 if the catalog has no such product.
+     */
+    public int indexOf(int id) {
+        return id > 0 && id < indexById.length ? indexById[id] - 1 : -1;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public long getPriceInCents(int index) {
+        return prices[index];
+    }
+
+    public CategoryEnum getCategory(int index) {
+        return CATEGORIES[categories[index]];
+    }
+
+    public String getName(int index) {
+        return new String(names, nameOffsets[index], nameOffsets[index + 1] - nameOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds the response view of a product.
+     */
+    public Product getProduct(int index) {
+        return Product.builder()
+                .id(ids[index])
+                .name(getName(index))
+                .priceInCents(prices[index])
+                .category(getCategory(index))
+                .build();
+    }
+
+    /**
+     * Approximate heap footprint of the catalog arrays.
+     */
+    public long getEstimatedSizeInBytes() {
+        return 4L * indexById.length + 4L * ids.length + 8L * prices.length + categories.length
+                + names.length + 4L * nameOffsets.length + 6 * 16;
+    }
+
+    private static ProductCatalog sortByPrice(long version, int count, int maxId, int[] fileIds, long[] filePrices, byte[] fileCategories,
+                                              byte[] fileNames, int[] fileNameOffsets) {
+        // Price in the high bits and file position in the low ones: equal prices keep the file order
+        var keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = filePrices[i] << 24 | i;
+        }
+        Arrays.sort(keys);
+
+        var indexById = new int[maxId + 1];
+        var ids = new int[count];
+        var prices = new long[count];
+        var categories = new byte[count];
+        var names = new byte[fileNameOffsets[count]];
+        var nameOffsets = new int[count + 1];
+
+        for (int index = 0; index < count; index++) {
+            int position = (int) (keys[index] & 0xFFFFFF);
+            int id = fileIds[position];
+            int nameStart = fileNameOffsets[position];
+            int nameLength = fileNameOffsets[position + 1] - nameStart;
+
+            if (indexById[id] != 0) {
+                throw new IllegalArgumentException(String.join(" ", "Invalid catalog: product id", String.valueOf(id), "is used twice."));
+            }
+            indexById[id] = index + 1;
+            ids[index] = id;
+            prices[index] = filePrices[position];
+            categories[index] = fileCategories[position];
+            System.arraycopy(fileNames, nameStart, names, nameOffsets[index], nameLength);
+            nameOffsets[index + 1] = nameOffsets[index] + nameLength;
+        }
+
+        return new ProductCatalog(version, indexById, ids, prices, categories, names, nameOffsets);
+    }
+
+    /**
+     * Reads the comma separated fields of a catalog file one line at a time, without building strings.
+     */
+    private static final class Parser {
+
+        private final byte[] data;
+        private int position;
+        // Line breaks read so far
+        private int line;
+
+        private Parser(byte[] data) {
+            this.data = data;
+        }
+
+        private int countLines() {
+            int lines = 1;
+            for (byte b : data) {
+                if (b == '\n') {
+                    lines++;
+                }
+            }
+            return lines;
+        }
+
+        private void skipHeader() {
+            if (position < data.length && (data[position] < '0' || data[position] > '9')) {
+                line++;
+                while (position < data.length && data[position++] != '\n') {
+                    // skip the header
+                }
+            }
+        }
+
+        /**
+         * Moves to the next line that is not blank.
+         *
+         * @return false at the end of the data
+         */
+        private boolean nextLine() {
+            while (position < data.length && (data[position] == '\n' || data[position] == '\r')) {
+                if (data[position] == '\n') {
+                    line++;
+                }
+                position++;
+            }
+            return position < data.length;
+        }
+
+        private long number(long max) {
+            long value = 0;
+            int start = position;
+
+            while (position < data.length && data[position] >= '0' && data[position] <= '9') {
+                value = value * 10 + (data[position++] - '0');
+                if (value > max) {
+                    throw error(String.join(" ", "a number is above", String.valueOf(max)));
+                }
+            }
+            if (position == start) {
+                throw error("a number was expected");
+            }
+            return value;
+        }
+
+        /**
+         * Skips a text field.
+         *
+         * @return the position right after the field
+         */
+        private int field() {
+            while (position < data.length && data[position] != ',' && data[position] != '\n' && data[position] != '\r') {
+                position++;
+            }
+            return position;
+        }
+
+        private byte category() {
+            int start = position;
+            int end = field();
+
+            for (int i = 0; i < CATEGORY_NAMES.length; i++) {
+                if (Arrays.equals(data, start, end, CATEGORY_NAMES[i], 0, CATEGORY_NAMES[i].length)) {
+                    return (byte) i;
+                }
+            }
+            throw error(String.join(" ", "unknown category", new String(data, start, end - start, StandardCharsets.UTF_8)));
+        }
+
+        private void comma() {
+            if (position == data.length || data[position] != ',') {
+                throw error("a field is missing");
+            }
+            position++;
+        }
+
+        private void endLine() {
+            while (position < data.length && data[position] == '\r') {
+                position++;
+            }
+            if (position < data.length && data[position] != '\n') {
+                throw error("too many fields");
+            }
+        }
+
+        private IllegalArgumentException error(String reason) {
+            return new IllegalArgumentException(String.join(" ", "Invalid catalog line", String.valueOf(line + 1) + ":", reason + "."));
+        }
+    }
+}
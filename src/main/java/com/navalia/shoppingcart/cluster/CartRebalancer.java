@@ -0,0 +1,270 @@
+package com.navalia.shoppingcart.cluster;
+
+import com.navalia.shoppingcart.binary.BinaryResponse;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the carts of this instance to their new owners whenever the ring changes.
+ * <p>
+ * Each cart the new ring assigns to another instance is removed from here and sent to its owner as a
+ * batch of additions, which moves it on to a version above the one it had here. Requests for it are
+ * forwarded to the owner as soon as the ring is published, so for the time of the hand-over the owner
+ * sees the cart without its old lines. Its finalized order, if any, is not carried over. The units
+ * reserved by the cart go with its lines: the owner takes them without reserving them from its own
+ * stock, so a hand-over never fails for lack of stock, and they are released there.
+ * <p>
+ * A cart the owner does not take is put back here, and handed over again by a retry of the rebalance,
+ * scheduled after {@code cart.cluster.hand-over-retry-interval} and then twice as late each time, up to
+ * {@code cart.cluster.hand-over-max-retry-interval}, until no cart is left for another instance. A cart
+ * too large for one batch is sent in several, and when one of them fails, the ones the owner already
+ * took are taken back from it, but only at the version the last of them left it at: once a customer
+ * changed the cart there, its lines stay with the owner, only the lines it did not take are put back,
+ * and the retry sends them too, so that no line is lost and no change of the customer is undone.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class CartRebalancer implements InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[CartRebalancer] ";
+    // Keeps every batch well under the largest frame of the binary protocol
+    private static final int OPERATIONS_PER_BATCH = 4096;
+
+    private final CartStore cartStore;
+    private final CartServiceImpl localService;
+    private final ClusterMembership membership;
+    private final NodeClients nodeClients;
+    private final CartMetrics cartMetrics;
+    private final long retryIntervalNanos;
+    private final long maxRetryIntervalNanos;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "cart-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only used by the thread of the executor
+    private ScheduledFuture<?> retry;
+    private long nextRetryNanos;
+
+    public CartRebalancer(CartStore cartStore, CartServiceImpl localService, ClusterMembership membership, NodeClients nodeClients,
+                          CartMetrics cartMetrics, ClusterProperties properties) {
+        this.cartStore = cartStore;
+        this.localService = localService;
+        this.membership = membership;
+        this.nodeClients = nodeClients;
+        this.cartMetrics = cartMetrics;
+        this.retryIntervalNanos = properties.getHandOverRetryInterval().toNanos();
+        this.maxRetryIntervalNanos = Math.max(retryIntervalNanos, properties.getHandOverMaxRetryInterval().toNanos());
+        this.nextRetryNanos = retryIntervalNanos;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        membership.addChangeListener(ring -> executor.execute(this::ringChanged));
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Rebalances for a new ring, which starts the retries over from the shortest interval.
+     */
+    private void ringChanged() {
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+        nextRetryNanos = retryIntervalNanos;
+        rebalanceOrRetry();
+    }
+
+    /**
+     * Rebalances, and schedules a retry while carts are left for another instance.
+     */
+    private void rebalanceOrRetry() {
+        retry = null;
+        rebalance();
+        if (!cartsLeft()) {
+            nextRetryNanos = retryIntervalNanos;
+            return;
+        }
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Retrying the hand-over in", String.valueOf(TimeUnit.NANOSECONDS.toMillis(nextRetryNanos)), "ms."));
+        retry = executor.schedule(this::rebalanceOrRetry, nextRetryNanos, TimeUnit.NANOSECONDS);
+        nextRetryNanos = Math.min(nextRetryNanos * 2, maxRetryIntervalNanos);
+    }
+
+    /**
+     * Hands every cart of this instance that another one now owns over to its owner.
+     *
+     * @return the number of carts handed over
+     */
+    public int rebalance() {
+        long start = System.nanoTime();
+        int handedOver = 0;
+        int kept = 0;
+        // Instances that could not be reached during this rebalance, whose carts are left for the next one
+        var unreachable = new HashSet<String>();
+
+        for (var cartId : cartStore.cartIds()) {
+            var owner = membership.remoteOwner(cartId);
+            if (owner == null) {
+                continue;
+            }
+            if (!unreachable.contains(owner) && handOver(cartId, owner, unreachable)) {
+                handedOver++;
+            } else {
+                kept++;
+            }
+        }
+        nodeClients.retain(membership.ring().getNodes());
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Handed", String.valueOf(handedOver), "cart(s) over to their new owner in",
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms,", String.valueOf(kept), "left for a retry."));
+        return handedOver;
+    }
+
+    /**
+     * Tells whether this instance still holds carts another one owns, including those created here
+     * by requests that raced with the ring change.
+     */
+    private boolean cartsLeft() {
+        for (var cartId : cartStore.cartIds()) {
+            if (membership.remoteOwner(cartId) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean handOver(String cartId, String owner, Set<String> unreachable) {
+        var cart = localService.removeForHandOver(cartId);
+        if (cart == null) {
+            return true;
+        }
+
+        // Lines the owner took, from the first one, and the version they left its cart at
+        int handedLines = 0;
+        int takenBack = 0;
+        long ownerVersion = -1;
+        try {
+            while (handedLines < cart.getLines()) {
+                int to = Math.min(handedLines + OPERATIONS_PER_BATCH, cart.getLines());
+                var part = lines(cart, handedLines, to, OperationEnum.ADD);
+                var response = send(cartId, owner, unreachable, client -> client.handOver(cartId, part, cart.getVersion()));
+                if (response == null) {
+                    break;
+                }
+                // Every part moves the cart on by one version, unless a customer changed it in between
+                ownerVersion = handedLines == 0 || response.getCartVersion() == ownerVersion + 1 ? response.getCartVersion() : -1;
+                handedLines = to;
+            }
+            if (handedLines > 0 && handedLines < cart.getLines()) {
+                takenBack = takeBack(cartId, owner, cart, handedLines, ownerVersion, unreachable);
+            }
+        } finally {
+            localService.settleHandOver(cartId, cart, takenBack, handedLines);
+        }
+
+        if (handedLines < cart.getLines()) {
+            return false;
+        }
+        cartMetrics.cartHandedOver();
+        return true;
+    }
+
+    /**
+     * Removes the lines the owner already took from the cart it holds, when the rest of the cart
+     * could not be handed over, as long as the cart is still at the version the hand-over left it at.
+     *
+     * @param ownerVersion version the hand-over left the cart at, or -1 if a customer changed it since
+     * @return the number of lines, from the first one, the owner gave back
+     */
+    private int takeBack(String cartId, String owner, CompactCart cart, int handedLines, long ownerVersion, Set<String> unreachable) {
+        long expectedVersion = ownerVersion;
+        int from = 0;
+
+        while (from < handedLines && expectedVersion >= 0) {
+            int to = Math.min(from + OPERATIONS_PER_BATCH, handedLines);
+            var part = lines(cart, from, to, OperationEnum.REMOVE);
+            long version = expectedVersion;
+            var response = send(cartId, owner, unreachable, client -> client.takeBack(cartId, part, version));
+            if (response == null) {
+                break;
+            }
+            expectedVersion = response.getCartVersion();
+            from = to;
+        }
+
+        if (from < handedLines) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Cart", cartId, "left split with", owner, "until the hand-over is retried."));
+        }
+        return from;
+    }
+
+    private static BatchOrderRequest lines(CompactCart cart, int from, int to, OperationEnum operation) {
+        var operations = new ArrayList<OrderOperationRequest>(to - from);
+        for (int line = from; line < to; line++) {
+            operations.add(OrderOperationRequest.builder()
+                    .operation(operation)
+                    .itemId(cart.getLineProductId(line))
+                    .amount(cart.getLineAmount(line))
+                    .build());
+        }
+        return BatchOrderRequest.builder().operations(operations).build();
+    }
+
+    /**
+     * Sends one request for the cart to its owner.
+     *
+     * @return the response, or null if the owner did not apply it
+     */
+    private BinaryResponse send(String cartId, String owner, Set<String> unreachable, NodeClients.NodeCall<Integer> request) {
+        try {
+            var response = nodeClients.call(owner, client -> {
+                request.apply(client);
+                return client.receive();
+            });
+            if (response.isSuccess()) {
+                return response;
+            }
+            if (response.getError() == OrderErrorEnum.VERSION_MISMATCH) {
+                log.warn(String.join(" ", LOGGING_PREFIX, "Cart", cartId, "was changed on", owner, "during its hand-over."));
+            } else {
+                log.error(String.join(" ", LOGGING_PREFIX, "Instance", owner, "did not take cart", cartId + ":", String.valueOf(response.getMessage())));
+            }
+        } catch (UncheckedIOException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Cart", cartId, "not handed over:", ex.getMessage()));
+            unreachable.add(owner);
+        } catch (RuntimeException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Cart", cartId, "not handed over:", ex.toString()));
+        }
+        return null;
+    }
+
+}
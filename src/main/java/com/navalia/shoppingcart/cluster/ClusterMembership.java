@@ -0,0 +1,112 @@
+package com.navalia.shoppingcart.cluster;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Holds the {@link HashRing} of the instances sharing the carts, and replaces it when instances join
+ * or leave.
+ * <p>
+ * Like the catalog, the ring is published through a volatile field, so routing a request is a single
+ * read and a lookup, and the next ring is built by the thread changing the membership.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class ClusterMembership {
+
+    private static final String LOGGING_PREFIX = "[ClusterMembership] ";
+
+    private final String self;
+    private final int virtualNodes;
+    private volatile HashRing ring;
+    private final List<Consumer<HashRing>> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @throws IllegalArgumentException if this instance has no name, an instance is not named
+     *                                  host:port, or the ring cannot be built
+     */
+    public ClusterMembership(ClusterProperties properties) {
+        if (properties.getSelf() == null || properties.getSelf().isBlank()) {
+            throw new IllegalArgumentException("cart.cluster.self must name this instance, as the host:port of its binary cart protocol.");
+        }
+
+        this.self = properties.getSelf().trim();
+        this.virtualNodes = properties.getVirtualNodes();
+        this.ring = new HashRing(checked(properties.getNodes().isEmpty() ? List.of(self) : properties.getNodes()), virtualNodes);
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Instance", self, "joined a ring of", String.valueOf(ring.getNodes().size()), "instance(s)."));
+    }
+
+    public HashRing ring() {
+        return ring;
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * Instance owning the cart with the given id, or null if it is this one.
+     */
+    public String remoteOwner(String cartId) {
+        var owner = ring.owner(cartId);
+        return owner.equals(self) ? null : owner;
+    }
+
+    /**
+     * Publishes a ring of the given instances. This instance may be left out of it, to move all its
+     * carts to the others before it is stopped.
+     *
+     * @throws IllegalArgumentException if there is no instance, or one is not named host:port, in
+     *                                  which case the ring is left as it was
+     */
+    public synchronized HashRing update(Collection<String> nodes) {
+        var next = new HashRing(checked(nodes), virtualNodes);
+
+        ring = next;
+        log.info(String.join(" ", LOGGING_PREFIX, "Published a ring of", String.valueOf(next.getNodes().size()), "instance(s):",
+                String.join(", ", next.getNodes())));
+        changeListeners.forEach(listener -> listener.accept(next));
+        return next;
+    }
+
+    /**
+     * Adds a listener called with every new ring right after it is published. The listener must not block.
+     */
+    public void addChangeListener(Consumer<HashRing> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Trims the names of the instances, skipping blank ones, and checks that each one is a host and a
+     * port, so that a bad name is rejected here rather than on every request forwarded to it.
+     */
+    static List<String> checked(Collection<String> nodes) {
+        var trimmed = nodes.stream().filter(Objects::nonNull).map(String::trim).filter(node -> !node.isEmpty()).collect(Collectors.toList());
+
+        for (var node : trimmed) {
+            int separator = node.lastIndexOf(':');
+            if (separator <= 0 || !validPort(node.substring(separator + 1))) {
+                throw new IllegalArgumentException("Instances are named host:port, not " + node);
+            }
+        }
+        return trimmed;
+    }
+
+    private static boolean validPort(String port) {
+        if (port.isEmpty() || port.length() > 5 || !port.chars().allMatch(Character::isDigit)) {
+            return false;
+        }
+        int value = Integer.parseInt(port);
+        return value > 0 && value <= 65535;
+    }
+}
@@ -0,0 +1,38 @@
+package com.navalia.shoppingcart.cluster;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.cluster")
+public class ClusterProperties {
+
+    /** Whether the carts are partitioned across the instances listed in {@link #nodes}. */
+    private boolean enabled = false;
+
+    /** Name of this instance in {@link #nodes}: the host and port of its binary cart protocol. */
+    private String self = "";
+
+    /** Instances sharing the carts, as host:port of their binary cart protocol, or none for this instance alone. */
+    private List<String> nodes = new ArrayList<>();
+
+    /** Points of each instance on the hash ring. More points spread the carts more evenly. */
+    private int virtualNodes = 128;
+
+    /** Most connections kept open to each other instance to forward requests. */
+    private int connectionsPerNode = 8;
+
+    /** Wait before handing over again the carts a rebalance could not hand over. */
+    private Duration handOverRetryInterval = Duration.ofSeconds(1);
+
+    /** Longest wait between two retries, the wait doubling after each retry that leaves carts behind. */
+    private Duration handOverMaxRetryInterval = Duration.ofMinutes(1);
+}
@@ -0,0 +1,100 @@
+package com.navalia.shoppingcart.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring assigning every cart id to one node of the cluster.
+ * <p>
+ * Each node is placed on the ring at a number of points, its virtual nodes, and a cart belongs to the
+ * node of the first point at or after the hash of its id. A node joining or leaving only moves the
+ * carts of the ring segments it takes or gives back, about one cart in N, and the virtual nodes
+ * spread those segments, and the load, evenly over the other nodes.
+ * <p>
+ * The hashes only depend on the characters of the ids and of the node names, so every instance and
+ * every client building a ring of the same nodes assigns the carts the same way. The ring is
+ * immutable: membership changes build a new one.
+ */
+public final class HashRing {
+
+    private final List<String> nodes;
+    // Points of the virtual nodes, sorted, and the node of each point
+    private final long[] points;
+    private final String[] owners;
+
+    /**
+     * @param nodes        names of the nodes, in any order; duplicates are ignored
+     * @param virtualNodes points of each node on the ring
+     * @throws IllegalArgumentException if there is no node, or no virtual node
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        var sorted = new TreeSet<>(nodes);
+
+        if (sorted.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("A ring needs at least one node, with at least one virtual node.");
+        }
+
+        this.nodes = List.copyOf(sorted);
+        var entries = new long[sorted.size() * virtualNodes][];
+        int entry = 0;
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                entries[entry++] = new long[]{hash(this.nodes.get(node) + "#" + point), node};
+            }
+        }
+        // Ties, however unlikely, go to the node sorting first, the same on every instance
+        Arrays.sort(entries, (left, right) -> left[0] != right[0] ? Long.compare(left[0], right[0]) : Long.compare(left[1], right[1]));
+
+        this.points = new long[entries.length];
+        this.owners = new String[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = this.nodes.get((int) entries[i][1]);
+        }
+    }
+
+    /**
+     * Node owning the cart with the given id.
+     */
+    public String owner(String cartId) {
+        int index = Arrays.binarySearch(points, hash(cartId));
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Names of the nodes, sorted.
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean contains(String node) {
+        return nodes.contains(node);
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters, then the MurmurHash3 finalizer, so that ids differing in their
+     * last characters, like numbered cart ids, still land far apart on the ring.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,151 @@
+package com.navalia.shoppingcart.cluster;
+
+import com.navalia.shoppingcart.binary.BinaryCartClient;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Persistent connections to the other instances of the cluster, over the binary cart protocol.
+ * <p>
+ * Each instance gets a pool of connections, opened the first time they are needed and then kept open,
+ * so forwarding a request costs one round trip on an established connection. A connection is used by
+ * one call at a time, and calls wait for a free one once the pool is at its size. A connection that
+ * fails is closed rather than put back.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class NodeClients implements DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[NodeClients] ";
+
+    private final int connectionsPerNode;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    public NodeClients(ClusterProperties properties) {
+        this.connectionsPerNode = properties.getConnectionsPerNode();
+    }
+
+    /**
+     * Runs the call on a connection to the given instance.
+     *
+     * @param node host:port of the binary cart protocol of the instance
+     * @throws UncheckedIOException if the instance cannot be reached
+     */
+    public <T> T call(String node, NodeCall<T> call) {
+        var pool = pools.computeIfAbsent(node, Pool::new);
+        var client = pool.take();
+
+        try {
+            T result = call.apply(client);
+            pool.release(client);
+            return result;
+        } catch (IOException ex) {
+            pool.discard(client);
+            throw new UncheckedIOException(String.join(" ", "Instance", node, "cannot be reached:", ex.getMessage()), ex);
+        } catch (RuntimeException ex) {
+            pool.discard(client);
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the connections to the instances that are no longer in the cluster.
+     */
+    public void retain(Collection<String> nodes) {
+        pools.entrySet().removeIf(entry -> {
+            if (nodes.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        pools.values().forEach(Pool::close);
+        pools.clear();
+    }
+
+    /**
+     * Request sent to another instance, with its response read before returning.
+     */
+    @FunctionalInterface
+    public interface NodeCall<T> {
+        T apply(BinaryCartClient client) throws IOException;
+    }
+
+    private final class Pool {
+
+        private final String host;
+        private final int port;
+        private final Semaphore connections = new Semaphore(connectionsPerNode);
+        private final ConcurrentLinkedQueue<BinaryCartClient> idle = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+
+        private Pool(String node) {
+            int separator = node.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Instances are named host:port, not " + node);
+            }
+
+            this.host = node.substring(0, separator);
+            this.port = Integer.parseInt(node.substring(separator + 1));
+        }
+
+        private BinaryCartClient take() {
+            connections.acquireUninterruptibly();
+
+            var client = idle.poll();
+            if (client != null) {
+                return client;
+            }
+            try {
+                return BinaryCartClient.connect(host, port);
+            } catch (IOException ex) {
+                connections.release();
+                throw new UncheckedIOException(String.join(" ", "Instance", host + ":" + port, "cannot be reached:", ex.getMessage()), ex);
+            }
+        }
+
+        private void release(BinaryCartClient client) {
+            idle.add(client);
+            connections.release();
+            if (closed) {
+                close();
+            }
+        }
+
+        private void discard(BinaryCartClient client) {
+            closeQuietly(client);
+            connections.release();
+        }
+
+        private void close() {
+            closed = true;
+            BinaryCartClient client;
+            while ((client = idle.poll()) != null) {
+                closeQuietly(client);
+            }
+        }
+
+        private void closeQuietly(BinaryCartClient client) {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                log.warn(String.join(" ", LOGGING_PREFIX, "Connection to", host + ":" + port, "not closed cleanly:", ex.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.navalia.shoppingcart.cluster;
+
+import com.navalia.shoppingcart.inventory.StockLenders;
+import com.navalia.shoppingcart.inventory.impl.AtomicStockInventory;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves units of stock between the instances, so that the stock of the inventory file is sold by
+ * whichever instance has the orders for it.
+ * <p>
+ * An instance short of a product borrows it from the others, one after the other from a random one,
+ * before turning an order down. Whenever the ring changes, each instance also splits what it has left
+ * of every product evenly between the members of the new ring, keeping its own part if it is one of
+ * them: together, the members end up with even shares of the stock, a new instance gets its share
+ * without anyone having to restart, and one leaving the cluster gives all its stock away. Units only
+ * ever move, so the cluster never sells more than the file holds. Units given to an instance that
+ * cannot be reached are kept, while those of a request whose answer is lost are dropped rather than
+ * risk being sold twice.
+ */
+@Log4j2
+@Component
+@ConditionalOnExpression("${cart.cluster.enabled:false} and ${cart.inventory.enabled:false}")
+public class StockBalancer implements StockLenders, InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[StockBalancer] ";
+    // Keeps every request well under the largest frame of the binary protocol
+    private static final int PRODUCTS_PER_REQUEST = 4096;
+
+    private final AtomicStockInventory inventory;
+    private final ClusterMembership membership;
+    private final NodeClients nodeClients;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "stock-balancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StockBalancer(AtomicStockInventory inventory, ClusterMembership membership, NodeClients nodeClients) {
+        this.inventory = inventory;
+        this.membership = membership;
+        this.nodeClients = nodeClients;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        inventory.setLenders(this);
+        membership.addChangeListener(ring -> executor.execute(() -> spread(ring)));
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public long borrow(int itemId, long amount) {
+        var others = others(membership.ring());
+        long lent = 0;
+
+        int first = ThreadLocalRandom.current().nextInt(Math.max(others.size(), 1));
+        for (int i = 0; i < others.size() && lent < amount; i++) {
+            var node = others.get((first + i) % others.size());
+            long wanted = amount - lent;
+            try {
+                lent += nodeClients.call(node, client -> {
+                    client.takeStock(itemId, wanted);
+                    return client.receive();
+                }).getUnits();
+            } catch (UncheckedIOException ex) {
+                log.warn(String.join(" ", LOGGING_PREFIX, "No stock borrowed from", node + ":", ex.getMessage()));
+            }
+        }
+        return lent;
+    }
+
+    /**
+     * Splits what is left of the stock here between the members of the ring.
+     *
+     * @return the units given to the other instances
+     */
+    public long spread(HashRing ring) {
+        long start = System.nanoTime();
+        var others = others(ring);
+        if (others.isEmpty()) {
+            return 0;
+        }
+
+        // Every member gets the same part, and the remainder stays here, or goes to the first ones if this instance left
+        int members = ring.getNodes().size();
+        boolean member = others.size() < members;
+        var itemIds = inventory.getItemIds();
+        var left = new long[itemIds.length];
+        for (int product = 0; product < itemIds.length; product++) {
+            left[product] = inventory.available(itemIds[product]);
+        }
+
+        long given = 0;
+        var ids = new int[itemIds.length];
+        var units = new long[itemIds.length];
+        for (int node = 0; node < others.size(); node++) {
+            int count = 0;
+            for (int product = 0; product < itemIds.length; product++) {
+                long part = left[product] / members + (!member && node < left[product] % members ? 1 : 0);
+                long taken = part == 0 ? 0 : inventory.take(itemIds[product], part);
+                if (taken > 0) {
+                    ids[count] = itemIds[product];
+                    units[count++] = taken;
+                }
+            }
+            given += give(others.get(node), ids, units, count);
+        }
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Gave", String.valueOf(given), "unit(s) of stock to", String.valueOf(others.size()),
+                "other instance(s) in", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms."));
+        return given;
+    }
+
+    /**
+     * Gives the units to the instance, keeping those of the requests it did not take.
+     *
+     * @return the units it took
+     */
+    private long give(String node, int[] itemIds, long[] units, int count) {
+        long given = 0;
+
+        for (int from = 0; from < count; from += PRODUCTS_PER_REQUEST) {
+            int to = Math.min(from + PRODUCTS_PER_REQUEST, count);
+            int first = from;
+            boolean taken;
+            try {
+                taken = nodeClients.call(node, client -> {
+                    client.giveStock(itemIds, units, first, to);
+                    return client.receive();
+                }).isSuccess();
+            } catch (UncheckedIOException ex) {
+                if (!(ex.getCause() instanceof ConnectException)) {
+                    log.error(String.join(" ", LOGGING_PREFIX, "Stock given to", node, "dropped, as it may have taken it:", ex.getMessage()));
+                    continue;
+                }
+                log.error(String.join(" ", LOGGING_PREFIX, "Stock kept instead of giving it to", node + ":", ex.getMessage()));
+                taken = false;
+            }
+
+            for (int product = from; product < to; product++) {
+                if (taken) {
+                    given += units[product];
+                } else {
+                    inventory.receive(itemIds[product], units[product]);
+                }
+            }
+        }
+        return given;
+    }
+
+    private List<String> others(HashRing ring) {
+        var others = new ArrayList<>(ring.getNodes());
+        others.remove(membership.getSelf());
+        return others;
+    }
+}
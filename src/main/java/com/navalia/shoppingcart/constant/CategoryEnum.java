@@ -0,0 +1,7 @@
+package com.navalia.shoppingcart.constant;
+
+public enum CategoryEnum {
+    TOPS,
+    BOTTOMS,
+    DRESSES;
+}
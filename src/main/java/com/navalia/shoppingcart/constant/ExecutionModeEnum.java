@@ -0,0 +1,6 @@
+package com.navalia.shoppingcart.constant;
+
+public enum ExecutionModeEnum {
+    PLATFORM,
+    VIRTUAL;
+}
@@ -0,0 +1,17 @@
+package com.navalia.shoppingcart.constant;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum OrderErrorEnum {
+    INVALID_ORDER("The order received contains invalid data. This item may not exist with this id or amount."),
+    ITEM_NOT_IN_CART("The cart does not contain this item, so it cannot be deleted."),
+    INVALID_BATCH("The batch received is empty or contains invalid data. No operation was applied."),
+    BATCH_ITEM_NOT_IN_CART("The cart would not contain the item of an operation, so it cannot be deleted. No operation was applied."),
+    VERSION_MISMATCH("The cart was changed since the version given in If-Match. Read it again before changing it."),
+    OUT_OF_STOCK("Not enough units of this item are left in stock. Nothing was added to the cart.");
+
+    private final String message;
+}
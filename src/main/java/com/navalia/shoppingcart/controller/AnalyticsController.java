@@ -0,0 +1,39 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@Log4j2
+@RestController
+@RequestMapping("/analytics")
+public class AnalyticsController {
+
+    private static final String LOGGING_PREFIX = "[AnalyticsController] ";
+
+    private final CartAnalytics cartAnalytics;
+
+    public AnalyticsController(CartAnalytics cartAnalytics) {
+        this.cartAnalytics = cartAnalytics;
+    }
+
+    /**
+     * Figures of the cart events over the last window: units added and removed, carts emptied, orders
+     * closed, carts abandoned and the items added the most.
+     */
+    @GetMapping
+    public ResponseEntity<Object> report(@RequestParam(defaultValue = "10") int top) {
+        if (top < 0) {
+            return ResponseEntity.badRequest().body("The number of top items cannot be negative.");
+        }
+
+        try {
+            return ResponseEntity.ok().body(cartAnalytics.report(top));
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -1,20 +1,40 @@
 package com.navalia.shoppingcart.controller;
 
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
 import com.navalia.shoppingcart.dto.request.OrderRequest;
-import com.navalia.shoppingcart.exception.InvalidOrderException;
-import com.navalia.shoppingcart.exception.ItemNotInCartException;
 import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.OrderResult;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
 @Log4j2
 @RestController
 @RequestMapping("/cart")
 public class CartController {
 
     private static final String LOGGING_PREFIX = "[CartController] ";
+    private static final Map<OrderErrorEnum, ResponseEntity<Object>> BAD_REQUESTS = new EnumMap<>(OrderErrorEnum.class);
+    // Expected version of an If-Match header that cannot match any version of a cart
+    private static final long NO_VERSION = -2;
+    private static final ResponseEntity<Object> CLOSE_WITH_POST = ResponseEntity.status(HttpStatus.METHOD_NOT_ALLOWED)
+            .allow(HttpMethod.POST)
+            .body("Orders are closed with POST /cart/{cartId}/close_order, and priced without closing them with GET /cart/{cartId}/order_preview.");
+
+    static {
+        for (var error : OrderErrorEnum.values()) {
+            BAD_REQUESTS.put(error, ResponseEntity.status(status(error)).body(error.getMessage()));
+        }
+    }
 
     private final CartService cartService;
 
@@ -22,49 +42,205 @@ public class CartController {
         this.cartService = cartService;
     }
 
-    @PostMapping("/add_item")
-    public ResponseEntity<Object> add(@RequestBody OrderRequest order) {
+    @PostMapping("/{cartId}/add_item")
+    public ResponseEntity<Object> add(@PathVariable String cartId, @RequestBody OrderRequest order,
+                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            return toResponse(ifMatch == null
+                    ? cartService.addToCart(cartId, order)
+                    : cartService.addToCart(cartId, order, expectedVersion(ifMatch)));
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @DeleteMapping("/{cartId}/remove_item")
+    public ResponseEntity<Object> remove(@PathVariable String cartId, @RequestBody OrderRequest order,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        try {
+            return toResponse(ifMatch == null
+                    ? cartService.removeFromCart(cartId, order)
+                    : cartService.removeFromCart(cartId, order, expectedVersion(ifMatch)));
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PostMapping("/{cartId}/batch")
+    public ResponseEntity<Object> batch(@PathVariable String cartId, @RequestBody BatchOrderRequest batch,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            return ResponseEntity.ok().body(cartService.addToCart(order));
-        } catch (InvalidOrderException ex) {
-            log.error(String.join(" ", LOGGING_PREFIX, ex.getMessage()));
-            return ResponseEntity.badRequest().body(ex.getMessage());
+            return toResponse(ifMatch == null
+                    ? cartService.applyBatch(cartId, batch)
+                    : cartService.applyBatch(cartId, batch, expectedVersion(ifMatch)));
         } catch (Exception ex) {
             log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    @DeleteMapping("/remove_item")
-    public ResponseEntity<Object> remove(@RequestBody OrderRequest order) {
+    @DeleteMapping("/{cartId}/empty_cart")
+    public ResponseEntity<Object> emptyCart(@PathVariable String cartId,
+                                            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
-            return ResponseEntity.ok().body(cartService.removeFromCart(order));
-        } catch (InvalidOrderException | ItemNotInCartException ex) {
-            log.error(String.join(" ", LOGGING_PREFIX, ex.getMessage()));
-            return ResponseEntity.badRequest().body(ex.getMessage());
+            if (ifMatch != null) {
+                return toResponse(cartService.emptyCart(cartId, expectedVersion(ifMatch)));
+            }
+            var response = cartService.emptyCart(cartId);
+            return ResponseEntity.ok().eTag(eTag(response.getCartVersion())).body(response);
         } catch (Exception ex) {
             log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    @DeleteMapping("/empty_cart")
-    public ResponseEntity<Object> emptyCart() {
+    /**
+     * Places the order. If-None-Match is not read: a 304 is only for GET and HEAD, and the order must
+     * be placed whatever the client holds.
+     */
+    @PostMapping("/{cartId}/close_order")
+    public ResponseEntity<Object> closeOrder(@PathVariable String cartId) {
+        try {
+            var response = cartService.closeOrder(cartId);
+            return ResponseEntity.ok().eTag(response.getTag().toString()).body(response);
+        } catch (RejectedExecutionException ex) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Order not finalized:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Closing the order used to be a GET. It now takes a POST, as a GET must not change the cart, and
+     * clients polling it finalized a new order after every change. A GET is rejected rather than
+     * served as a preview, so that clients still closing with it fail instead of never placing the order.
+     */
+    @GetMapping("/{cartId}/close_order")
+    public ResponseEntity<Object> closeOrderWithGet(@PathVariable String cartId) {
+        return CLOSE_WITH_POST;
+    }
+
+    @GetMapping("/{cartId}/order_preview")
+    public ResponseEntity<Object> previewOrder(@PathVariable String cartId,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            return ResponseEntity.ok().body(cartService.emptyCart());
+            var knownTag = knownTag(ifNoneMatch);
+            var response = cartService.previewOrder(cartId, knownTag);
+            if (response == null) {
+                return notModified(knownTag);
+            }
+            return ResponseEntity.ok().eTag(response.getTag().toString()).body(response);
         } catch (Exception ex) {
             log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    @GetMapping("/close_order")
-    public ResponseEntity<Object> closeOrder() {
+    @GetMapping("/{cartId}/quote")
+    public ResponseEntity<Object> quote(@PathVariable String cartId,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            return ResponseEntity.ok().body(cartService.closeOrder());
+            var knownTag = knownTag(ifNoneMatch);
+            var response = cartService.quote(cartId, knownTag);
+            if (response == null) {
+                return notModified(knownTag);
+            }
+            return ResponseEntity.ok().eTag(response.getTag().toString()).body(response);
         } catch (Exception ex) {
             log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    /**
+     * Answers rejected orders with a 400 (or a 412 when the cart is not at the version given in
+     * If-Match, and a 409 when the stock is short) and the rejection message. Every rejection that
+     * carries the default message of its error gets the same response, built once. Rejections were
+     * already logged by the service.
+     */
+    private static ResponseEntity<Object> toResponse(OrderResult result) {
+        if (result.isSuccess()) {
+            var response = result.getResponse();
+            return ResponseEntity.ok().eTag(eTag(response.getCartVersion())).body(response);
+        }
+        if (result == OrderResult.failure(result.getError())) {
+            return BAD_REQUESTS.get(result.getError());
+        }
+        return ResponseEntity.status(status(result.getError())).body(result.getMessage());
+    }
+
+    private static HttpStatus status(OrderErrorEnum error) {
+        switch (error) {
+            case VERSION_MISMATCH:
+                return HttpStatus.PRECONDITION_FAILED;
+            case OUT_OF_STOCK:
+                return HttpStatus.CONFLICT;
+            default:
+                return HttpStatus.BAD_REQUEST;
+        }
+    }
+
+    /**
+     * The ETag of a cart is its version, as a strong entity tag.
+     */
+    private static String eTag(long cartVersion) {
+        return "\"" + cartVersion + "\"";
+    }
+
+    private static ResponseEntity<Object> notModified(CartTag knownTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(knownTag.toString()).build();
+    }
+
+    /**
+     * Reads the version of an If-Match header holding {@code *} or a single strong ETag of a cart,
+     * either the one of a change or the one of a quote. Anything else, such as a weak ETag, never
+     * matches.
+     */
+    private static long expectedVersion(String ifMatch) {
+        var value = ifMatch.trim();
+
+        if (value.equals("*")) {
+            return CartService.ANY_VERSION;
+        }
+        if (value.length() < 3 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+            return NO_VERSION;
+        }
+        int end = value.indexOf('.');
+        if (end < 0) {
+            end = value.length() - 1;
+        } else if (CartTag.parse(value.subSequence(1, value.length() - 1)) == null) {
+            return NO_VERSION;
+        }
+        try {
+            long version = Long.parseLong(value, 1, end, 10);
+            return version < 0 ? NO_VERSION : version;
+        } catch (NumberFormatException ex) {
+            return NO_VERSION;
+        }
+    }
+
+    /**
+     * Reads the tag of an If-None-Match header holding a single ETag of a quote or a closed order.
+     * Weak ETags are accepted, as GET requests compare tags weakly.
+     *
+     * @return the tag, or null if there is none
+     */
+    private static CartTag knownTag(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+
+        var value = ifNoneMatch.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() < 3 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+            return null;
+        }
+        return CartTag.parse(value.subSequence(1, value.length() - 1));
+    }
 }
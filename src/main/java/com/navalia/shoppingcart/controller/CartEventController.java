@@ -0,0 +1,206 @@
+package com.navalia.shoppingcart.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.events.CartEventHub;
+import com.navalia.shoppingcart.events.CartEventProperties;
+import com.navalia.shoppingcart.events.CartEventSink;
+import com.navalia.shoppingcart.service.CartTag;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+
+@Log4j2
+@RestController
+@RequestMapping("/cart")
+public class CartEventController {
+
+    private static final String LOGGING_PREFIX = "[CartEventController] ";
+
+    private final CartEventHub cartEventHub;
+    private final ObjectMapper objectMapper;
+    private final long subscriptionTimeoutMillis;
+
+    public CartEventController(CartEventHub cartEventHub, ObjectMapper objectMapper, CartEventProperties properties) {
+        this.cartEventHub = cartEventHub;
+        this.objectMapper = objectMapper;
+        this.subscriptionTimeoutMillis = properties.getSubscriptionTimeout().toMillis();
+    }
+
+    /**
+     * Streams the quotes of the cart as Server-Sent Events named {@code quote}, with the tag of each
+     * quote as the event id. A client subscribing again with the Last-Event-ID header is not sent the
+     * quote it already holds.
+     * <p>
+     * The stream is written with non-blocking servlet output, so a client that stops reading never holds
+     * the sender thread writing to it: its event waits in the sink until the connection takes it.
+     */
+    @GetMapping(value = "/{cartId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void subscribe(@PathVariable String cartId,
+                          @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                          HttpServletRequest request, HttpServletResponse response) {
+        CartEventHub.Subscription subscription = null;
+        try {
+            var sink = new StreamSink(objectMapper);
+            subscription = cartEventHub.subscribe(cartId, sink, lastEventId == null ? null : CartTag.parse(lastEventId));
+
+            response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.flushBuffer();
+            var asyncContext = request.startAsync();
+            asyncContext.setTimeout(subscriptionTimeoutMillis);
+            sink.start(asyncContext, subscription);
+        } catch (RejectedExecutionException ex) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Subscription refused:", ex.getMessage()));
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            if (!response.isCommitted()) {
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+        }
+    }
+
+    /**
+     * Sink writing the events to the response without blocking. The event the connection could not take
+     * yet is kept, replaced by any newer one, and written once the container tells the output is ready.
+     */
+    private static final class StreamSink implements CartEventSink, WriteListener, AsyncListener {
+
+        private final ObjectMapper objectMapper;
+        private AsyncContext asyncContext;
+        private ServletOutputStream out;
+        private CartEventHub.Subscription subscription;
+        // Encoded event not written yet, and since when the subscriber has not taken what it was sent
+        private byte[] waiting;
+        private volatile long waitingSince = NOT_WAITING;
+        private boolean closed;
+
+        private StreamSink(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+        }
+
+        /**
+         * Starts writing to the response of the request, which is now asynchronous. Events sent before
+         * are kept until then.
+         */
+        private synchronized void start(AsyncContext asyncContext, CartEventHub.Subscription subscription) throws IOException {
+            this.asyncContext = asyncContext;
+            this.subscription = subscription;
+            if (closed) {
+                asyncContext.complete();
+                return;
+            }
+            asyncContext.addListener(this);
+            out = asyncContext.getResponse().getOutputStream();
+            out.setWriteListener(this);
+        }
+
+        @Override
+        public synchronized void send(QuoteResponse quote) throws IOException {
+            if (closed) {
+                throw new IOException("The subscriber is gone.");
+            }
+            waiting = encode(quote);
+            if (out != null) {
+                write();
+            }
+        }
+
+        @Override
+        public long waitingSince() {
+            return waitingSince;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (asyncContext != null) {
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            if (!closed) {
+                write();
+            }
+        }
+
+        @Override
+        public void onError(Throwable ex) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            synchronized (this) {
+                closed = true;
+            }
+            subscription.cancel();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * Writes the waiting event and flushes it as far as the connection takes it. Whenever the output
+         * is not ready, the container calls {@link #onWritePossible} once it is.
+         */
+        private void write() throws IOException {
+            if (waiting != null && out.isReady()) {
+                out.write(waiting);
+                waiting = null;
+            }
+            if (waiting == null && out.isReady()) {
+                out.flush();
+            }
+
+            if (waiting == null && out.isReady()) {
+                waitingSince = NOT_WAITING;
+            } else if (waitingSince == NOT_WAITING) {
+                waitingSince = System.nanoTime();
+            }
+        }
+
+        private byte[] encode(QuoteResponse quote) throws IOException {
+            var event = new ByteArrayOutputStream(256);
+            event.write(String.join("", "event:quote\nid:", quote.getTag().toString(), "\ndata:").getBytes(StandardCharsets.UTF_8));
+            objectMapper.writeValue(event, quote);
+            event.write("\n\n".getBytes(StandardCharsets.UTF_8));
+            return event.toByteArray();
+        }
+    }
+}
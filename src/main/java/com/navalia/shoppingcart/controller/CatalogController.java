@@ -0,0 +1,33 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.response.CatalogResponse;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Shows the current catalog. It is changed through {@link CatalogEndpoint}, on the management port.
+ */
+@RestController
+@RequestMapping("/catalog")
+public class CatalogController {
+
+    private final CatalogRegistry catalogRegistry;
+
+    public CatalogController(CatalogRegistry catalogRegistry) {
+        this.catalogRegistry = catalogRegistry;
+    }
+
+    @GetMapping
+    public ResponseEntity<Object> current() {
+        return ResponseEntity.ok().body(toResponse(catalogRegistry.current()));
+    }
+
+    static CatalogResponse toResponse(ProductCatalog catalog) {
+        return CatalogResponse.builder()
+                .version(catalog.getVersion())
+                .products(catalog.size())
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.actuate.autoconfigure.web.server.ConditionalOnManagementPort;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementPortType;
+import org.springframework.boot.actuate.endpoint.web.annotation.RestControllerEndpoint;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+/**
+ * Changes the catalog, as {@code /actuator/catalog} on the management port. It only exists when the
+ * management server has a port of its own, and is only served once {@code catalog} is added to
+ * {@code management.endpoints.web.exposure.include}, so the clients of the cart API can never reach it.
+ */
+@Log4j2
+@Component
+@RestControllerEndpoint(id = "catalog")
+@ConditionalOnManagementPort(ManagementPortType.DIFFERENT)
+public class CatalogEndpoint {
+
+    private static final String LOGGING_PREFIX = "[CatalogEndpoint] ";
+
+    private final CatalogRegistry catalogRegistry;
+
+    public CatalogEndpoint(CatalogRegistry catalogRegistry) {
+        this.catalogRegistry = catalogRegistry;
+    }
+
+    @PutMapping
+    public ResponseEntity<Object> replace(@RequestBody byte[] catalogFile) {
+        try {
+            return ResponseEntity.ok().body(CatalogController.toResponse(catalogRegistry.replace(catalogFile)));
+        } catch (IllegalArgumentException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Catalog rejected:", ex.getMessage()));
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @PutMapping("/prices")
+    public ResponseEntity<Object> updatePrices(@RequestBody byte[] priceChanges) {
+        try {
+            return ResponseEntity.ok().body(CatalogController.toResponse(catalogRegistry.updatePrices(priceChanges)));
+        } catch (IllegalArgumentException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Price changes rejected:", ex.getMessage()));
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.cluster.ClusterMembership;
+import com.navalia.shoppingcart.cluster.HashRing;
+import com.navalia.shoppingcart.dto.response.ClusterResponse;
+import com.navalia.shoppingcart.store.CartStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Shows the members of the cluster. They are changed through {@link ClusterEndpoint}, on the
+ * management port.
+ */
+@RestController
+@RequestMapping("/cluster")
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class ClusterController {
+
+    private final ClusterMembership membership;
+    private final CartStore cartStore;
+
+    public ClusterController(ClusterMembership membership, CartStore cartStore) {
+        this.membership = membership;
+        this.cartStore = cartStore;
+    }
+
+    @GetMapping
+    public ResponseEntity<Object> current() {
+        return ResponseEntity.ok().body(toResponse(membership, membership.ring(), cartStore));
+    }
+
+    static ClusterResponse toResponse(ClusterMembership membership, HashRing ring, CartStore cartStore) {
+        return ClusterResponse.builder()
+                .self(membership.getSelf())
+                .nodes(ring.getNodes())
+                .localCarts(cartStore.size())
+                .build();
+    }
+}
@@ -0,0 +1,56 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.cluster.ClusterMembership;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.actuate.autoconfigure.web.server.ConditionalOnManagementPort;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementPortType;
+import org.springframework.boot.actuate.endpoint.web.annotation.RestControllerEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+
+import java.util.List;
+
+/**
+ * Changes the members of the cluster, as {@code /actuator/cluster} on the management port. Like
+ * {@link CatalogEndpoint}, it only exists when the management server has a port of its own, and is only
+ * served once {@code cluster} is exposed.
+ */
+@Log4j2
+@Component
+@RestControllerEndpoint(id = "cluster")
+@ConditionalOnManagementPort(ManagementPortType.DIFFERENT)
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class ClusterEndpoint {
+
+    private static final String LOGGING_PREFIX = "[ClusterEndpoint] ";
+
+    private final ClusterMembership membership;
+    private final CartStore cartStore;
+
+    public ClusterEndpoint(ClusterMembership membership, CartStore cartStore) {
+        this.membership = membership;
+        this.cartStore = cartStore;
+    }
+
+    /**
+     * Replaces the instances of the cluster, then hands the carts this instance no longer owns over to
+     * their owners in the background. Every instance must be sent the same list.
+     */
+    @PutMapping("/nodes")
+    public ResponseEntity<Object> updateNodes(@RequestBody List<String> nodes) {
+        try {
+            return ResponseEntity.ok().body(ClusterController.toResponse(membership, membership.update(nodes), cartStore));
+        } catch (IllegalArgumentException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Nodes rejected:", ex.getMessage()));
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
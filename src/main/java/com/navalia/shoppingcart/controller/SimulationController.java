@@ -0,0 +1,45 @@
+package com.navalia.shoppingcart.controller;
+
+import com.navalia.shoppingcart.simulation.QuoteSimulator;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Prices hypothetical baskets sent as JSON lines, answering with one JSON line per basket as they are
+ * priced. The answer is written on the request thread rather than asynchronously, so that long
+ * simulations are not cut by the async request timeout.
+ */
+@Log4j2
+@RestController
+@RequestMapping("/simulation")
+public class SimulationController {
+
+    private static final String LOGGING_PREFIX = "[SimulationController] ";
+    private static final String JSON_LINES = "application/x-ndjson";
+
+    private final QuoteSimulator quoteSimulator;
+
+    public SimulationController(QuoteSimulator quoteSimulator) {
+        this.quoteSimulator = quoteSimulator;
+    }
+
+    @PostMapping("/quotes")
+    public void quote(HttpServletRequest request, HttpServletResponse response) {
+        try {
+            response.setContentType(JSON_LINES);
+            quoteSimulator.quote(request.getInputStream(), response.getOutputStream());
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+        }
+    }
+}
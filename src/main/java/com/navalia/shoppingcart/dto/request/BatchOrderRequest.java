@@ -0,0 +1,14 @@
+package com.navalia.shoppingcart.dto.request;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchOrderRequest {
+    private List<OrderOperationRequest> operations;
+}
@@ -0,0 +1,17 @@
+package com.navalia.shoppingcart.dto.request;
+
+import com.navalia.shoppingcart.constant.OperationEnum;
+import lombok.*;
+
+@Getter
+@Builder
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderOperationRequest {
+    private OperationEnum operation;
+
+    private int itemId;
+
+    private int amount;
+}
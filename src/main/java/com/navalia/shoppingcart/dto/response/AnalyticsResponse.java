@@ -0,0 +1,22 @@
+package com.navalia.shoppingcart.dto.response;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalyticsResponse {
+    private long windowSeconds;
+    private long itemsAdded;
+    private long itemsRemoved;
+    private long cartsEmptied;
+    private long ordersClosed;
+    private long cartsAbandoned;
+    private double abandonmentRate;
+    private long eventsDropped;
+    private List<ItemCountResponse> topItems;
+}
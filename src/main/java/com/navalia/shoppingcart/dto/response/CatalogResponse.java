@@ -0,0 +1,13 @@
+package com.navalia.shoppingcart.dto.response;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogResponse {
+    private long version;
+    private int products;
+}
@@ -1,6 +1,9 @@
 package com.navalia.shoppingcart.dto.response;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.navalia.shoppingcart.entity.Cart;
+import com.navalia.shoppingcart.entity.OrderedLines;
+import com.navalia.shoppingcart.service.CartTag;
 import lombok.*;
 
 @Getter
@@ -10,5 +13,17 @@ import lombok.*;
 @AllArgsConstructor
 public class ClosedOrderResponse {
     private Cart orderedItems;
-    private double totalPrice;
+    private long totalPrice;
+    private long catalogVersion;
+    private long cartVersion;
+    private Long orderId;
+    @JsonIgnore
+    private CartTag tag;
+    /** Lines of a local order, from which the ordered items are built on demand. */
+    @JsonIgnore
+    private OrderedLines lines;
+
+    public Cart getOrderedItems() {
+        return orderedItems == null && lines != null ? lines.toCart() : orderedItems;
+    }
 }
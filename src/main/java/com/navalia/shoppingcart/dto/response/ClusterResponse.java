@@ -0,0 +1,16 @@
+package com.navalia.shoppingcart.dto.response;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterResponse {
+    private String self;
+    private List<String> nodes;
+    private int localCarts;
+}
@@ -0,0 +1,14 @@
+package com.navalia.shoppingcart.dto.response;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ItemCountResponse {
+    private int itemId;
+    private String name;
+    private long units;
+}
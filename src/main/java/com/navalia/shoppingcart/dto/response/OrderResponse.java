@@ -9,4 +9,5 @@ import lombok.*;
 @AllArgsConstructor
 public class OrderResponse {
     private String message;
+    private long cartVersion;
 }
@@ -0,0 +1,18 @@
+package com.navalia.shoppingcart.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.navalia.shoppingcart.service.CartTag;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuoteResponse {
+    private long itemCount;
+    private long totalPrice;
+    private long cartVersion;
+    @JsonIgnore
+    private CartTag tag;
+}
@@ -0,0 +1,16 @@
+package com.navalia.shoppingcart.dto.response;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimulationSummaryResponse {
+    private long baskets;
+    private long rejected;
+    private long elapsedMillis;
+    private int parallelism;
+    private long basketsPerSecondPerCore;
+}
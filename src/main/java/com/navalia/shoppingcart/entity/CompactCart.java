@@ -0,0 +1,597 @@
+package com.navalia.shoppingcart.entity;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Working representation of a shopping cart. Its lines are kept in primitive arrays, holding the
+ * {@link ProductCatalog} index of each product and its amount, in the order the products were added.
+ * The same arrays hold a treap of the lines keyed by catalog index, where every line also keeps the
+ * units and the value of its subtree. Since catalog indexes follow prices, the treap orders the lines
+ * from the cheapest product to the most expensive one, and the value of the cheapest units of the cart
+ * is found by walking down the treap. Finding, adding and removing a line, and quoting the cheapest
+ * units, take O(log n) in the number of lines, without moving the other lines or allocating. Responses
+ * keep a snapshot of the lines taken by {@link #orderedLines(ProductCatalog)}, and the {@link Cart}
+ * view is only built by {@link #toCart(ProductCatalog)}.
+ * <p>
+ * The arrays only grow with the number of distinct products in the cart, whatever the size of the
+ * catalog. The cart also keeps its item count and its total price, so quoting never has to scan it.
+ * <p>
+ * Indexes and totals are those of the catalog version the cart was last used with. Every method
+ * given a catalog first moves the cart to it with {@link #rebase(ProductCatalog)}.
+ * <p>
+ * The cart can also keep its last price after promotions, which any change to its lines or its
+ * catalog discards, and the response of the order closed from it, which stands until the cart moves
+ * to another version, whatever happens to the catalog or the promotion rules.
+ */
+public class CompactCart {
+
+    private static final int[] NO_LINES = new int[0];
+    private static final long[] NO_TOTALS = new long[0];
+    private static final int FIRST_CAPACITY = 4;
+    private static final int NONE = -1;
+    private static final LineConsumer IGNORE_LINES = (itemId, amount) -> {
+    };
+
+    private ProductCatalog catalog;
+    private int[] products = NO_LINES;
+    private int[] amounts = NO_LINES;
+    private int lines;
+    // Treap of the lines by catalog index: children of each line, and units and value of its subtree
+    private int[] lower = NO_LINES;
+    private int[] higher = NO_LINES;
+    private long[] subtreeUnits = NO_TOTALS;
+    private long[] subtreeValue = NO_TOTALS;
+    private int root = NONE;
+    private final int seed = ThreadLocalRandom.current().nextInt();
+    // Lines in catalog order, rebuilt from the treap when lines come or go
+    private int[] ordered = NO_LINES;
+    private boolean orderedValid;
+    private long itemCount;
+    private long totalPriceInCents;
+    private long journalSequence;
+    private long lastAccessNanos;
+    private long version;
+    // Price of the cart after promotions, valid while pricedRulesVersion is not -1
+    private long pricedTotalInCents;
+    private long pricedRulesVersion = -1;
+    // Response of the order closed from the cart, valid while the cart is at closedVersion
+    private ClosedOrderResponse closedOrder;
+    private long closedVersion;
+
+    public CompactCart() {
+    }
+
+    public CompactCart(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Amount of the product with the given index in the catalog of the cart.
+     */
+    public int getAmount(int product) {
+        int line = find(product);
+
+        return line == NONE ? 0 : amounts[line];
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Catalog index of the product of the given line. Lines go from the cheapest product to the most
+     * expensive one; walking them after lines came or went first takes O(n) to order them again.
+     */
+    public int getLineProduct(int line) {
+        return products[ordered(line)];
+    }
+
+    public int getLineProductId(int line) {
+        return catalog.getId(getLineProduct(line));
+    }
+
+    public int getLineAmount(int line) {
+        return amounts[ordered(line)];
+    }
+
+    public boolean isEmpty() {
+        return lines == 0;
+    }
+
+    public long getItemCount() {
+        return itemCount;
+    }
+
+    public long getTotalPriceInCents() {
+        return totalPriceInCents;
+    }
+
+    /**
+     * Catalog the lines and totals of the cart refer to, or null if the cart was never used.
+     */
+    public ProductCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Version of the cart, which every change made through the cart service increments. Clients send
+     * it back to change the cart only if nobody else did in the meantime.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Moves the cart to its next version.
+     *
+     * @return the new version
+     */
+    public long nextVersion() {
+        return ++version;
+    }
+
+    /**
+     * Gives back its version to a cart rebuilt from its journal or handed over by another instance.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Last price after promotions kept by {@link #setPricedTotal(long, long)}, or -1 if there is none
+     * for the given version of the promotion rules.
+     */
+    public long getPricedTotalInCents(long rulesVersion) {
+        return pricedRulesVersion == rulesVersion ? pricedTotalInCents : -1;
+    }
+
+    public void setPricedTotal(long totalInCents, long rulesVersion) {
+        this.pricedTotalInCents = totalInCents;
+        this.pricedRulesVersion = rulesVersion;
+    }
+
+    /**
+     * Response of the order closed from the cart, or null if the cart changed since.
+     */
+    public ClosedOrderResponse getClosedOrder() {
+        return closedOrder != null && closedVersion == version ? closedOrder : null;
+    }
+
+    /**
+     * Keeps the response of the order just closed from this version of the cart.
+     */
+    public void setClosedOrder(ClosedOrderResponse closedOrder) {
+        this.closedOrder = closedOrder;
+        this.closedVersion = version;
+    }
+
+    /**
+     * Forgets the given order, if it is still the one closed from the cart.
+     */
+    public void clearClosedOrder(long orderId) {
+        if (closedOrder != null && closedOrder.getOrderId() != null && closedOrder.getOrderId() == orderId) {
+            closedOrder = null;
+        }
+    }
+
+    /**
+     * Sequence number of the last journal record applied to this cart, or zero if none.
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * {@link System#nanoTime()} of the last time the cart was read or changed through its store.
+     */
+    public long getLastAccessNanos() {
+        return lastAccessNanos;
+    }
+
+    public void setLastAccessNanos(long lastAccessNanos) {
+        this.lastAccessNanos = lastAccessNanos;
+    }
+
+    /**
+     * Approximate heap footprint of the cart and its arrays, assuming compressed references.
+     */
+    public long getEstimatedSizeInBytes() {
+        long size = 144 + (ordered == NO_LINES ? 0 : align(16 + 4L * ordered.length));
+
+        return products == NO_LINES ? size : size + 4 * align(16 + 4L * products.length) + 2 * align(16 + 8L * products.length);
+    }
+
+    /**
+     * Moves the cart to the given catalog version: products are mapped to their new indexes by id and
+     * the lines sorted again, products missing from the catalog are dropped, and the totals are
+     * recomputed with the new prices. Nothing happens if the cart already uses this catalog.
+     */
+    public void rebase(ProductCatalog next) {
+        rebase(next, IGNORE_LINES);
+    }
+
+    /**
+     * Moves the cart to the given catalog version like {@link #rebase(ProductCatalog)}, handing every
+     * line dropped because its product is missing from the catalog to the given consumer.
+     */
+    public void rebase(ProductCatalog next, LineConsumer dropped) {
+        var previous = catalog;
+        if (previous == next) {
+            return;
+        }
+
+        catalog = next;
+        pricedRulesVersion = -1;
+        if (previous == null || lines == 0) {
+            return;
+        }
+
+        // New index in the high bits and amount in the low ones, so that sorting keeps the pairs
+        var remapped = new long[lines];
+        int kept = 0;
+        for (int line = 0; line < lines; line++) {
+            int itemId = previous.getId(products[line]);
+            int product = next.indexOf(itemId);
+            if (product >= 0) {
+                remapped[kept++] = (long) product << 32 | amounts[line];
+            } else {
+                dropped.accept(itemId, amounts[line]);
+            }
+        }
+        Arrays.sort(remapped, 0, kept);
+
+        lines = 0;
+        root = NONE;
+        itemCount = 0;
+        totalPriceInCents = 0;
+        orderedValid = false;
+        for (int line = 0; line < kept; line++) {
+            insertLine((int) (remapped[line] >>> 32), (int) remapped[line]);
+        }
+    }
+
+    /**
+     * Adds the given amount of the product.
+     *
+     * @throws IllegalArgumentException if its line would go past {@link Integer#MAX_VALUE} units, in
+     *                                  which case the cart is left as it was
+     */
+    public void add(ProductCatalog catalog, int product, int amount) {
+        rebase(catalog);
+
+        int line = find(product);
+
+        if (line == NONE) {
+            insertLine(product, amount);
+        } else if (amounts[line] > Integer.MAX_VALUE - amount) {
+            throw new IllegalArgumentException(String.join(" ", "A cart line holds at most", String.valueOf(Integer.MAX_VALUE), "units."));
+        } else {
+            amounts[line] += amount;
+            updatePath(product, amount);
+            updateTotals(product, amount);
+        }
+        pricedRulesVersion = -1;
+    }
+
+    /**
+     * Tells whether the given amount of the product can be added without going past the units a line
+     * holds.
+     */
+    public boolean canAdd(int product, long amount) {
+        return getAmount(product) + amount <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Removes up to the given amount of the product, dropping its line when nothing is left.
+     *
+     * @return false if the cart does not contain the product
+     */
+    public boolean remove(ProductCatalog catalog, int product, int amount) {
+        rebase(catalog);
+
+        int line = find(product);
+
+        if (line == NONE) {
+            return false;
+        }
+
+        int removed = Math.min(amounts[line], amount);
+        amounts[line] -= removed;
+        updatePath(product, -removed);
+        if (amounts[line] == 0) {
+            removeLine(line);
+        }
+        updateTotals(product, -removed);
+        pricedRulesVersion = -1;
+        return true;
+    }
+
+    /**
+     * Drops every line of the cart, keeping its catalog and its version.
+     */
+    public void clear() {
+        products = NO_LINES;
+        amounts = NO_LINES;
+        lower = NO_LINES;
+        higher = NO_LINES;
+        subtreeUnits = NO_TOTALS;
+        subtreeValue = NO_TOTALS;
+        ordered = NO_LINES;
+        orderedValid = false;
+        root = NONE;
+        lines = 0;
+        itemCount = 0;
+        totalPriceInCents = 0;
+        pricedRulesVersion = -1;
+    }
+
+    /**
+     * Sums the prices of the given number of cheapest units in the cart, in O(log n): every line the
+     * walk down the treap passes on its way takes the whole subtree of cheaper lines at once.
+     */
+    public long getCheapestUnitsPriceInCents(long units) {
+        long remaining = units;
+        long value = 0;
+        int line = root;
+
+        while (line != NONE && remaining > 0) {
+            int cheaper = lower[line];
+            if (cheaper != NONE && subtreeUnits[cheaper] >= remaining) {
+                line = cheaper;
+                continue;
+            }
+            if (cheaper != NONE) {
+                remaining -= subtreeUnits[cheaper];
+                value += subtreeValue[cheaper];
+            }
+            long taken = Math.min(remaining, amounts[line]);
+            value += taken * catalog.getPriceInCents(products[line]);
+            remaining -= taken;
+            line = higher[line];
+        }
+        return value;
+    }
+
+    public Cart toCart(ProductCatalog catalog) {
+        return orderedLines(catalog).toCart();
+    }
+
+    public OrderedLines orderedLines(ProductCatalog catalog) {
+        rebase(catalog);
+        return OrderedLines.of(this, catalog);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Line of the product, or {@link #NONE} if the cart does not contain it.
+     */
+    private int find(int product) {
+        int line = root;
+
+        while (line != NONE && products[line] != product) {
+            line = product < products[line] ? lower[line] : higher[line];
+        }
+        return line;
+    }
+
+    /**
+     * Adds the given units to the subtree totals of every line from the root down to the line of the
+     * product, which must be in the cart.
+     */
+    private void updatePath(int product, int units) {
+        long value = catalog.getPriceInCents(product) * units;
+
+        for (int line = root; ; line = product < products[line] ? lower[line] : higher[line]) {
+            subtreeUnits[line] += units;
+            subtreeValue[line] += value;
+            if (products[line] == product) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends a line for a product the cart does not contain, and inserts it into the treap.
+     */
+    private void insertLine(int product, int amount) {
+        if (lines == products.length) {
+            int capacity = Math.max(FIRST_CAPACITY, lines + (lines >> 1));
+            products = Arrays.copyOf(products, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            lower = Arrays.copyOf(lower, capacity);
+            higher = Arrays.copyOf(higher, capacity);
+            subtreeUnits = Arrays.copyOf(subtreeUnits, capacity);
+            subtreeValue = Arrays.copyOf(subtreeValue, capacity);
+        }
+
+        int line = lines++;
+        products[line] = product;
+        amounts[line] = amount;
+        lower[line] = NONE;
+        higher[line] = NONE;
+        subtreeUnits[line] = amount;
+        subtreeValue[line] = catalog.getPriceInCents(product) * amount;
+        root = insert(root, line);
+        orderedValid = false;
+        updateTotals(product, amount);
+    }
+
+    /**
+     * Takes the line out of the treap, and moves the last line into its place so the lines stay dense.
+     */
+    private void removeLine(int line) {
+        root = delete(root, products[line]);
+        orderedValid = false;
+
+        int last = --lines;
+        if (line == last) {
+            return;
+        }
+        products[line] = products[last];
+        amounts[line] = amounts[last];
+        lower[line] = lower[last];
+        higher[line] = higher[last];
+        subtreeUnits[line] = subtreeUnits[last];
+        subtreeValue[line] = subtreeValue[last];
+        if (root == last) {
+            root = line;
+            return;
+        }
+        int parent = root;
+        int product = products[line];
+        while (lower[parent] != last && higher[parent] != last) {
+            parent = product < products[parent] ? lower[parent] : higher[parent];
+        }
+        if (lower[parent] == last) {
+            lower[parent] = line;
+        } else {
+            higher[parent] = line;
+        }
+    }
+
+    private int insert(int subtree, int line) {
+        if (subtree == NONE) {
+            return line;
+        }
+        if (priority(line) > priority(subtree)) {
+            long parts = split(subtree, products[line]);
+            lower[line] = (int) (parts >> 32);
+            higher[line] = (int) parts;
+            pull(line);
+            return line;
+        }
+        if (products[line] < products[subtree]) {
+            lower[subtree] = insert(lower[subtree], line);
+        } else {
+            higher[subtree] = insert(higher[subtree], line);
+        }
+        pull(subtree);
+        return subtree;
+    }
+
+    private int delete(int subtree, int product) {
+        if (products[subtree] == product) {
+            return merge(lower[subtree], higher[subtree]);
+        }
+        if (product < products[subtree]) {
+            lower[subtree] = delete(lower[subtree], product);
+        } else {
+            higher[subtree] = delete(higher[subtree], product);
+        }
+        pull(subtree);
+        return subtree;
+    }
+
+    /**
+     * Splits the subtree into the lines of the products below the given one, returned in the high
+     * half, and the others, returned in the low half.
+     */
+    private long split(int subtree, int product) {
+        if (subtree == NONE) {
+            return (long) NONE << 32 | (NONE & 0xFFFFFFFFL);
+        }
+        if (products[subtree] < product) {
+            long parts = split(higher[subtree], product);
+            higher[subtree] = (int) (parts >> 32);
+            pull(subtree);
+            return (long) subtree << 32 | (parts & 0xFFFFFFFFL);
+        }
+        long parts = split(lower[subtree], product);
+        lower[subtree] = (int) parts;
+        pull(subtree);
+        return (parts & 0xFFFFFFFF00000000L) | (subtree & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Merges two subtrees, all the products of the first one being below those of the second one.
+     */
+    private int merge(int cheaper, int dearer) {
+        if (cheaper == NONE) {
+            return dearer;
+        }
+        if (dearer == NONE) {
+            return cheaper;
+        }
+        if (priority(cheaper) > priority(dearer)) {
+            higher[cheaper] = merge(higher[cheaper], dearer);
+            pull(cheaper);
+            return cheaper;
+        }
+        lower[dearer] = merge(cheaper, lower[dearer]);
+        pull(dearer);
+        return dearer;
+    }
+
+    private void pull(int line) {
+        long units = amounts[line];
+        long value = catalog.getPriceInCents(products[line]) * units;
+
+        if (lower[line] != NONE) {
+            units += subtreeUnits[lower[line]];
+            value += subtreeValue[lower[line]];
+        }
+        if (higher[line] != NONE) {
+            units += subtreeUnits[higher[line]];
+            value += subtreeValue[higher[line]];
+        }
+        subtreeUnits[line] = units;
+        subtreeValue[line] = value;
+    }
+
+    /**
+     * Heap priority of the line in the treap, mixed from its product and a seed of the cart so that no
+     * set of products can make the treap of every cart degenerate.
+     */
+    private int priority(int line) {
+        int hash = (products[line] ^ seed) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Line at the given position in catalog order.
+     */
+    private int ordered(int position) {
+        if (!orderedValid) {
+            if (ordered.length < lines) {
+                ordered = new int[products.length];
+            }
+            walk(root, 0);
+            orderedValid = true;
+        }
+        return ordered[position];
+    }
+
+    private int walk(int subtree, int position) {
+        if (subtree == NONE) {
+            return position;
+        }
+        position = walk(lower[subtree], position);
+        ordered[position] = subtree;
+        return walk(higher[subtree], position + 1);
+    }
+
+    private void updateTotals(int product, int units) {
+        itemCount += units;
+        totalPriceInCents += catalog.getPriceInCents(product) * units;
+    }
+
+    /**
+     * Receives the product id and the amount of a line of the cart.
+     */
+    @FunctionalInterface
+    public interface LineConsumer {
+
+        void accept(int itemId, int amount);
+    }
+}
@@ -1,6 +1,5 @@
 package com.navalia.shoppingcart.entity;
 
-import com.navalia.shoppingcart.constant.ItemEnum;
 import lombok.*;
 
 @Getter
@@ -10,12 +9,12 @@ import lombok.*;
 @AllArgsConstructor
 public class Item implements Comparable<Item> {
     private int amount;
-    private ItemEnum itemData;
+    private Product itemData;
 
     @Override
     public int compareTo(Item item) {
-        double anotherPrice = item.getItemData().getPrice();
+        long anotherPrice = item.getItemData().getPriceInCents();
 
-        return Double.compare(itemData.getPrice(), anotherPrice);
+        return Long.compare(itemData.getPriceInCents(), anotherPrice);
     }
 }
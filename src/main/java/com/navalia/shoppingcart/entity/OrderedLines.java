@@ -0,0 +1,70 @@
+package com.navalia.shoppingcart.entity;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+
+import java.util.ArrayList;
+
+/**
+ * Immutable snapshot of the lines of a {@link CompactCart}: the catalog index of each product and its
+ * amount, along with the catalog version they refer to. Responses keep the lines in this form, and
+ * only build the {@link Cart} view with its products when something asks for it.
+ */
+public final class OrderedLines {
+
+    private final ProductCatalog catalog;
+    private final int[] products;
+    private final int[] amounts;
+
+    private OrderedLines(ProductCatalog catalog, int[] products, int[] amounts) {
+        this.catalog = catalog;
+        this.products = products;
+        this.amounts = amounts;
+    }
+
+    /**
+     * Snapshots the lines of the cart, which must already be moved to the given catalog.
+     */
+    static OrderedLines of(CompactCart cart, ProductCatalog catalog) {
+        int lines = cart.getLines();
+        var products = new int[lines];
+        var amounts = new int[lines];
+
+        for (int line = 0; line < lines; line++) {
+            products[line] = cart.getLineProduct(line);
+            amounts[line] = cart.getLineAmount(line);
+        }
+
+        return new OrderedLines(catalog, products, amounts);
+    }
+
+    public ProductCatalog getCatalog() {
+        return catalog;
+    }
+
+    public int getLines() {
+        return products.length;
+    }
+
+    /**
+     * Catalog index of the product of the given line.
+     */
+    public int getLineProduct(int line) {
+        return products[line];
+    }
+
+    public int getLineAmount(int line) {
+        return amounts[line];
+    }
+
+    public Cart toCart() {
+        var cart = new Cart();
+        var items = new ArrayList<Item>(products.length);
+
+        for (int line = 0; line < products.length; line++) {
+            items.add(Item.builder().itemData(catalog.getProduct(products[line])).amount(amounts[line]).build());
+        }
+
+        cart.setItems(items);
+        return cart;
+    }
+}
@@ -0,0 +1,16 @@
+package com.navalia.shoppingcart.entity;
+
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Product {
+    private int id;
+    private String name;
+    private long priceInCents;
+    private CategoryEnum category;
+}
@@ -0,0 +1,306 @@
+package com.navalia.shoppingcart.events;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.promotion.PromotionEngine;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes the quote of a cart to its subscribers whenever it changes.
+ * <p>
+ * The cart service is not told about subscriptions at all. Instead, a background thread checks every
+ * coalescing interval whether the version of each subscribed cart, of the catalog or of the promotion
+ * rules moved since the last event, peeking at the cart without counting as an access to it. Changed
+ * carts are quoted once and the quote is offered to each of their subscribers, so any burst of changes
+ * within an interval becomes a single event, and carts without subscribers cost nothing.
+ * <p>
+ * Events are written by a small pool of sender threads. Each subscriber holds at most one event waiting
+ * to be sent, replaced by any newer one, so a slow subscriber skips the quotes it had no time for rather
+ * than queueing them. A subscriber that has not taken an event for longer than the maximum lag, timed
+ * from when the event was written to its sink rather than queued for a sender, is disconnected. An
+ * idle subscription is a few small objects, with no thread or buffer of its own.
+ */
+@Log4j2
+@Component
+public class CartEventHub implements InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[CartEventHub] ";
+    // Version standing for any version of an empty cart
+    private static final long EMPTY = -1;
+
+    private final CartStore cartStore;
+    private final CartService cartService;
+    private final CatalogRegistry catalogRegistry;
+    private final PromotionEngine promotionEngine;
+    private final long intervalNanos;
+    private final long maxLagNanos;
+    private final int maxSubscriptions;
+    private final ConcurrentHashMap<String, CartSubscribers> carts = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "cart-events"));
+    private final ExecutorService senders;
+
+    public CartEventHub(CartStore cartStore, @Qualifier("cartServiceImpl") CartService cartService, CatalogRegistry catalogRegistry,
+                        PromotionEngine promotionEngine, CartMetrics cartMetrics, CartEventProperties properties) {
+        this.cartStore = cartStore;
+        this.cartService = cartService;
+        this.catalogRegistry = catalogRegistry;
+        this.promotionEngine = promotionEngine;
+        this.intervalNanos = properties.getCoalesceInterval().toNanos();
+        this.maxLagNanos = properties.getMaxLag().toNanos();
+        this.maxSubscriptions = properties.getMaxSubscriptions();
+
+        var threads = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(properties.getSenders(), runnable -> daemon(runnable, "cart-events-sender-" + threads.incrementAndGet()));
+
+        cartMetrics.eventSubscriptions(subscriptions);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        ticker.scheduleWithFixedDelay(this::tick, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        ticker.shutdownNow();
+        carts.values().forEach(subscribers -> Arrays.stream(subscribers.subscriptions).forEach(Subscription::cancel));
+        senders.shutdown();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Subscribes to the quotes of the cart, starting with its current quote unless the subscriber
+     * already holds it.
+     *
+     * @param knownTag tag of the quote the subscriber holds, or null
+     * @throws RejectedExecutionException if there are already as many subscriptions as allowed
+     */
+    public Subscription subscribe(String cartId, CartEventSink sink, CartTag knownTag) {
+        if (subscriptions.incrementAndGet() > maxSubscriptions) {
+            subscriptions.decrementAndGet();
+            throw new RejectedExecutionException(String.join(" ", "Already", String.valueOf(maxSubscriptions), "subscriptions to cart events."));
+        }
+
+        var subscription = new Subscription(cartId, sink);
+        QuoteResponse quote;
+        try {
+            quote = cartService.quote(cartId, knownTag);
+        } catch (RuntimeException ex) {
+            subscriptions.decrementAndGet();
+            throw ex;
+        }
+
+        carts.compute(cartId, (id, subscribers) -> {
+            if (subscribers == null) {
+                subscribers = new CartSubscribers();
+                if (quote == null) {
+                    subscribers.pushed(knownTag.getCartVersion(), knownTag);
+                } else {
+                    subscribers.pushed(quote);
+                }
+            }
+            subscribers.add(subscription);
+            return subscribers;
+        });
+        if (quote != null) {
+            subscription.offer(quote);
+        }
+        return subscription;
+    }
+
+    public int getSubscriptions() {
+        return subscriptions.get();
+    }
+
+    /**
+     * Pushes the quotes of the carts that changed since the last tick, and disconnects the subscribers
+     * that fell behind.
+     */
+    void tick() {
+        try {
+            long catalogVersion = catalogRegistry.current().getVersion();
+            long rulesVersion = promotionEngine.getRulesVersion();
+            long now = System.nanoTime();
+
+            for (var entry : carts.entrySet()) {
+                var subscribers = entry.getValue();
+                for (var subscription : subscribers.subscriptions) {
+                    if (subscription.isLagging(now)) {
+                        log.warn(String.join(" ", LOGGING_PREFIX, "Disconnecting a subscriber of cart", entry.getKey(), "that fell behind."));
+                        subscription.cancel();
+                    }
+                }
+
+                long cartVersion = cartStore.peek(entry.getKey(), cart -> cart.isEmpty() ? EMPTY : cart.getVersion());
+                if (subscribers.unchanged(cartVersion, catalogVersion, rulesVersion)) {
+                    continue;
+                }
+
+                var quote = cartService.quote(entry.getKey(), null);
+                subscribers.pushed(quote);
+                for (var subscription : subscribers.subscriptions) {
+                    subscription.offer(quote);
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "An unexpected problem occurred:", ex.getMessage()));
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        subscriptions.decrementAndGet();
+        carts.computeIfPresent(subscription.cartId, (id, subscribers) -> subscribers.remove(subscription) ? subscribers : null);
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        var thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Subscribers of one cart, and the versions of the last quote pushed to them. The array is replaced
+     * on every change, which only happens inside the compute functions of the map.
+     */
+    private static final class CartSubscribers {
+
+        private volatile Subscription[] subscriptions = new Subscription[0];
+        private volatile long cartVersion;
+        private volatile long catalogVersion;
+        private volatile long rulesVersion;
+
+        /**
+         * Tells whether the quote pushed last still holds. Empty carts quote the same whatever their
+         * version, their catalog or the rules, which spares the subscribers of carts that do not exist
+         * an event each time another cart is removed and unknown ids move to a new version.
+         */
+        private boolean unchanged(long cartVersion, long catalogVersion, long rulesVersion) {
+            return cartVersion == this.cartVersion
+                    && (cartVersion == EMPTY || (catalogVersion == this.catalogVersion && rulesVersion == this.rulesVersion));
+        }
+
+        private void pushed(QuoteResponse quote) {
+            pushed(quote.getItemCount() == 0 ? EMPTY : quote.getCartVersion(), quote.getTag());
+        }
+
+        private void pushed(long cartVersion, CartTag tag) {
+            this.cartVersion = cartVersion;
+            this.catalogVersion = tag.getCatalogVersion();
+            this.rulesVersion = tag.getRulesVersion();
+        }
+
+        private void add(Subscription subscription) {
+            var next = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            next[next.length - 1] = subscription;
+            subscriptions = next;
+        }
+
+        /**
+         * @return whether subscribers are left
+         */
+        private boolean remove(Subscription subscription) {
+            var next = Arrays.stream(subscriptions).filter(other -> other != subscription).toArray(Subscription[]::new);
+            subscriptions = next;
+            return next.length > 0;
+        }
+    }
+
+    /**
+     * Subscription of one subscriber to one cart.
+     */
+    public final class Subscription {
+
+        private final String cartId;
+        private final CartEventSink sink;
+        // Latest quote not sent yet, and whether a sender is writing to the sink
+        private final AtomicReference<QuoteResponse> pending = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // Time the sink started writing the current event, or NOT_WAITING
+        private volatile long writingSince = CartEventSink.NOT_WAITING;
+        private volatile boolean cancelled;
+
+        private Subscription(String cartId, CartEventSink sink) {
+            this.cartId = cartId;
+            this.sink = sink;
+        }
+
+        /**
+         * Ends the subscription and closes its sink. Cancelling it again does nothing.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+            remove(this);
+            sink.close();
+        }
+
+        private void offer(QuoteResponse quote) {
+            pending.set(quote);
+            schedule();
+        }
+
+        private void schedule() {
+            if (cancelled || !sending.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                sending.set(false);
+            }
+        }
+
+        private void drain() {
+            QuoteResponse quote;
+            while (!cancelled && (quote = pending.getAndSet(null)) != null) {
+                writingSince = System.nanoTime();
+                try {
+                    sink.send(quote);
+                } catch (Exception ex) {
+                    cancel();
+                } finally {
+                    writingSince = CartEventSink.NOT_WAITING;
+                }
+            }
+
+            sending.set(false);
+            // A quote offered after the last check but before the flag was cleared would wait for the next change
+            if (pending.get() != null) {
+                schedule();
+            }
+        }
+
+        /**
+         * Tells whether the subscriber has been taking an event for longer than the maximum lag, either
+         * while the sink writes it or while the sink keeps it for the subscriber.
+         */
+        private boolean isLagging(long now) {
+            long since = Math.min(writingSince, sink.waitingSince());
+            return since != CartEventSink.NOT_WAITING && now - since > maxLagNanos;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.navalia.shoppingcart.events;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.events")
+public class CartEventProperties {
+
+    /** Time between two checks of the subscribed carts. All the changes made in between are pushed as one event. */
+    private Duration coalesceInterval = Duration.ofMillis(250);
+
+    /** Threads writing the events to the subscribers. */
+    private int senders = 4;
+
+    /** Most subscriptions at once, above which new ones are refused. */
+    private int maxSubscriptions = 100_000;
+
+    /** Time a subscriber may take to accept an event before it is disconnected. */
+    private Duration maxLag = Duration.ofSeconds(30);
+
+    /** Time after which a subscription ends, for the client to subscribe again. */
+    private Duration subscriptionTimeout = Duration.ofMinutes(30);
+}
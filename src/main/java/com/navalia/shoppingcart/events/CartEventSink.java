@@ -0,0 +1,37 @@
+package com.navalia.shoppingcart.events;
+
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+
+import java.io.IOException;
+
+/**
+ * Receiver of the quotes of a subscribed cart, such as a Server-Sent Events stream. Events are sent to
+ * a sink one at a time.
+ */
+public interface CartEventSink {
+
+    /** Value of {@link #waitingSince()} while the sink holds no event. */
+    long NOT_WAITING = Long.MAX_VALUE;
+
+    /**
+     * Sends the quote. The sink either blocks until the subscriber accepts it, or keeps it until the
+     * subscriber can take it, in place of any quote it still keeps.
+     *
+     * @throws IOException if the subscriber is gone, which ends the subscription
+     */
+    void send(QuoteResponse quote) throws IOException;
+
+    /**
+     * Time, as given by {@link System#nanoTime()}, since which the sink keeps an event the subscriber
+     * did not take, or {@link #NOT_WAITING}. Sinks that block in {@link #send} keep none.
+     */
+    default long waitingSince() {
+        return NOT_WAITING;
+    }
+
+    /**
+     * Ends the stream, when the subscription is cancelled by the hub.
+     */
+    void close();
+
+}
@@ -0,0 +1,17 @@
+package com.navalia.shoppingcart.execution;
+
+import com.navalia.shoppingcart.constant.ExecutionModeEnum;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.execution")
+public class ExecutionProperties {
+
+    /** Threads handling the requests: Tomcat's platform thread pool, or one virtual thread per request. */
+    private ExecutionModeEnum mode = ExecutionModeEnum.PLATFORM;
+}
@@ -0,0 +1,33 @@
+package com.navalia.shoppingcart.execution;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs every request, and therefore the cart service work it triggers, on its own virtual thread
+ * instead of Tomcat's platform thread pool. Blocking calls then release their carrier thread, so the
+ * number of requests in progress is no longer bounded by {@code server.tomcat.threads.max}.
+ */
+@Log4j2
+@Configuration
+@ConditionalOnProperty(prefix = "cart.execution", name = "mode", havingValue = "virtual")
+public class VirtualThreadConfiguration {
+
+    private static final String LOGGING_PREFIX = "[VirtualThreadConfiguration] ";
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadRequestExecutor() {
+        return VirtualThreads.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer(ExecutorService virtualThreadRequestExecutor) {
+        log.info(String.join(" ", LOGGING_PREFIX, "Requests are handled on virtual threads."));
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadRequestExecutor);
+    }
+}
@@ -0,0 +1,73 @@
+package com.navalia.shoppingcart.execution;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which need Java 21, from code that is still compiled for older releases.
+ */
+public final class VirtualThreads {
+
+    private static final MethodHandle NEW_EXECUTOR = findExecutorFactory();
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * @throws IllegalStateException if the running JVM has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!isSupported()) {
+            throw new IllegalStateException(String.join(" ", "Virtual threads need Java 21 or later, but the JVM runs Java",
+                    System.getProperty("java.specification.version") + "."));
+        }
+
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke();
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Virtual thread executor could not be created.", ex);
+        }
+    }
+
+    /**
+     * Tells whether the thread is a virtual thread, which is never the case before Java 21.
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Thread kind could not be read.", ex);
+        }
+    }
+
+    private static MethodHandle findExecutorFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        }
+    }
+}
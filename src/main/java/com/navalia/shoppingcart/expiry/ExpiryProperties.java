@@ -0,0 +1,28 @@
+package com.navalia.shoppingcart.expiry;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.expiry")
+public class ExpiryProperties {
+
+    /** Time without reads or changes after which a cart is dropped. Zero disables idle expiry. */
+    private Duration idleTimeout = Duration.ofMinutes(30);
+
+    /** Resolution of the idle expiry timer. */
+    private Duration tick = Duration.ofSeconds(1);
+
+    /** Number of live carts above which the least recently used ones are evicted. Zero means no limit. */
+    private int maxCarts = 0;
+
+    /** Estimated cart memory above which the least recently used carts are evicted. Zero means no limit. */
+    private DataSize maxMemory = DataSize.ofBytes(0);
+}
@@ -0,0 +1,190 @@
+package com.navalia.shoppingcart.expiry;
+
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.journal.CartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drops carts that were not read or changed for the idle timeout, and evicts the least recently used
+ * carts whenever the store holds more carts, or more estimated memory, than allowed.
+ * <p>
+ * Every cart is put on a {@link TimerWheel} when it is created, and a single background thread
+ * checks the carts whose deadline has passed, rescheduling the ones used in the meantime. The request
+ * threads only offer new carts to the wheel and wake the thread up when the store is over capacity,
+ * so the limits are soft: they can be exceeded until the next eviction round finishes.
+ * <p>
+ * Dropped carts are journaled like emptied ones, so they are not brought back on recovery, and
+ * their units are given back to the inventory. Idle carts dropped with items in them are recorded as
+ * abandoned by the analytics. Closing its order empties a cart, so a cart that was checked out is
+ * never counted as abandoned.
+ */
+@Log4j2
+@Component
+public class IdleCartExpirer implements InitializingBean, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[IdleCartExpirer] ";
+    private static final Duration DEFAULT_HORIZON = Duration.ofMinutes(30);
+
+    private final CartStore cartStore;
+    private final CartJournal cartJournal;
+    private final CartMetrics cartMetrics;
+    private final Inventory inventory;
+    private final CartAnalytics cartAnalytics;
+    private final long idleTimeoutNanos;
+    private final long horizonNanos;
+    private final long tickNanos;
+    private final int maxCarts;
+    private final long maxMemoryBytes;
+    private final TimerWheel<Entry> wheel;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public IdleCartExpirer(CartStore cartStore, CartJournal cartJournal, CartMetrics cartMetrics, Inventory inventory, CartAnalytics cartAnalytics,
+                           ExpiryProperties properties) {
+        this.cartStore = cartStore;
+        this.cartJournal = cartJournal;
+        this.cartMetrics = cartMetrics;
+        this.inventory = inventory;
+        this.cartAnalytics = cartAnalytics;
+        this.idleTimeoutNanos = properties.getIdleTimeout().toNanos();
+        this.horizonNanos = idleTimeoutNanos > 0 ? idleTimeoutNanos : DEFAULT_HORIZON.toNanos();
+        this.tickNanos = properties.getTick().toNanos();
+        this.maxCarts = properties.getMaxCarts();
+        this.maxMemoryBytes = properties.getMaxMemory().toBytes();
+        this.wheel = new TimerWheel<>(tickNanos, horizonNanos, System.nanoTime());
+        this.thread = new Thread(this::run, "cart-expiry");
+        this.thread.setDaemon(true);
+
+        cartMetrics.residentCarts(cartStore);
+
+        if (idleTimeoutNanos > 0 || maxCarts > 0 || maxMemoryBytes > 0) {
+            // Carts recovered before this bean was created are scheduled as if they were just used
+            long now = System.nanoTime();
+            for (var cartId : cartStore.cartIds()) {
+                cartStore.peek(cartId, cart -> {
+                    wheel.schedule(new Entry(cartId, cart), now + horizonNanos);
+                    return null;
+                });
+            }
+            cartStore.setCreationListener(this::cartCreated);
+        } else {
+            running = false;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (running) {
+            thread.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (running) {
+            running = false;
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    /**
+     * Drops the carts idle at the given time, then evicts carts until the store is within its limits.
+     */
+    void maintain(long nowNanos) {
+        wheel.advance(nowNanos, entry -> expireIfIdle(entry, nowNanos));
+
+        for (int ticks = 1; ticks <= wheel.size() && overCapacity(); ticks++) {
+            long tickEnd = wheel.tickEnd(ticks);
+            wheel.drainAhead(ticks, entry -> evictIfOverCapacity(entry, tickEnd));
+        }
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, tickNanos);
+            try {
+                maintain(System.nanoTime());
+            } catch (RuntimeException ex) {
+                log.error(String.join(" ", LOGGING_PREFIX, "Cart expiry failed:", ex.getMessage()));
+            }
+        }
+    }
+
+    private void cartCreated(String cartId, CompactCart cart) {
+        wheel.schedule(new Entry(cartId, cart), System.nanoTime() + horizonNanos);
+
+        if (overCapacity()) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private boolean overCapacity() {
+        return (maxCarts > 0 && cartStore.size() > maxCarts)
+                || (maxMemoryBytes > 0 && cartStore.estimatedSizeInBytes() > maxMemoryBytes);
+    }
+
+    private void expireIfIdle(Entry entry, long nowNanos) {
+        if (drop(entry, idleTimeoutNanos > 0 ? nowNanos : Long.MIN_VALUE)) {
+            cartMetrics.idleCartExpired();
+            // The cart is out of the store, so nothing changes it anymore
+            if (!entry.cart.isEmpty()) {
+                cartAnalytics.cartAbandoned();
+            }
+        }
+    }
+
+    private void evictIfOverCapacity(Entry entry, long tickEnd) {
+        if (drop(entry, overCapacity() ? tickEnd : Long.MIN_VALUE)) {
+            cartMetrics.cartEvicted();
+        }
+    }
+
+    /**
+     * Removes the cart of the entry if its deadline is not after the given time, or reschedules the
+     * entry at the cart's current deadline. Entries of carts that were removed, or removed and created
+     * again, are discarded.
+     */
+    private boolean drop(Entry entry, long dueBy) {
+        var lastAccess = new long[1];
+        var present = new boolean[1];
+
+        boolean removed = cartStore.removeIf(entry.cartId, cart -> {
+            if (cart != entry.cart) {
+                return false;
+            }
+            present[0] = true;
+            lastAccess[0] = cart.getLastAccessNanos();
+            return dueBy != Long.MIN_VALUE && lastAccess[0] + horizonNanos - dueBy <= 0;
+        }, cart -> {
+            cartJournal.cartEmptied(entry.cartId, cart);
+            inventory.releaseCart(cart);
+        });
+
+        if (!removed && present[0]) {
+            wheel.schedule(entry, lastAccess[0] + horizonNanos);
+        }
+        return removed;
+    }
+
+    private static final class Entry {
+
+        private final String cartId;
+        private final CompactCart cart;
+
+        private Entry(String cartId, CompactCart cart) {
+            this.cartId = cartId;
+            this.cart = cart;
+        }
+    }
+}
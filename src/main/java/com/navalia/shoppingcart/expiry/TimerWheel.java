@@ -0,0 +1,87 @@
+package com.navalia.shoppingcart.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: entries are dropped into the bucket of their deadline tick, so scheduling is a
+ * lock-free queue offer and every tick only looks at the entries of one bucket. Entries whose deadline
+ * lies more than one revolution ahead share a bucket with earlier ones, so consumers must check the
+ * real deadline and reschedule the entries that are not due yet.
+ * <p>
+ * Scheduling is thread-safe, while {@link #advance} and {@link #drainAhead} must be called by a single
+ * thread.
+ */
+final class TimerWheel<T> {
+
+    private final ConcurrentLinkedQueue<T>[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final long origin;
+    private volatile long processedTick;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long tickNanos, long spanNanos, long origin) {
+        int size = Integer.highestOneBit((int) Math.min(1 << 16, Math.max(2, spanNanos / tickNanos)) * 2 - 1);
+
+        this.buckets = new ConcurrentLinkedQueue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = size - 1;
+        this.tickNanos = tickNanos;
+        this.origin = origin;
+        this.processedTick = -1;
+    }
+
+    void schedule(T entry, long deadlineNanos) {
+        long tick = Math.max((deadlineNanos - origin) / tickNanos, processedTick + 1);
+
+        buckets[(int) (tick & mask)].offer(entry);
+    }
+
+    /**
+     * Hands every entry of the buckets whose tick has fully elapsed at the given time to the consumer.
+     */
+    void advance(long nowNanos, Consumer<T> consumer) {
+        long target = (nowNanos - origin) / tickNanos - 1;
+        long last = Math.min(target, processedTick + buckets.length);
+
+        for (long tick = processedTick + 1; tick <= last; tick++) {
+            drain(tick, consumer);
+            processedTick = tick;
+        }
+        processedTick = Math.max(processedTick, target);
+    }
+
+    /**
+     * Hands the entries of the bucket the given number of ticks after the last processed one to the
+     * consumer, which may reschedule them, without moving the wheel.
+     */
+    void drainAhead(int ticks, Consumer<T> consumer) {
+        drain(processedTick + ticks, consumer);
+    }
+
+    /**
+     * End of the tick of the bucket the given number of ticks after the last processed one.
+     */
+    long tickEnd(int ticks) {
+        return origin + (processedTick + ticks + 1) * tickNanos;
+    }
+
+    private void drain(long tick, Consumer<T> consumer) {
+        var bucket = buckets[(int) (tick & mask)];
+        List<T> entries = new ArrayList<>();
+
+        for (T entry = bucket.poll(); entry != null; entry = bucket.poll()) {
+            entries.add(entry);
+        }
+        entries.forEach(consumer);
+    }
+
+    int size() {
+        return buckets.length;
+    }
+}
@@ -0,0 +1,76 @@
+package com.navalia.shoppingcart.inventory;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+
+/**
+ * Stock of the products that can be ordered. Units added to a cart are reserved, taking them out of
+ * the available stock until they are removed from the cart, the cart is emptied or the cart expires.
+ * Closing the order of a cart sells its units: they stay out of the stock for good.
+ * <p>
+ * Products are identified by id, which unlike catalog indexes stays the same when the catalog
+ * changes. The cart service reserves and releases units while the cart is held by the
+ * {@link com.navalia.shoppingcart.store.CartStore}, so implementations must never block, except in
+ * {@link #replenish}.
+ * <p>
+ * When the carts are partitioned across instances, each one holds part of the stock, and units move
+ * between them: lent to an instance whose stock runs short, or given away when the members change.
+ */
+public interface Inventory {
+
+    /** Units available of a product whose stock is not tracked. */
+    long UNLIMITED = Long.MAX_VALUE;
+
+    /**
+     * Takes the given amount of the product out of its available stock.
+     *
+     * @return false, reserving nothing, if fewer units are available
+     */
+    boolean reserve(int itemId, int amount);
+
+    /**
+     * Gives the given amount of the product back to its available stock.
+     */
+    void release(int itemId, int amount);
+
+    /**
+     * Units of the product that are not reserved, or {@link #UNLIMITED} if its stock is not tracked.
+     */
+    long available(int itemId);
+
+    /**
+     * Takes units of the product out of the available stock, to lend them to another instance whose
+     * stock of it runs short.
+     *
+     * @return the units taken, none if the stock of the product is not tracked
+     */
+    default long lend(int itemId, long amount) {
+        return 0;
+    }
+
+    /**
+     * Adds units another instance lent or gave to the available stock of the product.
+     */
+    default void receive(int itemId, long units) {
+        // nothing to add to
+    }
+
+    /**
+     * Asks the other instances for units of the product, when fewer than the given amount are
+     * available here. Unlike the other methods, it waits for them, so it is only called while no
+     * cart is held.
+     *
+     * @return whether units were added to the available stock
+     */
+    default boolean replenish(int itemId, int amount) {
+        return false;
+    }
+
+    /**
+     * Gives back the units of every line of the cart, when it is emptied or dropped.
+     */
+    default void releaseCart(CompactCart cart) {
+        for (int line = 0; line < cart.getLines(); line++) {
+            release(cart.getLineProductId(line), cart.getLineAmount(line));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.navalia.shoppingcart.inventory;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.inventory")
+public class InventoryProperties {
+
+    /** Whether adding items to a cart reserves them from the stock of the inventory file. */
+    private boolean enabled = false;
+
+    /** CSV file with the stock of each product. Products missing from it have an unlimited stock. */
+    private String file = "";
+}
@@ -0,0 +1,16 @@
+package com.navalia.shoppingcart.inventory;
+
+/**
+ * Other instances of the cluster, which an {@link Inventory} borrows units from when its own stock
+ * of a product runs short.
+ */
+@FunctionalInterface
+public interface StockLenders {
+
+    /**
+     * Borrows units of the product from the other instances, waiting for their answers.
+     *
+     * @return the units lent, which may be more or fewer than the amount asked
+     */
+    long borrow(int itemId, long amount);
+}
@@ -0,0 +1,337 @@
+package com.navalia.shoppingcart.inventory.impl;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.cluster.ClusterProperties;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.inventory.InventoryProperties;
+import com.navalia.shoppingcart.inventory.StockLenders;
+import com.navalia.shoppingcart.journal.CartJournal;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link Inventory} keeping the available units of each product in one slot of an
+ * {@link AtomicLongArray}. A reservation is a compare-and-set loop that only succeeds while enough
+ * units are left, so the stock never goes negative, not even for an instant, and no lock is taken:
+ * requests for a hot product retry their CAS instead of queuing behind each other, and requests for
+ * different products never touch the same slot.
+ * <p>
+ * The stock comes from a CSV file with one {@code id,stock} line per product and an optional header
+ * line. Products missing from it are not tracked and can always be ordered. The stock of the file is
+ * the one before any cart is filled: units held by the carts recovered from the journal are reserved
+ * again on startup. Recovered units beyond the stock are kept as a shortfall of their product, which
+ * the first units released settle instead of going back to the stock, so that releasing every cart
+ * never brings the stock above the one of the file.
+ * <p>
+ * When the carts are partitioned across instances, each instance starts with its share of the stock of
+ * the file, split between the instances of {@code cart.cluster.nodes} in the order of their names, so
+ * that the cluster as a whole never sells more than the file; an instance left out of the list starts
+ * with none. Units then only move between the instances, as {@link com.navalia.shoppingcart.cluster.StockBalancer}
+ * spreads them when the members change: an instance short of a product borrows it from the
+ * {@link StockLenders} before turning an order down, and lends at least what it is asked for and up to
+ * half of what it has left, so that a product in demand moves in a few large steps rather than one
+ * order at a time.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.inventory", name = "enabled", havingValue = "true")
+public class AtomicStockInventory implements Inventory {
+
+    private static final String LOGGING_PREFIX = "[AtomicStockInventory] ";
+
+    // Slot + 1 of the product with each id, zero when its stock is not tracked
+    private final int[] slotById;
+    private final AtomicLongArray available;
+    // Units held by recovered carts that the stock could not cover, per slot
+    private final AtomicLongArray shortfall;
+    private volatile StockLenders lenders = (itemId, amount) -> 0;
+
+    /**
+     * The journal is only a dependency so that the carts it recovers are in the store by the time
+     * their units are reserved.
+     */
+    public AtomicStockInventory(CartStore cartStore, CartJournal cartJournal, InventoryProperties properties, ClusterProperties cluster) throws IOException {
+        if (properties.getFile() == null || properties.getFile().isBlank()) {
+            throw new IllegalArgumentException("The inventory is enabled, but cart.inventory.file is not set.");
+        }
+
+        long start = System.nanoTime();
+        var stock = parse(Files.readAllBytes(Paths.get(properties.getFile())));
+        if (cluster.isEnabled() && !cluster.getNodes().isEmpty()) {
+            keepShare(stock.units, cluster.getSelf().trim(), cluster.getNodes());
+        }
+        this.slotById = stock.slotById;
+        this.available = new AtomicLongArray(stock.units);
+        this.shortfall = new AtomicLongArray(stock.units.length);
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Loaded the stock of", String.valueOf(stock.units.length), "product(s) from",
+                properties.getFile(), "in", String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms."));
+        reserveRecoveredCarts(cartStore);
+    }
+
+    @Override
+    public boolean reserve(int itemId, int amount) {
+        int slot = slot(itemId);
+        if (slot < 0) {
+            return true;
+        }
+
+        long current = available.get(slot);
+        while (current >= amount) {
+            long witness = available.compareAndExchange(slot, current, current - amount);
+            if (witness == current) {
+                return true;
+            }
+            current = witness;
+        }
+        return false;
+    }
+
+    @Override
+    public void release(int itemId, int amount) {
+        receive(itemId, amount);
+    }
+
+    @Override
+    public long lend(int itemId, long amount) {
+        int slot = slot(itemId);
+        if (slot < 0) {
+            return 0;
+        }
+
+        long current = available.get(slot);
+        while (current > 0) {
+            long lent = Math.min(current, Math.max(amount, current / 2));
+            long witness = available.compareAndExchange(slot, current, current - lent);
+            if (witness == current) {
+                return lent;
+            }
+            current = witness;
+        }
+        return 0;
+    }
+
+    /**
+     * Takes up to the given amount of the product out of the available stock, to give it to another
+     * instance.
+     *
+     * @return the units taken
+     */
+    public long take(int itemId, long amount) {
+        int slot = slot(itemId);
+        if (slot < 0) {
+            return 0;
+        }
+
+        long current = available.get(slot);
+        while (current > 0) {
+            long taken = Math.min(current, amount);
+            long witness = available.compareAndExchange(slot, current, current - taken);
+            if (witness == current) {
+                return taken;
+            }
+            current = witness;
+        }
+        return 0;
+    }
+
+    @Override
+    public void receive(int itemId, long units) {
+        int slot = slot(itemId);
+        if (slot < 0) {
+            return;
+        }
+
+        long returned = units;
+        long owed = shortfall.get(slot);
+        while (owed > 0) {
+            long settled = Math.min(owed, returned);
+            long witness = shortfall.compareAndExchange(slot, owed, owed - settled);
+            if (witness == owed) {
+                returned -= settled;
+                break;
+            }
+            owed = witness;
+        }
+        if (returned > 0) {
+            available.getAndAdd(slot, returned);
+        }
+    }
+
+    @Override
+    public boolean replenish(int itemId, int amount) {
+        int slot = slot(itemId);
+        if (slot < 0) {
+            return false;
+        }
+
+        long missing = amount - available.get(slot);
+        if (missing <= 0) {
+            return true;
+        }
+        long lent = lenders.borrow(itemId, missing);
+        receive(itemId, lent);
+        return lent > 0;
+    }
+
+    /**
+     * Sets the instances to borrow units from, when the stock of a product runs short here.
+     */
+    public void setLenders(StockLenders lenders) {
+        this.lenders = lenders;
+    }
+
+    /**
+     * Ids of the products whose stock is tracked.
+     */
+    public int[] getItemIds() {
+        var ids = new int[available.length()];
+        for (int id = 1; id < slotById.length; id++) {
+            if (slotById[id] != 0) {
+                ids[slotById[id] - 1] = id;
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public long available(int itemId) {
+        int slot = slot(itemId);
+        return slot < 0 ? UNLIMITED : available.get(slot);
+    }
+
+    private int slot(int itemId) {
+        return itemId > 0 && itemId < slotById.length ? slotById[itemId] - 1 : -1;
+    }
+
+    /**
+     * Reserves the units of the carts already in the store. Units beyond the stock, which can happen
+     * when the stock file was lowered since the carts were filled, stay in the carts but are only
+     * reserved up to what is available, the rest being recorded as a shortfall.
+     */
+    private void reserveRecoveredCarts(CartStore cartStore) {
+        var reserved = new long[2];
+
+        for (var cartId : cartStore.cartIds()) {
+            cartStore.peek(cartId, cart -> {
+                for (int line = 0; line < cart.getLines(); line++) {
+                    int slot = slot(cart.getLineProductId(line));
+                    if (slot >= 0) {
+                        long wanted = cart.getLineAmount(line);
+                        long taken = Math.min(wanted, Math.max(available.get(slot), 0));
+                        available.addAndGet(slot, -taken);
+                        shortfall.addAndGet(slot, wanted - taken);
+                        reserved[0] += taken;
+                        reserved[1] += wanted - taken;
+                    }
+                }
+                return null;
+            });
+        }
+
+        if (reserved[0] > 0 || reserved[1] > 0) {
+            log.info(String.join(" ", LOGGING_PREFIX, "Reserved", String.valueOf(reserved[0]), "unit(s) held by",
+                    String.valueOf(cartStore.size()), "recovered cart(s)."));
+        }
+        if (reserved[1] > 0) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Recovered carts hold", String.valueOf(reserved[1]), "unit(s) more than the stock."));
+        }
+    }
+
+    /**
+     * Parses a stock file.
+     *
+     * @throws IllegalArgumentException if a line is malformed, or two lines share a product id
+     */
+    private static Stock parse(byte[] data) {
+        var lines = new String(data, StandardCharsets.UTF_8).split("\n", -1);
+        var ids = new int[lines.length];
+        var units = new long[lines.length];
+        int count = 0;
+        int maxId = 0;
+
+        for (int line = 0; line < lines.length; line++) {
+            var text = lines[line].trim();
+            if (text.isEmpty() || (line == 0 && !Character.isDigit(text.charAt(0)))) {
+                continue;
+            }
+
+            var fields = text.split(",", -1);
+            if (fields.length != 2) {
+                throw error(line, "a line holds an id and a stock");
+            }
+            ids[count] = (int) number(fields[0], ProductCatalog.MAX_PRODUCT_ID, line);
+            units[count] = number(fields[1], Long.MAX_VALUE - 1, line);
+            if (ids[count] == 0) {
+                throw error(line, "product ids start at 1");
+            }
+            maxId = Math.max(maxId, ids[count++]);
+        }
+
+        var slotById = new int[maxId + 1];
+        for (int slot = 0; slot < count; slot++) {
+            if (slotById[ids[slot]] != 0) {
+                throw new IllegalArgumentException(String.join(" ", "Invalid inventory: product id", String.valueOf(ids[slot]), "is used twice."));
+            }
+            slotById[ids[slot]] = slot + 1;
+        }
+        return new Stock(slotById, Arrays.copyOf(units, count));
+    }
+
+    /**
+     * Keeps the share of the stock of the given instance: the stock divided by the number of instances,
+     * plus one unit of the remainder for each of the first instances by name.
+     */
+    private static void keepShare(long[] units, String self, List<String> nodes) {
+        var names = nodes.stream().map(String::trim).filter(node -> !node.isEmpty()).distinct().sorted().toArray(String[]::new);
+        int node = Arrays.asList(names).indexOf(self);
+
+        for (int slot = 0; slot < units.length; slot++) {
+            units[slot] = node < 0 ? 0 : units[slot] / names.length + (node < units[slot] % names.length ? 1 : 0);
+        }
+
+        if (node < 0) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Instance", self, "is not in cart.cluster.nodes, so it holds no stock."));
+        } else {
+            log.info(String.join(" ", LOGGING_PREFIX, "Holding share", String.valueOf(node + 1), "of", String.valueOf(names.length), "of the stock."));
+        }
+    }
+
+    private static long number(String field, long max, int line) {
+        try {
+            long value = Long.parseLong(field.trim());
+            if (value < 0 || value > max) {
+                throw error(line, String.join(" ", "a number is not between 0 and", String.valueOf(max)));
+            }
+            return value;
+        } catch (NumberFormatException ex) {
+            throw error(line, "a number was expected");
+        }
+    }
+
+    private static IllegalArgumentException error(int line, String reason) {
+        return new IllegalArgumentException(String.join(" ", "Invalid inventory line", String.valueOf(line + 1) + ":", reason + "."));
+    }
+
+    private static final class Stock {
+
+        private final int[] slotById;
+        private final long[] units;
+
+        private Stock(int[] slotById, long[] units) {
+            this.slotById = slotById;
+            this.units = units;
+        }
+    }
+}
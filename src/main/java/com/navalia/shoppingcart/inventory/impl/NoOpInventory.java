@@ -0,0 +1,34 @@
+package com.navalia.shoppingcart.inventory.impl;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.inventory.Inventory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link Inventory} used when stock reservation is disabled: every product has an unlimited stock.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.inventory", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpInventory implements Inventory {
+
+    @Override
+    public boolean reserve(int itemId, int amount) {
+        return true;
+    }
+
+    @Override
+    public void release(int itemId, int amount) {
+        // nothing is ever reserved
+    }
+
+    @Override
+    public long available(int itemId) {
+        return UNLIMITED;
+    }
+
+    @Override
+    public void releaseCart(CompactCart cart) {
+        // nothing is ever reserved
+    }
+}
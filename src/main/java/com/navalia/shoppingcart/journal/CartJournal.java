@@ -0,0 +1,34 @@
+package com.navalia.shoppingcart.journal;
+
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+
+import java.util.List;
+
+/**
+ * Write-ahead journal of cart mutations. Every record method must be called while the cart is held
+ * by the {@link com.navalia.shoppingcart.store.CartStore}, right after the change was applied to it,
+ * so that the records of a cart are journaled in the order they were applied.
+ * <p>
+ * The methods return the sequence number of the record, which must then be passed to
+ * {@link #awaitDurable(long)} once the cart is released. As they run while the cart is held, they
+ * never block, whatever the configuration: they only queue the record for the writer. Items are journaled by product id, which
+ * unlike catalog indexes stays the same when the catalog changes.
+ */
+public interface CartJournal {
+
+    long itemsAdded(String cartId, CompactCart cart, int itemId, int amount);
+
+    long itemsRemoved(String cartId, CompactCart cart, int itemId, int amount);
+
+    long batchApplied(String cartId, CompactCart cart, List<OrderOperationRequest> operations);
+
+    long cartEmptied(String cartId, CompactCart cart);
+
+    /**
+     * Blocks until the record with the given sequence number is durable, when the journal is
+     * configured to do so.
+     */
+    void awaitDurable(long sequence);
+
+}
@@ -0,0 +1,30 @@
+package com.navalia.shoppingcart.journal;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.journal")
+public class JournalProperties {
+
+    /** Whether cart mutations are journaled to disk and recovered on startup. */
+    private boolean enabled = false;
+
+    /** Directory holding the journal segments and the snapshots. */
+    private String directory = "data/journal";
+
+    /** Whether requests wait for their journal record to be fsynced before being answered. */
+    private boolean sync = true;
+
+    /** Size after which a new journal segment is started. */
+    private long segmentSize = 64L * 1024 * 1024;
+
+    /** Time between two snapshots of every cart. */
+    private Duration snapshotInterval = Duration.ofMinutes(5);
+}
@@ -0,0 +1,649 @@
+package com.navalia.shoppingcart.journal.impl;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.journal.CartJournal;
+import com.navalia.shoppingcart.journal.JournalProperties;
+import com.navalia.shoppingcart.store.CartStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * {@link CartJournal} that appends every record to segment files through a {@link FileChannel}.
+ * <p>
+ * Records are queued in memory by the request threads and written by a single writer thread, which
+ * drains everything queued since its last write and fsyncs it at once (group commit). The queue is a
+ * linked list the request threads append to with a compare-and-set on its tail, which also numbers the
+ * records, so appending takes no lock and carts held by different threads never wait for each other
+ * to journal their changes. Periodic
+ * snapshots of every cart bound the part of the journal that must be replayed: on startup the carts
+ * are rebuilt from the latest snapshot plus the records written after it.
+ * <p>
+ * Snapshots are taken while carts keep changing, so every cart stores the sequence number of the
+ * last record applied to it, and replay skips the records a cart already contains.
+ * <p>
+ * Records and snapshots also keep the versions of the carts, and the version the store starts new
+ * carts from, so that recovered carts get their versions back and carts created afterwards start
+ * above every version recovered: a cart never goes back to a version it had before the restart.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.journal", name = "enabled", havingValue = "true")
+public class FileCartJournal implements CartJournal, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[FileCartJournal] ";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x43534E56;
+    // Buffer of the record appended by destroy(), after which no record is accepted
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final CartStore cartStore;
+    private final CatalogRegistry catalogRegistry;
+    private final JournalProperties properties;
+    private final Path directory;
+
+    // Last record appended, whose sequence the next record follows
+    private final AtomicReference<Record> tail = new AtomicReference<>();
+    // A lock rather than a monitor, so that requests waiting on virtual threads release their carrier
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableCondition = durableLock.newCondition();
+    // Highest sequence and cart version found on disk, only used while recovering
+    private long recoveredSequence;
+    private long recoveredVersion;
+    private volatile long durableSequence;
+    private volatile boolean writerParked;
+    private volatile boolean rotateRequested;
+    private volatile IOException failure;
+
+    private FileChannel segment;
+    private long segmentBytes;
+
+    private final Thread writer;
+    private final ScheduledExecutorService snapshotScheduler;
+
+    public FileCartJournal(CartStore cartStore, CatalogRegistry catalogRegistry, JournalProperties properties) throws IOException {
+        this.cartStore = cartStore;
+        this.catalogRegistry = catalogRegistry;
+        this.properties = properties;
+        this.directory = Paths.get(properties.getDirectory());
+
+        Files.createDirectories(directory);
+        recover();
+        openSegment(recoveredSequence + 1);
+        // The writer starts from this record rather than reading the tail, which may have moved by then
+        var first = new Record(null, recoveredSequence);
+        tail.set(first);
+
+        this.writer = new Thread(() -> writeLoop(first), "cart-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        long interval = properties.getSnapshotInterval().toMillis();
+        this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "cart-journal-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long itemsAdded(String cartId, CompactCart cart, int itemId, int amount) {
+        return append(cart, itemRecord(JournalCodec.ADD, cartId, itemId, amount));
+    }
+
+    @Override
+    public long itemsRemoved(String cartId, CompactCart cart, int itemId, int amount) {
+        return append(cart, itemRecord(JournalCodec.REMOVE, cartId, itemId, amount));
+    }
+
+    @Override
+    public long batchApplied(String cartId, CompactCart cart, List<OrderOperationRequest> operations) {
+        var record = JournalCodec.newRecord(JournalCodec.BATCH, JournalCodec.cartIdBytes(cartId),
+                Integer.BYTES + operations.size() * JournalCodec.BATCH_ITEM_SIZE);
+
+        record.putInt(operations.size());
+        for (var operation : operations) {
+            record.put(operation.getOperation().equals(OperationEnum.REMOVE) ? JournalCodec.REMOVE : JournalCodec.ADD)
+                    .putInt(operation.getItemId())
+                    .putInt(operation.getAmount());
+        }
+
+        return append(cart, record);
+    }
+
+    @Override
+    public long cartEmptied(String cartId, CompactCart cart) {
+        return append(cart, JournalCodec.newRecord(JournalCodec.EMPTY, JournalCodec.cartIdBytes(cartId), 0));
+    }
+
+    @Override
+    public void awaitDurable(long recordSequence) {
+        if (!properties.isSync() || recordSequence <= durableSequence) {
+            return;
+        }
+
+        durableLock.lock();
+        try {
+            while (durableSequence < recordSequence) {
+                if (failure != null) {
+                    throw new UncheckedIOException("The cart journal cannot be written.", failure);
+                }
+                try {
+                    durableCondition.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the cart journal.", ex);
+                }
+            }
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of every cart, then deletes the snapshots and journal segments it makes obsolete.
+     */
+    public synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        // Every record up to this one was applied to its cart before the sequence was read, and the
+        // store moved its first version past the carts removed by these records
+        long snapshotSequence = tail.get().sequence;
+        long firstVersion = cartStore.getFirstVersion();
+
+        rotateRequested = true;
+
+        var file = directory.resolve(fileName(SNAPSHOT_PREFIX, snapshotSequence, SNAPSHOT_SUFFIX));
+        var temporaryFile = directory.resolve(file.getFileName() + ".tmp");
+        int carts = writeSnapshot(temporaryFile, snapshotSequence, firstVersion);
+
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (var obsolete : files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (!obsolete.equals(file)) {
+                Files.deleteIfExists(obsolete);
+            }
+        }
+
+        var segments = files(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (firstSequence(segments.get(i + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= snapshotSequence + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Snapshot of", String.valueOf(carts), "cart(s) written in",
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms."));
+    }
+
+    @Override
+    public void destroy() throws IOException, InterruptedException {
+        snapshotScheduler.shutdownNow();
+
+        close();
+        writer.join();
+
+        if (failure == null) {
+            snapshot();
+        }
+        segment.close();
+    }
+
+    private ByteBuffer itemRecord(byte type, String cartId, int itemId, int amount) {
+        var record = JournalCodec.newRecord(type, JournalCodec.cartIdBytes(cartId), JournalCodec.ITEM_SIZE);
+
+        record.putInt(itemId).putInt(amount);
+        return record;
+    }
+
+    /**
+     * Numbers the record after the last one appended and queues it for the writer. The records of a
+     * cart are appended while it is held, so they keep the order in which they were applied.
+     */
+    private long append(CompactCart cart, ByteBuffer buffer) {
+        var record = new Record(buffer, 0);
+        Record last;
+
+        do {
+            last = tail.get();
+            if (last.buffer == END || failure != null) {
+                throw new IllegalStateException("The cart journal is not accepting records.");
+            }
+            record.sequence = last.sequence + 1;
+        } while (!tail.compareAndSet(last, record));
+
+        JournalCodec.setSequence(buffer, record.sequence);
+        JournalCodec.setVersion(buffer, cart.getVersion());
+        link(last, record);
+
+        cart.setJournalSequence(record.sequence);
+        return record.sequence;
+    }
+
+    /**
+     * Appends the record after which the writer stops, once it wrote every record before it.
+     */
+    private void close() {
+        var record = new Record(END, 0);
+        Record last;
+
+        do {
+            last = tail.get();
+            if (last.buffer == END) {
+                return;
+            }
+            record.sequence = last.sequence;
+        } while (!tail.compareAndSet(last, record));
+
+        link(last, record);
+    }
+
+    /**
+     * Makes the record reachable by the writer, which the compare-and-set on the tail does not do on
+     * its own, and wakes the writer up if it waits for records.
+     */
+    private void link(Record last, Record record) {
+        last.next = record;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop(Record first) {
+        var last = first;
+        List<ByteBuffer> batch = new ArrayList<>();
+
+        while (true) {
+            var next = last.next;
+
+            if (next == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                // Parked is published before next is read again, and next before parked is read by link()
+                writerParked = true;
+                if (last.next == null) {
+                    LockSupport.park(this);
+                }
+                writerParked = false;
+                continue;
+            }
+
+            boolean closed = false;
+            for (; next != null; next = next.next) {
+                if (next.buffer == END) {
+                    closed = true;
+                    break;
+                }
+                batch.add(next.buffer);
+                last = next;
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } catch (IOException ex) {
+                    log.error(String.join(" ", LOGGING_PREFIX, "Journal write failed:", ex.getMessage()));
+                    failure = ex;
+                    signalDurable();
+                    return;
+                }
+
+                durableSequence = last.sequence;
+                signalDurable();
+                batch.clear();
+            }
+            if (closed) {
+                return;
+            }
+        }
+    }
+
+    private void signalDurable() {
+        durableLock.lock();
+        try {
+            durableCondition.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    private void write(List<ByteBuffer> batch) throws IOException {
+        if (rotateRequested || segmentBytes >= properties.getSegmentSize()) {
+            rotateRequested = false;
+            segment.close();
+            openSegment(JournalCodec.getSequence(batch.get(0)));
+        }
+
+        long bytes = 0;
+        for (var record : batch) {
+            JournalCodec.seal(record);
+            bytes += record.remaining();
+        }
+
+        var buffers = batch.toArray(ByteBuffer[]::new);
+        long written = 0;
+        while (written < bytes) {
+            written += segment.write(buffers);
+        }
+
+        segment.force(false);
+        segmentBytes += bytes;
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        segment = FileChannel.open(directory.resolve(fileName(SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = segment.size();
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (Exception ex) {
+            log.error(String.join(" ", LOGGING_PREFIX, "Snapshot failed:", ex.getMessage()));
+        }
+    }
+
+    private int writeSnapshot(Path file, long snapshotSequence, long firstVersion) throws IOException {
+        var cartBytes = new ByteArrayOutputStream();
+        var cartOut = new DataOutputStream(cartBytes);
+        int carts = 0;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var fileOut = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            var checkedOut = new CheckedOutputStream(fileOut, new CRC32());
+            var out = new DataOutputStream(checkedOut);
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(snapshotSequence);
+            out.writeLong(firstVersion);
+
+            for (var cartId : cartStore.cartIds()) {
+                var id = JournalCodec.cartIdBytes(cartId);
+
+                cartBytes.reset();
+                boolean present = cartStore.peek(cartId, cart -> encodeCart(cart, cartOut));
+                if (present) {
+                    out.writeByte(1);
+                    out.writeShort(id.length);
+                    out.write(id);
+                    cartBytes.writeTo(out);
+                    carts++;
+                }
+            }
+
+            out.writeByte(0);
+            out.flush();
+            new DataOutputStream(fileOut).writeInt((int) checkedOut.getChecksum().getValue());
+            fileOut.flush();
+            channel.force(true);
+        }
+
+        return carts;
+    }
+
+    private static boolean encodeCart(CompactCart cart, DataOutputStream out) {
+        if (cart.getJournalSequence() == 0) {
+            return false;
+        }
+
+        try {
+            out.writeLong(cart.getJournalSequence());
+            out.writeLong(cart.getVersion());
+            out.writeInt(cart.getLines());
+            for (int line = 0; line < cart.getLines(); line++) {
+                out.writeInt(cart.getLineProductId(line));
+                out.writeInt(cart.getLineAmount(line));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return true;
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        long snapshotSequence = loadLatestSnapshot();
+        long records = 0;
+
+        recoveredSequence = snapshotSequence;
+        for (var file : files(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            records += replaySegment(file, snapshotSequence);
+        }
+        durableSequence = recoveredSequence;
+        if (recoveredSequence > 0) {
+            cartStore.advanceFirstVersion(recoveredVersion + 1);
+        }
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Recovered", String.valueOf(cartStore.size()), "cart(s) from the snapshot at",
+                String.valueOf(snapshotSequence), "and", String.valueOf(records), "journal record(s) in",
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), "ms."));
+    }
+
+    private long loadLatestSnapshot() throws IOException {
+        var snapshots = files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            try {
+                return loadSnapshot(snapshots.get(i));
+            } catch (IOException ex) {
+                log.error(String.join(" ", LOGGING_PREFIX, "Ignoring unreadable snapshot", snapshots.get(i).toString(), ex.getMessage()));
+            }
+        }
+        return 0;
+    }
+
+    private long loadSnapshot(Path file) throws IOException {
+        verifySnapshot(file);
+
+        var catalog = catalogRegistry.current();
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a cart snapshot.");
+            }
+            long snapshotSequence = in.readLong();
+            recoveredVersion = Math.max(recoveredVersion, in.readLong() - 1);
+
+            while (in.readByte() == 1) {
+                var id = new byte[in.readUnsignedShort()];
+                in.readFully(id);
+                long cartSequence = in.readLong();
+                long cartVersion = in.readLong();
+                int lines = in.readInt();
+                var items = new int[lines * 2];
+                for (int i = 0; i < items.length; i++) {
+                    items[i] = in.readInt();
+                }
+
+                cartStore.mutate(new String(id, StandardCharsets.UTF_8), cart -> {
+                    for (int i = 0; i < items.length; i += 2) {
+                        int product = catalog.indexOf(items[i]);
+                        if (product >= 0) {
+                            cart.add(catalog, product, items[i + 1]);
+                        }
+                    }
+                    cart.setJournalSequence(cartSequence);
+                    cart.setVersion(cartVersion);
+                    return null;
+                });
+                recoveredVersion = Math.max(recoveredVersion, cartVersion);
+            }
+
+            return snapshotSequence;
+        }
+    }
+
+    /**
+     * Checks the trailing checksum of a snapshot before any of its carts is loaded.
+     */
+    private static void verifySnapshot(Path file) throws IOException {
+        long contentLength = Files.size(file) - Integer.BYTES;
+        if (contentLength < Integer.BYTES + 2 * Long.BYTES + 1) {
+            throw new IOException("Snapshot is truncated.");
+        }
+
+        try (var fileIn = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            var checkedIn = new CheckedInputStream(fileIn, new CRC32());
+            var buffer = new byte[1 << 16];
+
+            for (long remaining = contentLength; remaining > 0; ) {
+                int read = checkedIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Snapshot is truncated.");
+                }
+                remaining -= read;
+            }
+
+            if (new DataInputStream(fileIn).readInt() != (int) checkedIn.getChecksum().getValue()) {
+                throw new IOException("Snapshot checksum mismatch.");
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a segment that are newer than both the snapshot and the cart they
+     * belong to. A torn or corrupted tail, left by a crash in the middle of a write, is truncated.
+     *
+     * @return the number of records applied
+     */
+    private long replaySegment(Path file, long snapshotSequence) throws IOException {
+        long applied = 0;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            while (buffer.hasRemaining()) {
+                int bodyLength = JournalCodec.readFrame(buffer);
+                if (bodyLength < 0) {
+                    log.warn(String.join(" ", LOGGING_PREFIX, "Truncating torn journal tail of", file.toString(), "at", String.valueOf(buffer.position())));
+                    channel.truncate(buffer.position());
+                    break;
+                }
+
+                buffer.position(buffer.position() + JournalCodec.FRAME_HEADER_SIZE);
+                int next = buffer.position() + bodyLength;
+                long recordSequence = buffer.getLong();
+                long recordVersion = buffer.getLong();
+
+                recoveredSequence = Math.max(recoveredSequence, recordSequence);
+                recoveredVersion = Math.max(recoveredVersion, recordVersion);
+                if (recordSequence > snapshotSequence && replayRecord(recordSequence, recordVersion, buffer)) {
+                    applied++;
+                }
+                buffer.position(next);
+            }
+        }
+
+        return applied;
+    }
+
+    private boolean replayRecord(long recordSequence, long recordVersion, ByteBuffer buffer) {
+        byte type = buffer.get();
+        var cartId = JournalCodec.readCartId(buffer);
+        long cartSequence = cartStore.peek(cartId, CompactCart::getJournalSequence);
+
+        if (recordSequence <= cartSequence) {
+            return false;
+        }
+
+        if (type == JournalCodec.EMPTY) {
+            cartStore.remove(cartId, CompactCart::isEmpty);
+            return true;
+        }
+
+        int count = type == JournalCodec.BATCH ? buffer.getInt() : 1;
+        var operations = new int[count * 3];
+        for (int i = 0; i < count; i++) {
+            operations[i * 3] = type == JournalCodec.BATCH ? buffer.get() : type;
+            operations[i * 3 + 1] = buffer.getInt();
+            operations[i * 3 + 2] = buffer.getInt();
+        }
+
+        var catalog = catalogRegistry.current();
+        cartStore.mutate(cartId, cart -> {
+            for (int i = 0; i < operations.length; i += 3) {
+                int product = catalog.indexOf(operations[i + 1]);
+                if (product < 0) {
+                    continue;
+                }
+                if (operations[i] == JournalCodec.REMOVE) {
+                    cart.remove(catalog, product, operations[i + 2]);
+                } else {
+                    cart.add(catalog, product, operations[i + 2]);
+                }
+            }
+            cart.setJournalSequence(recordSequence);
+            cart.setVersion(recordVersion);
+            return null;
+        });
+        return true;
+    }
+
+    private List<Path> files(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix) && f.getFileName().toString().endsWith(suffix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String fileName(String prefix, long firstSequence, String suffix) {
+        return String.format("%s%020d%s", prefix, firstSequence, suffix);
+    }
+
+    private static long firstSequence(Path file, String prefix, String suffix) {
+        var name = file.getFileName().toString();
+
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    /**
+     * Record queued for the writer, linked to the record appended after it.
+     */
+    private static final class Record {
+
+        private final ByteBuffer buffer;
+        // Written before the record is published by the compare-and-set on the tail
+        private long sequence;
+        private volatile Record next;
+
+        private Record(ByteBuffer buffer, long sequence) {
+            this.buffer = buffer;
+            this.sequence = sequence;
+        }
+    }
+}
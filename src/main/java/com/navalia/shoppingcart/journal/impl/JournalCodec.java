@@ -0,0 +1,107 @@
+package com.navalia.shoppingcart.journal.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the journal records. On disk, every record is framed as
+ * {@code length:int crc32:int body}, where the body is
+ * {@code sequence:long version:long type:byte cartIdLength:short cartId:utf8 payload} and the payload
+ * depends on the type: {@code itemId:int amount:int} for ADD and REMOVE, {@code count:int} followed by
+ * {@code count} times {@code type:byte itemId:int amount:int} for BATCH, and nothing for EMPTY. The
+ * version is the one of the cart once the record is applied, or of the cart removed for EMPTY.
+ */
+final class JournalCodec {
+
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    static final byte BATCH = 3;
+    static final byte EMPTY = 4;
+
+    static final int FRAME_HEADER_SIZE = 8;
+    static final int BODY_HEADER_SIZE = 19;
+    static final int ITEM_SIZE = 8;
+    static final int BATCH_ITEM_SIZE = 9;
+
+    private static final int MAX_CART_ID_LENGTH = 0xFFFF;
+
+    private JournalCodec() {
+    }
+
+    static byte[] cartIdBytes(String cartId) {
+        var bytes = cartId.getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > MAX_CART_ID_LENGTH) {
+            throw new IllegalArgumentException("Cart ids cannot be longer than 65535 bytes.");
+        }
+        return bytes;
+    }
+
+    /**
+     * Allocates a record and writes its body up to the payload, which the caller then appends.
+     * The sequence number and the version are only written by {@link #setSequence(ByteBuffer, long)}
+     * and {@link #setVersion(ByteBuffer, long)}.
+     */
+    static ByteBuffer newRecord(byte type, byte[] cartId, int payloadSize) {
+        var record = ByteBuffer.allocate(FRAME_HEADER_SIZE + BODY_HEADER_SIZE + cartId.length + payloadSize);
+
+        record.position(FRAME_HEADER_SIZE + 2 * Long.BYTES);
+        record.put(type).putShort((short) cartId.length).put(cartId);
+        return record;
+    }
+
+    static void setSequence(ByteBuffer record, long sequence) {
+        record.putLong(FRAME_HEADER_SIZE, sequence);
+    }
+
+    static long getSequence(ByteBuffer record) {
+        return record.getLong(FRAME_HEADER_SIZE);
+    }
+
+    static void setVersion(ByteBuffer record, long version) {
+        record.putLong(FRAME_HEADER_SIZE + Long.BYTES, version);
+    }
+
+    /**
+     * Writes the frame header of a complete record and rewinds it for writing to disk.
+     */
+    static void seal(ByteBuffer record) {
+        int bodyLength = record.capacity() - FRAME_HEADER_SIZE;
+        var crc = new CRC32();
+
+        crc.update(record.array(), FRAME_HEADER_SIZE, bodyLength);
+        record.putInt(0, bodyLength).putInt(4, (int) crc.getValue());
+        record.clear();
+    }
+
+    /**
+     * Checks the frame at the current position of the buffer.
+     *
+     * @return the body length, or -1 if the frame is incomplete or corrupted
+     */
+    static int readFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < FRAME_HEADER_SIZE) {
+            return -1;
+        }
+
+        int start = buffer.position();
+        int bodyLength = buffer.getInt(start);
+        int expectedCrc = buffer.getInt(start + 4);
+
+        if (bodyLength < BODY_HEADER_SIZE || bodyLength > buffer.remaining() - FRAME_HEADER_SIZE) {
+            return -1;
+        }
+
+        var crc = new CRC32();
+        crc.update(buffer.duplicate().position(start + FRAME_HEADER_SIZE).limit(start + FRAME_HEADER_SIZE + bodyLength));
+        return (int) crc.getValue() == expectedCrc ? bodyLength : -1;
+    }
+
+    static String readCartId(ByteBuffer buffer) {
+        var bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
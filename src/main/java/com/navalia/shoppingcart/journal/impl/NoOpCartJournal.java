@@ -0,0 +1,42 @@
+package com.navalia.shoppingcart.journal.impl;
+
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.journal.CartJournal;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@link CartJournal} used when journaling is disabled: carts only live in memory.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.journal", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpCartJournal implements CartJournal {
+
+    @Override
+    public long itemsAdded(String cartId, CompactCart cart, int itemId, int amount) {
+        return 0;
+    }
+
+    @Override
+    public long itemsRemoved(String cartId, CompactCart cart, int itemId, int amount) {
+        return 0;
+    }
+
+    @Override
+    public long batchApplied(String cartId, CompactCart cart, List<OrderOperationRequest> operations) {
+        return 0;
+    }
+
+    @Override
+    public long cartEmptied(String cartId, CompactCart cart) {
+        return 0;
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        // nothing is ever written
+    }
+}
@@ -0,0 +1,51 @@
+package com.navalia.shoppingcart.json;
+
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes the closed order and order responses with {@link CartResponseWriter} instead of Jackson.
+ * Spring Boot puts converter beans ahead of its own, so every other body still goes through Jackson.
+ */
+@Component
+public class CartResponseMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    private final CartResponseWriter writer;
+
+    public CartResponseMessageConverter(CartResponseWriter writer) {
+        super(MediaType.APPLICATION_JSON);
+        this.writer = writer;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == ClosedOrderResponse.class || clazz == OrderResponse.class;
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Cart responses are only written.", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object response, HttpOutputMessage outputMessage) throws IOException {
+        if (response instanceof ClosedOrderResponse) {
+            writer.write((ClosedOrderResponse) response, outputMessage.getBody());
+        } else {
+            writer.write((OrderResponse) response, outputMessage.getBody());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.navalia.shoppingcart.json;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.entity.Item;
+import com.navalia.shoppingcart.entity.OrderedLines;
+import com.navalia.shoppingcart.entity.Product;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Writes {@link ClosedOrderResponse} and {@link OrderResponse} as JSON straight to an output stream,
+ * byte for byte as Jackson writes them, without reflection or intermediate strings.
+ * <p>
+ * The JSON of each product, which is most of a closed order, is encoded once per catalog version and
+ * then copied into every response that holds it. The orders of this instance are written from their
+ * {@link OrderedLines}, so no item or product is built for them: writing one only allocates its buffer.
+ * The orders answered by another instance of the cluster come with their items, which are written as
+ * they are. The messages of the order responses are encoded the first time they are written, since
+ * they are constants of the cart service.
+ */
+@Component
+public class CartResponseWriter {
+
+    private static final int MAX_BUFFER_SIZE = 8192;
+    private static final int MAX_CACHED_MESSAGES = 64;
+
+    private static final byte[] ORDERED_ITEMS = ascii("{\"orderedItems\":{\"items\":[");
+    private static final byte[] AMOUNT = ascii("{\"amount\":");
+    private static final byte[] TOTAL_PRICE = ascii("]},\"totalPrice\":");
+    private static final byte[] CATALOG_VERSION = ascii(",\"catalogVersion\":");
+    private static final byte[] CART_VERSION = ascii(",\"cartVersion\":");
+    private static final byte[] ORDER_ID = ascii(",\"orderId\":");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] MESSAGE = ascii("{\"message\":");
+
+    private final CatalogRegistry catalogRegistry;
+    private final Map<String, byte[]> messages = new ConcurrentHashMap<>();
+    private volatile ProductFragments productFragments;
+
+    public CartResponseWriter(CatalogRegistry catalogRegistry) {
+        this.catalogRegistry = catalogRegistry;
+    }
+
+    public void write(ClosedOrderResponse response, OutputStream out) throws IOException {
+        var lines = response.getLines();
+        var items = lines == null ? response.getOrderedItems().getItems() : null;
+        int size = lines == null ? items.size() : lines.getLines();
+        var json = new Output(out, Math.min(MAX_BUFFER_SIZE, 128 + size * 96));
+
+        json.write(ORDERED_ITEMS);
+        if (lines == null) {
+            writeItems(json, items, response.getCatalogVersion());
+        } else {
+            writeLines(json, lines);
+        }
+        json.write(TOTAL_PRICE);
+        json.writeNumber(response.getTotalPrice());
+        json.write(CATALOG_VERSION);
+        json.writeNumber(response.getCatalogVersion());
+        json.write(CART_VERSION);
+        json.writeNumber(response.getCartVersion());
+        json.write(ORDER_ID);
+        if (response.getOrderId() == null) {
+            json.write(NULL);
+        } else {
+            json.writeNumber(response.getOrderId());
+        }
+        json.write((byte) '}');
+        json.flush();
+    }
+
+    public void write(OrderResponse response, OutputStream out) throws IOException {
+        var message = message(response.getMessage());
+        var json = new Output(out, 48 + message.length);
+
+        json.write(MESSAGE);
+        json.write(message);
+        json.write(CART_VERSION);
+        json.writeNumber(response.getCartVersion());
+        json.write((byte) '}');
+        json.flush();
+    }
+
+    private void writeLines(Output json, OrderedLines lines) throws IOException {
+        var catalog = lines.getCatalog();
+        var fragments = fragments(catalog);
+
+        for (int line = 0; line < lines.getLines(); line++) {
+            int product = lines.getLineProduct(line);
+            if (line > 0) {
+                json.write((byte) ',');
+            }
+            json.write(AMOUNT);
+            json.writeNumber(lines.getLineAmount(line));
+            json.write(fragments == null ? productFragment(catalog.getProduct(product)) : fragments.get(product));
+        }
+    }
+
+    private void writeItems(Output json, List<Item> items, long catalogVersion) throws IOException {
+        var current = catalogRegistry.current();
+        var fragments = current.getVersion() == catalogVersion ? fragments(current) : null;
+
+        for (int i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            if (i > 0) {
+                json.write((byte) ',');
+            }
+            json.write(AMOUNT);
+            json.writeNumber(item.getAmount());
+            json.write(fragments == null ? productFragment(item.getItemData()) : fragments.get(item.getItemData()));
+        }
+    }
+
+    /**
+     * Fragments of the products of the given catalog, or null if it is no longer the current one.
+     */
+    private ProductFragments fragments(ProductCatalog catalog) {
+        var fragments = productFragments;
+        if (fragments != null && fragments.catalog == catalog) {
+            return fragments;
+        }
+        if (catalogRegistry.current() != catalog) {
+            return null;
+        }
+
+        fragments = new ProductFragments(catalog);
+        productFragments = fragments;
+        return fragments;
+    }
+
+    private byte[] message(String message) {
+        if (message == null) {
+            return NULL;
+        }
+
+        var encoded = messages.get(message);
+        if (encoded == null) {
+            encoded = quote(message);
+            if (messages.size() < MAX_CACHED_MESSAGES) {
+                messages.put(message, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * The end of an item: its product, then the closing brace of the item.
+     */
+    private static byte[] productFragment(Product product) {
+        var bytes = new ByteArrayOutputStream(96);
+
+        bytes.writeBytes(ascii(",\"itemData\":{\"id\":" + product.getId() + ",\"name\":"));
+        bytes.writeBytes(product.getName() == null ? NULL : quote(product.getName()));
+        bytes.writeBytes(ascii(",\"priceInCents\":" + product.getPriceInCents() + ",\"category\":"));
+        bytes.writeBytes(product.getCategory() == null ? NULL : quote(product.getCategory().name()));
+        bytes.writeBytes(ascii("}}"));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] quote(String value) {
+        var escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        var quoted = new byte[escaped.length + 2];
+
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Product fragments of one catalog version, encoded the first time each product is written.
+     */
+    private static final class ProductFragments {
+
+        private final ProductCatalog catalog;
+        private final AtomicReferenceArray<byte[]> fragments;
+
+        private ProductFragments(ProductCatalog catalog) {
+            this.catalog = catalog;
+            this.fragments = new AtomicReferenceArray<>(catalog.size());
+        }
+
+        private byte[] get(Product product) {
+            int index = catalog.indexOf(product.getId());
+            return index < 0 ? productFragment(product) : get(index);
+        }
+
+        private byte[] get(int index) {
+            var fragment = fragments.get(index);
+            if (fragment == null) {
+                fragment = productFragment(catalog.getProduct(index));
+                fragments.lazySet(index, fragment);
+            }
+            return fragment;
+        }
+    }
+
+    /**
+     * Buffers the bytes of one response, so that the stream gets a few large writes. The buffer is sized
+     * for the response, as clearing a large one costs more than writing a small response.
+     */
+    private static final class Output {
+
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int length;
+
+        private Output(OutputStream out, int bufferSize) {
+            this.out = out;
+            this.buffer = new byte[bufferSize];
+        }
+
+        private void write(byte value) throws IOException {
+            if (length == buffer.length) {
+                flush();
+            }
+            buffer[length++] = value;
+        }
+
+        private void write(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - length) {
+                flush();
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void writeNumber(long value) throws IOException {
+            if (buffer.length - length < 20) {
+                flush();
+            }
+            if (value == Long.MIN_VALUE) {
+                write(ascii(Long.toString(value)));
+                return;
+            }
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int at = length + digits - 1; at >= length; at--) {
+                buffer[at] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            length += digits;
+        }
+
+        private void flush() throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
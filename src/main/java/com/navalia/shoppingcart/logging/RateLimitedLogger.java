@@ -0,0 +1,54 @@
+package com.navalia.shoppingcart.logging;
+
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Logs at most a given number of messages per time window and counts the rest, so that a flood of
+ * bad requests cannot flood the logs too. Messages are only built when they are actually logged.
+ * <p>
+ * The window is reset by whichever thread first sees it expired, without locking, so the limit is
+ * approximate under contention.
+ */
+public final class RateLimitedLogger {
+
+    private final Logger logger;
+    private final String prefix;
+    private final int messagesPerWindow;
+    private final long windowNanos;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger logged = new AtomicInteger();
+    private final AtomicInteger suppressed = new AtomicInteger();
+
+    public RateLimitedLogger(Logger logger, String prefix, int messagesPerWindow, long windowNanos) {
+        this.logger = logger;
+        this.prefix = prefix;
+        this.messagesPerWindow = messagesPerWindow;
+        this.windowNanos = windowNanos;
+    }
+
+    public void error(Supplier<String> message) {
+        if (!logger.isErrorEnabled()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+            logged.set(0);
+            int dropped = suppressed.getAndSet(0);
+            if (dropped > 0) {
+                logger.error(String.join(" ", prefix, String.valueOf(dropped), "similar message(s) suppressed."));
+            }
+        }
+
+        if (logged.get() < messagesPerWindow && logged.incrementAndGet() <= messagesPerWindow) {
+            logger.error(String.join(" ", prefix, message.get()));
+        } else {
+            suppressed.incrementAndGet();
+        }
+    }
+}
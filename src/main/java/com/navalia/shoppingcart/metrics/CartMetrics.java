@@ -0,0 +1,195 @@
+package com.navalia.shoppingcart.metrics;
+
+import com.navalia.shoppingcart.store.CartStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the cart service. Every meter is registered once, here, so recording a value is a
+ * plain method call on an existing meter. Nothing is recorded on the successful add/remove path,
+ * whose latency is already covered by the {@code http.server.requests} timer.
+ */
+@Component
+public class CartMetrics {
+
+    private final Counter invalidOrders;
+    private final Counter itemsNotInCart;
+    private final Counter versionMismatches;
+    private final Counter outOfStock;
+    private final Counter notModified;
+    private final Counter pricesCached;
+    private final Counter pricesComputed;
+    private final DistributionSummary cartLines;
+    private final Timer promotionTime;
+    private final Counter idleCartsExpired;
+    private final Counter cartsEvicted;
+    private final DistributionSummary orderBatches;
+    private final Counter forwardedRequests;
+    private final Counter cartsHandedOver;
+    private final MeterRegistry registry;
+
+    public CartMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.invalidOrders = Counter.builder("cart.orders.rejected")
+                .description("Orders rejected by the cart service")
+                .tag("reason", "invalid_order")
+                .register(registry);
+        this.itemsNotInCart = Counter.builder("cart.orders.rejected")
+                .description("Orders rejected by the cart service")
+                .tag("reason", "item_not_in_cart")
+                .register(registry);
+        this.versionMismatches = Counter.builder("cart.orders.rejected")
+                .description("Orders rejected by the cart service")
+                .tag("reason", "version_mismatch")
+                .register(registry);
+        this.outOfStock = Counter.builder("cart.orders.rejected")
+                .description("Orders rejected by the cart service")
+                .tag("reason", "out_of_stock")
+                .register(registry);
+        this.notModified = Counter.builder("cart.pricing")
+                .description("Quotes and closed orders, by how their price was obtained")
+                .tag("result", "not_modified")
+                .register(registry);
+        this.pricesCached = Counter.builder("cart.pricing")
+                .description("Quotes and closed orders, by how their price was obtained")
+                .tag("result", "cached")
+                .register(registry);
+        this.pricesComputed = Counter.builder("cart.pricing")
+                .description("Quotes and closed orders, by how their price was obtained")
+                .tag("result", "computed")
+                .register(registry);
+        this.cartLines = DistributionSummary.builder("cart.lines")
+                .description("Number of lines of the carts whose order was closed")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.promotionTime = Timer.builder("cart.promotion")
+                .description("Time spent calculating the promotions of a cart")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        this.idleCartsExpired = Counter.builder("cart.evictions")
+                .description("Carts dropped by the cart service")
+                .tag("reason", "idle")
+                .register(registry);
+        this.cartsEvicted = Counter.builder("cart.evictions")
+                .description("Carts dropped by the cart service")
+                .tag("reason", "capacity")
+                .register(registry);
+        this.orderBatches = DistributionSummary.builder("cart.order.batch")
+                .description("Closed orders written to the order journal at once")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        this.forwardedRequests = Counter.builder("cart.cluster.forwarded")
+                .description("Requests forwarded to the instance owning their cart")
+                .register(registry);
+        this.cartsHandedOver = Counter.builder("cart.cluster.handovers")
+                .description("Carts moved to another instance after the cluster changed")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of live carts in the store and their estimated heap footprint.
+     */
+    public void residentCarts(CartStore cartStore) {
+        Gauge.builder("cart.resident", cartStore, CartStore::size)
+                .description("Carts currently kept in memory")
+                .register(registry);
+        Gauge.builder("cart.resident.memory", cartStore, CartStore::estimatedSizeInBytes)
+                .description("Estimated heap footprint of the carts kept in memory")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of closed orders waiting to be written to the order journal.
+     */
+    public void pendingOrders(Collection<?> queue) {
+        Gauge.builder("cart.order.queue", queue, Collection::size)
+                .description("Closed orders waiting to be written to the order journal")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of subscriptions to cart events.
+     */
+    public void eventSubscriptions(Number subscriptions) {
+        Gauge.builder("cart.events.subscriptions", subscriptions, Number::doubleValue)
+                .description("Clients subscribed to the changes of a cart")
+                .register(registry);
+    }
+
+    /**
+     * Publishes the number of cart events the analytics dropped because they fell behind.
+     */
+    public void droppedAnalyticsEvents(Number dropped) {
+        FunctionCounter.builder("cart.analytics.dropped", dropped, Number::doubleValue)
+                .description("Cart events not recorded by the analytics because their buffer was full")
+                .register(registry);
+    }
+
+    public void invalidOrder() {
+        invalidOrders.increment();
+    }
+
+    public void itemNotInCart() {
+        itemsNotInCart.increment();
+    }
+
+    public void versionMismatch() {
+        versionMismatches.increment();
+    }
+
+    public void outOfStock() {
+        outOfStock.increment();
+    }
+
+    /**
+     * A client already held the response, so the cart was not priced.
+     */
+    public void notModified() {
+        notModified.increment();
+    }
+
+    public void priceCached() {
+        pricesCached.increment();
+    }
+
+    public void priceComputed() {
+        pricesComputed.increment();
+    }
+
+    public void closedCart(int lines) {
+        cartLines.record(lines);
+    }
+
+    public void promotionTime(long nanos) {
+        promotionTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void idleCartExpired() {
+        idleCartsExpired.increment();
+    }
+
+    public void cartEvicted() {
+        cartsEvicted.increment();
+    }
+
+    public void orderBatchWritten(int orders) {
+        orderBatches.record(orders);
+    }
+
+    public void forwardedRequest() {
+        forwardedRequests.increment();
+    }
+
+    public void cartHandedOver() {
+        cartsHandedOver.increment();
+    }
+}
@@ -0,0 +1,104 @@
+package com.navalia.shoppingcart.order;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+
+/**
+ * Immutable snapshot of an order closed from a cart: its lines and prices as they were when the
+ * order was closed, whatever happens to the cart, the catalog or the promotions afterwards.
+ */
+public final class FinalizedOrder {
+
+    private final long orderId;
+    private final String cartId;
+    private final long cartVersion;
+    private final long catalogVersion;
+    private final long rulesVersion;
+    private final long closedAtMillis;
+    private final int[] itemIds;
+    private final int[] amounts;
+    private final long[] pricesInCents;
+    private final long totalPriceInCents;
+
+    private FinalizedOrder(long orderId, String cartId, long cartVersion, long catalogVersion, long rulesVersion, long closedAtMillis,
+                           int[] itemIds, int[] amounts, long[] pricesInCents, long totalPriceInCents) {
+        this.orderId = orderId;
+        this.cartId = cartId;
+        this.cartVersion = cartVersion;
+        this.catalogVersion = catalogVersion;
+        this.rulesVersion = rulesVersion;
+        this.closedAtMillis = closedAtMillis;
+        this.itemIds = itemIds;
+        this.amounts = amounts;
+        this.pricesInCents = pricesInCents;
+        this.totalPriceInCents = totalPriceInCents;
+    }
+
+    /**
+     * Snapshots the lines of the cart, which must already be moved to its current catalog.
+     *
+     * @param totalPriceInCents price of the cart after promotions
+     */
+    public static FinalizedOrder of(long orderId, String cartId, CompactCart cart, long rulesVersion, long totalPriceInCents) {
+        var catalog = cart.getCatalog();
+        int lines = cart.getLines();
+        var itemIds = new int[lines];
+        var amounts = new int[lines];
+        var pricesInCents = new long[lines];
+
+        for (int line = 0; line < lines; line++) {
+            itemIds[line] = cart.getLineProductId(line);
+            amounts[line] = cart.getLineAmount(line);
+            pricesInCents[line] = catalog.getPriceInCents(cart.getLineProduct(line));
+        }
+
+        return new FinalizedOrder(orderId, cartId, cart.getVersion(), catalog.getVersion(), rulesVersion, System.currentTimeMillis(),
+                itemIds, amounts, pricesInCents, totalPriceInCents);
+    }
+
+    public long getOrderId() {
+        return orderId;
+    }
+
+    public String getCartId() {
+        return cartId;
+    }
+
+    public long getCartVersion() {
+        return cartVersion;
+    }
+
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    public long getRulesVersion() {
+        return rulesVersion;
+    }
+
+    public long getClosedAtMillis() {
+        return closedAtMillis;
+    }
+
+    public int getLines() {
+        return itemIds.length;
+    }
+
+    public int getLineItemId(int line) {
+        return itemIds[line];
+    }
+
+    public int getLineAmount(int line) {
+        return amounts[line];
+    }
+
+    /**
+     * Unit price of the item of the line, before promotions.
+     */
+    public long getLinePriceInCents(int line) {
+        return pricesInCents[line];
+    }
+
+    public long getTotalPriceInCents() {
+        return totalPriceInCents;
+    }
+}
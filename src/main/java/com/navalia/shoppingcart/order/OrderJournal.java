@@ -0,0 +1,27 @@
+package com.navalia.shoppingcart.order;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only record of the orders closed from the carts, for the systems that fulfil them.
+ * <p>
+ * Closing an order only hands its snapshot over: orders are written in the background, so the client
+ * is answered without waiting for the disk. The number of orders waiting to be written is bounded,
+ * and callers wait for room when the journal falls behind.
+ */
+public interface OrderJournal {
+
+    /**
+     * Reserves the id of the next order. Ids only grow, including across restarts.
+     */
+    long nextOrderId();
+
+    /**
+     * Queues the order to be written.
+     *
+     * @throws RejectedExecutionException if the queue stayed full for longer than the submit timeout,
+     *                                    or the journal is shutting down
+     */
+    void submit(FinalizedOrder order);
+
+}
@@ -0,0 +1,33 @@
+package com.navalia.shoppingcart.order;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.order-journal")
+public class OrderJournalProperties {
+
+    /** Whether closed orders are written to the order journal. */
+    private boolean enabled = false;
+
+    /** Directory holding the order journal. */
+    private String directory = "data/orders";
+
+    /** Closed orders that can wait to be written before closing an order blocks. */
+    private int queueCapacity = 8192;
+
+    /** Most orders written, and fsynced, at once. */
+    private int batchSize = 256;
+
+    /** Whether every batch is fsynced once written. */
+    private boolean sync = true;
+
+    /** Time closing an order waits for room in a full queue before it is rejected. */
+    private Duration submitTimeout = Duration.ofSeconds(1);
+}
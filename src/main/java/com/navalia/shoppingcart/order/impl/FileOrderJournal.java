@@ -0,0 +1,278 @@
+package com.navalia.shoppingcart.order.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.FinalizedOrder;
+import com.navalia.shoppingcart.order.OrderJournal;
+import com.navalia.shoppingcart.order.OrderJournalProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link OrderJournal} that appends every closed order as a JSON line to {@code orders.jsonl}.
+ * <p>
+ * Request threads only put the order in a bounded queue. A single writer thread takes everything
+ * queued since its last write, up to the batch size, and writes and fsyncs it at once, so the cost of
+ * the fsync is shared by all the orders closed meanwhile. A full queue makes closing an order wait,
+ * which slows the clients down to the pace of the disk instead of letting orders pile up in memory.
+ * <p>
+ * On startup, a line left half written by a crash is cut off and order ids continue after the highest
+ * one of the file. Orders closed at the same time may be queued in another order than their ids, so
+ * the whole file is scanned rather than its last line only.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(prefix = "cart.order-journal", name = "enabled", havingValue = "true")
+public class FileOrderJournal implements OrderJournal, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[FileOrderJournal] ";
+    private static final String FILE_NAME = "orders.jsonl";
+    private static final int TAIL_CHUNK = 8192;
+    private static final int SCAN_CHUNK = 1 << 20;
+    private static final byte[] ORDER_ID_PREFIX = "{\"orderId\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final OrderJournalProperties properties;
+    private final CartMetrics cartMetrics;
+    private final BlockingQueue<FinalizedOrder> queue;
+    private final AtomicLong lastOrderId;
+    // Submits past the running check, which closing the journal waits for before its last drain
+    private final LongAdder submitting = new LongAdder();
+    private final JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1 << 16);
+    private final FileChannel file;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    public FileOrderJournal(OrderJournalProperties properties, CartMetrics cartMetrics) throws IOException {
+        this.properties = properties;
+        this.cartMetrics = cartMetrics;
+        this.queue = new ArrayBlockingQueue<>(properties.getQueueCapacity());
+
+        var directory = Paths.get(properties.getDirectory());
+        Files.createDirectories(directory);
+        this.file = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lastOrderId = new AtomicLong(recover());
+        this.file.position(file.size());
+
+        cartMetrics.pendingOrders(queue);
+        this.writer = new Thread(this::writeLoop, "order-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public long nextOrderId() {
+        return lastOrderId.incrementAndGet();
+    }
+
+    @Override
+    public void submit(FinalizedOrder order) {
+        submitting.increment();
+        try {
+            if (!running) {
+                throw new RejectedExecutionException("The order journal is not accepting orders.");
+            }
+            if (!queue.offer(order, properties.getSubmitTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("The order journal is full.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the order journal.", ex);
+        } finally {
+            submitting.decrement();
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException, InterruptedException {
+        running = false;
+        // Every submit that got past the running check is in the queue once none is left in flight
+        while (submitting.sum() > 0) {
+            Thread.sleep(1);
+        }
+        writer.join();
+
+        // Orders submitted while the writer was stopping
+        List<FinalizedOrder> batch = new ArrayList<>();
+        if (failure == null && queue.drainTo(batch) > 0) {
+            write(batch);
+        }
+        file.close();
+    }
+
+    private void writeLoop() {
+        List<FinalizedOrder> batch = new ArrayList<>(properties.getBatchSize());
+
+        while (true) {
+            FinalizedOrder first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                if (!running) {
+                    return;
+                }
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, properties.getBatchSize() - 1);
+
+            try {
+                write(batch);
+            } catch (IOException ex) {
+                log.error(String.join(" ", LOGGING_PREFIX, "Order journal write failed:", ex.getMessage()));
+                failure = ex;
+                running = false;
+                return;
+            }
+
+            cartMetrics.orderBatchWritten(batch.size());
+            batch.clear();
+        }
+    }
+
+    private void write(List<FinalizedOrder> batch) throws IOException {
+        encoded.reset();
+        try (var json = jsonFactory.createGenerator(encoded)) {
+            for (var order : batch) {
+                writeOrder(json, order);
+                json.writeRaw('\n');
+            }
+        }
+
+        var buffer = ByteBuffer.wrap(encoded.toByteArray());
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+
+        if (properties.isSync()) {
+            file.force(false);
+        }
+    }
+
+    private static void writeOrder(JsonGenerator json, FinalizedOrder order) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("orderId", order.getOrderId());
+        json.writeStringField("cartId", order.getCartId());
+        json.writeNumberField("cartVersion", order.getCartVersion());
+        json.writeNumberField("catalogVersion", order.getCatalogVersion());
+        json.writeNumberField("rulesVersion", order.getRulesVersion());
+        json.writeNumberField("closedAt", order.getClosedAtMillis());
+        json.writeArrayFieldStart("items");
+        for (int line = 0; line < order.getLines(); line++) {
+            json.writeStartObject();
+            json.writeNumberField("itemId", order.getLineItemId(line));
+            json.writeNumberField("amount", order.getLineAmount(line));
+            json.writeNumberField("priceInCents", order.getLinePriceInCents(line));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeNumberField("totalPrice", order.getTotalPriceInCents());
+        json.writeEndObject();
+    }
+
+    /**
+     * Cuts off a partially written last line and returns the highest order id of the file.
+     */
+    private long recover() throws IOException {
+        long size = file.size();
+        long end = lastNewlineBefore(size);
+
+        if (end + 1 < size) {
+            log.warn(String.join(" ", LOGGING_PREFIX, "Dropping", String.valueOf(size - end - 1),
+                    "byte(s) of an order left partially written."));
+            file.truncate(end + 1);
+        }
+        if (end < 0) {
+            return 0;
+        }
+
+        long orderId = highestOrderId(end + 1);
+        log.info(String.join(" ", LOGGING_PREFIX, "Order ids continue after", String.valueOf(orderId)));
+        return orderId;
+    }
+
+    /**
+     * Highest order id of the lines before the given position. Every line starts with the order id,
+     * which is read straight from the bytes rather than parsing the JSON of the whole line.
+     */
+    private long highestOrderId(long end) throws IOException {
+        var chunk = ByteBuffer.allocate(Math.toIntExact(Math.min(SCAN_CHUNK, end)));
+        long highest = 0;
+        long orderId = 0;
+        // Bytes of the prefix matched at the start of the current line, or -1 once past its order id
+        int matched = 0;
+
+        for (long position = 0; position < end; position += chunk.limit()) {
+            chunk.clear().limit(Math.toIntExact(Math.min(chunk.capacity(), end - position)));
+            while (chunk.hasRemaining()) {
+                file.read(chunk, position + chunk.position());
+            }
+            for (int i = 0; i < chunk.limit(); i++) {
+                byte b = chunk.get(i);
+                if (b == '\n') {
+                    highest = Math.max(highest, orderId);
+                    orderId = 0;
+                    matched = 0;
+                } else if (matched < 0) {
+                    continue;
+                } else if (matched < ORDER_ID_PREFIX.length) {
+                    matched = b == ORDER_ID_PREFIX[matched] ? matched + 1 : -1;
+                } else if (b >= '0' && b <= '9') {
+                    orderId = orderId * 10 + (b - '0');
+                } else {
+                    matched = -1;
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Position of the last line feed before the given position, or -1 if there is none.
+     */
+    private long lastNewlineBefore(long position) throws IOException {
+        var chunk = ByteBuffer.allocate(TAIL_CHUNK);
+
+        while (position > 0) {
+            long chunkStart = Math.max(0, position - TAIL_CHUNK);
+            chunk.clear().limit(Math.toIntExact(position - chunkStart));
+            while (chunk.hasRemaining()) {
+                file.read(chunk, chunkStart + chunk.position());
+            }
+            for (int i = chunk.limit() - 1; i >= 0; i--) {
+                if (chunk.get(i) == '\n') {
+                    return chunkStart + i;
+                }
+            }
+            position = chunkStart;
+        }
+        return -1;
+    }
+}
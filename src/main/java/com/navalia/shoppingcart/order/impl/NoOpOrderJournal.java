@@ -0,0 +1,28 @@
+package com.navalia.shoppingcart.order.impl;
+
+import com.navalia.shoppingcart.order.FinalizedOrder;
+import com.navalia.shoppingcart.order.OrderJournal;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link OrderJournal} used when the order journal is disabled: orders get ids, but are not written.
+ */
+@Component
+@ConditionalOnProperty(prefix = "cart.order-journal", name = "enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpOrderJournal implements OrderJournal {
+
+    private final AtomicLong lastOrderId = new AtomicLong();
+
+    @Override
+    public long nextOrderId() {
+        return lastOrderId.incrementAndGet();
+    }
+
+    @Override
+    public void submit(FinalizedOrder order) {
+        // nothing is ever written
+    }
+}
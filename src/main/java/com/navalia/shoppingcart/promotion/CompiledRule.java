@@ -0,0 +1,14 @@
+package com.navalia.shoppingcart.promotion;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+
+/**
+ * Evaluation form of a {@link PromotionRule}, holding everything it needs in primitive arrays and
+ * fields so that pricing a cart does not allocate.
+ */
+@FunctionalInterface
+public interface CompiledRule {
+
+    long discountInCents(CompactCart cart);
+
+}
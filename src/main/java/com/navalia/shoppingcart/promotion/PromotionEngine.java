@@ -0,0 +1,32 @@
+package com.navalia.shoppingcart.promotion;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+
+import java.util.List;
+
+/**
+ * Applies the active promotions to carts. The active rules may be replaced at any moment, and
+ * every quote is priced entirely by either the old or the new set of rules.
+ */
+public interface PromotionEngine {
+
+    /**
+     * Sum of the discounts given by every active rule, never above the cart's total price. The cart
+     * is priced with the catalog it currently refers to.
+     */
+    long discountInCents(CompactCart cart);
+
+    List<PromotionRule> getRules();
+
+    /**
+     * Version of the active rules, which every call to {@link #setRules(List)} increments. A discount
+     * computed after reading the version is given by rules at least that recent.
+     */
+    long getRulesVersion();
+
+    /**
+     * Compiles the given rules and makes them the active ones.
+     */
+    void setRules(List<PromotionRule> rules);
+
+}
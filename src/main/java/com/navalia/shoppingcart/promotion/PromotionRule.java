@@ -0,0 +1,18 @@
+package com.navalia.shoppingcart.promotion;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+
+/**
+ * Definition of a promotion, as configured by marketing. Rules are turned into their
+ * {@link CompiledRule} form once, when they are published to the {@link PromotionEngine}.
+ */
+public interface PromotionRule {
+
+    /**
+     * Compiles the rule against the catalog the carts are priced with.
+     *
+     * @throws IllegalArgumentException if the rule does not fit the catalog
+     */
+    CompiledRule compile(ProductCatalog catalog);
+
+}
@@ -0,0 +1,123 @@
+package com.navalia.shoppingcart.promotion.impl;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.promotion.CompiledRule;
+import com.navalia.shoppingcart.promotion.PromotionEngine;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import com.navalia.shoppingcart.promotion.rule.NForMRule;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * {@link PromotionEngine} that compiles the rules into an immutable {@link Plan} and publishes it
+ * through a volatile field. Quotes read the field once and never lock, while a rule change only
+ * costs one compilation, done by the thread that changes the rules.
+ * <p>
+ * A plan is compiled for one catalog version. The rules are compiled again for every new catalog
+ * before it is published, which rejects catalogs the rules do not fit. The plan of the previous
+ * catalog is kept aside, as carts are still priced with it until the new catalog is published and
+ * they are moved to it. A cart of any other catalog gets a plan of its own, also kept until a cart
+ * of yet another catalog needs one, so that the rules are never compiled on every quote.
+ */
+@Log4j2
+@Component
+public class CompiledPromotionEngine implements PromotionEngine {
+
+    private static final String LOGGING_PREFIX = "[CompiledPromotionEngine] ";
+
+    /** Take 3, pay 2: the promotion the shop has always offered. */
+    public static final List<PromotionRule> DEFAULT_RULES = List.of(new NForMRule(3, 2));
+
+    private volatile Plan plan;
+    private volatile Plan otherPlan;
+
+    @Autowired
+    public CompiledPromotionEngine(CatalogRegistry catalogRegistry) {
+        this(catalogRegistry.current(), DEFAULT_RULES);
+        catalogRegistry.setPublicationListener(this::catalogChanged);
+    }
+
+    public CompiledPromotionEngine(ProductCatalog catalog, List<PromotionRule> rules) {
+        this.plan = Plan.compile(rules, 1, catalog);
+    }
+
+    @Override
+    public long discountInCents(CompactCart cart) {
+        var catalog = cart.getCatalog();
+        if (catalog == null) {
+            return 0;
+        }
+
+        var current = plan;
+        var compiledRules = current.catalog == catalog ? current.compiledRules : otherPlan(current, catalog).compiledRules;
+        long discount = 0;
+
+        for (var rule : compiledRules) {
+            discount += rule.discountInCents(cart);
+        }
+
+        return Math.min(discount, cart.getTotalPriceInCents());
+    }
+
+    @Override
+    public List<PromotionRule> getRules() {
+        return plan.rules;
+    }
+
+    @Override
+    public long getRulesVersion() {
+        return plan.rulesVersion;
+    }
+
+    @Override
+    public synchronized void setRules(List<PromotionRule> rules) {
+        plan = Plan.compile(rules, plan.rulesVersion + 1, plan.catalog);
+        log.info(String.join(" ", LOGGING_PREFIX, "Promotion rules replaced:", rules.toString()));
+    }
+
+    private synchronized void catalogChanged(ProductCatalog catalog) {
+        var next = Plan.compile(plan.rules, plan.rulesVersion, catalog);
+
+        otherPlan = plan;
+        plan = next;
+    }
+
+    /**
+     * Plan of the current rules for a catalog that is not the one of the current plan, compiled only
+     * if the one kept aside is for another catalog or older rules.
+     */
+    private Plan otherPlan(Plan current, ProductCatalog catalog) {
+        var other = otherPlan;
+        if (other == null || other.catalog != catalog || other.rulesVersion != current.rulesVersion) {
+            other = Plan.compile(current.rules, current.rulesVersion, catalog);
+            otherPlan = other;
+        }
+        return other;
+    }
+
+    private static final class Plan {
+
+        private final List<PromotionRule> rules;
+        private final long rulesVersion;
+        private final ProductCatalog catalog;
+        private final CompiledRule[] compiledRules;
+
+        private Plan(List<PromotionRule> rules, long rulesVersion, ProductCatalog catalog, CompiledRule[] compiledRules) {
+            this.rules = rules;
+            this.rulesVersion = rulesVersion;
+            this.catalog = catalog;
+            this.compiledRules = compiledRules;
+        }
+
+        private static Plan compile(List<PromotionRule> rules, long rulesVersion, ProductCatalog catalog) {
+            var copy = List.copyOf(rules);
+
+            return new Plan(copy, rulesVersion, catalog, copy.stream().map(rule -> rule.compile(catalog)).toArray(CompiledRule[]::new));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.navalia.shoppingcart.promotion.rule;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.promotion.CompiledRule;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * A fixed price for a set of items bought together. Every complete bundle found in the cart is
+ * discounted by the difference between the regular price of its items and the bundle price.
+ */
+@Getter
+@ToString
+public class BundleRule implements PromotionRule {
+
+    /** Amount of each product of the bundle, by product id. */
+    private final Map<Integer, Integer> components;
+    private final long bundlePriceInCents;
+
+    public BundleRule(Map<Integer, Integer> components, long bundlePriceInCents) {
+        if (components == null || components.isEmpty() || components.values().stream().anyMatch(amount -> amount == null || amount <= 0)) {
+            throw new IllegalArgumentException("A bundle needs at least one item, each with a positive amount.");
+        }
+        if (bundlePriceInCents < 0) {
+            throw new IllegalArgumentException("A bundle price must be between zero and the regular price of its items.");
+        }
+
+        this.components = Map.copyOf(components);
+        this.bundlePriceInCents = bundlePriceInCents;
+    }
+
+    @Override
+    public CompiledRule compile(ProductCatalog catalog) {
+        var products = new int[components.size()];
+        var amounts = new int[products.length];
+        long savingPerBundle = -bundlePriceInCents;
+        int i = 0;
+
+        for (var component : components.entrySet()) {
+            products[i] = catalog.indexOf(component.getKey());
+            if (products[i] < 0) {
+                throw new IllegalArgumentException(String.join(" ", "A bundle cannot contain product", String.valueOf(component.getKey()), "which is not in the catalog."));
+            }
+            amounts[i] = component.getValue();
+            savingPerBundle += catalog.getPriceInCents(products[i]) * amounts[i];
+            i++;
+        }
+        if (savingPerBundle < 0) {
+            throw new IllegalArgumentException("A bundle price must be between zero and the regular price of its items.");
+        }
+        long saving = savingPerBundle;
+
+        return cart -> {
+            int bundles = Integer.MAX_VALUE;
+            for (int j = 0; j < products.length && bundles > 0; j++) {
+                bundles = Math.min(bundles, cart.getAmount(products[j]) / amounts[j]);
+            }
+            return bundles * saving;
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package com.navalia.shoppingcart.promotion.rule;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.promotion.CompiledRule;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Take N, pay for M: for every N units in the cart, the N - M cheapest units are free.
+ */
+@Getter
+@ToString
+public class NForMRule implements PromotionRule {
+
+    private final int take;
+    private final int pay;
+
+    public NForMRule(int take, int pay) {
+        if (pay < 0 || take <= pay) {
+            throw new IllegalArgumentException("An N for M promotion needs N > M >= 0.");
+        }
+        this.take = take;
+        this.pay = pay;
+    }
+
+    @Override
+    public CompiledRule compile(ProductCatalog catalog) {
+        int take = this.take;
+        int free = this.take - this.pay;
+
+        return cart -> cart.getCheapestUnitsPriceInCents(cart.getItemCount() / take * free);
+    }
+}
@@ -0,0 +1,45 @@
+package com.navalia.shoppingcart.promotion.rule;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import com.navalia.shoppingcart.promotion.CompiledRule;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Percentage off every item of a category. The discount is rounded half up to whole cents.
+ */
+@Getter
+@ToString
+public class PercentageOffCategoryRule implements PromotionRule {
+
+    private final CategoryEnum category;
+    private final int percentage;
+
+    public PercentageOffCategoryRule(CategoryEnum category, int percentage) {
+        if (category == null || percentage <= 0 || percentage > 100) {
+            throw new IllegalArgumentException("A percentage off promotion needs a category and a percentage from 1 to 100.");
+        }
+        this.category = category;
+        this.percentage = percentage;
+    }
+
+    @Override
+    public CompiledRule compile(ProductCatalog catalog) {
+        var category = this.category;
+        long percentage = this.percentage;
+
+        // The lines of the cart are far fewer than the products of the category
+        return cart -> {
+            long categoryPrice = 0;
+            for (int line = 0; line < cart.getLines(); line++) {
+                int product = cart.getLineProduct(line);
+                if (catalog.getCategory(product) == category) {
+                    categoryPrice += catalog.getPriceInCents(product) * cart.getLineAmount(line);
+                }
+            }
+            return (categoryPrice * percentage + 50) / 100;
+        };
+    }
+}
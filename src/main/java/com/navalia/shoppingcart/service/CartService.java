@@ -1,19 +1,86 @@
 package com.navalia.shoppingcart.service;
 
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
 import com.navalia.shoppingcart.dto.request.OrderRequest;
 import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
 import com.navalia.shoppingcart.dto.response.OrderResponse;
-import com.navalia.shoppingcart.exception.InvalidOrderException;
-import com.navalia.shoppingcart.exception.ItemNotInCartException;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
 
+/**
+ * Operations on the shopping carts. Orders that are invalid, or that remove items the cart does not
+ * contain, are not errors of the service: they are returned as failed {@link OrderResult}s.
+ * <p>
+ * Every change moves the cart to a new version, returned in the responses. Changes can be made
+ * conditional on the version the client last read, in which case they are rejected with
+ * {@link com.navalia.shoppingcart.constant.OrderErrorEnum#VERSION_MISMATCH} if the cart was changed
+ * since. The version is checked and the change applied in a single atomic step.
+ */
 public interface CartService {
 
-    OrderResponse addToCart(OrderRequest order) throws InvalidOrderException;
+    /** Expected version that any version of the cart matches. */
+    long ANY_VERSION = -1;
 
-    OrderResponse removeFromCart(OrderRequest order) throws InvalidOrderException, ItemNotInCartException;
+    default OrderResult addToCart(String cartId, OrderRequest order) {
+        return addToCart(cartId, order, ANY_VERSION);
+    }
 
-    OrderResponse emptyCart();
+    OrderResult addToCart(String cartId, OrderRequest order, long expectedVersion);
 
-    ClosedOrderResponse closeOrder();
+    default OrderResult removeFromCart(String cartId, OrderRequest order) {
+        return removeFromCart(cartId, order, ANY_VERSION);
+    }
+
+    OrderResult removeFromCart(String cartId, OrderRequest order, long expectedVersion);
+
+    default OrderResult applyBatch(String cartId, BatchOrderRequest batch) {
+        return applyBatch(cartId, batch, ANY_VERSION);
+    }
+
+    /**
+     * Applies every operation of the batch to the cart in a single atomic step. If any operation is
+     * invalid, or removes an item the cart would not contain at that point, none of them is applied.
+     */
+    OrderResult applyBatch(String cartId, BatchOrderRequest batch, long expectedVersion);
+
+    OrderResponse emptyCart(String cartId);
+
+    /**
+     * Empties the cart only if it is still at the expected version. Emptying a cart that is already
+     * empty at that version succeeds.
+     */
+    OrderResult emptyCart(String cartId, long expectedVersion);
+
+    /**
+     * Closes the order of the cart. A cart with items is finalized into an order with an id: the cart
+     * is emptied at its next version, and its units are sold rather than given back to the stock.
+     * Closing it again returns the same order until the cart changes, whatever happens to the catalog
+     * or the promotions in the meantime.
+     */
+    ClosedOrderResponse closeOrder(String cartId);
+
+    default ClosedOrderResponse previewOrder(String cartId) {
+        return previewOrder(cartId, null);
+    }
+
+    /**
+     * Prices the order the cart would close into without finalizing it, so that clients can poll it.
+     * A cart that did not change since its order was closed answers with that order instead.
+     *
+     * @param knownTag tag of the response the client holds, or null
+     * @return the response, or null if its tag is still the known one
+     */
+    ClosedOrderResponse previewOrder(String cartId, CartTag knownTag);
+
+    default QuoteResponse quote(String cartId) {
+        return quote(cartId, null);
+    }
+
+    /**
+     * Quotes the cart, unless the client already holds the quote.
+     *
+     * @param knownTag tag of the quote the client holds, or null
+     * @return the quote, or null if its tag is still the known one
+     */
+    QuoteResponse quote(String cartId, CartTag knownTag);
 
 }
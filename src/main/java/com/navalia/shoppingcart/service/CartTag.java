@@ -0,0 +1,89 @@
+package com.navalia.shoppingcart.service;
+
+/**
+ * Identifies what a quote or a closed order of a cart looks like: the version of the cart, and the
+ * versions of the catalog and of the promotion rules it is priced with. Two responses with the same
+ * tag are the same, so clients that already hold one need not be sent it again.
+ * <p>
+ * Its text form, used as an entity tag, is {@code cartVersion.catalogVersion.rulesVersion}.
+ */
+public final class CartTag {
+
+    private final long cartVersion;
+    private final long catalogVersion;
+    private final long rulesVersion;
+
+    public CartTag(long cartVersion, long catalogVersion, long rulesVersion) {
+        this.cartVersion = cartVersion;
+        this.catalogVersion = catalogVersion;
+        this.rulesVersion = rulesVersion;
+    }
+
+    /**
+     * Reads the text form of a tag.
+     *
+     * @return the tag, or null if the text is not a tag
+     */
+    public static CartTag parse(CharSequence text) {
+        var versions = new long[3];
+        int part = 0;
+        int start = 0;
+
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && text.charAt(i) != '.') {
+                continue;
+            }
+            if (part == versions.length || (versions[part++] = version(text, start, i)) < 0) {
+                return null;
+            }
+            start = i + 1;
+        }
+        return part == versions.length ? new CartTag(versions[0], versions[1], versions[2]) : null;
+    }
+
+    public boolean matches(long cartVersion, long catalogVersion, long rulesVersion) {
+        return this.cartVersion == cartVersion && this.catalogVersion == catalogVersion && this.rulesVersion == rulesVersion;
+    }
+
+    public long getCartVersion() {
+        return cartVersion;
+    }
+
+    public long getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    public long getRulesVersion() {
+        return rulesVersion;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CartTag && ((CartTag) other).matches(cartVersion, catalogVersion, rulesVersion);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cartVersion * 31 * 31 + catalogVersion * 31 + rulesVersion);
+    }
+
+    @Override
+    public String toString() {
+        return cartVersion + "." + catalogVersion + "." + rulesVersion;
+    }
+
+    private static long version(CharSequence text, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,64 @@
+package com.navalia.shoppingcart.service;
+
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Outcome of a cart operation that can be rejected: either the response to send back or the reason
+ * of the rejection. Rejections are expected (clients do send bad orders), so they are plain values
+ * instead of exceptions, and the ones with the default message of their error are shared instances.
+ */
+public final class OrderResult {
+
+    private static final Map<OrderErrorEnum, OrderResult> FAILURES = new EnumMap<>(OrderErrorEnum.class);
+
+    static {
+        for (var error : OrderErrorEnum.values()) {
+            FAILURES.put(error, new OrderResult(null, error, error.getMessage()));
+        }
+    }
+
+    private final OrderResponse response;
+    private final OrderErrorEnum error;
+    private final String message;
+
+    private OrderResult(OrderResponse response, OrderErrorEnum error, String message) {
+        this.response = response;
+        this.error = error;
+        this.message = message;
+    }
+
+    public static OrderResult success(OrderResponse response) {
+        return new OrderResult(response, null, response.getMessage());
+    }
+
+    public static OrderResult failure(OrderErrorEnum error) {
+        return FAILURES.get(error);
+    }
+
+    public static OrderResult failure(OrderErrorEnum error, String message) {
+        return new OrderResult(null, error, message);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public OrderResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Reason of the rejection, or null if the operation succeeded.
+     */
+    public OrderErrorEnum getError() {
+        return error;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
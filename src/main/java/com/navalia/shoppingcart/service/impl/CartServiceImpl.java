@@ -1,145 +1,838 @@
 package com.navalia.shoppingcart.service.impl;
 
-import com.navalia.shoppingcart.constant.ItemEnum;
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
 import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
 import com.navalia.shoppingcart.dto.request.OrderRequest;
 import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
 import com.navalia.shoppingcart.dto.response.OrderResponse;
-import com.navalia.shoppingcart.entity.Cart;
-import com.navalia.shoppingcart.entity.Item;
-import com.navalia.shoppingcart.exception.InvalidOrderException;
-import com.navalia.shoppingcart.exception.ItemNotInCartException;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.CartJournal;
+import com.navalia.shoppingcart.logging.RateLimitedLogger;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.FinalizedOrder;
+import com.navalia.shoppingcart.order.OrderJournal;
+import com.navalia.shoppingcart.promotion.PromotionEngine;
 import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.OrderResult;
+import com.navalia.shoppingcart.store.CartStore;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Log4j2
 @Service
 public class CartServiceImpl implements CartService {
 
     private static final String LOGGING_PREFIX = "[CartServiceImpl] ";
-    private final Cart cart = new Cart();
+    private static final int REJECTIONS_LOGGED_PER_SECOND = 10;
+    // Returned by mutations instead of a journal sequence when the cart is not at the expected version
+    private static final long VERSION_MISMATCH = Long.MIN_VALUE;
+    // Returned by mutations instead of a journal sequence when the stock cannot cover the order
+    private static final long OUT_OF_STOCK = Long.MIN_VALUE + 1;
+    // Returned by mutations instead of a journal sequence when the line of the item cannot take the amount
+    private static final long LINE_FULL = Long.MIN_VALUE + 2;
+    // Returned by applyBatch(CompactCart, ...) when the stock cannot cover the batch
+    private static final int BATCH_OUT_OF_STOCK = -2;
+    // Returned by applyBatch(CompactCart, ...) when the line of an item cannot take what the batch adds
+    private static final int BATCH_LINE_FULL = -3;
+    // Stock of the units a cart carries from one instance to another, which are neither reserved nor released on the way
+    private static final Inventory CARRIED = new NoOpInventory();
+
+    private final CartStore cartStore;
+    private final CatalogRegistry catalogRegistry;
+    private final PromotionEngine promotionEngine;
+    private final CartMetrics cartMetrics;
+    private final CartJournal cartJournal;
+    private final Inventory inventory;
+    private final OrderJournal orderJournal;
+    private final CartAnalytics cartAnalytics;
+    private final CompactCart.LineConsumer releaseDropped;
+    private final RateLimitedLogger rejectionLog = new RateLimitedLogger(log, LOGGING_PREFIX, REJECTIONS_LOGGED_PER_SECOND, TimeUnit.SECONDS.toNanos(1));
+
+    public CartServiceImpl(CartStore cartStore, CatalogRegistry catalogRegistry, PromotionEngine promotionEngine, CartMetrics cartMetrics,
+                           CartJournal cartJournal, Inventory inventory, OrderJournal orderJournal, CartAnalytics cartAnalytics) {
+        this.cartStore = cartStore;
+        this.catalogRegistry = catalogRegistry;
+        this.promotionEngine = promotionEngine;
+        this.cartMetrics = cartMetrics;
+        this.cartJournal = cartJournal;
+        this.inventory = inventory;
+        this.orderJournal = orderJournal;
+        this.cartAnalytics = cartAnalytics;
+        this.releaseDropped = (itemId, amount) -> this.inventory.release(itemId, amount);
+    }
 
     @Override
-    public OrderResponse addToCart(OrderRequest order) throws InvalidOrderException {
-        if (validOrder(order)) {
-            var itemData = ItemEnum.valueOfId(order.getItemId());
-            var optItem = cart.getItems().stream().filter(i -> i.getItemData().getId() == order.getItemId()).findFirst();
+    public OrderResult addToCart(String cartId, OrderRequest order, long expectedVersion) {
+        var catalog = catalogRegistry.current();
 
-            updateCart(itemData, order, OperationEnum.ADD, optItem);
+        if (!validOrder(catalog, order)) {
+            return reject(OrderErrorEnum.INVALID_ORDER, () -> String.join(" ", "Order with invalid data detected:", String.valueOf(order)));
+        }
 
-            return OrderResponse.builder()
-                    .message("Order placed. Item(s) added to cart.")
-                    .build();
-        } else {
-            log.error(String.join(" ", LOGGING_PREFIX, "Order with invalid data detected:", order.toString()));
-            throw new InvalidOrderException("The order received contains invalid data. This item may not exist with this id or amount.");
+        var version = new long[1];
+        long sequence = addToCart(cartId, order, expectedVersion, catalog, version);
+        // Short of stock, the units are asked from the other instances once the cart is no longer held
+        if (sequence == OUT_OF_STOCK && inventory.replenish(order.getItemId(), order.getAmount())) {
+            sequence = addToCart(cartId, order, expectedVersion, catalog, version);
         }
+
+        if (sequence == VERSION_MISMATCH) {
+            return rejectVersion(cartId, expectedVersion);
+        }
+        if (sequence == OUT_OF_STOCK) {
+            return reject(OrderErrorEnum.OUT_OF_STOCK, () -> String.join(" ", "Order above the stock left detected:", order.toString()));
+        }
+        if (sequence == LINE_FULL) {
+            return reject(OrderErrorEnum.INVALID_ORDER, () -> String.join(" ", "Order above the units a cart line holds detected:", order.toString()));
+        }
+
+        cartAnalytics.itemsAdded(order.getItemId(), order.getAmount());
+        cartJournal.awaitDurable(sequence);
+        return OrderResult.success(added(version[0]));
+    }
+
+    /**
+     * Adds the order to the cart, and reserves its units.
+     *
+     * @return the journal sequence of the change, {@link #VERSION_MISMATCH}, {@link #OUT_OF_STOCK} or {@link #LINE_FULL}
+     */
+    private long addToCart(String cartId, OrderRequest order, long expectedVersion, ProductCatalog catalog, long[] version) {
+        int product = catalog.indexOf(order.getItemId());
+
+        return cartStore.mutate(cartId, cart -> {
+            if (!versionMatches(cart, expectedVersion)) {
+                return VERSION_MISMATCH;
+            }
+            rebase(cart, catalog);
+            if (!cart.canAdd(product, order.getAmount())) {
+                return LINE_FULL;
+            }
+            if (!inventory.reserve(order.getItemId(), order.getAmount())) {
+                return OUT_OF_STOCK;
+            }
+            updateCart(cart, catalog, product, order.getAmount(), OperationEnum.ADD);
+            version[0] = cart.nextVersion();
+            try {
+                return cartJournal.itemsAdded(cartId, cart, order.getItemId(), order.getAmount());
+            } catch (RuntimeException ex) {
+                // The change cannot be journaled, so it is undone along with its reservation
+                cart.remove(catalog, product, order.getAmount());
+                cart.setVersion(version[0] - 1);
+                inventory.release(order.getItemId(), order.getAmount());
+                throw ex;
+            }
+        });
     }
 
     @Override
-    public OrderResponse removeFromCart(OrderRequest order) throws InvalidOrderException, ItemNotInCartException {
-        if (validOrder(order)) {
-            var itemData = ItemEnum.valueOfId(order.getItemId());
-            var optItem = cart.getItems().stream().filter(i -> i.getItemData().getId() == order.getItemId()).findFirst();
+    public OrderResult removeFromCart(String cartId, OrderRequest order, long expectedVersion) {
+        var catalog = catalogRegistry.current();
 
-            if (optItem.isPresent()) {
-                updateCart(itemData, order, OperationEnum.REMOVE, optItem);
+        if (!validOrder(catalog, order)) {
+            return reject(OrderErrorEnum.INVALID_ORDER, () -> String.join(" ", "Order with invalid data detected:", String.valueOf(order)));
+        }
 
-                return OrderResponse.builder()
-                        .message("Order placed. Item(s) removed from shopping cart.")
-                        .build();
-            } else {
-                log.error(String.join(" ", LOGGING_PREFIX, "Attempt to delete non existing item from cart detected:", order.toString()));
-                throw new ItemNotInCartException("The cart does not contain this item, so it cannot be deleted.");
+        int product = catalog.indexOf(order.getItemId());
+        var version = new long[1];
+        var removed = new int[1];
+        long sequence = cartStore.mutate(cartId, cart -> {
+            if (!versionMatches(cart, expectedVersion)) {
+                return VERSION_MISMATCH;
             }
-        } else {
-            log.error(String.join(" ", LOGGING_PREFIX, "Order with invalid data detected:", order.toString()));
-            throw new InvalidOrderException("The order received contains invalid data. This item may not exist with this id or amount.");
+            rebase(cart, catalog);
+            removed[0] = Math.min(cart.getAmount(product), order.getAmount());
+            if (!updateCart(cart, catalog, product, order.getAmount(), OperationEnum.REMOVE)) {
+                return -1L;
+            }
+            version[0] = cart.nextVersion();
+            long journaled;
+            try {
+                journaled = cartJournal.itemsRemoved(cartId, cart, order.getItemId(), order.getAmount());
+            } catch (RuntimeException ex) {
+                // The units are only released once the change is journaled
+                cart.add(catalog, product, removed[0]);
+                cart.setVersion(version[0] - 1);
+                throw ex;
+            }
+            inventory.release(order.getItemId(), removed[0]);
+            return journaled;
+        });
+
+        if (sequence == VERSION_MISMATCH) {
+            return rejectVersion(cartId, expectedVersion);
+        }
+        if (sequence < 0) {
+            return reject(OrderErrorEnum.ITEM_NOT_IN_CART, () -> String.join(" ", "Attempt to delete non existing item from cart detected:", order.toString()));
         }
+
+        cartAnalytics.itemsRemoved(order.getItemId(), removed[0]);
+        cartJournal.awaitDurable(sequence);
+        return OrderResult.success(removed(version[0]));
     }
 
     @Override
-    public OrderResponse emptyCart() {
-        cart.setItems(new ArrayList<>());
-        return OrderResponse.builder()
-                .message("Cart is now empty.")
-                .build();
+    public OrderResult applyBatch(String cartId, BatchOrderRequest batch, long expectedVersion) {
+        return applyBatch(cartId, batch, expectedVersion, 0, inventory);
+    }
+
+    /**
+     * Applies the batch of additions of a cart handed over by another instance, where it was at the
+     * given version. The cart moves on to a version above it, so that the versions its clients see
+     * never go back. The units of the lines come with them, so they are not reserved again here.
+     */
+    public OrderResult takeHandOver(String cartId, BatchOrderRequest batch, long version) {
+        return applyBatch(cartId, batch, ANY_VERSION, version + 1, CARRIED);
+    }
+
+    /**
+     * Applies the batch removing lines handed over by {@link #takeHandOver}, if the cart is at the
+     * expected version. Their units go back with them to the instance taking them back.
+     */
+    public OrderResult giveBack(String cartId, BatchOrderRequest batch, long expectedVersion) {
+        return applyBatch(cartId, batch, expectedVersion, 0, CARRIED);
+    }
+
+    private OrderResult applyBatch(String cartId, BatchOrderRequest batch, long expectedVersion, long minVersion, Inventory stock) {
+        var catalog = catalogRegistry.current();
+
+        if (!validBatch(catalog, batch)) {
+            return reject(OrderErrorEnum.INVALID_BATCH, () -> String.join(" ", "Batch with invalid data detected:", String.valueOf(batch)));
+        }
+
+        var operations = batch.getOperations();
+        var version = new long[1];
+        var removedAmounts = new int[operations.size()];
+        // Item and units the stock could not cover
+        var shortage = new int[2];
+        long result = applyBatch(cartId, catalog, operations, expectedVersion, minVersion, stock, version, removedAmounts, shortage);
+        if (result == OUT_OF_STOCK && stock.replenish(shortage[0], shortage[1])) {
+            result = applyBatch(cartId, catalog, operations, expectedVersion, minVersion, stock, version, removedAmounts, shortage);
+        }
+
+        if (result == VERSION_MISMATCH) {
+            return rejectVersion(cartId, expectedVersion);
+        }
+        if (result == OUT_OF_STOCK) {
+            reject(OrderErrorEnum.OUT_OF_STOCK, () -> String.join(" ", "Batch above the stock left detected:", String.valueOf(batch)));
+            return OrderResult.failure(OrderErrorEnum.OUT_OF_STOCK, "Not enough units of an item of the batch are left in stock. No operation was applied.");
+        }
+        if (result == LINE_FULL) {
+            return reject(OrderErrorEnum.INVALID_BATCH, () -> String.join(" ", "Batch above the units a cart line holds detected:", String.valueOf(batch)));
+        }
+        if (result < 0) {
+            int failedOperation = (int) (-1L - result);
+            reject(OrderErrorEnum.BATCH_ITEM_NOT_IN_CART, () -> String.join(" ", "Batch deleting non existing item from cart detected:", operations.get(failedOperation).toString()));
+            return OrderResult.failure(OrderErrorEnum.BATCH_ITEM_NOT_IN_CART, String.join(" ", "The cart would not contain the item of operation",
+                    String.valueOf(failedOperation + 1), "so it cannot be deleted. No operation was applied."));
+        }
+
+        recordBatch(operations, removedAmounts);
+        cartJournal.awaitDurable(result);
+        return OrderResult.success(batchPlaced(operations.size(), version[0]));
+    }
+
+    /**
+     * Applies the batch to the cart, and reserves and releases the units of its products from the given stock.
+     *
+     * @param shortage receives the id of the item and the units the stock could not cover
+     * @return the journal sequence of the change, {@link #VERSION_MISMATCH}, {@link #OUT_OF_STOCK},
+     * {@link #LINE_FULL}, or -1 - the index of the first operation that cannot be applied
+     */
+    private long applyBatch(String cartId, ProductCatalog catalog, List<OrderOperationRequest> operations, long expectedVersion, long minVersion,
+                            Inventory stock, long[] version, int[] removedAmounts, int[] shortage) {
+        return cartStore.mutate(cartId, cart -> {
+            if (!versionMatches(cart, expectedVersion)) {
+                return VERSION_MISMATCH;
+            }
+            var previousAmounts = new HashMap<Integer, Integer>();
+            int failedOperation = applyBatch(cart, catalog, operations, previousAmounts, removedAmounts, stock, shortage);
+            if (failedOperation == BATCH_OUT_OF_STOCK) {
+                return OUT_OF_STOCK;
+            }
+            if (failedOperation == BATCH_LINE_FULL) {
+                return LINE_FULL;
+            }
+            if (failedOperation >= 0) {
+                return -1L - failedOperation;
+            }
+            long previousVersion = cart.getVersion();
+            version[0] = Math.max(previousVersion + 1, minVersion);
+            cart.setVersion(version[0]);
+            long sequence;
+            try {
+                sequence = cartJournal.batchApplied(cartId, cart, operations);
+            } catch (RuntimeException ex) {
+                undoBatch(cart, catalog, previousAmounts, stock);
+                cart.setVersion(previousVersion);
+                throw ex;
+            }
+            releaseBatch(cart, catalog, previousAmounts, stock);
+            return sequence;
+        });
     }
 
     @Override
-    public ClosedOrderResponse closeOrder() {
-        return ClosedOrderResponse.builder()
-                .orderedItems(cart)
-                .totalPrice(applyPromotion())
-                .build();
+    public OrderResponse emptyCart(String cartId) {
+        var version = new long[1];
+        long sequence = cartStore.remove(cartId, cart -> {
+            version[0] = cart.getVersion() + 1;
+            long journaled = journalEmptied(cartId, cart);
+            inventory.releaseCart(cart);
+            recordEmptied(cart);
+            return journaled;
+        });
+
+        cartJournal.awaitDurable(sequence);
+        return emptied(version[0]);
+    }
+
+    @Override
+    public OrderResult emptyCart(String cartId, long expectedVersion) {
+        if (expectedVersion == ANY_VERSION) {
+            return OrderResult.success(emptyCart(cartId));
+        }
+
+        var sequence = new long[1];
+        boolean removed = cartStore.removeIf(cartId, cart -> cart.getVersion() == expectedVersion,
+                cart -> {
+                    sequence[0] = journalEmptied(cartId, cart);
+                    inventory.releaseCart(cart);
+                    recordEmptied(cart);
+                });
+
+        if (removed) {
+            cartJournal.awaitDurable(sequence[0]);
+            return OrderResult.success(emptied(expectedVersion + 1));
+        }
+        // Either the cart changed, or there is no cart and the client already saw it empty
+        if (!cartStore.peek(cartId, cart -> cart.isEmpty() && cart.getVersion() == expectedVersion)) {
+            return rejectVersion(cartId, expectedVersion);
+        }
+        return OrderResult.success(emptied(expectedVersion));
+    }
+
+    @Override
+    public ClosedOrderResponse closeOrder(String cartId) {
+        var catalog = catalogRegistry.current();
+        long rulesVersion = promotionEngine.getRulesVersion();
+        var finalized = new FinalizedOrder[1];
+        var sequence = new long[1];
+
+        var response = cartStore.mutate(cartId, cart -> {
+            rebase(cart, catalog);
+            var closed = cart.getClosedOrder();
+            if (closed != null) {
+                return closed;
+            }
+            if (cart.isEmpty()) {
+                return closedOrder(cart, catalog, rulesVersion, null);
+            }
+
+            long orderId = orderJournal.nextOrderId();
+            closed = closedOrder(cart, catalog, rulesVersion, orderId);
+            finalized[0] = FinalizedOrder.of(orderId, cartId, cart, rulesVersion, closed.getTotalPrice());
+            // The order takes the lines of the cart, whose units stay reserved as they are now sold
+            long version = cart.nextVersion();
+            try {
+                sequence[0] = cartJournal.cartEmptied(cartId, cart);
+            } catch (RuntimeException ex) {
+                cart.setVersion(version - 1);
+                throw ex;
+            }
+            cart.clear();
+            closed.setCartVersion(version);
+            closed.setTag(new CartTag(version, catalog.getVersion(), rulesVersion));
+            cart.setClosedOrder(closed);
+            return closed;
+        });
+
+        if (finalized[0] != null) {
+            submit(finalized[0]);
+            cartMetrics.closedCart(finalized[0].getLines());
+            cartAnalytics.orderClosed();
+            cartJournal.awaitDurable(sequence[0]);
+        }
+        return response;
     }
 
-    private boolean validOrder(OrderRequest order) {
-        if (Objects.isNull(order) || order.getAmount() <= 0) return false;
+    @Override
+    public ClosedOrderResponse previewOrder(String cartId, CartTag knownTag) {
+        var catalog = catalogRegistry.current();
+        long rulesVersion = promotionEngine.getRulesVersion();
+
+        return cartStore.read(cartId, cart -> {
+            rebase(cart, catalog);
+            var closed = cart.getClosedOrder();
+            if (closed != null) {
+                return notModified(closed.getTag(), knownTag) ? null : closed;
+            }
+            if (notModified(cart, catalog, rulesVersion, knownTag)) {
+                return null;
+            }
+            return closedOrder(cart, catalog, rulesVersion, null);
+        });
+    }
+
+    @Override
+    public QuoteResponse quote(String cartId, CartTag knownTag) {
+        var catalog = catalogRegistry.current();
+        long rulesVersion = promotionEngine.getRulesVersion();
+
+        return cartStore.read(cartId, cart -> {
+            if (notModified(cart, catalog, rulesVersion, knownTag)) {
+                return null;
+            }
+
+            return QuoteResponse.builder()
+                    .itemCount(cart.getItemCount())
+                    .totalPrice(totalPrice(cart, rulesVersion))
+                    .cartVersion(cart.getVersion())
+                    .tag(new CartTag(cart.getVersion(), catalog.getVersion(), rulesVersion))
+                    .build();
+        });
+    }
 
-        var item = ItemEnum.valueOfId(order.getItemId());
+    /**
+     * Removes the cart to hand it over to another instance. Its removal is journaled as when it is
+     * emptied, but its units stay reserved: those of the lines the other instance takes go with them,
+     * and the others come back into the cart with {@link #settleHandOver}.
+     *
+     * @return the removed cart, or null if it is empty
+     */
+    public CompactCart removeForHandOver(String cartId) {
+        var catalog = catalogRegistry.current();
+        var removed = new CompactCart[1];
 
-        return Objects.nonNull(item);
+        long sequence = cartStore.remove(cartId, cart -> {
+            rebase(cart, catalog);
+            if (!cart.isEmpty()) {
+                removed[0] = cart;
+            }
+            return journalEmptied(cartId, cart);
+        });
+
+        cartJournal.awaitDurable(sequence);
+        return removed[0];
     }
 
-    private void updateCart(ItemEnum itemData, OrderRequest order, OperationEnum operation, Optional<Item> optItem) {
-        var items = cart.getItems();
+    /**
+     * Settles the hand-over of a cart removed by {@link #removeForHandOver}. The lines the other
+     * instance kept took their units with them, and its other lines are put back into the cart here,
+     * at a version above the one it had.
+     *
+     * @param fromLine first line the other instance kept
+     * @param toLine   line after the last one the other instance kept
+     */
+    public void settleHandOver(String cartId, CompactCart handedOver, int fromLine, int toLine) {
+        if (toLine - fromLine == handedOver.getLines()) {
+            return;
+        }
 
-        if (optItem.isPresent()) {
-            var item = optItem.get();
-            if (operation.equals(OperationEnum.REMOVE)) {
-                if (item.getAmount() >= order.getAmount()) {
-                    items.set(items.indexOf(item), Item.builder().itemData(itemData).amount(item.getAmount() - order.getAmount()).build());
-                } else {
-                    items.set(items.indexOf(item), Item.builder().itemData(itemData).amount(0).build());
+        var catalog = catalogRegistry.current();
+        long sequence = cartStore.mutate(cartId, cart -> {
+            var operations = new ArrayList<OrderOperationRequest>();
+            rebase(cart, catalog);
+            for (int line = 0; line < handedOver.getLines(); line++) {
+                if (line >= fromLine && line < toLine) {
+                    continue;
                 }
+                int itemId = handedOver.getLineProductId(line);
+                int amount = handedOver.getLineAmount(line);
+                int product = catalog.indexOf(itemId);
+                if (product < 0 || !cart.canAdd(product, amount)) {
+                    inventory.release(itemId, amount);
+                    continue;
+                }
+                cart.add(catalog, product, amount);
+                operations.add(OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(itemId).amount(amount).build());
+            }
+            if (operations.isEmpty()) {
+                return 0L;
+            }
+            cart.setVersion(Math.max(cart.getVersion(), handedOver.getVersion()) + 1);
+            return cartJournal.batchApplied(cartId, cart, operations);
+        });
+
+        cartJournal.awaitDurable(sequence);
+    }
+
+    /**
+     * Lends units of the product to another instance whose stock of it runs short.
+     *
+     * @return the units lent
+     */
+    public long lendStock(int itemId, long amount) {
+        return amount <= 0 ? 0 : inventory.lend(itemId, amount);
+    }
+
+    /**
+     * Adds units another instance gave to the stock of the product.
+     */
+    public void receiveStock(int itemId, long units) {
+        inventory.receive(itemId, units);
+    }
+
+    /**
+     * Tells whether the order would pass validation against the current catalog, whatever the cart.
+     */
+    boolean isValid(OrderRequest order) {
+        return validOrder(catalogRegistry.current(), order);
+    }
+
+    /**
+     * Tells whether the batch would pass validation against the current catalog, whatever the cart.
+     */
+    boolean isValid(BatchOrderRequest batch) {
+        return validBatch(catalogRegistry.current(), batch);
+    }
+
+    /**
+     * Hands the order over to the order journal, outside of the cart lock. If the journal cannot take
+     * it, its lines are put back into the cart, which forgets the order, so that closing it again
+     * finalizes a new one.
+     */
+    private void submit(FinalizedOrder order) {
+        try {
+            orderJournal.submit(order);
+        } catch (RejectedExecutionException ex) {
+            restore(order);
+            throw ex;
+        }
+    }
+
+    /**
+     * Puts the lines of an order the order journal refused back into its cart, at a new version. Their
+     * units are still reserved, except for the products the catalog dropped in the meantime, or whose line
+     * cannot take them back, which are released.
+     */
+    private void restore(FinalizedOrder order) {
+        var catalog = catalogRegistry.current();
+        long sequence = cartStore.mutate(order.getCartId(), cart -> {
+            var operations = new ArrayList<OrderOperationRequest>();
+            rebase(cart, catalog);
+            cart.clearClosedOrder(order.getOrderId());
+            for (int line = 0; line < order.getLines(); line++) {
+                int itemId = order.getLineItemId(line);
+                int amount = order.getLineAmount(line);
+                int product = catalog.indexOf(itemId);
+                if (product < 0 || !cart.canAdd(product, amount)) {
+                    inventory.release(itemId, amount);
+                    continue;
+                }
+                cart.add(catalog, product, amount);
+                operations.add(OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(itemId).amount(amount).build());
+            }
+            if (operations.isEmpty()) {
+                return 0L;
+            }
+            cart.nextVersion();
+            try {
+                return cartJournal.batchApplied(order.getCartId(), cart, operations);
+            } catch (RuntimeException ex) {
+                // The lines cannot be journaled back, so the order is dropped along with its units
+                for (var operation : operations) {
+                    cart.remove(catalog, catalog.indexOf(operation.getItemId()), operation.getAmount());
+                    inventory.release(operation.getItemId(), operation.getAmount());
+                }
+                cart.setVersion(cart.getVersion() - 1);
+                log.error(String.join(" ", LOGGING_PREFIX, "Order", String.valueOf(order.getOrderId()), "dropped:", ex.getMessage()));
+                return 0L;
+            }
+        });
+
+        cartJournal.awaitDurable(sequence);
+    }
+
+    /**
+     * Records the operations of an applied batch, with the units each remove actually took out of the
+     * cart rather than the amount it asked for.
+     */
+    private void recordBatch(List<OrderOperationRequest> operations, int[] removedAmounts) {
+        for (int i = 0; i < operations.size(); i++) {
+            var operation = operations.get(i);
+            if (operation.getOperation().equals(OperationEnum.REMOVE)) {
+                cartAnalytics.itemsRemoved(operation.getItemId(), removedAmounts[i]);
             } else {
-                items.set(items.indexOf(item), Item.builder().itemData(itemData).amount(item.getAmount() + order.getAmount()).build());
+                cartAnalytics.itemsAdded(operation.getItemId(), operation.getAmount());
             }
+        }
+    }
+
+    /**
+     * Records the emptying of a cart that held items. Recording never blocks, so it is done while the
+     * cart is held, where its lines are known.
+     */
+    private void recordEmptied(CompactCart cart) {
+        if (!cart.isEmpty()) {
+            cartAnalytics.cartEmptied();
+        }
+    }
+
+    private static boolean versionMatches(CompactCart cart, long expectedVersion) {
+        return expectedVersion == ANY_VERSION || cart.getVersion() == expectedVersion;
+    }
+
+    private long journalEmptied(String cartId, CompactCart cart) {
+        return cart.isEmpty() && cart.getJournalSequence() == 0 ? 0L : cartJournal.cartEmptied(cartId, cart);
+    }
+
+    static OrderResponse added(long cartVersion) {
+        return OrderResponse.builder()
+                .message("Order placed. Item(s) added to cart.")
+                .cartVersion(cartVersion)
+                .build();
+    }
+
+    static OrderResponse removed(long cartVersion) {
+        return OrderResponse.builder()
+                .message("Order placed. Item(s) removed from shopping cart.")
+                .cartVersion(cartVersion)
+                .build();
+    }
+
+    static OrderResponse batchPlaced(int operations, long cartVersion) {
+        return OrderResponse.builder()
+                .message(String.join(" ", "Batch placed.", String.valueOf(operations), "operation(s) applied to cart."))
+                .cartVersion(cartVersion)
+                .build();
+    }
+
+    static OrderResponse emptied(long cartVersion) {
+        return OrderResponse.builder()
+                .message("Cart is now empty.")
+                .cartVersion(cartVersion)
+                .build();
+    }
+
+    private OrderResult rejectVersion(String cartId, long expectedVersion) {
+        return reject(OrderErrorEnum.VERSION_MISMATCH, () -> String.join(" ", "Cart", cartId, "is no longer at version", String.valueOf(expectedVersion)));
+    }
+
+    private OrderResult reject(OrderErrorEnum error, Supplier<String> logMessage) {
+        if (error == OrderErrorEnum.INVALID_ORDER || error == OrderErrorEnum.INVALID_BATCH) {
+            cartMetrics.invalidOrder();
+        } else if (error == OrderErrorEnum.VERSION_MISMATCH) {
+            cartMetrics.versionMismatch();
+        } else if (error == OrderErrorEnum.OUT_OF_STOCK) {
+            cartMetrics.outOfStock();
         } else {
-            items.add(Item.builder().itemData(itemData).amount(order.getAmount()).build());
+            cartMetrics.itemNotInCart();
         }
+        rejectionLog.error(logMessage);
+        return OrderResult.failure(error);
+    }
+
+    private boolean validOrder(ProductCatalog catalog, OrderRequest order) {
+        return Objects.nonNull(order) && validItem(catalog, order.getItemId(), order.getAmount());
+    }
 
-        cart.setItems(items);
+    private boolean validItem(ProductCatalog catalog, int itemId, int amount) {
+        if (amount <= 0) return false;
+
+        return catalog.indexOf(itemId) >= 0;
     }
 
-    private double applyPromotion() {
-        var items = cart.getItems();
-        int totalAmountOfItemsInCart = items.stream().mapToInt(Item::getAmount).sum();
-        double totalPrice = 0;
-        Collections.sort(items);
+    private boolean validBatch(ProductCatalog catalog, BatchOrderRequest batch) {
+        if (Objects.isNull(batch) || Objects.isNull(batch.getOperations()) || batch.getOperations().isEmpty()) return false;
+
+        for (var operation : batch.getOperations()) {
+            if (Objects.isNull(operation) || Objects.isNull(operation.getOperation())
+                    || !validItem(catalog, operation.getItemId(), operation.getAmount())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-        if (totalAmountOfItemsInCart >= 3) {
-            int discountsToGive = totalAmountOfItemsInCart / 3;
-            double discountValue = 0;
-            int pos = 0;
+    /**
+     * Checks the whole batch against the amounts the cart would have after each operation, and only
+     * applies it when every remove finds its item and the stock covers what the batch adds. Only the
+     * net change of each product is reserved, and the units it removes are only released by
+     * {@link #releaseBatch} once the batch is journaled.
+     *
+     * @param previousAmounts receives the amount of every product of the batch before it was applied
+     * @param removedAmounts receives the units removed by each operation of the batch
+     * @param shortage       receives the id of the item and the units the stock could not cover
+     * @return the index of the first operation that cannot be applied, {@link #BATCH_OUT_OF_STOCK},
+     * {@link #BATCH_LINE_FULL}, or -1 if the batch was applied
+     */
+    private int applyBatch(CompactCart cart, ProductCatalog catalog, List<OrderOperationRequest> operations, Map<Integer, Integer> previousAmounts,
+                           int[] removedAmounts, Inventory stock, int[] shortage) {
+        var pendingAmounts = new HashMap<Integer, Integer>();
 
-            while (discountsToGive > 0) {
-                var discountItem = items.get(pos);
+        rebase(cart, catalog);
+        for (int i = 0; i < operations.size(); i++) {
+            var operation = operations.get(i);
+            int product = catalog.indexOf(operation.getItemId());
+            int amount = pendingAmounts.getOrDefault(product, cart.getAmount(product));
 
-                if (discountItem.getAmount() >= discountsToGive) {
-                    discountValue += discountItem.getItemData().getPrice() * discountsToGive;
-                    discountsToGive = 0;
-                } else {
-                    discountValue += discountItem.getItemData().getPrice() * discountItem.getAmount();
-                    pos += 1;
-                    discountsToGive -= discountItem.getAmount();
+            if (operation.getOperation().equals(OperationEnum.REMOVE)) {
+                if (amount == 0) {
+                    return i;
                 }
+                removedAmounts[i] = Math.min(amount, operation.getAmount());
+                pendingAmounts.put(product, amount - removedAmounts[i]);
+            } else if ((long) amount + operation.getAmount() > Integer.MAX_VALUE) {
+                return BATCH_LINE_FULL;
+            } else {
+                pendingAmounts.put(product, amount + operation.getAmount());
             }
+        }
 
-            totalPrice = items.stream().mapToDouble(i -> i.getItemData().getPrice() * i.getAmount()).sum() - discountValue;
-        } else {
-            totalPrice = items.stream().mapToDouble(i -> i.getItemData().getPrice() * i.getAmount()).sum();
+        if (!reserveBatch(cart, catalog, pendingAmounts, stock, shortage)) {
+            return BATCH_OUT_OF_STOCK;
+        }
+        for (var product : pendingAmounts.keySet()) {
+            previousAmounts.put(product, cart.getAmount(product));
+        }
+        for (var operation : operations) {
+            updateCart(cart, catalog, catalog.indexOf(operation.getItemId()), operation.getAmount(), operation.getOperation());
+        }
+
+        return -1;
+    }
+
+    /**
+     * Releases the units of the products the applied batch left with fewer units than before.
+     */
+    private void releaseBatch(CompactCart cart, ProductCatalog catalog, Map<Integer, Integer> previousAmounts, Inventory stock) {
+        for (var previous : previousAmounts.entrySet()) {
+            int released = previous.getValue() - cart.getAmount(previous.getKey());
+            if (released > 0) {
+                stock.release(catalog.getId(previous.getKey()), released);
+            }
+        }
+    }
+
+    /**
+     * Gives the cart back the amounts it had before a batch that cannot be journaled, and releases the
+     * units the batch reserved. The units it removed were not released yet.
+     */
+    private void undoBatch(CompactCart cart, ProductCatalog catalog, Map<Integer, Integer> previousAmounts, Inventory stock) {
+        for (var previous : previousAmounts.entrySet()) {
+            int added = cart.getAmount(previous.getKey()) - previous.getValue();
+            if (added > 0) {
+                cart.remove(catalog, previous.getKey(), added);
+                stock.release(catalog.getId(previous.getKey()), added);
+            } else if (added < 0) {
+                cart.add(catalog, previous.getKey(), -added);
+            }
+        }
+    }
+
+    /**
+     * Reserves the units the batch adds to each product, or nothing if the stock of one of them is short.
+     */
+    private boolean reserveBatch(CompactCart cart, ProductCatalog catalog, Map<Integer, Integer> pendingAmounts, Inventory stock, int[] shortage) {
+        var reserved = new HashMap<Integer, Integer>();
+
+        for (var pending : pendingAmounts.entrySet()) {
+            int added = pending.getValue() - cart.getAmount(pending.getKey());
+            if (added <= 0) {
+                continue;
+            }
+            if (!stock.reserve(catalog.getId(pending.getKey()), added)) {
+                reserved.forEach(stock::release);
+                shortage[0] = catalog.getId(pending.getKey());
+                shortage[1] = added;
+                return false;
+            }
+            reserved.put(catalog.getId(pending.getKey()), added);
+        }
+        return true;
+    }
+
+    private boolean updateCart(CompactCart cart, ProductCatalog catalog, int product, int amount, OperationEnum operation) {
+        if (operation.equals(OperationEnum.REMOVE)) {
+            return cart.remove(catalog, product, amount);
+        }
+
+        cart.add(catalog, product, amount);
+        return true;
+    }
+
+    /**
+     * Moves the cart to the catalog, giving the units of the products it no longer has back to the
+     * stock. Every change or read of a cart starts here, before the cart is moved by anything else.
+     */
+    private void rebase(CompactCart cart, ProductCatalog catalog) {
+        cart.rebase(catalog, releaseDropped);
+    }
+
+    /**
+     * Moves the cart to the catalog, and tells whether the client already holds its response.
+     */
+    private boolean notModified(CompactCart cart, ProductCatalog catalog, long rulesVersion, CartTag knownTag) {
+        rebase(cart, catalog);
+        if (knownTag != null && knownTag.matches(cart.getVersion(), catalog.getVersion(), rulesVersion)) {
+            cartMetrics.notModified();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean notModified(CartTag tag, CartTag knownTag) {
+        if (tag.equals(knownTag)) {
+            cartMetrics.notModified();
+            return true;
+        }
+        return false;
+    }
+
+    private ClosedOrderResponse closedOrder(CompactCart cart, ProductCatalog catalog, long rulesVersion, Long orderId) {
+        return ClosedOrderResponse.builder()
+                .lines(cart.orderedLines(catalog))
+                .totalPrice(totalPrice(cart, rulesVersion))
+                .catalogVersion(catalog.getVersion())
+                .cartVersion(cart.getVersion())
+                .orderId(orderId)
+                .tag(new CartTag(cart.getVersion(), catalog.getVersion(), rulesVersion))
+                .build();
+    }
+
+    /**
+     * Price of the cart after promotions, kept in the cart until its lines, its catalog or the rules
+     * change. The rules version is read before pricing, so a price is never kept under a version of
+     * the rules newer than the ones it was computed with.
+     */
+    private long totalPrice(CompactCart cart, long rulesVersion) {
+        long totalPrice = cart.getPricedTotalInCents(rulesVersion);
+
+        if (totalPrice >= 0) {
+            cartMetrics.priceCached();
+            return totalPrice;
         }
 
-        String formattedDoubleValue = String.format("%.2f", totalPrice).replace(',', '.');
+        cartMetrics.priceComputed();
+        totalPrice = applyPromotion(cart);
+        cart.setPricedTotal(totalPrice, rulesVersion);
+        return totalPrice;
+    }
+
+    private long applyPromotion(CompactCart cart) {
+        long start = System.nanoTime();
+        long totalPrice = cart.getTotalPriceInCents() - promotionEngine.discountInCents(cart);
 
-        return Double.parseDouble(formattedDoubleValue);
+        cartMetrics.promotionTime(System.nanoTime() - start);
+        return totalPrice;
     }
 }
@@ -0,0 +1,250 @@
+package com.navalia.shoppingcart.service.impl;
+
+import com.navalia.shoppingcart.binary.BinaryProtocol;
+import com.navalia.shoppingcart.binary.BinaryResponse;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.cluster.ClusterMembership;
+import com.navalia.shoppingcart.cluster.NodeClients;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.entity.Cart;
+import com.navalia.shoppingcart.entity.Item;
+import com.navalia.shoppingcart.entity.Product;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.OrderResult;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongFunction;
+
+/**
+ * Cart service of an instance sharing the carts with others. Each cart lives on the instance the
+ * {@link ClusterMembership} ring assigns it to: requests for the carts of this instance go straight to
+ * its {@link CartServiceImpl}, and the others are forwarded to their owner over a persistent binary
+ * protocol connection, then answered as if they had been applied here.
+ * <p>
+ * Orders and batches that are invalid whatever the cart are rejected here, without a round trip. The
+ * owner applies forwarded requests to its own carts without forwarding them again, so instances that
+ * briefly disagree on the ring while it changes never bounce a request between them.
+ */
+@Primary
+@Service
+@ConditionalOnProperty(prefix = "cart.cluster", name = "enabled", havingValue = "true")
+public class PartitionedCartService implements CartService {
+
+    private final CartServiceImpl localService;
+    private final ClusterMembership membership;
+    private final NodeClients nodeClients;
+    private final CatalogRegistry catalogRegistry;
+    private final CartMetrics cartMetrics;
+
+    public PartitionedCartService(CartServiceImpl localService, ClusterMembership membership, NodeClients nodeClients,
+                                  CatalogRegistry catalogRegistry, CartMetrics cartMetrics) {
+        this.localService = localService;
+        this.membership = membership;
+        this.nodeClients = nodeClients;
+        this.catalogRegistry = catalogRegistry;
+        this.cartMetrics = cartMetrics;
+    }
+
+    @Override
+    public OrderResult addToCart(String cartId, OrderRequest order, long expectedVersion) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null || !localService.isValid(order)) {
+            return localService.addToCart(cartId, order, expectedVersion);
+        }
+
+        var response = forward(owner, client -> {
+            client.addToCart(cartId, order.getItemId(), order.getAmount(), expectedVersion);
+            return client.receive();
+        });
+        return toResult(owner, response, CartServiceImpl::added);
+    }
+
+    @Override
+    public OrderResult removeFromCart(String cartId, OrderRequest order, long expectedVersion) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null || !localService.isValid(order)) {
+            return localService.removeFromCart(cartId, order, expectedVersion);
+        }
+
+        var response = forward(owner, client -> {
+            client.removeFromCart(cartId, order.getItemId(), order.getAmount(), expectedVersion);
+            return client.receive();
+        });
+        return toResult(owner, response, CartServiceImpl::removed);
+    }
+
+    @Override
+    public OrderResult applyBatch(String cartId, BatchOrderRequest batch, long expectedVersion) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null || !localService.isValid(batch)) {
+            return localService.applyBatch(cartId, batch, expectedVersion);
+        }
+
+        var response = forward(owner, client -> {
+            client.applyBatch(cartId, batch, expectedVersion);
+            return client.receive();
+        });
+        int operations = batch.getOperations().size();
+        return toResult(owner, response, cartVersion -> CartServiceImpl.batchPlaced(operations, cartVersion));
+    }
+
+    @Override
+    public OrderResponse emptyCart(String cartId) {
+        var result = emptyCart(cartId, ANY_VERSION);
+        return result.getResponse();
+    }
+
+    @Override
+    public OrderResult emptyCart(String cartId, long expectedVersion) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null) {
+            return localService.emptyCart(cartId, expectedVersion);
+        }
+
+        var response = forward(owner, client -> {
+            client.emptyCart(cartId, expectedVersion);
+            return client.receive();
+        });
+        return toResult(owner, response, CartServiceImpl::emptied);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the owner of the cart cannot finalize the order for now
+     */
+    @Override
+    public ClosedOrderResponse closeOrder(String cartId) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null) {
+            return localService.closeOrder(cartId);
+        }
+
+        var response = forward(owner, client -> {
+            client.closeOrder(cartId);
+            return client.receive();
+        });
+        return toClosedOrder(owner, response);
+    }
+
+    @Override
+    public ClosedOrderResponse previewOrder(String cartId, CartTag knownTag) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null) {
+            return localService.previewOrder(cartId, knownTag);
+        }
+
+        var response = forward(owner, client -> {
+            client.previewOrder(cartId, knownTag);
+            return client.receive();
+        });
+        return toClosedOrder(owner, response);
+    }
+
+    @Override
+    public QuoteResponse quote(String cartId, CartTag knownTag) {
+        var owner = membership.remoteOwner(cartId);
+        if (owner == null) {
+            return localService.quote(cartId, knownTag);
+        }
+
+        var response = forward(owner, client -> {
+            client.quote(cartId, knownTag);
+            return client.receive();
+        });
+        switch (response.getStatus()) {
+            case BinaryProtocol.OK:
+                return QuoteResponse.builder()
+                        .itemCount(response.getItemCount())
+                        .totalPrice(response.getTotalPrice())
+                        .cartVersion(response.getCartVersion())
+                        .tag(response.toTag())
+                        .build();
+            case BinaryProtocol.NOT_MODIFIED:
+                return null;
+            default:
+                throw failed(owner);
+        }
+    }
+
+    private BinaryResponse forward(String owner, NodeClients.NodeCall<BinaryResponse> call) {
+        cartMetrics.forwardedRequest();
+        return nodeClients.call(owner, call);
+    }
+
+    /**
+     * Rebuilds the result the owner answered. Rejections with the default message of their error
+     * become the shared instances, as they are when applied here.
+     */
+    private static OrderResult toResult(String owner, BinaryResponse response, LongFunction<OrderResponse> success) {
+        switch (response.getStatus()) {
+            case BinaryProtocol.OK:
+                return OrderResult.success(success.apply(response.getCartVersion()));
+            case BinaryProtocol.REJECTED:
+                var error = response.getError();
+                return error.getMessage().equals(response.getMessage())
+                        ? OrderResult.failure(error)
+                        : OrderResult.failure(error, response.getMessage());
+            default:
+                throw failed(owner);
+        }
+    }
+
+    /**
+     * Items of a closed order answered by the owner. The names and categories come from the catalog of
+     * this instance, and the prices from the owner, which priced the order. When both catalogs are at
+     * the same version, the products of this one are used as they are.
+     */
+    private ClosedOrderResponse toClosedOrder(String owner, BinaryResponse response) {
+        switch (response.getStatus()) {
+            case BinaryProtocol.OK:
+                return ClosedOrderResponse.builder()
+                        .orderedItems(toCart(response))
+                        .totalPrice(response.getTotalPrice())
+                        .catalogVersion(response.getCatalogVersion())
+                        .cartVersion(response.getCartVersion())
+                        .orderId(response.getOrderId() == 0 ? null : response.getOrderId())
+                        .tag(response.toTag())
+                        .build();
+            case BinaryProtocol.NOT_MODIFIED:
+                return null;
+            case BinaryProtocol.UNAVAILABLE:
+                throw new RejectedExecutionException(String.join(" ", "Instance", owner, "cannot finalize orders for now."));
+            default:
+                throw failed(owner);
+        }
+    }
+
+    private Cart toCart(BinaryResponse response) {
+        var catalog = catalogRegistry.current();
+        boolean sameCatalog = catalog.getVersion() == response.getCatalogVersion();
+        var cart = new Cart();
+
+        for (int line = 0; line < response.getItemIds().length; line++) {
+            int index = catalog.indexOf(response.getItemIds()[line]);
+            var known = index < 0 ? null : catalog.getProduct(index);
+            var product = sameCatalog && known != null && known.getPriceInCents() == response.getPricesInCents()[line]
+                    ? known
+                    : Product.builder()
+                    .id(response.getItemIds()[line])
+                    .name(known == null ? null : known.getName())
+                    .priceInCents(response.getPricesInCents()[line])
+                    .category(known == null ? null : known.getCategory())
+                    .build();
+
+            cart.getItems().add(Item.builder().amount(response.getAmounts()[line]).itemData(product).build());
+        }
+        return cart;
+    }
+
+    private static IllegalStateException failed(String owner) {
+        return new IllegalStateException(String.join(" ", "Instance", owner, "failed to apply the request."));
+    }
+}
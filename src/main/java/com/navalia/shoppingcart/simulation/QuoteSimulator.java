@@ -0,0 +1,34 @@
+package com.navalia.shoppingcart.simulation;
+
+import com.navalia.shoppingcart.dto.response.SimulationSummaryResponse;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Prices hypothetical baskets in bulk, to see what a set of carts would cost with the current catalog
+ * and some promotions, without creating or touching any live cart.
+ * <p>
+ * Baskets are read as JSON lines, one {@code {"items": [{"itemId": 1, "amount": 3}, ...]}} object per
+ * line, and each one is answered by a JSON line in the same order: {@code {"basket": n, "itemCount": ...,
+ * "totalPrice": ...}}, or {@code {"basket": n, "error": "..."}} for a basket that cannot be priced.
+ * Baskets are numbered from zero and blank lines are skipped.
+ */
+public interface QuoteSimulator {
+
+    /**
+     * Prices the baskets with the active promotions.
+     */
+    SimulationSummaryResponse quote(InputStream baskets, OutputStream results) throws IOException;
+
+    /**
+     * Prices the baskets with the given promotions instead of the active ones.
+     *
+     * @throws IllegalArgumentException if the rules do not fit the current catalog
+     */
+    SimulationSummaryResponse quote(InputStream baskets, OutputStream results, List<PromotionRule> rules) throws IOException;
+
+}
@@ -0,0 +1,19 @@
+package com.navalia.shoppingcart.simulation;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "cart.simulation")
+public class SimulationProperties {
+
+    /** Threads pricing simulated baskets, or 0 for one per available processor. */
+    private int parallelism = 0;
+
+    /** Baskets priced together by one thread. */
+    private int chunkSize = 1024;
+}
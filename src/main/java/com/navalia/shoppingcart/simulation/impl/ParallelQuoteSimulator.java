@@ -0,0 +1,318 @@
+package com.navalia.shoppingcart.simulation.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BasketRequest;
+import com.navalia.shoppingcart.dto.response.SimulationSummaryResponse;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.promotion.PromotionEngine;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.simulation.QuoteSimulator;
+import com.navalia.shoppingcart.simulation.SimulationProperties;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QuoteSimulator} that cuts the input into chunks of whole lines and hands each chunk to a
+ * {@link ForkJoinPool}, where one thread parses its baskets, prices them in scratch carts and writes
+ * their results. Parsing and writing JSON costs more than pricing, so they are parallel too, and only
+ * cutting the input and copying the results out are left to the calling thread.
+ * <p>
+ * Results are written in input order as soon as their chunk is done, and at most two chunks per
+ * thread are in flight, so memory stays bounded however many baskets are sent. Every simulation
+ * prices with a single catalog version and a single compiled set of rules.
+ */
+@Log4j2
+@Component
+public class ParallelQuoteSimulator implements QuoteSimulator, DisposableBean {
+
+    private static final String LOGGING_PREFIX = "[ParallelQuoteSimulator] ";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Bytes of a typical result line, to size the output of a chunk
+    private static final int RESULT_SIZE = 48;
+
+    private final CatalogRegistry catalogRegistry;
+    private final PromotionEngine promotionEngine;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final ObjectReader basketReader;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+
+    public ParallelQuoteSimulator(CatalogRegistry catalogRegistry, PromotionEngine promotionEngine, SimulationProperties simulationProperties) {
+        this.catalogRegistry = catalogRegistry;
+        this.promotionEngine = promotionEngine;
+        this.pool = new ForkJoinPool(simulationProperties.getParallelism() > 0
+                ? simulationProperties.getParallelism()
+                : Runtime.getRuntime().availableProcessors());
+        this.chunkSize = Math.max(1, simulationProperties.getChunkSize());
+        this.basketReader = objectMapper.readerFor(BasketRequest.class);
+    }
+
+    @Override
+    public SimulationSummaryResponse quote(InputStream baskets, OutputStream results) throws IOException {
+        return quote(baskets, results, promotionEngine.getRules());
+    }
+
+    @Override
+    public SimulationSummaryResponse quote(InputStream baskets, OutputStream results, List<PromotionRule> rules) throws IOException {
+        long start = System.nanoTime();
+        var catalog = catalogRegistry.current();
+        var engine = new CompiledPromotionEngine(catalog, rules);
+        var chunks = new Chunker(baskets, chunkSize);
+        var inFlight = new ArrayDeque<ForkJoinTask<PricedChunk>>();
+        long basketCount = 0;
+        long rejected = 0;
+
+        for (var chunk = chunks.next(); chunk != null; chunk = chunks.next()) {
+            long firstBasket = basketCount;
+            var lines = chunk;
+
+            basketCount += chunk.baskets;
+            inFlight.add(pool.submit(() -> price(lines, firstBasket, catalog, engine)));
+            if (inFlight.size() > 2 * pool.getParallelism()) {
+                rejected += write(inFlight.poll().join(), results);
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            rejected += write(inFlight.poll().join(), results);
+        }
+
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        var summary = SimulationSummaryResponse.builder()
+                .baskets(basketCount)
+                .rejected(rejected)
+                .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .parallelism(pool.getParallelism())
+                .basketsPerSecondPerCore((long) (basketCount * 1e9 / elapsedNanos / pool.getParallelism()))
+                .build();
+
+        results.write(objectMapper.writer().withRootName("summary").writeValueAsBytes(summary));
+        results.write('\n');
+        results.flush();
+
+        log.info(String.join(" ", LOGGING_PREFIX, "Priced", String.valueOf(basketCount), "basket(s),", String.valueOf(rejected), "rejected, in",
+                String.valueOf(summary.getElapsedMillis()), "ms:", String.valueOf(summary.getBasketsPerSecondPerCore()), "basket(s) per second per core."));
+        return summary;
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    private static long write(PricedChunk chunk, OutputStream results) throws IOException {
+        results.write(chunk.results);
+        return chunk.rejected;
+    }
+
+    private PricedChunk price(Chunk chunk, long firstBasket, ProductCatalog catalog, PromotionEngine engine) {
+        var out = new ByteArrayOutputStream(chunk.baskets * RESULT_SIZE);
+        long basket = firstBasket;
+        int rejected = 0;
+
+        try (var json = jsonFactory.createGenerator(out)) {
+            int lineStart = 0;
+            for (int i = 0; i <= chunk.data.length; i++) {
+                if (i < chunk.data.length && chunk.data[i] != '\n') {
+                    continue;
+                }
+                if (!isBlank(chunk.data, lineStart, i)) {
+                    if (!price(chunk.data, lineStart, i - lineStart, basket++, catalog, engine, json)) {
+                        rejected++;
+                    }
+                    json.writeRaw('\n');
+                }
+                lineStart = i + 1;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return new PricedChunk(out.toByteArray(), rejected);
+    }
+
+    /**
+     * Prices one basket in a scratch cart and writes its result.
+     *
+     * @return false if the basket was rejected
+     */
+    private boolean price(byte[] data, int offset, int length, long basket, ProductCatalog catalog, PromotionEngine engine,
+                          JsonGenerator json) throws IOException {
+        BasketRequest request;
+        try {
+            request = basketReader.readValue(data, offset, length);
+        } catch (IOException ex) {
+            writeRejection(json, basket, "The basket is not a valid JSON object.");
+            return false;
+        }
+
+        if (Objects.isNull(request) || Objects.isNull(request.getItems())) {
+            writeRejection(json, basket, OrderErrorEnum.INVALID_ORDER.getMessage());
+            return false;
+        }
+
+        var cart = new CompactCart();
+        for (var item : request.getItems()) {
+            int product = Objects.isNull(item) ? -1 : catalog.indexOf(item.getItemId());
+            if (product < 0 || item.getAmount() <= 0) {
+                writeRejection(json, basket, OrderErrorEnum.INVALID_ORDER.getMessage());
+                return false;
+            }
+            cart.add(catalog, product, item.getAmount());
+        }
+
+        json.writeStartObject();
+        json.writeNumberField("basket", basket);
+        json.writeNumberField("itemCount", cart.getItemCount());
+        json.writeNumberField("totalPrice", cart.getTotalPriceInCents() - engine.discountInCents(cart));
+        json.writeEndObject();
+        return true;
+    }
+
+    private static void writeRejection(JsonGenerator json, long basket, String message) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("basket", basket);
+        json.writeStringField("error", message);
+        json.writeEndObject();
+    }
+
+    private static boolean isBlank(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whole lines of the input, holding a given number of baskets at most.
+     */
+    private static final class Chunk {
+
+        private final byte[] data;
+        private final int baskets;
+
+        private Chunk(byte[] data, int baskets) {
+            this.data = data;
+            this.baskets = baskets;
+        }
+    }
+
+    private static final class PricedChunk {
+
+        private final byte[] results;
+        private final int rejected;
+
+        private PricedChunk(byte[] results, int rejected) {
+            this.results = results;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * Cuts the input into chunks at line breaks, counting the lines that are not blank.
+     */
+    private static final class Chunker {
+
+        private final InputStream in;
+        private final int basketsPerChunk;
+        private byte[] buffer = new byte[READ_BUFFER_SIZE];
+        // Bytes read and not handed out yet
+        private int start;
+        private int end;
+        private boolean endOfInput;
+
+        private Chunker(InputStream in, int basketsPerChunk) {
+            this.in = in;
+            this.basketsPerChunk = basketsPerChunk;
+        }
+
+        /**
+         * @return the next chunk, or null at the end of the input
+         */
+        private Chunk next() throws IOException {
+            int scan = start;
+            int baskets = 0;
+            boolean content = false;
+
+            while (baskets < basketsPerChunk) {
+                if (scan == end) {
+                    if (endOfInput) {
+                        break;
+                    }
+                    int scanned = scan - start;
+                    endOfInput = !fill();
+                    // Filling moves the unread bytes to the start of the buffer
+                    scan = start + scanned;
+                    continue;
+                }
+
+                byte b = buffer[scan++];
+                if (b == '\n') {
+                    if (content) {
+                        baskets++;
+                    }
+                    content = false;
+                } else if (b > ' ') {
+                    content = true;
+                }
+            }
+            if (content) {
+                baskets++;
+            }
+            if (scan == start) {
+                return null;
+            }
+
+            var data = Arrays.copyOfRange(buffer, start, scan);
+            start = scan;
+            return new Chunk(data, baskets);
+        }
+
+        /**
+         * Reads more of the input after the unread bytes, moving them to the start of the buffer and
+         * growing it if needed.
+         *
+         * @return false at the end of the input
+         */
+        private boolean fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                return false;
+            }
+            end += read;
+            return true;
+        }
+    }
+}
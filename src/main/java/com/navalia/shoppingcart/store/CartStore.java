@@ -0,0 +1,88 @@
+package com.navalia.shoppingcart.store;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the shopping carts of every client, each one identified by its cart id.
+ * Operations on different carts never block each other, while operations on the
+ * same cart are applied one at a time.
+ * <p>
+ * A cart id never goes back to a version it already had: new carts, and the empty carts read for
+ * unknown ids, start above the versions of every cart removed so far.
+ * <p>
+ * The functions given to the store run while it holds the cart, which may take a monitor that pins a
+ * virtual thread to its carrier. They must never block: whatever a change has to wait for, like its
+ * journal record becoming durable, is waited for once they returned.
+ */
+public interface CartStore {
+
+    /**
+     * Applies the given mutation to the cart with the given id, or to a new empty cart if the id is
+     * unknown. The new cart is only kept if the mutation leaves it with lines or at another version,
+     * and not if the mutation throws. The mutation runs atomically in relation to any other operation
+     * on the same cart.
+     */
+    <T> T mutate(String cartId, Function<CompactCart, T> mutation);
+
+    /**
+     * Reads the cart with the given id. An unknown id is read as an empty cart, without creating it.
+     * The reader must not keep references to the cart after returning.
+     */
+    <T> T read(String cartId, Function<CompactCart, T> reader);
+
+    /**
+     * Reads the cart with the given id like {@link #read}, but without counting as an access to it.
+     * Meant for background tasks, which must not keep idle carts alive.
+     */
+    <T> T peek(String cartId, Function<CompactCart, T> reader);
+
+    /**
+     * Removes the cart with the given id. The action is applied to the cart (or to an empty cart,
+     * if the id is unknown) atomically with the removal. If the action throws, the cart is kept.
+     */
+    <T> T remove(String cartId, Function<CompactCart, T> action);
+
+    /**
+     * Removes the cart with the given id only if it matches the condition, applying the action to
+     * it atomically with the removal. If the action throws, the cart is kept.
+     *
+     * @return whether the cart was removed
+     */
+    boolean removeIf(String cartId, Predicate<CompactCart> condition, Consumer<CompactCart> action);
+
+    /**
+     * Sets the listener called, while the new cart is still held by the store, whenever a cart is
+     * created. The listener must not block.
+     */
+    void setCreationListener(BiConsumer<String, CompactCart> listener);
+
+    /**
+     * Version new carts, and the empty carts read for unknown ids, start from.
+     */
+    long getFirstVersion();
+
+    /**
+     * Makes new carts start from the given version at least. Used when carts are recovered, so that
+     * they do not go back to the versions they had before a restart.
+     */
+    void advanceFirstVersion(long version);
+
+    /**
+     * Weakly consistent view of the ids of the carts in the store.
+     */
+    Set<String> cartIds();
+
+    int size();
+
+    /**
+     * Approximate heap footprint of the carts in the store, including their ids.
+     */
+    long estimatedSizeInBytes();
+
+}
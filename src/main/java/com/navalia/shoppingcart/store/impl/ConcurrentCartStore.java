@@ -0,0 +1,185 @@
+package com.navalia.shoppingcart.store.impl;
+
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.store.CartStore;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * {@link CartStore} backed by a {@link ConcurrentHashMap}. Every operation runs inside the map's
+ * per-bin locking, so carts with different ids are updated in parallel and no global lock exists.
+ */
+@Component
+public class ConcurrentCartStore implements CartStore {
+
+    // Map node plus table slot, and the String header of the cart id
+    private static final long ENTRY_OVERHEAD_IN_BYTES = 40 + 24;
+
+    private final ConcurrentHashMap<String, CompactCart> carts = new ConcurrentHashMap<>();
+    private final LongAdder sizeInBytes = new LongAdder();
+    // Version new carts start from, above the version of every removed cart
+    private final AtomicLong firstVersion = new AtomicLong();
+    private volatile BiConsumer<String, CompactCart> creationListener = (cartId, cart) -> {
+    };
+
+    @Override
+    public <T> T mutate(String cartId, Function<CompactCart, T> mutation) {
+        var result = new Object[1];
+
+        carts.compute(cartId, (id, cart) -> {
+            if (cart == null) {
+                return create(id, mutation, result);
+            }
+            long cartSizeInBytes = cart.getEstimatedSizeInBytes();
+
+            cart.setLastAccessNanos(System.nanoTime());
+            try {
+                result[0] = mutation.apply(cart);
+            } finally {
+                // Carts grow with their number of lines
+                sizeInBytes.add(cart.getEstimatedSizeInBytes() - cartSizeInBytes);
+            }
+            return cart;
+        });
+
+        return cast(result[0]);
+    }
+
+    @Override
+    public <T> T read(String cartId, Function<CompactCart, T> reader) {
+        return read(cartId, reader, true);
+    }
+
+    @Override
+    public <T> T peek(String cartId, Function<CompactCart, T> reader) {
+        return read(cartId, reader, false);
+    }
+
+    @Override
+    public <T> T remove(String cartId, Function<CompactCart, T> action) {
+        var result = new Object[1];
+
+        carts.compute(cartId, (id, cart) -> {
+            var removed = cart == null ? new CompactCart(firstVersion.get()) : cart;
+            removed(removed);
+            result[0] = action.apply(removed);
+            // Only once the action succeeded, as the cart stays in the map when it throws
+            if (cart != null) {
+                sizeInBytes.add(-sizeInBytes(id, cart));
+            }
+            return null;
+        });
+
+        return cast(result[0]);
+    }
+
+    @Override
+    public boolean removeIf(String cartId, Predicate<CompactCart> condition, Consumer<CompactCart> action) {
+        var removed = new boolean[1];
+
+        carts.computeIfPresent(cartId, (id, cart) -> {
+            if (!condition.test(cart)) {
+                return cart;
+            }
+            removed(cart);
+            action.accept(cart);
+            sizeInBytes.add(-sizeInBytes(id, cart));
+            removed[0] = true;
+            return null;
+        });
+
+        return removed[0];
+    }
+
+    @Override
+    public void setCreationListener(BiConsumer<String, CompactCart> listener) {
+        this.creationListener = listener;
+    }
+
+    @Override
+    public long getFirstVersion() {
+        return firstVersion.get();
+    }
+
+    @Override
+    public void advanceFirstVersion(long version) {
+        firstVersion.accumulateAndGet(version, Math::max);
+    }
+
+    @Override
+    public Set<String> cartIds() {
+        return Collections.unmodifiableSet(carts.keySet());
+    }
+
+    @Override
+    public int size() {
+        return carts.size();
+    }
+
+    @Override
+    public long estimatedSizeInBytes() {
+        return sizeInBytes.sum();
+    }
+
+    private <T> T read(String cartId, Function<CompactCart, T> reader, boolean access) {
+        var result = new Object[1];
+
+        var cart = carts.computeIfPresent(cartId, (id, current) -> {
+            if (access) {
+                current.setLastAccessNanos(System.nanoTime());
+            }
+            result[0] = reader.apply(current);
+            return current;
+        });
+
+        return cart == null ? reader.apply(new CompactCart(firstVersion.get())) : cast(result[0]);
+    }
+
+    /**
+     * Applies the mutation to a new cart, which is only kept if the mutation left it with lines or at
+     * another version, so that requests rejected on an unknown id leave nothing behind. The cart is
+     * only counted and announced once the mutation succeeded.
+     *
+     * @return the new cart, or null if it is not kept
+     */
+    private CompactCart create(String cartId, Function<CompactCart, ?> mutation, Object[] result) {
+        var cart = new CompactCart(firstVersion.get());
+        long version = cart.getVersion();
+
+        cart.setLastAccessNanos(System.nanoTime());
+        result[0] = mutation.apply(cart);
+        if (cart.isEmpty() && cart.getVersion() == version) {
+            return null;
+        }
+
+        sizeInBytes.add(sizeInBytes(cartId, cart));
+        creationListener.accept(cartId, cart);
+        return cart;
+    }
+
+    /**
+     * Moves the first version past the removed cart, before the removal action runs, so that whatever
+     * the action records, such as a journal record, follows the new first version.
+     */
+    private void removed(CompactCart cart) {
+        advanceFirstVersion(cart.getVersion() + 1);
+    }
+
+    private static long sizeInBytes(String cartId, CompactCart cart) {
+        return ENTRY_OVERHEAD_IN_BYTES + ((16L + cartId.length() + 7) & ~7L) + cart.getEstimatedSizeInBytes();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+}
@@ -1,13 +1,31 @@
 package com.navalia.shoppingcart;
 
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.json.CartResponseMessageConverter;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
 
-@SpringBootTest
+@SpringBootTest(properties = {"cart.journal.directory=target/test-journal", "cart.order-journal.directory=target/test-orders"})
 class ShoppingCartApplicationTests {
 
+	@Autowired
+	private HttpMessageConverters messageConverters;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void testClosedOrdersAreNotWrittenByJackson() {
+		var converter = messageConverters.getConverters().stream()
+				.filter(candidate -> candidate.canWrite(ClosedOrderResponse.class, MediaType.APPLICATION_JSON))
+				.findFirst();
+
+		Assertions.assertTrue(converter.orElseThrow() instanceof CartResponseMessageConverter);
+	}
+
 }
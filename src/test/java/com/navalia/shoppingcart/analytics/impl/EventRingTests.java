@@ -0,0 +1,74 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventRingTests {
+
+    @Test
+    void testCapacityIsRoundedUpToAPowerOfTwo() {
+        Assertions.assertEquals(8, new EventRing(5, () -> { }).capacity());
+        Assertions.assertEquals(4096, new EventRing(4096, () -> { }).capacity());
+    }
+
+    @Test
+    void testFullRingRefusesEvents() {
+        var ring = new EventRing(4, () -> { });
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(ring.offer(i));
+        }
+        Assertions.assertFalse(ring.offer(4));
+
+        var drained = new ArrayList<Long>();
+        Assertions.assertEquals(4, ring.drain(drained::add));
+        Assertions.assertEquals(List.of(0L, 1L, 2L, 3L), drained);
+        Assertions.assertTrue(ring.offer(4));
+    }
+
+    @Test
+    void testHalfFullRingWakesTheConsumerUp() {
+        var wakeUps = new int[1];
+        var ring = new EventRing(8, () -> wakeUps[0]++);
+
+        for (int i = 0; i < 4; i++) {
+            ring.offer(i);
+        }
+        Assertions.assertEquals(0, wakeUps[0]);
+        ring.offer(4);
+        ring.offer(5);
+        Assertions.assertEquals(1, wakeUps[0]);
+
+        ring.drain(event -> { });
+        for (int i = 0; i < 8; i++) {
+            ring.offer(i);
+        }
+        Assertions.assertEquals(2, wakeUps[0]);
+    }
+
+    @Test
+    void testEventsKeepTheirOrderAcrossThreads() throws Exception {
+        var ring = new EventRing(64, () -> { });
+        int events = 100_000;
+        var producer = new Thread(() -> {
+            for (long event = 0; event < events; ) {
+                if (ring.offer(event)) {
+                    event++;
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+
+        producer.start();
+        var next = new long[1];
+        while (next[0] < events) {
+            if (ring.drain(event -> Assertions.assertEquals(next[0]++, event)) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+    }
+}
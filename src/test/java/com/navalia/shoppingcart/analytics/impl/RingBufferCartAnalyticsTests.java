@@ -0,0 +1,195 @@
+package com.navalia.shoppingcart.analytics.impl;
+
+import com.navalia.shoppingcart.analytics.AnalyticsProperties;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RingBufferCartAnalyticsTests {
+
+    private final CatalogRegistry catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+    private SimpleMeterRegistry meterRegistry;
+    private AnalyticsProperties properties;
+    private RingBufferCartAnalytics analytics;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new AnalyticsProperties();
+        properties.setEnabled(true);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        analytics.destroy();
+    }
+
+    @Test
+    void testTopItemsAreRankedByUnitsAdded() {
+        analytics = newAnalytics();
+
+        analytics.itemsAdded(1, 2);
+        analytics.itemsAdded(2, 5);
+        analytics.itemsAdded(3, 1);
+        analytics.itemsAdded(1, 1);
+        analytics.itemsRemoved(2, 4);
+        analytics.maintain(System.nanoTime());
+
+        var report = analytics.report(2);
+        Assertions.assertEquals(300, report.getWindowSeconds());
+        Assertions.assertEquals(9, report.getItemsAdded());
+        Assertions.assertEquals(4, report.getItemsRemoved());
+        Assertions.assertEquals(2, report.getTopItems().size());
+        Assertions.assertEquals(2, report.getTopItems().get(0).getItemId());
+        Assertions.assertEquals("Jeans", report.getTopItems().get(0).getName());
+        Assertions.assertEquals(5, report.getTopItems().get(0).getUnits());
+        Assertions.assertEquals(1, report.getTopItems().get(1).getItemId());
+        Assertions.assertEquals(3, report.getTopItems().get(1).getUnits());
+    }
+
+    @Test
+    void testEventsLeaveTheWindow() {
+        analytics = newAnalytics();
+        long now = System.nanoTime();
+
+        analytics.itemsAdded(1, 2);
+        analytics.maintain(now);
+        analytics.itemsAdded(2, 1);
+        analytics.maintain(now + TimeUnit.MINUTES.toNanos(4));
+        Assertions.assertEquals(3, analytics.report(10).getItemsAdded());
+
+        analytics.maintain(now + TimeUnit.MINUTES.toNanos(6));
+        var report = analytics.report(10);
+        Assertions.assertEquals(1, report.getItemsAdded());
+        Assertions.assertEquals(1, report.getTopItems().size());
+        Assertions.assertEquals(2, report.getTopItems().get(0).getItemId());
+
+        analytics.maintain(now + TimeUnit.MINUTES.toNanos(10));
+        Assertions.assertEquals(0, analytics.report(10).getItemsAdded());
+        Assertions.assertTrue(analytics.report(10).getTopItems().isEmpty());
+    }
+
+    @Test
+    void testCartChangesAreRecorded() {
+        analytics = newAnalytics();
+        var cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry),
+                new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), analytics);
+
+        for (int i = 1; i <= 3; i++) {
+            cartService.addToCart("cart-" + i, OrderRequest.builder().itemId(1).amount(1).build());
+        }
+        cartService.removeFromCart("cart-1", OrderRequest.builder().itemId(1).amount(5).build());
+        cartService.applyBatch("cart-2", BatchOrderRequest.builder()
+                .operations(List.of(
+                        OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(2).build(),
+                        OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(10).build(),
+                        OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(1).build()))
+                .build());
+        cartService.emptyCart("cart-2");
+        cartService.emptyCart("unknown");
+        cartService.closeOrder("cart-3");
+        cartService.closeOrder("cart-3");
+        analytics.cartAbandoned();
+        analytics.maintain(System.nanoTime());
+
+        var report = analytics.report(10);
+        // Removes count the units they took out, not the amounts they asked for
+        Assertions.assertEquals(6, report.getItemsAdded());
+        Assertions.assertEquals(4, report.getItemsRemoved());
+        Assertions.assertEquals(1, report.getCartsEmptied());
+        Assertions.assertEquals(1, report.getOrdersClosed());
+        Assertions.assertEquals(1, report.getCartsAbandoned());
+        Assertions.assertEquals(0.5, report.getAbandonmentRate(), 1e-9);
+    }
+
+    @Test
+    void testFullRingDropsEvents() {
+        properties.setRingSize(4);
+        analytics = newAnalytics();
+
+        for (int i = 0; i < 10; i++) {
+            analytics.itemsAdded(1, 1);
+        }
+        analytics.maintain(System.nanoTime());
+
+        var report = analytics.report(10);
+        Assertions.assertEquals(4, report.getItemsAdded());
+        Assertions.assertEquals(6, report.getEventsDropped());
+        Assertions.assertEquals(6, meterRegistry.get("cart.analytics.dropped").functionCounter().count());
+    }
+
+    @Test
+    void testEventsOfEveryThreadAreCounted() throws Exception {
+        properties.setRingSize(1 << 17);
+        properties.setMaxRings(2);
+        // One shared ring for each of the other threads, so that one is always free
+        properties.setSharedRings(4);
+        analytics = newAnalytics();
+        analytics.afterPropertiesSet();
+        int perThread = 20_000;
+
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 6; t++) {
+            int itemId = 1 + t % 3;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    analytics.itemsAdded(itemId, 1);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (var thread : threads) {
+            thread.join();
+        }
+        analytics.destroy();
+        analytics.maintain(System.nanoTime());
+
+        var report = analytics.report(10);
+        Assertions.assertEquals(0, report.getEventsDropped());
+        Assertions.assertEquals(6L * perThread, report.getItemsAdded());
+        for (var item : report.getTopItems()) {
+            Assertions.assertEquals(2L * perThread, item.getUnits());
+        }
+    }
+
+    @Test
+    void testRingsOfEndedThreadsAreDropped() throws Exception {
+        properties.setMaxRings(1);
+        analytics = newAnalytics();
+
+        var thread = new Thread(() -> analytics.itemsAdded(1, 3));
+        thread.start();
+        thread.join();
+        Assertions.assertEquals(1, analytics.getProducerRings());
+
+        analytics.maintain(System.nanoTime());
+        Assertions.assertEquals(0, analytics.getProducerRings());
+        Assertions.assertEquals(3, analytics.report(10).getItemsAdded());
+
+        analytics.itemsAdded(2, 1);
+        Assertions.assertEquals(1, analytics.getProducerRings());
+    }
+
+    private RingBufferCartAnalytics newAnalytics() {
+        return new RingBufferCartAnalytics(catalogRegistry, new CartMetrics(meterRegistry), properties);
+    }
+}
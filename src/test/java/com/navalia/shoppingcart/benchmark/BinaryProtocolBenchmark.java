@@ -0,0 +1,109 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.ShoppingCartApplication;
+import com.navalia.shoppingcart.binary.BinaryCartClient;
+import com.navalia.shoppingcart.binary.BinaryCartServer;
+import com.navalia.shoppingcart.binary.BinaryResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds an item to a cart through the running application, over the REST API and over the binary
+ * protocol, one request at a time and {@value #PIPELINE_DEPTH} pipelined requests at a time. Every
+ * thread has its own cart and connection, and the journals are disabled to compare the transports
+ * alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryProtocolBenchmark {
+
+    private static final int PIPELINE_DEPTH = 64;
+
+    private ConfigurableApplicationContext context;
+    private int httpPort;
+    private int binaryPort;
+
+    @State(Scope.Thread)
+    public static class Connection {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private final String cartId = "cart-" + THREADS.incrementAndGet();
+        private HttpClient httpClient;
+        private HttpRequest addRequest;
+        private BinaryCartClient binaryClient;
+
+        @Setup
+        public void setup(BinaryProtocolBenchmark benchmark) throws IOException {
+            httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            addRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + benchmark.httpPort + "/cart/" + cartId + "/add_item"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"itemId\":1,\"amount\":1}"))
+                    .build();
+            binaryClient = BinaryCartClient.connect("localhost", benchmark.binaryPort);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            binaryClient.close();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(ShoppingCartApplication.class)
+                .run("--server.port=0",
+                        "--cart.binary.enabled=true",
+                        "--cart.binary.port=0",
+                        "--cart.journal.enabled=false",
+                        "--cart.order-journal.enabled=false",
+                        "--logging.level.root=WARN");
+        httpPort = ((WebServerApplicationContext) context).getWebServer().getPort();
+        binaryPort = context.getBean(BinaryCartServer.class).getPort();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int restAdd(Connection connection) throws IOException, InterruptedException {
+        return connection.httpClient.send(connection.addRequest, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    @Benchmark
+    public BinaryResponse binaryAdd(Connection connection) throws IOException {
+        connection.binaryClient.addToCart(connection.cartId, 1, 1, -1);
+        return connection.binaryClient.receive();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public BinaryResponse binaryPipelinedAdd(Connection connection) throws IOException {
+        var client = connection.binaryClient;
+        BinaryResponse response = null;
+
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            client.addToCart(connection.cartId, 1, 1, -1);
+        }
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            response = client.receive();
+        }
+        return response;
+    }
+}
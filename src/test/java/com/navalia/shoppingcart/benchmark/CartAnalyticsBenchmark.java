@@ -0,0 +1,89 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.analytics.AnalyticsProperties;
+import com.navalia.shoppingcart.analytics.CartAnalytics;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.analytics.impl.RingBufferCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.OrderResult;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of the cart analytics on the mutation path: adding then removing an item on a cart of each
+ * thread, without analytics and with the ring buffer analytics, whose consumer thread runs during the
+ * benchmark. {@code recordEvent} measures recording one event alone. Add {@code -prof gc} to check
+ * that recording allocates nothing, and look at the dropped events printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartAnalyticsBenchmark {
+
+    private static final AtomicInteger CART_IDS = new AtomicInteger();
+    private static final OrderRequest ONE_T_SHIRT = OrderRequest.builder().itemId(1).amount(1).build();
+
+    @Param({"none", "ring"})
+    private String analytics;
+
+    private CartAnalytics cartAnalytics;
+    private CartServiceImpl cartService;
+
+    @State(Scope.Thread)
+    public static class ThreadCart {
+
+        private final String cartId = "cart-" + CART_IDS.incrementAndGet();
+    }
+
+    @Setup
+    public void setup() {
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        var cartMetrics = new CartMetrics(new SimpleMeterRegistry());
+
+        if (analytics.equals("ring")) {
+            var properties = new AnalyticsProperties();
+            properties.setEnabled(true);
+            var ringAnalytics = new RingBufferCartAnalytics(catalogRegistry, cartMetrics, properties);
+            ringAnalytics.afterPropertiesSet();
+            cartAnalytics = ringAnalytics;
+        } else {
+            cartAnalytics = new NoOpCartAnalytics();
+        }
+        cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), cartMetrics,
+                new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), cartAnalytics);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (cartAnalytics instanceof RingBufferCartAnalytics) {
+            System.out.println(String.join(" ", "Events dropped:", String.valueOf(cartAnalytics.report(0).getEventsDropped())));
+            ((RingBufferCartAnalytics) cartAnalytics).destroy();
+        }
+    }
+
+    @Benchmark
+    public OrderResult addThenRemove(ThreadCart threadCart) {
+        cartService.addToCart(threadCart.cartId, ONE_T_SHIRT);
+        return cartService.removeFromCart(threadCart.cartId, ONE_T_SHIRT);
+    }
+
+    @Benchmark
+    public void recordEvent() {
+        cartAnalytics.itemsAdded(1, 1);
+    }
+}
@@ -0,0 +1,229 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.ShoppingCartApplication;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test of the cart API. The application is started on a random port, then add, remove
+ * and close order requests are sent on random carts at a fixed rate, whether or not the previous ones
+ * were answered, as independent users would.
+ * <p>
+ * Each request is timed from the moment it was due to be sent, not from the moment it was sent, so
+ * that a stalled server also counts against the requests that queued up behind the stall instead of
+ * hiding them (coordinated omission). Latencies go to one HdrHistogram per operation, and the report
+ * prints their percentiles next to those of the uncorrected service time. Removals of an item that
+ * is not in the cart are answered with a 400 and counted as rejected, not as errors.
+ * <p>
+ * Arguments: {@code [requests per second] [seconds] [add:remove:close weights] [carts] [histogram file]},
+ * 500, 30, 60:25:15 and 1000 by default. A warm-up at the same rate for a third of the duration comes
+ * first. The percentile distribution of all requests is written to the histogram file when one is
+ * given, in the {@code .hgrm} format the HdrHistogram plotter reads:
+ * <pre>
+ * mvn -Pbenchmark test -DskipTests -Dbenchmark.main=com.navalia.shoppingcart.benchmark.CartApiLoadTest \
+ *     -Dbenchmark.args="500 30 60:25:15 1000 benchmarks/cart-api-load.hgrm"
+ * </pre>
+ */
+public final class CartApiLoadTest {
+
+    private static final String[] OPERATIONS = {"add_item", "remove_item", "close_order"};
+    private static final int ITEM_IDS = 3;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private CartApiLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        var weights = weights(args.length > 2 ? args[2] : "60:25:15");
+        int carts = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        String histogramFile = args.length > 4 ? args[4] : null;
+
+        var context = new SpringApplicationBuilder(ShoppingCartApplication.class)
+                .run("--server.port=0",
+                        "--cart.journal.enabled=false",
+                        "--cart.order-journal.enabled=false",
+                        "--logging.level.root=WARN");
+
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.println("Application started on port " + port + ".");
+            var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(REQUEST_TIMEOUT).build();
+
+            run(client, port, rate, Math.max(1, seconds / 3), weights, carts);
+            var result = run(client, port, rate, seconds, weights, carts);
+
+            result.report(System.out, rate, seconds, weights, carts);
+            if (histogramFile != null) {
+                try (var out = new PrintStream(new FileOutputStream(histogramFile))) {
+                    result.total.outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Sends requests at the given rate for the given time, then waits for the last answers.
+     */
+    private static Result run(HttpClient client, int port, int rate, int seconds, int[] weights, int carts) throws Exception {
+        var result = new Result();
+        var random = new SplittableRandom(42);
+        var pending = new ArrayList<CompletableFuture<?>>();
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long requests = (long) rate * seconds;
+        long start = System.nanoTime();
+
+        for (long i = 0; i < requests; i++) {
+            long intended = start + i * interval;
+            for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+
+            int operation = pick(random, weights);
+            var request = request(port, operation, "cart-" + random.nextInt(carts), 1 + random.nextInt(ITEM_IDS));
+            long sent = System.nanoTime();
+            pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> result.record(operation, intended, sent, System.nanoTime(),
+                            failure == null ? response.statusCode() : -1)));
+        }
+        result.sendingNanos = System.nanoTime() - start;
+
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).handle((ignored, failure) -> null).join();
+        return result;
+    }
+
+    private static HttpRequest request(int port, int operation, String cartId, int itemId) {
+        var builder = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/cart/" + cartId + "/" + OPERATIONS[operation]))
+                .timeout(REQUEST_TIMEOUT);
+        var order = HttpRequest.BodyPublishers.ofString("{\"itemId\":" + itemId + ",\"amount\":1}");
+
+        switch (operation) {
+            case 0:
+                return builder.header("Content-Type", "application/json").POST(order).build();
+            case 1:
+                return builder.header("Content-Type", "application/json").method("DELETE", order).build();
+            default:
+                return builder.POST(HttpRequest.BodyPublishers.noBody()).build();
+        }
+    }
+
+    private static int[] weights(String mix) {
+        var parts = mix.split(":");
+        if (parts.length != OPERATIONS.length) {
+            throw new IllegalArgumentException(String.join(" ", "The mix", mix, "does not give one weight per operation: add:remove:close."));
+        }
+
+        var weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            weights[i] = Integer.parseInt(parts[i]);
+        }
+        return weights;
+    }
+
+    private static int pick(SplittableRandom random, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+
+        int drawn = random.nextInt(total);
+        int operation = 0;
+        while (drawn >= weights[operation]) {
+            drawn -= weights[operation++];
+        }
+        return operation;
+    }
+
+    /**
+     * Latencies and outcomes of one run, in microseconds.
+     */
+    private static final class Result {
+
+        private final Histogram[] latencies = new Histogram[OPERATIONS.length];
+        private final Histogram[] serviceTimes = new Histogram[OPERATIONS.length];
+        private final AtomicLong[] rejected = new AtomicLong[OPERATIONS.length];
+        private final AtomicLong[] errors = new AtomicLong[OPERATIONS.length];
+        private final Histogram total = new ConcurrentHistogram(3);
+        private final Histogram totalServiceTime = new ConcurrentHistogram(3);
+        private long sendingNanos;
+
+        private Result() {
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                latencies[i] = new ConcurrentHistogram(3);
+                serviceTimes[i] = new ConcurrentHistogram(3);
+                rejected[i] = new AtomicLong();
+                errors[i] = new AtomicLong();
+            }
+        }
+
+        /**
+         * @param status status of the response, or -1 if the request failed or timed out
+         */
+        private void record(int operation, long intended, long sent, long answered, int status) {
+            long latency = TimeUnit.NANOSECONDS.toMicros(answered - intended);
+            long serviceTime = TimeUnit.NANOSECONDS.toMicros(answered - sent);
+
+            latencies[operation].recordValue(latency);
+            serviceTimes[operation].recordValue(serviceTime);
+            total.recordValue(latency);
+            totalServiceTime.recordValue(serviceTime);
+            if (status < 0 || status >= 500) {
+                errors[operation].incrementAndGet();
+            } else if (status >= 400) {
+                rejected[operation].incrementAndGet();
+            }
+        }
+
+        private void report(PrintStream out, int rate, int seconds, int[] weights, int carts) {
+            out.println(String.format(Locale.ROOT, "rate=%d req/s duration=%ds mix=%d:%d:%d carts=%d achieved=%.0f req/s",
+                    rate, seconds, weights[0], weights[1], weights[2], carts, total.getTotalCount() / (sendingNanos / 1e9)));
+            out.println(String.format(Locale.ROOT, "%-12s %8s %8s %6s %10s %10s %10s %10s %10s %10s",
+                    "operation", "requests", "rejected", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms"));
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                line(out, OPERATIONS[i], latencies[i], serviceTimes[i], rejected[i].get(), errors[i].get());
+            }
+            line(out, "all", total, totalServiceTime, sum(rejected), sum(errors));
+        }
+
+        private static void line(PrintStream out, String name, Histogram latency, Histogram serviceTime, long rejected, long errors) {
+            out.println(String.format(Locale.ROOT, "%-12s %8d %8d %6d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f",
+                    name, latency.getTotalCount(), rejected, errors,
+                    millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                    millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                    millis(latency.getMaxValue()), millis(serviceTime.getValueAtPercentile(99))));
+        }
+
+        private static long sum(AtomicLong[] counters) {
+            long sum = 0;
+            for (var counter : counters) {
+                sum += counter.get();
+            }
+            return sum;
+        }
+
+        private static double millis(long micros) {
+            return micros / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.OrderResult;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the {@link CartServiceImpl} hot paths, for carts from 3 to thousands of units.
+ * Each benchmark thread works on its own cart, or on one cart shared by every thread when
+ * {@code sharedCart} is true. Use JMH's {@code -t} option to choose the number of threads and
+ * {@code -prof gc} to report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartServiceBenchmark {
+
+    private static final AtomicInteger CART_IDS = new AtomicInteger();
+    private static final OrderRequest ONE_T_SHIRT = OrderRequest.builder().itemId(1).amount(1).build();
+
+    @Param({"3", "100", "5000"})
+    private int cartSize;
+
+    @Param({"false", "true"})
+    private boolean sharedCart;
+
+    private CartServiceImpl cartService;
+
+    @Setup
+    public void setup() {
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+
+        cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadCart {
+
+        private String cartId;
+        private OrderRequest[] fillOrders;
+        private long retries;
+
+        @Setup
+        public void setup(CartServiceBenchmark benchmark) {
+            cartId = benchmark.sharedCart ? "shared" : "cart-" + CART_IDS.incrementAndGet();
+
+            int size = benchmark.cartSize;
+            fillOrders = new OrderRequest[]{
+                    OrderRequest.builder().itemId(1).amount(size - 2 * (size / 3)).build(),
+                    OrderRequest.builder().itemId(2).amount(size / 3).build(),
+                    OrderRequest.builder().itemId(3).amount(size / 3).build()
+            };
+            fill(benchmark.cartService);
+        }
+
+        private void fill(CartServiceImpl cartService) {
+            for (var order : fillOrders) {
+                if (order.getAmount() > 0) {
+                    cartService.addToCart(cartId, order);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public OrderResult addThenRemove(ThreadCart threadCart) {
+        cartService.addToCart(threadCart.cartId, ONE_T_SHIRT);
+        return cartService.removeFromCart(threadCart.cartId, ONE_T_SHIRT);
+    }
+
+    /**
+     * Same changes as {@link #addThenRemove}, made by an optimistic client: it reads the cart version,
+     * sends it as the expected version and starts again whenever another thread changed the cart first.
+     */
+    @Benchmark
+    public OrderResult conditionalAddThenRemove(ThreadCart threadCart) {
+        while (!cartService.addToCart(threadCart.cartId, ONE_T_SHIRT, cartService.quote(threadCart.cartId).getCartVersion()).isSuccess()) {
+            threadCart.retries++;
+        }
+        OrderResult result;
+        while (!(result = cartService.removeFromCart(threadCart.cartId, ONE_T_SHIRT, cartService.quote(threadCart.cartId).getCartVersion())).isSuccess()) {
+            threadCart.retries++;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public OrderResponse emptyThenRefill(ThreadCart threadCart) {
+        var response = cartService.emptyCart(threadCart.cartId);
+        threadCart.fill(cartService);
+        return response;
+    }
+
+    @Benchmark
+    public ClosedOrderResponse closeOrder(ThreadCart threadCart) {
+        var response = cartService.closeOrder(threadCart.cartId);
+        threadCart.fill(cartService);
+        return response;
+    }
+
+    @Benchmark
+    public QuoteResponse quote(ThreadCart threadCart) {
+        return cartService.quote(threadCart.cartId);
+    }
+}
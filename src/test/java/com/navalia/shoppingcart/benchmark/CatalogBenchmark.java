@@ -0,0 +1,105 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup load time of a catalog of half a million products, and the latency of looking a product's
+ * price up by id, compared to a {@link HashMap} of boxed ids. Product ids are shuffled and lookups
+ * follow a random order, as they would for orders coming from many clients. Add {@code -prof gc}
+ * to check that lookups do not allocate.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CatalogBenchmark {
+
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"500000"})
+    private int products;
+
+    private Path file;
+    private ProductCatalog catalog;
+    private Map<Integer, Long> boxedPrices;
+    private int[] lookupIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void writeCatalog() throws IOException {
+        var random = new Random(42);
+        var categories = CategoryEnum.values();
+        var ids = new int[products];
+
+        for (int i = 0; i < products; i++) {
+            ids[i] = i + 1;
+        }
+        for (int i = products - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+
+        file = Files.createTempFile("catalog", ".csv");
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("id,name,priceInCents,category\n");
+            for (int id : ids) {
+                out.write(id + ",Product " + id + "," + (100 + random.nextInt(100_000)) + "," + categories[id % categories.length] + "\n");
+            }
+        }
+
+        catalog = ProductCatalog.load(file);
+        boxedPrices = new HashMap<>();
+        for (int index = 0; index < catalog.size(); index++) {
+            boxedPrices.put(catalog.getId(index), catalog.getPriceInCents(index));
+        }
+
+        lookupIds = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookupIds[i] = 1 + random.nextInt(products);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCatalog() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public ProductCatalog load() throws IOException {
+        return ProductCatalog.load(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long lookup() {
+        int id = lookupIds[next++ & (LOOKUPS - 1)];
+
+        return catalog.getPriceInCents(catalog.indexOf(id));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long boxedMapLookup() {
+        int id = lookupIds[next++ & (LOOKUPS - 1)];
+
+        return boxedPrices.get(id);
+    }
+}
@@ -0,0 +1,112 @@
+package com.navalia.shoppingcart.benchmark;
+
+import ch.qos.logback.classic.LoggerContext;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quote latency while the whole catalog gets new prices, compared to the same quotes on a catalog that
+ * does not change. In the {@code reload} group, one thread publishes price files of {@code changes}
+ * lines back to back while the others quote carts of a few products, which move to the new version the
+ * next time they are quoted. Sample time mode reports the latency percentiles of both groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CatalogReloadBenchmark {
+
+    private static final int CARTS = 1024;
+    private static final int LINES_PER_CART = 5;
+
+    @Param({"200000"})
+    private int products;
+
+    @Param({"100000"})
+    private int changes;
+
+    private CatalogRegistry catalogRegistry;
+    private CartServiceImpl cartService;
+    private byte[][] priceFiles;
+    private int nextFile;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // One line per reload would otherwise flood the console
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).setLevel(ch.qos.logback.classic.Level.WARN);
+        var random = new Random(42);
+        var categories = CategoryEnum.values();
+        var catalog = new StringBuilder("id,name,priceInCents,category\n");
+
+        for (int id = 1; id <= products; id++) {
+            catalog.append(id).append(",Product ").append(id).append(',').append(100 + random.nextInt(100_000))
+                    .append(',').append(categories[id % categories.length]).append('\n');
+        }
+
+        catalogRegistry = new CatalogRegistry(ProductCatalog.parse(catalog.toString().getBytes(StandardCharsets.UTF_8)));
+        cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        for (int cart = 0; cart < CARTS; cart++) {
+            for (int line = 0; line < LINES_PER_CART; line++) {
+                cartService.addToCart(String.valueOf(cart), OrderRequest.builder().itemId(1 + random.nextInt(products)).amount(1 + random.nextInt(3)).build());
+            }
+        }
+
+        // Two files, so that every reload really changes the prices
+        priceFiles = new byte[2][];
+        for (int file = 0; file < priceFiles.length; file++) {
+            var prices = new StringBuilder("id,priceInCents\n");
+            for (int change = 0; change < changes; change++) {
+                prices.append(1 + random.nextInt(products)).append(',').append(100 + random.nextInt(100_000)).append('\n');
+            }
+            priceFiles[file] = prices.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    @Group("steady")
+    @GroupThreads(3)
+    public QuoteResponse steadyQuote() {
+        return quote();
+    }
+
+    @Benchmark
+    @Group("reload")
+    @GroupThreads(3)
+    public QuoteResponse reloadQuote() {
+        return quote();
+    }
+
+    @Benchmark
+    @Group("reload")
+    @GroupThreads(1)
+    public ProductCatalog reloadPrices() {
+        return catalogRegistry.updatePrices(priceFiles[nextFile++ & 1]);
+    }
+
+    private QuoteResponse quote() {
+        return cartService.quote(String.valueOf(ThreadLocalRandom.current().nextInt(CARTS)));
+    }
+}
@@ -0,0 +1,124 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.entity.Item;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of closing an order with integer cents pricing, compared to the former pricing based on
+ * doubles rounded through {@code String.format}, which is reproduced in {@link #legacyApplyPromotion(List)}.
+ * The poll benchmarks add the JSON serialization of the response, as a client refreshing its cart
+ * would cause, and compare it with a poll that already holds the latest response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CloseOrderBenchmark {
+
+    private static final String CART_ID = "benchmark";
+
+    private ConcurrentCartStore cartStore;
+    private ProductCatalog catalog;
+    private CartServiceImpl cartService;
+    private ObjectMapper objectMapper;
+    private CartTag latestTag;
+
+    @Setup
+    public void setup() {
+        cartStore = new ConcurrentCartStore();
+        catalog = ProductCatalog.defaultCatalog();
+        var catalogRegistry = new CatalogRegistry(catalog);
+        cartService = new CartServiceImpl(cartStore, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        cartService.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        cartService.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(2).build());
+        cartService.addToCart(CART_ID, OrderRequest.builder().itemId(3).amount(4).build());
+
+        objectMapper = new ObjectMapper();
+        latestTag = cartService.previewOrder(CART_ID).getTag();
+    }
+
+    /**
+     * Prices the order like a close, which would empty the cart the benchmark keeps using.
+     */
+    @Benchmark
+    public ClosedOrderResponse closeOrder() {
+        return cartService.previewOrder(CART_ID);
+    }
+
+    @Benchmark
+    public byte[] pollCloseOrder() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(cartService.previewOrder(CART_ID));
+    }
+
+    @Benchmark
+    public ClosedOrderResponse pollCloseOrderNotModified() {
+        return cartService.previewOrder(CART_ID, latestTag);
+    }
+
+    @Benchmark
+    public double legacyCloseOrder() {
+        var cart = cartStore.read(CART_ID, compactCart -> compactCart.toCart(catalog));
+
+        return legacyApplyPromotion(cart.getItems());
+    }
+
+    private static double legacyApplyPromotion(List<Item> items) {
+        int totalAmountOfItemsInCart = items.stream().mapToInt(Item::getAmount).sum();
+        double totalPrice;
+        Collections.sort(items);
+
+        if (totalAmountOfItemsInCart >= 3) {
+            int discountsToGive = totalAmountOfItemsInCart / 3;
+            double discountValue = 0;
+            int pos = 0;
+
+            while (discountsToGive > 0) {
+                var discountItem = items.get(pos);
+
+                if (discountItem.getAmount() >= discountsToGive) {
+                    discountValue += price(discountItem) * discountsToGive;
+                    discountsToGive = 0;
+                } else {
+                    discountValue += price(discountItem) * discountItem.getAmount();
+                    pos += 1;
+                    discountsToGive -= discountItem.getAmount();
+                }
+            }
+
+            totalPrice = items.stream().mapToDouble(i -> price(i) * i.getAmount()).sum() - discountValue;
+        } else {
+            totalPrice = items.stream().mapToDouble(i -> price(i) * i.getAmount()).sum();
+        }
+
+        String formattedDoubleValue = String.format("%.2f", totalPrice).replace(',', '.');
+
+        return Double.parseDouble(formattedDoubleValue);
+    }
+
+    private static double price(Item item) {
+        return item.getItemData().getPriceInCents() / 100.0;
+    }
+}
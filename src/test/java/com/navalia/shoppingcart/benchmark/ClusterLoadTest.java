@@ -0,0 +1,159 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.ShoppingCartApplication;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregate throughput of a cluster of instances started on localhost, each owning a share of the
+ * carts. For 1 to N instances, the instances are started with the journals disabled, and a fixed
+ * number of clients add items to random carts, sending each request to the next instance in turn, so
+ * that most requests reach an instance that forwards them to the owner of their cart. The test reports
+ * the throughput, the latency percentiles and the share of requests that were forwarded.
+ * <p>
+ * Arguments: {@code [instances] [clients] [requests] [carts]}, 3, 64, 20000 and 10000 by default.
+ * <pre>
+ * mvn -Pbenchmark test -DskipTests -Dbenchmark.main=com.navalia.shoppingcart.benchmark.ClusterLoadTest -Dbenchmark.args="3 64 20000"
+ * </pre>
+ */
+public final class ClusterLoadTest {
+
+    private ClusterLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int instances = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int carts = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+
+        for (int size = 1; size <= instances; size++) {
+            run(size, clients, requests, carts);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int size, int clients, int requests, int carts) throws Exception {
+        var binaryPorts = freePorts(size);
+        var nodes = new ArrayList<String>();
+        for (int port : binaryPorts) {
+            nodes.add("localhost:" + port);
+        }
+
+        var contexts = new ArrayList<ConfigurableApplicationContext>();
+        try {
+            for (int i = 0; i < size; i++) {
+                contexts.add(new SpringApplicationBuilder(ShoppingCartApplication.class)
+                        .run("--server.port=0",
+                                "--cart.cluster.enabled=true",
+                                "--cart.cluster.self=" + nodes.get(i),
+                                "--cart.cluster.nodes=" + String.join(",", nodes),
+                                "--cart.binary.port=" + binaryPorts[i],
+                                "--cart.journal.enabled=false",
+                                "--cart.order-journal.enabled=false",
+                                "--logging.level.root=WARN"));
+            }
+
+            var httpPorts = contexts.stream().mapToInt(context -> ((WebServerApplicationContext) context).getWebServer().getPort()).toArray();
+            var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            load(client, httpPorts, clients, Math.max(clients, requests / 10), carts, null);
+            double forwardedBefore = forwarded(contexts);
+
+            var latencies = new long[requests];
+            long start = System.nanoTime();
+            int errors = load(client, httpPorts, clients, requests, carts, latencies);
+            long elapsed = System.nanoTime() - start;
+            double forwarded = forwarded(contexts) - forwardedBefore;
+
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ROOT,
+                    "instances=%d clients=%d throughput=%.0f req/s p50=%.1f ms p99=%.1f ms max=%.1f ms forwarded=%.0f%% errors=%d",
+                    size, clients, requests / (elapsed / 1e9),
+                    millis(latencies[requests / 2]), millis(latencies[(int) (requests * 0.99)]), millis(latencies[requests - 1]),
+                    100 * forwarded / requests, errors));
+        } finally {
+            contexts.forEach(ConfigurableApplicationContext::close);
+        }
+    }
+
+    /**
+     * Sends the requests keeping the given number of them in flight, going through the instances in turn.
+     *
+     * @return the number of failed requests
+     */
+    private static int load(HttpClient client, int[] httpPorts, int clients, int requests, int carts, long[] latencies) throws InterruptedException {
+        var inFlight = new Semaphore(clients);
+        var errors = new AtomicInteger();
+
+        for (int i = 0; i < requests; i++) {
+            // Spreads the requests over the carts in a scattered but repeatable order
+            long cart = (i * 0x9E3779B97F4A7C15L >>> 32) % carts;
+            var request = HttpRequest.newBuilder(URI.create("http://localhost:" + httpPorts[i % httpPorts.length] + "/cart/cart-" + cart + "/add_item"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"itemId\":1,\"amount\":1}"))
+                    .build();
+            int index = i;
+
+            inFlight.acquire();
+            long start = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                if (latencies != null) {
+                    latencies[index] = System.nanoTime() - start;
+                }
+                if (failure != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+
+        inFlight.acquire(clients);
+        return errors.get();
+    }
+
+    private static double forwarded(List<ConfigurableApplicationContext> contexts) {
+        return contexts.stream()
+                .mapToDouble(context -> context.getBean(MeterRegistry.class).get("cart.cluster.forwarded").counter().count())
+                .sum();
+    }
+
+    private static int[] freePorts(int count) throws IOException {
+        var sockets = new ServerSocket[count];
+        var ports = new int[count];
+
+        try {
+            for (int i = 0; i < count; i++) {
+                sockets[i] = new ServerSocket(0);
+                ports[i] = sockets[i].getLocalPort();
+            }
+        } finally {
+            for (var socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+        return ports;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,68 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.entity.CompactCart;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the line operations of a cart with 10 to 10000 distinct products from a catalog of 100k:
+ * quoting the cheapest third of its units, changing the amount of a line, and adding then removing a
+ * line for a product it does not contain yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactCartBenchmark {
+
+    private static final int PRODUCTS = 100_000;
+
+    @Param({"10", "100", "1000", "10000"})
+    private int lines;
+
+    private ProductCatalog catalog;
+    private CompactCart cart;
+    private long cheapestThird;
+    private int next;
+
+    @Setup
+    public void setup() {
+        var csv = new StringBuilder();
+        for (int id = 1; id <= PRODUCTS; id++) {
+            csv.append(id).append(",Product ").append(id).append(',').append(100 + id).append(",TOPS\n");
+        }
+        catalog = ProductCatalog.parse(csv.toString().getBytes(StandardCharsets.UTF_8));
+        cart = new CompactCart();
+        // Every other product, so that new lines fall between the existing ones
+        for (int line = 0; line < lines; line++) {
+            cart.add(catalog, line * 2 * (PRODUCTS / 2 / lines), 3);
+        }
+        cheapestThird = cart.getItemCount() / 3;
+    }
+
+    @Benchmark
+    public long cheapestUnits() {
+        return cart.getCheapestUnitsPriceInCents(cheapestThird);
+    }
+
+    @Benchmark
+    public long changeLine() {
+        int product = cart.getLineProduct(next++ % lines);
+        cart.add(catalog, product, 1);
+        cart.remove(catalog, product, 1);
+        return cart.getTotalPriceInCents();
+    }
+
+    @Benchmark
+    public long addAndRemoveLine() {
+        int product = (next++ % lines) * 2 * (PRODUCTS / 2 / lines) + 1;
+        cart.add(catalog, product, 1);
+        cart.remove(catalog, product, 1);
+        return cart.getTotalPriceInCents();
+    }
+}
@@ -0,0 +1,203 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.ShoppingCartApplication;
+import com.navalia.shoppingcart.constant.ExecutionModeEnum;
+import com.navalia.shoppingcart.execution.VirtualThreads;
+import com.navalia.shoppingcart.service.CartService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test comparing Tomcat's platform thread pool with virtual threads when every cart service call
+ * blocks on simulated I/O. For each execution mode, the application is started on a random port with
+ * its {@link CartService} wrapped in a proxy that sleeps before delegating, and a fixed number of
+ * clients send quote requests back to back. The test reports the throughput, the latency percentiles
+ * and the highest number of service calls that were in progress at once.
+ * <p>
+ * With {@code journal} as the fourth argument, the clients add items instead, and every change is
+ * journaled and fsynced before it is answered. The journal records are appended while the cart is held
+ * by the store, inside a {@code synchronized} section of {@link java.util.concurrent.ConcurrentHashMap}
+ * that pins the virtual thread to its carrier, so the test also counts the {@code jdk.VirtualThreadPinned}
+ * events: appending must never block, and the wait for the fsync happens once the cart is released.
+ * <p>
+ * Arguments: {@code [clients] [requests] [blocking I/O millis] [journal]}, 1000, 20000, 20 and no journal by default.
+ * The virtual mode is skipped unless the JVM runs Java 21 or later, which {@code benchmark.java} selects:
+ * <pre>
+ * mvn -Pbenchmark test -DskipTests -Dbenchmark.java=$JAVA_21_HOME/bin/java \
+ *     -Dbenchmark.main=com.navalia.shoppingcart.benchmark.ExecutionModeLoadTest -Dbenchmark.args="1000 20000 20 journal"
+ * </pre>
+ */
+public final class ExecutionModeLoadTest {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private ExecutionModeLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        long blockingMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        boolean journal = args.length > 3 && args[3].equals("journal");
+
+        for (var mode : ExecutionModeEnum.values()) {
+            if (mode == ExecutionModeEnum.VIRTUAL && !VirtualThreads.isSupported()) {
+                System.out.println("Skipping the virtual mode, which needs Java 21 or later.");
+                continue;
+            }
+            run(mode, clients, requests, blockingMillis, journal);
+        }
+        System.exit(0);
+    }
+
+    private static void run(ExecutionModeEnum mode, int clients, int requests, long blockingMillis, boolean journal) throws Exception {
+        var inService = new AtomicInteger();
+        var peakInService = new AtomicInteger();
+        var context = new SpringApplicationBuilder(ShoppingCartApplication.class)
+                .initializers((ApplicationContextInitializer<ConfigurableApplicationContext>) applicationContext ->
+                        applicationContext.getBeanFactory().addBeanPostProcessor(new BlockingCartService(blockingMillis, inService, peakInService)))
+                .run("--server.port=0",
+                        "--cart.execution.mode=" + mode.name().toLowerCase(Locale.ROOT),
+                        "--cart.journal.enabled=" + journal,
+                        "--cart.journal.sync=true",
+                        "--cart.journal.directory=" + Files.createTempDirectory("journal"),
+                        "--cart.order-journal.enabled=false",
+                        "--cart.inventory.enabled=false",
+                        "--logging.level.root=WARN");
+
+        try (var recording = new Recording()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            load(client, port, clients, Math.max(clients, requests / 10), null, journal);
+            peakInService.set(0);
+
+            // Unknown before Java 21, where the recording then holds no such event
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO);
+            recording.start();
+            var latencies = new long[requests];
+            long start = System.nanoTime();
+            int errors = load(client, port, clients, requests, latencies, journal);
+            long elapsed = System.nanoTime() - start;
+            recording.stop();
+
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ROOT,
+                    "%-8s clients=%d blocking=%dms journal=%b throughput=%.0f req/s p50=%.1f ms p99=%.1f ms max=%.1f ms peak in service=%d pinned=%d errors=%d",
+                    mode, clients, blockingMillis, journal, requests / (elapsed / 1e9),
+                    millis(latencies[requests / 2]), millis(latencies[(int) (requests * 0.99)]), millis(latencies[requests - 1]),
+                    peakInService.get(), pinnedEvents(recording), errors));
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Sends the requests keeping the given number of them in flight, like clients that send a new
+     * request as soon as they get an answer.
+     *
+     * @return the number of failed requests
+     */
+    private static int load(HttpClient client, int port, int clients, int requests, long[] latencies, boolean addItems) throws InterruptedException {
+        var inFlight = new Semaphore(clients);
+        var errors = new AtomicInteger();
+
+        for (int i = 0; i < requests; i++) {
+            var cart = "http://localhost:" + port + "/cart/client-" + i % clients;
+            var request = addItems
+                    ? HttpRequest.newBuilder(URI.create(cart + "/add_item"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"itemId\":1,\"amount\":1}"))
+                    .build()
+                    : HttpRequest.newBuilder(URI.create(cart + "/quote")).build();
+            int index = i;
+
+            inFlight.acquire();
+            long start = System.nanoTime();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                if (latencies != null) {
+                    latencies[index] = System.nanoTime() - start;
+                }
+                if (failure != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+
+        inFlight.acquire(clients);
+        return errors.get();
+    }
+
+    private static long pinnedEvents(Recording recording) throws IOException {
+        var file = Files.createTempFile("execution-mode", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals(PINNED_EVENT))
+                    .count();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Wraps the cart service so that every call first blocks for the given time, as a call to a
+     * database or another service would.
+     */
+    private static final class BlockingCartService implements BeanPostProcessor {
+
+        private final long blockingMillis;
+        private final AtomicInteger inService;
+        private final AtomicInteger peakInService;
+
+        private BlockingCartService(long blockingMillis, AtomicInteger inService, AtomicInteger peakInService) {
+            this.blockingMillis = blockingMillis;
+            this.inService = inService;
+            this.peakInService = peakInService;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof CartService)) {
+                return bean;
+            }
+
+            return Proxy.newProxyInstance(CartService.class.getClassLoader(), new Class<?>[]{CartService.class}, (proxy, method, args) -> {
+                peakInService.accumulateAndGet(inService.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(blockingMillis);
+                    return method.invoke(bean, args);
+                } catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                } finally {
+                    inService.decrementAndGet();
+                }
+            });
+        }
+    }
+}
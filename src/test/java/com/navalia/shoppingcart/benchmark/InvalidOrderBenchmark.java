@@ -0,0 +1,113 @@
+package com.navalia.shoppingcart.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.controller.CartController;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of answering an order with an unknown item id, through the controller, compared to the former
+ * path reproduced in {@link #legacyAdd(OrderRequest)}: an exception with its stack trace, logged once by
+ * the service and once more by the controller. Logs are formatted as usual but written nowhere, so
+ * that the benchmark measures building them and not the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvalidOrderBenchmark {
+
+    private static final String CART_ID = "benchmark";
+    private static final Logger LEGACY_LOG = LogManager.getLogger(InvalidOrderBenchmark.class);
+
+    private final OrderRequest invalidOrder = OrderRequest.builder().itemId(42).amount(1).build();
+
+    private CartMetrics cartMetrics;
+    private CartController cartController;
+
+    @Setup
+    public void setup() {
+        discardLogs();
+        cartMetrics = new CartMetrics(new SimpleMeterRegistry());
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+
+        cartController = new CartController(new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), cartMetrics, new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics()));
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> invalidAdd() {
+        return cartController.add(CART_ID, invalidOrder, null);
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> legacyInvalidAdd() {
+        return legacyAdd(invalidOrder);
+    }
+
+    private ResponseEntity<Object> legacyAdd(OrderRequest order) {
+        try {
+            return ResponseEntity.ok().body(legacyAddToCart(order));
+        } catch (LegacyInvalidOrderException ex) {
+            LEGACY_LOG.error(String.join(" ", "[CartController] ", ex.getMessage()));
+            return ResponseEntity.badRequest().body(ex.getMessage());
+        }
+    }
+
+    private Object legacyAddToCart(OrderRequest order) throws LegacyInvalidOrderException {
+        cartMetrics.invalidOrder();
+        LEGACY_LOG.error(String.join(" ", "[CartServiceImpl] ", "Order with invalid data detected:", order.toString()));
+        throw new LegacyInvalidOrderException("The order received contains invalid data. This item may not exist with this id or amount.");
+    }
+
+    private static void discardLogs() {
+        var context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        var root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        var encoder = new PatternLayoutEncoder();
+        var appender = new OutputStreamAppender<ILoggingEvent>();
+
+        encoder.setContext(context);
+        encoder.setPattern("%d %-5level [%thread] %logger : %msg%n");
+        encoder.start();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(OutputStream.nullOutputStream());
+        appender.start();
+
+        root.detachAndStopAllAppenders();
+        root.addAppender(appender);
+        root.setLevel(Level.INFO);
+    }
+
+    private static final class LegacyInvalidOrderException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private LegacyInvalidOrderException(String message) {
+            super(message);
+        }
+    }
+}
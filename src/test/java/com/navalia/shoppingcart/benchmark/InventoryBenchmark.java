@@ -0,0 +1,88 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.cluster.ClusterProperties;
+import com.navalia.shoppingcart.inventory.InventoryProperties;
+import com.navalia.shoppingcart.inventory.impl.AtomicStockInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of stock reservations when every thread reserves and releases units of the same item,
+ * compared to a stock guarded by a lock. With a large stock every reservation succeeds; with a stock
+ * smaller than the thread count, most of them find it empty. Run it with many threads, for instance
+ * {@code -t 1000}, to see a hot item at a flash sale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+
+    private static final int HOT_ITEM = 1;
+
+    @Param({"1000000000", "16"})
+    private long stock;
+
+    private AtomicStockInventory inventory;
+    private LockedStock lockedStock;
+
+    @Setup
+    public void setup() throws IOException {
+        var file = Files.createTempFile("inventory", ".csv");
+        var properties = new InventoryProperties();
+
+        file.toFile().deleteOnExit();
+        Files.writeString(file, HOT_ITEM + "," + stock + "\n", StandardCharsets.UTF_8);
+        properties.setEnabled(true);
+        properties.setFile(file.toString());
+        inventory = new AtomicStockInventory(new ConcurrentCartStore(), new NoOpCartJournal(), properties, new ClusterProperties());
+        lockedStock = new LockedStock(stock);
+    }
+
+    @Benchmark
+    public boolean reserveAndRelease() {
+        if (inventory.reserve(HOT_ITEM, 1)) {
+            inventory.release(HOT_ITEM, 1);
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean lockedReserveAndRelease() {
+        if (lockedStock.reserve(1)) {
+            lockedStock.release(1);
+            return true;
+        }
+        return false;
+    }
+
+    private static final class LockedStock {
+
+        private long available;
+
+        private LockedStock(long available) {
+            this.available = available;
+        }
+
+        private synchronized boolean reserve(int amount) {
+            if (available < amount) {
+                return false;
+            }
+            available -= amount;
+            return true;
+        }
+
+        private synchronized void release(int amount) {
+            available += amount;
+        }
+    }
+}
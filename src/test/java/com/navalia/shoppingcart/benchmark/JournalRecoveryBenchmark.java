@@ -0,0 +1,123 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.journal.JournalProperties;
+import com.navalia.shoppingcart.journal.impl.FileCartJournal;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup recovery time of the cart journal for a million carts, either replayed from the journal
+ * alone or loaded from a snapshot followed by a tail of 10% more records. Every iteration recovers
+ * a fresh copy of the same journal directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class JournalRecoveryBenchmark {
+
+    @Param({"1000000"})
+    private int carts;
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private final ProductCatalog catalog = ProductCatalog.defaultCatalog();
+    private Path template;
+    private Path directory;
+    private FileCartJournal recovered;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws IOException {
+        template = Files.createTempDirectory("cart-journal-template");
+
+        var store = new ConcurrentCartStore();
+        var properties = properties(template);
+        properties.setSync(false);
+        var journal = new FileCartJournal(store, new CatalogRegistry(catalog), properties);
+        int jeans = catalog.indexOf(2);
+        long last = 0;
+
+        for (int i = 0; i < carts; i++) {
+            var cartId = "cart-" + i;
+            int product = i % catalog.size();
+            last = store.mutate(cartId, cart -> {
+                cart.add(catalog, product, 1);
+                return journal.itemsAdded(cartId, cart, catalog.getId(product), 1);
+            });
+        }
+
+        if (snapshot) {
+            journal.snapshot();
+            for (int i = 0; i < carts / 10; i++) {
+                var cartId = "cart-" + i;
+                last = store.mutate(cartId, cart -> {
+                    cart.add(catalog, jeans, 1);
+                    return journal.itemsAdded(cartId, cart, 2, 1);
+                });
+            }
+        }
+
+        // Waits for the writer like a crashed instance would have, without the shutdown snapshot
+        properties.setSync(true);
+        journal.awaitDurable(last);
+    }
+
+    @Setup(Level.Iteration)
+    public void copyJournal() throws IOException {
+        directory = Files.createTempDirectory("cart-journal");
+        try (Stream<Path> files = Files.list(template)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, directory.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        var store = new ConcurrentCartStore();
+
+        recovered = new FileCartJournal(store, new CatalogRegistry(catalog), properties(directory));
+        return store.size();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCopy() throws Exception {
+        recovered.destroy();
+        delete(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTemplate() throws IOException {
+        delete(template);
+    }
+
+    private static JournalProperties properties(Path directory) {
+        var properties = new JournalProperties();
+
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+        properties.setSnapshotInterval(Duration.ofDays(1));
+        return properties;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (var file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.OrderJournalProperties;
+import com.navalia.shoppingcart.order.impl.FileOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of closed orders when every close finalizes a new order, written and fsynced to the
+ * order journal in batches of at most {@code batchSize} orders. Once the writer falls behind, the
+ * queue fills up and closing an order waits for it, so the score is the pace of the journal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderJournalBenchmark {
+
+    private static final OrderRequest ORDER = OrderRequest.builder().itemId(1).amount(1).build();
+
+    @Param({"1", "16", "256"})
+    private int batchSize;
+
+    private Path directory;
+    private FileOrderJournal orderJournal;
+    private CartService cartService;
+
+    @State(Scope.Thread)
+    public static class ThreadCart {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private final String cartId = "cart-" + THREADS.incrementAndGet();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        var properties = new OrderJournalProperties();
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        var cartMetrics = new CartMetrics(new SimpleMeterRegistry());
+
+        directory = Files.createTempDirectory("orders");
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+        properties.setBatchSize(batchSize);
+        properties.setSubmitTimeout(Duration.ofMinutes(1));
+        orderJournal = new FileOrderJournal(properties, cartMetrics);
+        cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                cartMetrics, new NoOpCartJournal(), new NoOpInventory(), orderJournal, new NoOpCartAnalytics());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        orderJournal.destroy();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ClosedOrderResponse addAndCloseOrder(ThreadCart thread) {
+        cartService.addToCart(thread.cartId, ORDER);
+        return cartService.closeOrder(thread.cartId);
+    }
+}
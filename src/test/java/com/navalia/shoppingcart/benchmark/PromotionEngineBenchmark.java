@@ -0,0 +1,64 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.promotion.rule.BundleRule;
+import com.navalia.shoppingcart.promotion.rule.NForMRule;
+import com.navalia.shoppingcart.promotion.rule.PercentageOffCategoryRule;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Quote latency of the promotion engine with 1, 10 and 100 active rules, mixing every rule type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromotionEngineBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int activeRules;
+
+    private CompiledPromotionEngine engine;
+    private CompactCart cart;
+
+    @Setup
+    public void setup() {
+        var rules = new ArrayList<PromotionRule>();
+        var categories = CategoryEnum.values();
+
+        for (int i = 0; i < activeRules; i++) {
+            switch (i % 3) {
+                case 0:
+                    rules.add(new NForMRule(3 + i % 5, 2));
+                    break;
+                case 1:
+                    rules.add(new PercentageOffCategoryRule(categories[i % categories.length], 1 + i % 20));
+                    break;
+                default:
+                    rules.add(new BundleRule(Map.of(1, 1, 2, 1 + i % 2), 1000));
+            }
+        }
+
+        var catalog = ProductCatalog.defaultCatalog();
+        engine = new CompiledPromotionEngine(catalog, rules);
+        cart = new CompactCart();
+        cart.add(catalog, catalog.indexOf(1), 3);
+        cart.add(catalog, catalog.indexOf(2), 2);
+        cart.add(catalog, catalog.indexOf(3), 4);
+    }
+
+    @Benchmark
+    public long quote() {
+        return cart.getTotalPriceInCents() - engine.discountInCents(cart);
+    }
+}
@@ -0,0 +1,75 @@
+package com.navalia.shoppingcart.benchmark;
+
+import ch.qos.logback.classic.LoggerContext;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.response.SimulationSummaryResponse;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.simulation.SimulationProperties;
+import com.navalia.shoppingcart.simulation.impl.ParallelQuoteSimulator;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baskets priced per second by the quote simulator, for 200000 baskets of one to five lines sent as
+ * JSON lines, with one pricing thread and with one per available processor. Results are written
+ * nowhere, so that the benchmark measures parsing, pricing and writing them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuoteSimulationBenchmark {
+
+    private static final int BASKETS = 200_000;
+
+    /** Pricing threads, 0 for one per available processor. */
+    @Param({"1", "0"})
+    private int parallelism;
+
+    private byte[] baskets;
+    private ParallelQuoteSimulator quoteSimulator;
+
+    @Setup
+    public void setup() {
+        // One line per simulation would otherwise flood the console
+        ((LoggerContext) LoggerFactory.getILoggerFactory()).getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME).setLevel(ch.qos.logback.classic.Level.WARN);
+        var random = new Random(42);
+        var input = new StringBuilder();
+
+        for (int basket = 0; basket < BASKETS; basket++) {
+            input.append("{\"items\":[");
+            for (int line = random.nextInt(5); line >= 0; line--) {
+                input.append("{\"itemId\":").append(1 + random.nextInt(3)).append(",\"amount\":").append(1 + random.nextInt(4)).append('}');
+                input.append(line > 0 ? "," : "");
+            }
+            input.append("]}\n");
+        }
+        baskets = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        var simulationProperties = new SimulationProperties();
+        simulationProperties.setParallelism(parallelism);
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        quoteSimulator = new ParallelQuoteSimulator(catalogRegistry, new CompiledPromotionEngine(catalogRegistry), simulationProperties);
+    }
+
+    @TearDown
+    public void tearDown() {
+        quoteSimulator.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BASKETS)
+    public SimulationSummaryResponse simulate() throws IOException {
+        return quoteSimulator.quote(new ByteArrayInputStream(baskets), OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,95 @@
+package com.navalia.shoppingcart.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.json.CartResponseWriter;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of writing the closed order and order responses as JSON with Jackson, as Spring MVC did,
+ * and with {@link CartResponseWriter}, for closed orders of a few lines and of a large B2B cart. Both
+ * write to an in-memory stream, which stands for the response buffer of the servlet container.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriterBenchmark {
+
+    private static final String CART_ID = "benchmark";
+
+    @Param({"3", "500"})
+    private int lines;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+    private CartResponseWriter writer;
+    private ClosedOrderResponse closedOrder;
+    private OrderResponse orderResponse;
+
+    @Setup
+    public void setup() {
+        var catalog = new StringBuilder();
+        for (int id = 1; id <= lines; id++) {
+            catalog.append(id).append(",Product ").append(id).append(',').append(100 + id).append(",TOPS\n");
+        }
+
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.parse(catalog.toString().getBytes(StandardCharsets.UTF_8)));
+        var cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        for (int id = 1; id <= lines; id++) {
+            orderResponse = cartService.addToCart(CART_ID, OrderRequest.builder().itemId(id).amount(2).build()).getResponse();
+        }
+
+        writer = new CartResponseWriter(catalogRegistry);
+        closedOrder = cartService.closeOrder(CART_ID);
+    }
+
+    @Benchmark
+    public int jacksonClosedOrder() throws IOException {
+        out.reset();
+        objectMapper.writeValue(out, closedOrder);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writerClosedOrder() throws IOException {
+        out.reset();
+        writer.write(closedOrder, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int jacksonOrderResponse() throws IOException {
+        out.reset();
+        objectMapper.writeValue(out, orderResponse);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writerOrderResponse() throws IOException {
+        out.reset();
+        writer.write(orderResponse, out);
+        return out.size();
+    }
+}
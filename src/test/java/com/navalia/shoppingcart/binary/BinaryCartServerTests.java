@@ -0,0 +1,191 @@
+package com.navalia.shoppingcart.binary;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.execution.ExecutionProperties;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+public class BinaryCartServerTests {
+
+    private static final String CART_ID = "cart-1";
+
+    private BinaryCartServer server;
+    private BinaryCartClient client;
+
+    @BeforeEach
+    void setup() throws Exception {
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        var cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        var properties = new BinaryProperties();
+
+        properties.setEnabled(true);
+        properties.setPort(0);
+        properties.setWorkers(2);
+        server = new BinaryCartServer(cartService, properties, new ExecutionProperties());
+        server.afterPropertiesSet();
+        client = BinaryCartClient.connect("localhost", server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.destroy();
+    }
+
+    @Test
+    void testAddQuoteAndCloseOrder() throws Exception {
+        client.addToCart(CART_ID, 1, 3, -1);
+        client.addToCart(CART_ID, 2, 1, -1);
+        Assertions.assertEquals(1, client.receive().getCartVersion());
+        Assertions.assertEquals(2, client.receive().getCartVersion());
+
+        client.quote(CART_ID);
+        var quote = client.receive();
+        Assertions.assertTrue(quote.isSuccess());
+        Assertions.assertEquals(4, quote.getItemCount());
+        Assertions.assertEquals(2 * 1299 + 2500, quote.getTotalPrice());
+
+        client.previewOrder(CART_ID);
+        var preview = client.receive();
+        Assertions.assertEquals(quote.getTotalPrice(), preview.getTotalPrice());
+        Assertions.assertEquals(4, preview.getItemCount());
+        Assertions.assertEquals(0, preview.getOrderId());
+
+        int requestId = client.closeOrder(CART_ID);
+        var closed = client.receive();
+        Assertions.assertEquals(requestId, closed.getRequestId());
+        Assertions.assertEquals(quote.getTotalPrice(), closed.getTotalPrice());
+        Assertions.assertEquals(2, closed.getItemIds().length);
+        Assertions.assertEquals(4, closed.getItemCount());
+        Assertions.assertTrue(closed.getOrderId() > 0);
+    }
+
+    @Test
+    void testKnownQuoteAndOrderAreNotModified() throws Exception {
+        client.addToCart(CART_ID, 1, 2, -1);
+        client.quote(CART_ID);
+        client.receive();
+        var quote = client.receive();
+
+        client.quote(CART_ID, quote.toTag());
+        Assertions.assertEquals(BinaryProtocol.NOT_MODIFIED, client.receive().getStatus());
+
+        client.previewOrder(CART_ID);
+        var preview = client.receive();
+        Assertions.assertEquals(quote.toTag(), preview.toTag());
+        client.previewOrder(CART_ID, preview.toTag());
+        Assertions.assertEquals(BinaryProtocol.NOT_MODIFIED, client.receive().getStatus());
+    }
+
+    @Test
+    void testRejectedOrdersCarryTheirError() throws Exception {
+        client.addToCart(CART_ID, 5, 1, -1);
+        client.removeFromCart(CART_ID, 1, 1, -1);
+        client.addToCart(CART_ID, 1, 1, 7);
+
+        var invalid = client.receive();
+        Assertions.assertEquals(BinaryProtocol.REJECTED, invalid.getStatus());
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER, invalid.getError());
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER.getMessage(), invalid.getMessage());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, client.receive().getError());
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, client.receive().getError());
+    }
+
+    @Test
+    void testBatchAndEmpty() throws Exception {
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(1).build()
+        )).build();
+
+        client.applyBatch(CART_ID, batch, -1);
+        Assertions.assertEquals(1, client.receive().getCartVersion());
+
+        client.emptyCart(CART_ID, 1);
+        Assertions.assertTrue(client.receive().isSuccess());
+        client.quote(CART_ID);
+        Assertions.assertEquals(0, client.receive().getItemCount());
+    }
+
+    @Test
+    void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+        int requests = 2000;
+
+        for (int i = 0; i < requests; i++) {
+            client.addToCart("cart-" + (i % 10), 1, 1, -1);
+        }
+        for (int i = 0; i < requests; i++) {
+            var response = client.receive();
+            Assertions.assertEquals(i, response.getRequestId());
+            Assertions.assertEquals(i / 10 + 1, response.getCartVersion());
+        }
+    }
+
+    @Test
+    void testFailureOfTheServiceOnlyFailsItsRequest() throws Exception {
+        client.close();
+        server.destroy();
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        var cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics()) {
+            @Override
+            public QuoteResponse quote(String cartId, CartTag knownTag) {
+                if (cartId.equals("broken")) {
+                    throw new IllegalArgumentException("The promotions cannot be compiled.");
+                }
+                return super.quote(cartId, knownTag);
+            }
+        };
+        var properties = new BinaryProperties();
+        properties.setEnabled(true);
+        properties.setPort(0);
+        server = new BinaryCartServer(cartService, properties, new ExecutionProperties());
+        server.afterPropertiesSet();
+        client = BinaryCartClient.connect("localhost", server.getPort());
+
+        client.quote("broken");
+        client.quote(CART_ID);
+
+        Assertions.assertEquals(BinaryProtocol.FAILED, client.receive().getStatus());
+        Assertions.assertTrue(client.receive().isSuccess());
+    }
+
+    @Test
+    void testMalformedFrameClosesTheConnection() throws Exception {
+        try (var channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            channel.write(ByteBuffer.allocate(11).putInt(7).putInt(1).put((byte) 99).putShort((short) 0).flip());
+
+            Assertions.assertEquals(-1, channel.read(ByteBuffer.allocate(16)));
+        }
+
+        client.quote(CART_ID);
+        client.closeOrder(CART_ID);
+        Assertions.assertTrue(client.receive().isSuccess());
+        Assertions.assertDoesNotThrow(client::receive);
+        Assertions.assertThrows(IllegalStateException.class, client::receive);
+    }
+}
@@ -0,0 +1,58 @@
+package com.navalia.shoppingcart.catalog;
+
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.promotion.rule.BundleRule;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public class CatalogRegistryTests {
+
+    @Test
+    void testPriceUpdatePublishesNextVersion() {
+        var first = ProductCatalog.defaultCatalog();
+        var registry = new CatalogRegistry(first);
+
+        var next = registry.updatePrices(bytes("id,priceInCents\n1,3000\n"));
+
+        Assertions.assertSame(next, registry.current());
+        Assertions.assertEquals(first.getVersion() + 1, next.getVersion());
+        Assertions.assertEquals(3000, next.getPriceInCents(next.indexOf(1)));
+        Assertions.assertEquals(2, next.indexOf(1));
+        Assertions.assertEquals(1299, first.getPriceInCents(first.indexOf(1)));
+        Assertions.assertEquals(0, first.indexOf(1));
+    }
+
+    @Test
+    void testInvalidPriceFileKeepsCurrentVersion() {
+        var first = ProductCatalog.defaultCatalog();
+        var registry = new CatalogRegistry(first);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.updatePrices(bytes("1,3000\n42,100\n")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.updatePrices(bytes("1,free\n")));
+        Assertions.assertSame(first, registry.current());
+    }
+
+    @Test
+    void testCatalogThatBreaksPromotionsIsRejected() {
+        var first = ProductCatalog.defaultCatalog();
+        var registry = new CatalogRegistry(first);
+        var engine = new CompiledPromotionEngine(registry);
+
+        engine.setRules(List.of(new BundleRule(Map.of(1, 1, 2, 1), 3000)));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.updatePrices(bytes("1,100\n2,100\n")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> registry.replace(bytes("1,T-shirt,1299,TOPS\n")));
+        Assertions.assertSame(first, registry.current());
+
+        registry.replace(bytes("1,T-shirt,1500,TOPS\n2,Jeans,2500,BOTTOMS\n"));
+        Assertions.assertEquals(2, registry.current().size());
+    }
+
+    private static byte[] bytes(String csv) {
+        return csv.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+package com.navalia.shoppingcart.catalog;
+
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ProductCatalogTests {
+
+    @Test
+    void testDefaultCatalogHoldsTheOriginalProducts() {
+        var catalog = ProductCatalog.defaultCatalog();
+        int jeans = catalog.indexOf(2);
+
+        Assertions.assertEquals(3, catalog.size());
+        Assertions.assertEquals(2, catalog.getId(jeans));
+        Assertions.assertEquals("Jeans", catalog.getName(jeans));
+        Assertions.assertEquals(2500, catalog.getPriceInCents(jeans));
+        Assertions.assertEquals(CategoryEnum.BOTTOMS, catalog.getCategory(jeans));
+    }
+
+    @Test
+    void testProductsAreIndexedByPrice() {
+        var catalog = parse("4,Socks,500,TOPS\n1,Coat,9900,TOPS\r\n\n7,Skirt,500,BOTTOMS\n2,Scarf,1500,TOPS");
+
+        Assertions.assertEquals(4, catalog.size());
+        Assertions.assertEquals(4, catalog.getId(0));
+        Assertions.assertEquals(7, catalog.getId(1));
+        Assertions.assertEquals(2, catalog.getId(2));
+        Assertions.assertEquals(1, catalog.getId(3));
+        Assertions.assertEquals("Coat", catalog.getName(catalog.indexOf(1)));
+    }
+
+    @Test
+    void testUnknownIdsAreNotFound() {
+        var catalog = parse("id,name,priceInCents,category\n5,Hat,700,TOPS\n");
+
+        Assertions.assertEquals(-1, catalog.indexOf(0));
+        Assertions.assertEquals(-1, catalog.indexOf(4));
+        Assertions.assertEquals(-1, catalog.indexOf(6));
+        Assertions.assertEquals(-1, catalog.indexOf(-5));
+        Assertions.assertEquals(-1, catalog.indexOf(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void testNamesKeepTheirEncoding(@TempDir Path directory) throws IOException {
+        var file = directory.resolve("catalog.csv");
+        Files.write(file, "1,Sweat-shirt à capuche,3999,TOPS\n".getBytes(StandardCharsets.UTF_8));
+
+        var catalog = ProductCatalog.load(file);
+
+        Assertions.assertEquals("Sweat-shirt à capuche", catalog.getProduct(0).getName());
+        Assertions.assertEquals(3999, catalog.getProduct(0).getPriceInCents());
+    }
+
+    @Test
+    void testInvalidCatalogsAreRejected() {
+        var duplicate = Assertions.assertThrows(IllegalArgumentException.class, () -> parse("1,Hat,700,TOPS\n1,Cap,800,TOPS\n"));
+        var unknownCategory = Assertions.assertThrows(IllegalArgumentException.class, () -> parse("1,Hat,700,TOPS\n2,Cap,800,HATS\n"));
+
+        Assertions.assertTrue(duplicate.getMessage().contains("id 1"));
+        Assertions.assertTrue(unknownCategory.getMessage().contains("line 2"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("1,Hat,TOPS\n"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("1,,700,TOPS\n"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("0,Hat,700,TOPS\n"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("16777216,Hat,700,TOPS\n"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> parse("1,Hat,700,TOPS,extra\n"));
+    }
+
+    private static ProductCatalog parse(String csv) {
+        return ProductCatalog.parse(csv.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,45 @@
+package com.navalia.shoppingcart.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class ClusterMembershipTests {
+
+    @Test
+    void testNamesAreTrimmedAndBlankOnesSkipped() {
+        var membership = membership("a:1", "b:2");
+
+        var ring = membership.update(List.of(" a:1 ", "", "c:3"));
+
+        Assertions.assertEquals(List.of("a:1", "c:3"), ring.getNodes());
+        Assertions.assertSame(ring, membership.ring());
+    }
+
+    @Test
+    void testBadNameIsRejectedAndTheRingKept() {
+        var membership = membership("a:1", "b:2");
+        var ring = membership.ring();
+
+        for (var bad : List.of("a", ":1", "a:", "a:0", "a:65536", "a:1x", "a:+1")) {
+            var error = Assertions.assertThrows(IllegalArgumentException.class, () -> membership.update(List.of("b:2", bad)));
+            Assertions.assertEquals("Instances are named host:port, not " + bad, error.getMessage());
+            Assertions.assertSame(ring, membership.ring());
+        }
+    }
+
+    @Test
+    void testBadNameIsRejectedOnStartup() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> membership("a:1", "b"));
+    }
+
+    private static ClusterMembership membership(String... nodes) {
+        var properties = new ClusterProperties();
+
+        properties.setEnabled(true);
+        properties.setSelf("a:1");
+        properties.setNodes(List.of(nodes));
+        return new ClusterMembership(properties);
+    }
+}
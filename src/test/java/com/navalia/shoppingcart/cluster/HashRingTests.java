@@ -0,0 +1,74 @@
+package com.navalia.shoppingcart.cluster;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+public class HashRingTests {
+
+    private static final int CARTS = 30_000;
+
+    @Test
+    void testOwnersDoNotDependOnTheOrderOfTheNodes() {
+        var ring = new HashRing(List.of("a:1", "b:2", "c:3"), 128);
+        var shuffled = new HashRing(List.of("c:3", "a:1", "b:2", "a:1"), 128);
+
+        Assertions.assertEquals(List.of("a:1", "b:2", "c:3"), shuffled.getNodes());
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(ring.owner("cart-" + i), shuffled.owner("cart-" + i));
+        }
+    }
+
+    @Test
+    void testCartsAreSpreadEvenly() {
+        var ring = new HashRing(List.of("a:1", "b:2", "c:3"), 128);
+        var carts = new HashMap<String, Integer>();
+
+        for (int i = 0; i < CARTS; i++) {
+            carts.merge(ring.owner("cart-" + i), 1, Integer::sum);
+        }
+
+        for (var node : ring.getNodes()) {
+            Assertions.assertEquals(CARTS / 3.0, carts.get(node), CARTS * 0.05, node);
+        }
+    }
+
+    @Test
+    void testJoiningNodeOnlyTakesItsShare() {
+        var ring = new HashRing(List.of("a:1", "b:2", "c:3"), 128);
+        var grown = new HashRing(List.of("a:1", "b:2", "c:3", "d:4"), 128);
+        int moved = 0;
+
+        for (int i = 0; i < CARTS; i++) {
+            var before = ring.owner("cart-" + i);
+            var after = grown.owner("cart-" + i);
+            if (!before.equals(after)) {
+                Assertions.assertEquals("d:4", after);
+                moved++;
+            }
+        }
+
+        Assertions.assertEquals(CARTS / 4.0, moved, CARTS * 0.05);
+    }
+
+    @Test
+    void testLeavingNodeOnlyGivesAwayItsCarts() {
+        var ring = new HashRing(List.of("a:1", "b:2", "c:3"), 128);
+        var shrunk = new HashRing(List.of("a:1", "c:3"), 128);
+
+        for (int i = 0; i < CARTS; i++) {
+            var before = ring.owner("cart-" + i);
+            if (!before.equals("b:2")) {
+                Assertions.assertEquals(before, shrunk.owner("cart-" + i));
+            }
+        }
+    }
+
+    @Test
+    void testRingNeedsNodes() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of(), 128));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of("a:1"), 0));
+    }
+}
@@ -1,9 +1,16 @@
 package com.navalia.shoppingcart.controller;
 
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
 import com.navalia.shoppingcart.dto.request.OrderRequest;
-import com.navalia.shoppingcart.exception.InvalidOrderException;
-import com.navalia.shoppingcart.exception.ItemNotInCartException;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
 import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.OrderResult;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,10 +20,19 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 @ExtendWith(MockitoExtension.class)
 public class CartControllerTests {
 
+    private static final String CART_ID = "cart-1";
+    private static final OrderResult SUCCESS = OrderResult.success(OrderResponse.builder().message("Order placed.").build());
+
     @InjectMocks
     private CartController cartController;
 
@@ -32,89 +48,221 @@ public class CartControllerTests {
     void testAddMethodOkResponse() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        var response = cartController.add(orderRequest);
+        Mockito.when(cartService.addToCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(SUCCESS);
+        var response = cartController.add(CART_ID, orderRequest, null);
         Assertions.assertEquals(200, response.getStatusCodeValue());
     }
 
     @Test
-    void testAddMethodBadRequestResponse() throws InvalidOrderException {
+    void testAddMethodBadRequestResponse() {
         var orderRequest = OrderRequest.builder().itemId(5).amount(2).build();
 
-        Mockito.when(cartService.addToCart(ArgumentMatchers.any())).thenThrow(InvalidOrderException.class);
-        var response = cartController.add(orderRequest);
+        Mockito.when(cartService.addToCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(OrderResult.failure(OrderErrorEnum.INVALID_ORDER));
+        var response = cartController.add(CART_ID, orderRequest, null);
         Assertions.assertEquals(400, response.getStatusCodeValue());
     }
 
     @Test
     void testAddMethodInternalServerErrorResponse() throws Exception {
-        Mockito.when(cartService.addToCart(ArgumentMatchers.any())).thenThrow(NullPointerException.class);
-        var response = cartController.add(null);
+        Mockito.when(cartService.addToCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.add(CART_ID, null, null);
         Assertions.assertEquals(500, response.getStatusCodeValue());
     }
 
+    @Test
+    void testAddMethodWithIfMatchPassesTheExpectedVersion() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+        var success = OrderResult.success(OrderResponse.builder().message("Order placed.").cartVersion(4).build());
+
+        Mockito.when(cartService.addToCart(CART_ID, orderRequest, 3)).thenReturn(success);
+        var response = cartController.add(CART_ID, orderRequest, "\"3\"");
+        Assertions.assertEquals(200, response.getStatusCodeValue());
+        Assertions.assertEquals("\"4\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void testAddMethodPreconditionFailedResponse() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        Mockito.when(cartService.addToCart(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyLong())).thenReturn(OrderResult.failure(OrderErrorEnum.VERSION_MISMATCH));
+        var response = cartController.add(CART_ID, orderRequest, "\"3\"");
+        Assertions.assertEquals(412, response.getStatusCodeValue());
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH.getMessage(), response.getBody());
+    }
+
+    @Test
+    void testAddMethodConflictResponseWhenOutOfStock() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        Mockito.when(cartService.addToCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(OrderResult.failure(OrderErrorEnum.OUT_OF_STOCK));
+        var response = cartController.add(CART_ID, orderRequest, null);
+        Assertions.assertEquals(409, response.getStatusCodeValue());
+        Assertions.assertEquals(OrderErrorEnum.OUT_OF_STOCK.getMessage(), response.getBody());
+    }
+
+    @Test
+    void testMalformedIfMatchNeverMatches() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        Mockito.when(cartService.addToCart(ArgumentMatchers.eq(CART_ID), ArgumentMatchers.eq(orderRequest), ArgumentMatchers.longThat(version -> version < CartService.ANY_VERSION)))
+                .thenReturn(OrderResult.failure(OrderErrorEnum.VERSION_MISMATCH));
+        Assertions.assertEquals(412, cartController.add(CART_ID, orderRequest, "W/\"3\"").getStatusCodeValue());
+        Assertions.assertEquals(412, cartController.add(CART_ID, orderRequest, "\"-1\"").getStatusCodeValue());
+        Assertions.assertEquals(412, cartController.add(CART_ID, orderRequest, "\"99999999999999999999\"").getStatusCodeValue());
+    }
+
     @Test
     void testRemoveMethodOkResponse() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        cartController.add(orderRequest);
-        var response = cartController.remove(orderRequest);
+        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(SUCCESS);
+        var response = cartController.remove(CART_ID, orderRequest, null);
         Assertions.assertEquals(200, response.getStatusCodeValue());
     }
 
     @Test
-    void testRemoveMethodBadRequestResponseInvalidOrder() throws InvalidOrderException, ItemNotInCartException {
+    void testRemoveMethodBadRequestResponseInvalidOrder() {
         var orderRequest = OrderRequest.builder().itemId(5).amount(2).build();
 
-        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any())).thenThrow(InvalidOrderException.class);
-        var response = cartController.remove(orderRequest);
+        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(OrderResult.failure(OrderErrorEnum.INVALID_ORDER));
+        var response = cartController.remove(CART_ID, orderRequest, null);
         Assertions.assertEquals(400, response.getStatusCodeValue());
     }
 
     @Test
-    void testRemoveMethodBadRequestResponseItemNotInCart() throws InvalidOrderException, ItemNotInCartException {
+    void testRemoveMethodBadRequestResponseItemNotInCart() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any())).thenThrow(InvalidOrderException.class);
-        var response = cartController.remove(orderRequest);
+        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(OrderResult.failure(OrderErrorEnum.ITEM_NOT_IN_CART));
+        var response = cartController.remove(CART_ID, orderRequest, null);
         Assertions.assertEquals(400, response.getStatusCodeValue());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART.getMessage(), response.getBody());
     }
 
     @Test
     void testRemoveMethodInternalServerErrorResponse() throws Exception {
-        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any())).thenThrow(NullPointerException.class);
-        var response = cartController.remove(null);
+        Mockito.when(cartService.removeFromCart(ArgumentMatchers.any(), ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.remove(CART_ID, null, null);
         Assertions.assertEquals(500, response.getStatusCodeValue());
     }
 
     @Test
-    void testEmptyCartMethodOkResponse() {
-        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+    void testBatchMethodOkResponse() {
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(1).build())).build();
+
+        Mockito.when(cartService.applyBatch(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(SUCCESS);
+        var response = cartController.batch(CART_ID, batch, null);
+        Assertions.assertEquals(200, response.getStatusCodeValue());
+    }
+
+    @Test
+    void testBatchMethodBadRequestResponse() {
+        Mockito.when(cartService.applyBatch(ArgumentMatchers.any(), ArgumentMatchers.any())).thenReturn(OrderResult.failure(OrderErrorEnum.BATCH_ITEM_NOT_IN_CART, "The cart would not contain the item of operation 1 so it cannot be deleted. No operation was applied."));
+        var response = cartController.batch(CART_ID, BatchOrderRequest.builder().build(), null);
+        Assertions.assertEquals(400, response.getStatusCodeValue());
+        Assertions.assertEquals("The cart would not contain the item of operation 1 so it cannot be deleted. No operation was applied.", response.getBody());
+    }
+
+    @Test
+    void testBatchMethodInternalServerErrorResponse() throws Exception {
+        Mockito.when(cartService.applyBatch(ArgumentMatchers.any(), ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.batch(CART_ID, null, null);
+        Assertions.assertEquals(500, response.getStatusCodeValue());
+    }
 
-        cartController.add(orderRequest);
-        var response = cartController.emptyCart();
+    @Test
+    void testEmptyCartMethodOkResponse() {
+        Mockito.when(cartService.emptyCart(ArgumentMatchers.any())).thenReturn(OrderResponse.builder().message("Cart is now empty.").build());
+        var response = cartController.emptyCart(CART_ID, null);
         Assertions.assertEquals(200, response.getStatusCodeValue());
     }
 
     @Test
     void testEmptyCartMethodInternalServerErrorResponse() throws Exception {
-        Mockito.when(cartService.emptyCart()).thenThrow(NullPointerException.class);
-        var response = cartController.emptyCart();
+        Mockito.when(cartService.emptyCart(ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.emptyCart(CART_ID, null);
         Assertions.assertEquals(500, response.getStatusCodeValue());
     }
 
     @Test
     void testCloseMethodOkResponse() {
-        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
-
-        cartController.add(orderRequest);
-        var response = cartController.closeOrder();
+        Mockito.when(cartService.closeOrder(ArgumentMatchers.any())).thenReturn(ClosedOrderResponse.builder().tag(new CartTag(1, 1, 1)).build());
+        var response = cartController.closeOrder(CART_ID);
         Assertions.assertEquals(200, response.getStatusCodeValue());
     }
 
     @Test
     void testCloseMethodInternalServerErrorResponse() throws Exception {
-        Mockito.when(cartService.closeOrder()).thenThrow(NullPointerException.class);
-        var response = cartController.closeOrder();
+        Mockito.when(cartService.closeOrder(ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.closeOrder(CART_ID);
+        Assertions.assertEquals(500, response.getStatusCodeValue());
+    }
+
+    @Test
+    void testCloseMethodServiceUnavailableResponse() {
+        Mockito.when(cartService.closeOrder(ArgumentMatchers.any())).thenThrow(new RejectedExecutionException("The order journal is full."));
+        var response = cartController.closeOrder(CART_ID);
+        Assertions.assertEquals(503, response.getStatusCodeValue());
+        Assertions.assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void testPreviewMethodOkResponse() {
+        Mockito.when(cartService.previewOrder(CART_ID, null)).thenReturn(ClosedOrderResponse.builder().tag(new CartTag(3, 1, 1)).build());
+        var response = cartController.previewOrder(CART_ID, null);
+        Assertions.assertEquals(200, response.getStatusCodeValue());
+        Assertions.assertEquals("\"3.1.1\"", response.getHeaders().getETag());
+        Mockito.verify(cartService, Mockito.never()).closeOrder(ArgumentMatchers.any());
+    }
+
+    @Test
+    void testCloseWithGetIsNotAllowed() {
+        var response = cartController.closeOrderWithGet(CART_ID);
+        Assertions.assertEquals(405, response.getStatusCodeValue());
+        Assertions.assertEquals(Set.of(HttpMethod.POST), response.getHeaders().getAllow());
+        Mockito.verifyNoInteractions(cartService);
+    }
+
+    @Test
+    void testQuoteMethodOkResponse() {
+        Mockito.when(cartService.quote(CART_ID, null)).thenReturn(QuoteResponse.builder().cartVersion(7).tag(new CartTag(7, 2, 1)).build());
+        var response = cartController.quote(CART_ID, null);
+        Assertions.assertEquals(200, response.getStatusCodeValue());
+        Assertions.assertEquals("\"7.2.1\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void testQuoteMethodNotModifiedResponse() {
+        var tag = new CartTag(7, 2, 1);
+
+        Mockito.when(cartService.quote(CART_ID, tag)).thenReturn(null);
+        var response = cartController.quote(CART_ID, "W/\"7.2.1\"");
+        Assertions.assertEquals(304, response.getStatusCodeValue());
+        Assertions.assertEquals("\"7.2.1\"", response.getHeaders().getETag());
+        Assertions.assertNull(response.getBody());
+    }
+
+    @Test
+    void testQuoteMethodIgnoresMalformedIfNoneMatch() {
+        Mockito.when(cartService.quote(CART_ID, null)).thenReturn(QuoteResponse.builder().tag(new CartTag(7, 2, 1)).build());
+        Assertions.assertEquals(200, cartController.quote(CART_ID, "\"7.2\"").getStatusCodeValue());
+        Assertions.assertEquals(200, cartController.quote(CART_ID, "\"7.2.1.0\"").getStatusCodeValue());
+        Assertions.assertEquals(200, cartController.quote(CART_ID, "7.2.1").getStatusCodeValue());
+    }
+
+    @Test
+    void testAddMethodAcceptsTheETagOfAQuoteInIfMatch() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        Mockito.when(cartService.addToCart(CART_ID, orderRequest, 7)).thenReturn(SUCCESS);
+        Assertions.assertEquals(200, cartController.add(CART_ID, orderRequest, "\"7.2.1\"").getStatusCodeValue());
+    }
+
+    @Test
+    void testQuoteMethodInternalServerErrorResponse() throws Exception {
+        Mockito.when(cartService.quote(ArgumentMatchers.any(), ArgumentMatchers.any())).thenThrow(NullPointerException.class);
+        var response = cartController.quote(CART_ID, null);
         Assertions.assertEquals(500, response.getStatusCodeValue());
     }
 }
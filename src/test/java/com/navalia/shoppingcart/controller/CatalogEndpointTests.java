@@ -0,0 +1,39 @@
+package com.navalia.shoppingcart.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.autoconfigure.web.server.LocalManagementPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"cart.journal.enabled=false", "cart.order-journal.enabled=false", "management.server.port=0",
+                "management.endpoints.web.exposure.include=health,catalog"})
+public class CatalogEndpointTests {
+
+    @LocalServerPort
+    private int serverPort;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void testCatalogIsOnlyChangedOnTheManagementPort() {
+        var prices = new HttpEntity<>("1,1599\n".getBytes());
+
+        var onServerPort = restTemplate.exchange("http://localhost:" + serverPort + "/catalog/prices", HttpMethod.PUT, prices, String.class);
+        var onManagementPort = restTemplate.exchange("http://localhost:" + managementPort + "/actuator/catalog/prices", HttpMethod.PUT, prices, String.class);
+
+        Assertions.assertEquals(HttpStatus.NOT_FOUND, onServerPort.getStatusCode());
+        Assertions.assertEquals(HttpStatus.OK, onManagementPort.getStatusCode());
+        Assertions.assertTrue(restTemplate.getForObject("http://localhost:" + serverPort + "/catalog", String.class).contains("\"version\":2"));
+    }
+}
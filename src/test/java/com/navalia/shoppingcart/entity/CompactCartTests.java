@@ -0,0 +1,184 @@
+package com.navalia.shoppingcart.entity;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class CompactCartTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final int T_SHIRT = CATALOG.indexOf(1);
+    private static final int JEANS = CATALOG.indexOf(2);
+    private static final int DRESS = CATALOG.indexOf(3);
+
+    @Test
+    void testAddAccumulatesAmounts() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, JEANS, 2);
+        cart.add(CATALOG, JEANS, 3);
+
+        Assertions.assertEquals(5, cart.getAmount(JEANS));
+        Assertions.assertEquals(0, cart.getAmount(DRESS));
+        Assertions.assertFalse(cart.isEmpty());
+    }
+
+    @Test
+    void testRemoveMoreThanAvailableDropsLine() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, DRESS, 1);
+
+        Assertions.assertTrue(cart.remove(CATALOG, DRESS, 5));
+        Assertions.assertEquals(0, cart.getAmount(DRESS));
+        Assertions.assertTrue(cart.isEmpty());
+        Assertions.assertFalse(cart.remove(CATALOG, DRESS, 1));
+    }
+
+    @Test
+    void testToCartOnlyContainsNonEmptyLines() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, DRESS, 2);
+        cart.add(CATALOG, T_SHIRT, 1);
+        cart.remove(CATALOG, T_SHIRT, 1);
+
+        var items = cart.toCart(CATALOG).getItems();
+
+        Assertions.assertEquals(1, items.size());
+        Assertions.assertEquals(3, items.get(0).getItemData().getId());
+        Assertions.assertEquals("Dress", items.get(0).getItemData().getName());
+        Assertions.assertEquals(2, items.get(0).getAmount());
+    }
+
+    @Test
+    void testTotalsFollowAddAndRemove() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, JEANS, 2);
+        cart.add(CATALOG, T_SHIRT, 3);
+        cart.remove(CATALOG, JEANS, 5);
+
+        Assertions.assertEquals(3, cart.getItemCount());
+        Assertions.assertEquals(3 * CATALOG.getPriceInCents(T_SHIRT), cart.getTotalPriceInCents());
+    }
+
+    @Test
+    void testCheapestUnitsPriceTakesCheapestItemsFirst() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, JEANS, 2);
+        cart.add(CATALOG, DRESS, 2);
+        cart.add(CATALOG, T_SHIRT, 1);
+
+        Assertions.assertEquals(0, cart.getCheapestUnitsPriceInCents(0));
+        Assertions.assertEquals(CATALOG.getPriceInCents(T_SHIRT), cart.getCheapestUnitsPriceInCents(1));
+        Assertions.assertEquals(CATALOG.getPriceInCents(T_SHIRT) + 2 * CATALOG.getPriceInCents(DRESS) + CATALOG.getPriceInCents(JEANS),
+                cart.getCheapestUnitsPriceInCents(4));
+    }
+
+    @Test
+    void testLinesFollowPricesInLargeCatalog() {
+        var csv = new StringBuilder();
+        for (int id = 1; id <= 100_000; id++) {
+            csv.append(id).append(",Product ").append(id).append(',').append(100_000 - id + 1).append(",TOPS\n");
+        }
+        var catalog = ProductCatalog.parse(csv.toString().getBytes(StandardCharsets.UTF_8));
+        var cart = new CompactCart();
+        long emptySize = cart.getEstimatedSizeInBytes();
+
+        for (int id = 1; id <= 50; id++) {
+            cart.add(catalog, catalog.indexOf(id), 1);
+        }
+        cart.remove(catalog, catalog.indexOf(50), 1);
+
+        Assertions.assertEquals(49, cart.getLines());
+        Assertions.assertEquals(49, catalog.getId(cart.getLineProduct(0)));
+        Assertions.assertEquals(1, catalog.getId(cart.getLineProduct(48)));
+        Assertions.assertEquals(99_952 + 99_953, cart.getCheapestUnitsPriceInCents(2));
+        Assertions.assertTrue(cart.getEstimatedSizeInBytes() > emptySize);
+        // A few dozen bytes per line, whatever the size of the catalog
+        Assertions.assertTrue(cart.getEstimatedSizeInBytes() < 64 * 64);
+    }
+
+    @Test
+    void testCheapestUnitsPriceMatchesSortedLinesOnRandomCarts() {
+        var csv = new StringBuilder();
+        for (int id = 1; id <= 200; id++) {
+            csv.append(id).append(",Product ").append(id).append(',').append(1 + id * 37 % 500).append(",TOPS\n");
+        }
+        var catalog = ProductCatalog.parse(csv.toString().getBytes(StandardCharsets.UTF_8));
+        var random = new Random(42);
+
+        for (int round = 0; round < 200; round++) {
+            var cart = new CompactCart();
+            var amounts = new int[catalog.size()];
+            for (int change = 0; change < 100; change++) {
+                int product = random.nextInt(catalog.size());
+                int amount = 1 + random.nextInt(5);
+                if (random.nextInt(3) == 0) {
+                    cart.remove(catalog, product, amount);
+                    amounts[product] -= Math.min(amounts[product], amount);
+                } else {
+                    cart.add(catalog, product, amount);
+                    amounts[product] += amount;
+                }
+            }
+
+            var units = new ArrayList<Long>();
+            int lines = 0;
+            for (int product = 0; product < amounts.length; product++) {
+                for (int unit = 0; unit < amounts[product]; unit++) {
+                    units.add(catalog.getPriceInCents(product));
+                }
+                if (amounts[product] > 0) {
+                    Assertions.assertEquals(product, cart.getLineProduct(lines));
+                    Assertions.assertEquals(amounts[product], cart.getLineAmount(lines++));
+                }
+            }
+            Assertions.assertEquals(lines, cart.getLines());
+            long expected = 0;
+            for (int taken = 0; taken <= units.size() + 1; taken++) {
+                Assertions.assertEquals(expected, cart.getCheapestUnitsPriceInCents(taken));
+                expected += taken < units.size() ? units.get(taken) : 0;
+            }
+        }
+    }
+
+    @Test
+    void testAddBeyondTheUnitsOfALineIsRefused() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, JEANS, Integer.MAX_VALUE - 1);
+
+        Assertions.assertTrue(cart.canAdd(JEANS, 1));
+        Assertions.assertFalse(cart.canAdd(JEANS, 2));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cart.add(CATALOG, JEANS, 2));
+        Assertions.assertEquals(Integer.MAX_VALUE - 1, cart.getAmount(JEANS));
+        Assertions.assertEquals(Integer.MAX_VALUE - 1, cart.getItemCount());
+    }
+
+    @Test
+    void testRebaseFollowsNewPricesAndDropsMissingProducts() {
+        var cart = new CompactCart();
+
+        cart.add(CATALOG, T_SHIRT, 2);
+        cart.add(CATALOG, JEANS, 1);
+        cart.add(CATALOG, DRESS, 1);
+
+        var next = ProductCatalog.parse("1,T-shirt,3000,TOPS\n2,Jeans,1000,BOTTOMS\n".getBytes(StandardCharsets.UTF_8), 2);
+        cart.rebase(next);
+
+        Assertions.assertSame(next, cart.getCatalog());
+        Assertions.assertEquals(2, cart.getLines());
+        Assertions.assertEquals(3, cart.getItemCount());
+        Assertions.assertEquals(2 * 3000 + 1000, cart.getTotalPriceInCents());
+        Assertions.assertEquals(2, cart.getLineProductId(0));
+        Assertions.assertEquals(2, cart.getAmount(next.indexOf(1)));
+        Assertions.assertEquals(1000 + 3000, cart.getCheapestUnitsPriceInCents(2));
+    }
+}
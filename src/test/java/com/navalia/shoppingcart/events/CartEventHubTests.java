@@ -0,0 +1,307 @@
+package com.navalia.shoppingcart.events;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.QuoteResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.CartTag;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CartEventHubTests {
+
+    private static final String CART_ID = "cart-1";
+    private static final String BROKEN_CART_ID = "broken";
+
+    private CartService cartService;
+    private CartEventHub hub;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        hub.destroy();
+    }
+
+    @Test
+    void testSubscriberGetsTheCurrentQuote() throws Exception {
+        start(new CartEventProperties());
+        cartService.addToCart(CART_ID, order(1, 2));
+        var sink = new RecordingSink();
+
+        hub.subscribe(CART_ID, sink, null);
+
+        sink.await(1);
+        Assertions.assertEquals(2, sink.quotes.get(0).getItemCount());
+    }
+
+    @Test
+    void testBurstOfChangesIsOneEvent() throws Exception {
+        start(new CartEventProperties());
+        var sink = new RecordingSink();
+        hub.subscribe(CART_ID, sink, null);
+        sink.await(1);
+
+        for (int i = 0; i < 100; i++) {
+            cartService.addToCart(CART_ID, order(1, 1));
+        }
+        hub.tick();
+        hub.tick();
+
+        sink.await(2);
+        Thread.sleep(50);
+        Assertions.assertEquals(2, sink.quotes.size());
+        Assertions.assertEquals(100, sink.quotes.get(1).getItemCount());
+        Assertions.assertEquals(100, sink.quotes.get(1).getCartVersion());
+    }
+
+    @Test
+    void testKnownQuoteIsNotSentAgain() throws Exception {
+        start(new CartEventProperties());
+        cartService.addToCart(CART_ID, order(1, 2));
+        var sink = new RecordingSink();
+
+        hub.subscribe(CART_ID, sink, cartService.quote(CART_ID).getTag());
+        hub.tick();
+        cartService.emptyCart(CART_ID);
+        hub.tick();
+
+        sink.await(1);
+        Assertions.assertEquals(0, sink.quotes.get(0).getItemCount());
+    }
+
+    @Test
+    void testSubscribersOfEmptyCartsSleepThroughOtherChanges() throws Exception {
+        start(new CartEventProperties());
+        var sink = new RecordingSink();
+        hub.subscribe("unknown", sink, null);
+        sink.await(1);
+
+        cartService.addToCart(CART_ID, order(1, 2));
+        cartService.emptyCart(CART_ID);
+        hub.tick();
+
+        Thread.sleep(50);
+        Assertions.assertEquals(1, sink.quotes.size());
+    }
+
+    @Test
+    void testSlowSubscriberOnlyGetsTheLatestQuote() throws Exception {
+        start(new CartEventProperties());
+        var sink = new RecordingSink();
+        sink.gate = new CountDownLatch(1);
+        hub.subscribe(CART_ID, sink, null);
+        Assertions.assertTrue(sink.sending.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 5; i++) {
+            cartService.addToCart(CART_ID, order(1, 1));
+            hub.tick();
+        }
+        sink.gate.countDown();
+
+        sink.await(2);
+        Thread.sleep(50);
+        Assertions.assertEquals(2, sink.quotes.size());
+        Assertions.assertEquals(5, sink.quotes.get(1).getItemCount());
+    }
+
+    @Test
+    void testLaggingSubscriberIsDisconnected() throws Exception {
+        var properties = new CartEventProperties();
+        properties.setMaxLag(Duration.ofMillis(1));
+        start(properties);
+        var sink = new RecordingSink();
+        sink.gate = new CountDownLatch(1);
+
+        hub.subscribe(CART_ID, sink, null);
+        Thread.sleep(20);
+        hub.tick();
+
+        Assertions.assertTrue(sink.closed);
+        Assertions.assertEquals(0, hub.getSubscriptions());
+        sink.gate.countDown();
+    }
+
+    @Test
+    void testSubscriberWaitingForASenderIsNotLagging() throws Exception {
+        var properties = new CartEventProperties();
+        properties.setSenders(1);
+        properties.setMaxLag(Duration.ofMillis(50));
+        start(properties);
+        var stuck = new RecordingSink();
+        stuck.gate = new CountDownLatch(1);
+        var waiting = new RecordingSink();
+
+        hub.subscribe(CART_ID, stuck, null);
+        Assertions.assertTrue(stuck.sending.await(5, TimeUnit.SECONDS));
+        hub.subscribe("cart-2", waiting, null);
+        Thread.sleep(100);
+        hub.tick();
+
+        Assertions.assertTrue(stuck.closed);
+        Assertions.assertFalse(waiting.closed);
+        stuck.gate.countDown();
+        waiting.await(1);
+        Assertions.assertEquals(1, hub.getSubscriptions());
+    }
+
+    @Test
+    void testSubscriberNotTakingWhatItsSinkKeepsIsDisconnected() throws Exception {
+        var properties = new CartEventProperties();
+        properties.setMaxLag(Duration.ofMillis(50));
+        start(properties);
+        var sink = new RecordingSink();
+        hub.subscribe(CART_ID, sink, null);
+        sink.await(1);
+
+        hub.tick();
+        Assertions.assertFalse(sink.closed);
+
+        sink.waitingSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(100);
+        hub.tick();
+        Assertions.assertTrue(sink.closed);
+        Assertions.assertEquals(0, hub.getSubscriptions());
+    }
+
+    @Test
+    void testFailedSubscriptionReleasesItsSlot() {
+        var properties = new CartEventProperties();
+        properties.setMaxSubscriptions(1);
+        start(properties);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> hub.subscribe(BROKEN_CART_ID, new RecordingSink(), null));
+
+        Assertions.assertEquals(0, hub.getSubscriptions());
+        Assertions.assertDoesNotThrow(() -> hub.subscribe(CART_ID, new RecordingSink(), null));
+    }
+
+    @Test
+    void testSubscriptionsAreLimited() {
+        var properties = new CartEventProperties();
+        properties.setMaxSubscriptions(1);
+        start(properties);
+
+        var subscription = hub.subscribe(CART_ID, new RecordingSink(), null);
+        Assertions.assertThrows(RejectedExecutionException.class, () -> hub.subscribe(CART_ID, new RecordingSink(), null));
+
+        subscription.cancel();
+        subscription.cancel();
+        Assertions.assertEquals(0, hub.getSubscriptions());
+        Assertions.assertDoesNotThrow(() -> hub.subscribe(CART_ID, new RecordingSink(), null));
+    }
+
+    @Test
+    void testThousandsOfIdleSubscriptionsFitInModestMemory() throws Exception {
+        int subscriptions = 20_000;
+        start(new CartEventProperties());
+        var sinks = new ArrayList<RecordingSink>(subscriptions);
+        for (int i = 0; i < subscriptions; i++) {
+            sinks.add(new RecordingSink());
+        }
+
+        long before = usedHeap();
+        for (int i = 0; i < subscriptions; i++) {
+            hub.subscribe("cart-" + i, sinks.get(i), null);
+        }
+        sinks.get(subscriptions - 1).await(1);
+        long after = usedHeap();
+
+        hub.tick();
+        Assertions.assertEquals(subscriptions, hub.getSubscriptions());
+        // Ids, subscription and per cart entry, well under a kilobyte each. The sinks are allocated
+        // before measuring, and the connection, the asynchronous request of the container and the sink
+        // writing to it are not measured at all
+        Assertions.assertTrue(after - before < subscriptions * 1024L, (after - before) / subscriptions + " bytes per subscription");
+    }
+
+    private void start(CartEventProperties properties) {
+        var store = new ConcurrentCartStore();
+        var catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        var promotionEngine = new CompiledPromotionEngine(catalogRegistry);
+        var cartMetrics = new CartMetrics(new SimpleMeterRegistry());
+
+        cartService = new CartServiceImpl(store, catalogRegistry, promotionEngine, cartMetrics, new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics()) {
+            @Override
+            public QuoteResponse quote(String cartId, CartTag knownTag) {
+                if (cartId.equals(BROKEN_CART_ID)) {
+                    throw new IllegalArgumentException("The promotions cannot be compiled.");
+                }
+                return super.quote(cartId, knownTag);
+            }
+        };
+        hub = new CartEventHub(store, cartService, catalogRegistry, promotionEngine, cartMetrics, properties);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        var runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static OrderRequest order(int itemId, int amount) {
+        return OrderRequest.builder().itemId(itemId).amount(amount).build();
+    }
+
+    private static final class RecordingSink implements CartEventSink {
+
+        private final List<QuoteResponse> quotes = new CopyOnWriteArrayList<>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private volatile CountDownLatch gate;
+        private volatile long waitingSince = NOT_WAITING;
+        private volatile boolean closed;
+
+        @Override
+        public void send(QuoteResponse quote) throws java.io.IOException {
+            sending.countDown();
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            quotes.add(quote);
+        }
+
+        @Override
+        public long waitingSince() {
+            return waitingSince;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        private void await(int events) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (quotes.size() < events && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assertions.assertTrue(quotes.size() >= events, "Only " + quotes.size() + " event(s) received");
+        }
+    }
+}
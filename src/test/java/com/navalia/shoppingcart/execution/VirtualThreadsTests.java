@@ -0,0 +1,26 @@
+package com.navalia.shoppingcart.execution;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+public class VirtualThreadsTests {
+
+    @Test
+    void testExecutorRunsTasksOnVirtualThreadsWhenSupported() throws Exception {
+        boolean supported = Runtime.version().feature() >= 21;
+
+        Assertions.assertEquals(supported, VirtualThreads.isSupported());
+
+        if (supported) {
+            Method isVirtual = Thread.class.getMethod("isVirtual");
+            var executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+
+            Assertions.assertTrue((boolean) executor.submit(() -> isVirtual.invoke(Thread.currentThread())).get());
+            executor.shutdown();
+        } else {
+            Assertions.assertThrows(IllegalStateException.class, VirtualThreads::newVirtualThreadPerTaskExecutor);
+        }
+    }
+}
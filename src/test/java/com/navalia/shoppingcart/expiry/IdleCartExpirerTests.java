@@ -0,0 +1,174 @@
+package com.navalia.shoppingcart.expiry;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class IdleCartExpirerTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final int T_SHIRT = CATALOG.indexOf(1);
+
+    private ConcurrentCartStore cartStore;
+    private SimpleMeterRegistry meterRegistry;
+    private ExpiryProperties properties;
+
+    @BeforeEach
+    void setup() {
+        cartStore = new ConcurrentCartStore();
+        meterRegistry = new SimpleMeterRegistry();
+        properties = new ExpiryProperties();
+        properties.setIdleTimeout(Duration.ofMinutes(1));
+    }
+
+    @Test
+    void testIdleCartIsDropped() {
+        var expirer = newExpirer();
+        long now = System.nanoTime();
+
+        addItem("cart-1", 0);
+        expirer.maintain(now + TimeUnit.SECONDS.toNanos(30));
+        Assertions.assertEquals(1, cartStore.size());
+
+        expirer.maintain(now + TimeUnit.MINUTES.toNanos(2));
+        Assertions.assertEquals(0, cartStore.size());
+        Assertions.assertEquals(0, cartStore.estimatedSizeInBytes());
+        Assertions.assertEquals(1, meterRegistry.get("cart.evictions").tag("reason", "idle").counter().count());
+    }
+
+    @Test
+    void testIdleCartWithItemsIsAbandoned() {
+        var abandoned = new int[1];
+        var analytics = new NoOpCartAnalytics() {
+            @Override
+            public void cartAbandoned() {
+                abandoned[0]++;
+            }
+        };
+        var expirer = new IdleCartExpirer(cartStore, new NoOpCartJournal(), new CartMetrics(meterRegistry), new NoOpInventory(), analytics, properties);
+
+        addItem("cart-1", 0);
+        cartStore.mutate("cart-2", cart -> null);
+        expirer.maintain(System.nanoTime() + TimeUnit.MINUTES.toNanos(2));
+
+        Assertions.assertEquals(0, cartStore.size());
+        Assertions.assertEquals(1, abandoned[0]);
+    }
+
+    @Test
+    void testCartWhoseOrderWasClosedIsNotAbandoned() {
+        var abandoned = new int[1];
+        var analytics = new NoOpCartAnalytics() {
+            @Override
+            public void cartAbandoned() {
+                abandoned[0]++;
+            }
+        };
+        var expirer = new IdleCartExpirer(cartStore, new NoOpCartJournal(), new CartMetrics(meterRegistry), new NoOpInventory(), analytics, properties);
+        var catalogRegistry = new CatalogRegistry(CATALOG);
+        var cartService = new CartServiceImpl(cartStore, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry),
+                new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), analytics);
+
+        cartService.addToCart("cart-1", OrderRequest.builder().itemId(1).amount(2).build());
+        cartService.closeOrder("cart-1");
+        expirer.maintain(System.nanoTime() + TimeUnit.MINUTES.toNanos(2));
+
+        Assertions.assertEquals(0, cartStore.size());
+        Assertions.assertEquals(0, abandoned[0]);
+    }
+
+    @Test
+    void testCartTheJournalRefusesIsKeptWithItsStock() {
+        var released = new int[1];
+        var journal = new NoOpCartJournal() {
+            @Override
+            public long cartEmptied(String cartId, CompactCart cart) {
+                throw new IllegalStateException("The cart journal is not accepting records.");
+            }
+        };
+        var inventory = new NoOpInventory() {
+            @Override
+            public void releaseCart(CompactCart cart) {
+                released[0]++;
+            }
+        };
+        var expirer = new IdleCartExpirer(cartStore, journal, new CartMetrics(meterRegistry), inventory, new NoOpCartAnalytics(), properties);
+
+        addItem("cart-1", 0);
+        long sizeInBytes = cartStore.estimatedSizeInBytes();
+        Assertions.assertThrows(IllegalStateException.class, () -> expirer.maintain(System.nanoTime() + TimeUnit.MINUTES.toNanos(2)));
+
+        Assertions.assertEquals(1, cartStore.size());
+        Assertions.assertEquals(sizeInBytes, cartStore.estimatedSizeInBytes());
+        Assertions.assertEquals(0, released[0]);
+    }
+
+    @Test
+    void testUsedCartIsRescheduled() {
+        var expirer = newExpirer();
+        long now = System.nanoTime();
+
+        addItem("cart-1", TimeUnit.SECONDS.toNanos(90));
+        expirer.maintain(now + TimeUnit.MINUTES.toNanos(2));
+        Assertions.assertEquals(1, cartStore.size());
+
+        expirer.maintain(now + TimeUnit.MINUTES.toNanos(3));
+        Assertions.assertEquals(0, cartStore.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedCartIsEvictedOverCapacity() {
+        properties.setIdleTimeout(Duration.ZERO);
+        properties.setMaxCarts(2);
+        var expirer = newExpirer();
+
+        addItem("cart-1", TimeUnit.SECONDS.toNanos(10));
+        addItem("cart-2", 0);
+        addItem("cart-3", TimeUnit.SECONDS.toNanos(10));
+        expirer.maintain(System.nanoTime());
+
+        Assertions.assertEquals(2, cartStore.size());
+        Assertions.assertTrue(cartStore.read("cart-2", CompactCart::isEmpty));
+        Assertions.assertFalse(cartStore.read("cart-1", CompactCart::isEmpty));
+        Assertions.assertEquals(1, meterRegistry.get("cart.evictions").tag("reason", "capacity").counter().count());
+    }
+
+    @Test
+    void testResidentCartsArePublished() {
+        newExpirer();
+
+        addItem("cart-1", 0);
+
+        Assertions.assertEquals(1, meterRegistry.get("cart.resident").gauge().value());
+        Assertions.assertEquals(cartStore.estimatedSizeInBytes(), meterRegistry.get("cart.resident.memory").gauge().value());
+        Assertions.assertTrue(cartStore.estimatedSizeInBytes() > 0);
+    }
+
+    private IdleCartExpirer newExpirer() {
+        return new IdleCartExpirer(cartStore, new NoOpCartJournal(), new CartMetrics(meterRegistry), new NoOpInventory(), new NoOpCartAnalytics(), properties);
+    }
+
+    private void addItem(String cartId, long accessedInNanos) {
+        cartStore.mutate(cartId, cart -> {
+            cart.add(CATALOG, T_SHIRT, 1);
+            cart.setLastAccessNanos(cart.getLastAccessNanos() + accessedInNanos);
+            return null;
+        });
+    }
+}
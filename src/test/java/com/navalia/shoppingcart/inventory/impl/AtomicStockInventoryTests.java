@@ -0,0 +1,201 @@
+package com.navalia.shoppingcart.inventory.impl;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.cluster.ClusterProperties;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.inventory.InventoryProperties;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.store.CartStore;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+public class AtomicStockInventoryTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testReservationsNeverGoBelowZero() throws Exception {
+        var inventory = inventory(new ConcurrentCartStore(), "id,stock\n1,5\n");
+
+        Assertions.assertTrue(inventory.reserve(1, 3));
+        Assertions.assertFalse(inventory.reserve(1, 3));
+        Assertions.assertEquals(2, inventory.available(1));
+        Assertions.assertTrue(inventory.reserve(1, 2));
+        Assertions.assertFalse(inventory.reserve(1, 1));
+        Assertions.assertEquals(0, inventory.available(1));
+
+        inventory.release(1, 1);
+        Assertions.assertEquals(1, inventory.available(1));
+    }
+
+    @Test
+    void testProductsMissingFromTheFileAreNotTracked() throws Exception {
+        var inventory = inventory(new ConcurrentCartStore(), "1,0\n");
+
+        Assertions.assertFalse(inventory.reserve(1, 1));
+        Assertions.assertTrue(inventory.reserve(2, Integer.MAX_VALUE));
+        Assertions.assertEquals(Inventory.UNLIMITED, inventory.available(2));
+        Assertions.assertEquals(Inventory.UNLIMITED, inventory.available(-1));
+    }
+
+    @Test
+    void testConcurrentReservationsOfOneItemNeverOversell() throws Exception {
+        var inventory = inventory(new ConcurrentCartStore(), "1,1000\n");
+        var executor = Executors.newFixedThreadPool(8);
+        var tasks = new ArrayList<Callable<Integer>>();
+
+        for (int thread = 0; thread < 8; thread++) {
+            tasks.add(() -> {
+                int reserved = 0;
+                for (int i = 0; i < 500; i++) {
+                    if (inventory.reserve(1, 1)) {
+                        reserved++;
+                    }
+                }
+                return reserved;
+            });
+        }
+
+        int reserved = 0;
+        try {
+            for (var result : executor.invokeAll(tasks)) {
+                reserved += result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertEquals(1000, reserved);
+        Assertions.assertEquals(0, inventory.available(1));
+    }
+
+    @Test
+    void testUnitsOfRecoveredCartsAreReservedAgain() throws Exception {
+        var store = new ConcurrentCartStore();
+        store.mutate("cart-1", cart -> {
+            cart.add(CATALOG, CATALOG.indexOf(1), 3);
+            return null;
+        });
+        store.mutate("cart-2", cart -> {
+            cart.add(CATALOG, CATALOG.indexOf(1), 4);
+            cart.add(CATALOG, CATALOG.indexOf(2), 1);
+            return null;
+        });
+
+        var inventory = inventory(store, "1,5\n2,10\n");
+
+        Assertions.assertEquals(0, inventory.available(1));
+        Assertions.assertEquals(9, inventory.available(2));
+    }
+
+    @Test
+    void testReleasingRecoveredUnitsBeyondTheStockNeverRaisesIt() throws Exception {
+        var store = new ConcurrentCartStore();
+        store.mutate("cart-1", cart -> {
+            cart.add(CATALOG, CATALOG.indexOf(1), 8);
+            return null;
+        });
+
+        var inventory = inventory(store, "1,5\n");
+        Assertions.assertEquals(0, inventory.available(1));
+
+        inventory.release(1, 2);
+        Assertions.assertEquals(0, inventory.available(1));
+        inventory.release(1, 6);
+        Assertions.assertEquals(5, inventory.available(1));
+    }
+
+    @Test
+    void testMalformedFileIsRejected() {
+        var negative = Assertions.assertThrows(IllegalArgumentException.class, () -> inventory(new ConcurrentCartStore(), "1,5\n2,-3\n"));
+        Assertions.assertEquals("Invalid inventory line 2: a number is not between 0 and 9223372036854775806.", negative.getMessage());
+
+        var duplicate = Assertions.assertThrows(IllegalArgumentException.class, () -> inventory(new ConcurrentCartStore(), "1,5\n1,3\n"));
+        Assertions.assertEquals("Invalid inventory: product id 1 is used twice.", duplicate.getMessage());
+    }
+
+    @Test
+    void testInstancesOfAClusterShareTheStock() throws Exception {
+        var shares = new long[3];
+
+        for (int i = 0; i < 3; i++) {
+            var inventory = inventory(new ConcurrentCartStore(), "1,10\n2,2\n", cluster("b:2", "c:3", "a:1", "b:2"), List.of("a:1", "b:2", "c:3").get(i));
+            shares[i] = inventory.available(1);
+            Assertions.assertEquals(i < 2 ? 1 : 0, inventory.available(2));
+        }
+
+        Assertions.assertArrayEquals(new long[]{4, 3, 3}, shares);
+        Assertions.assertEquals(0, inventory(new ConcurrentCartStore(), "1,10\n", cluster("a:1", "b:2"), "d:4").available(1));
+    }
+
+    @Test
+    void testLendingGivesAtLeastTheAmountAskedAndUpToHalfOfTheStock() throws Exception {
+        var inventory = inventory(new ConcurrentCartStore(), "1,100\n2,3\n");
+
+        Assertions.assertEquals(50, inventory.lend(1, 5));
+        Assertions.assertEquals(40, inventory.lend(1, 40));
+        Assertions.assertEquals(3, inventory.lend(2, 10));
+        Assertions.assertEquals(0, inventory.lend(2, 1));
+        Assertions.assertEquals(0, inventory.lend(3, 1));
+        Assertions.assertEquals(10, inventory.available(1));
+
+        Assertions.assertEquals(4, inventory.take(1, 4));
+        Assertions.assertEquals(6, inventory.take(1, 8));
+        inventory.receive(1, 7);
+        Assertions.assertEquals(7, inventory.available(1));
+    }
+
+    @Test
+    void testShortStockIsBorrowedFromTheLenders() throws Exception {
+        var inventory = inventory(new ConcurrentCartStore(), "1,2\n");
+        var asked = new ArrayList<Long>();
+
+        Assertions.assertFalse(inventory.replenish(1, 5));
+        inventory.setLenders((itemId, amount) -> {
+            asked.add(amount);
+            return 10;
+        });
+
+        Assertions.assertTrue(inventory.replenish(1, 2));
+        Assertions.assertTrue(inventory.replenish(1, 5));
+        Assertions.assertEquals(List.of(3L), asked);
+        Assertions.assertEquals(12, inventory.available(1));
+        Assertions.assertTrue(inventory.reserve(1, 5));
+        Assertions.assertFalse(inventory.replenish(2, 5));
+    }
+
+    private AtomicStockInventory inventory(CartStore store, String stock) throws Exception {
+        return inventory(store, stock, new ClusterProperties(), "");
+    }
+
+    private AtomicStockInventory inventory(CartStore store, String stock, ClusterProperties cluster, String self) throws Exception {
+        var file = Files.writeString(directory.resolve("inventory.csv"), stock, StandardCharsets.UTF_8);
+        var properties = new InventoryProperties();
+
+        properties.setEnabled(true);
+        properties.setFile(file.toString());
+        cluster.setSelf(self);
+        return new AtomicStockInventory(store, new NoOpCartJournal(), properties, cluster);
+    }
+
+    private static ClusterProperties cluster(String... nodes) {
+        var cluster = new ClusterProperties();
+
+        cluster.setEnabled(true);
+        cluster.setNodes(List.of(nodes));
+        return cluster;
+    }
+}
@@ -0,0 +1,218 @@
+package com.navalia.shoppingcart.journal.impl;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.JournalProperties;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class FileCartJournalTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final int T_SHIRT = CATALOG.indexOf(1);
+    private static final int JEANS = CATALOG.indexOf(2);
+    private static final int DRESS = CATALOG.indexOf(3);
+
+    private final CatalogRegistry catalogRegistry = new CatalogRegistry(CATALOG);
+
+    @TempDir
+    Path directory;
+
+    private JournalProperties properties;
+
+    @BeforeEach
+    void setup() {
+        properties = new JournalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+    }
+
+    @Test
+    void testRecoverFromJournalAfterCrash() throws Exception {
+        var service = newService(new ConcurrentCartStore());
+
+        service.addToCart("cart-1", order(1, 3));
+        service.addToCart("cart-1", order(2, 1));
+        service.removeFromCart("cart-1", order(1, 1));
+        service.addToCart("cart-2", order(3, 2));
+
+        var store = new ConcurrentCartStore();
+        new FileCartJournal(store, catalogRegistry, properties);
+
+        Assertions.assertEquals(2, store.size());
+        Assertions.assertEquals(2, (int) store.read("cart-1", cart -> cart.getAmount(T_SHIRT)));
+        Assertions.assertEquals(1, (int) store.read("cart-1", cart -> cart.getAmount(JEANS)));
+        Assertions.assertEquals(2, (int) store.read("cart-2", cart -> cart.getAmount(DRESS)));
+    }
+
+    @Test
+    void testRecoverFromSnapshotAndJournalTail() throws Exception {
+        var store = new ConcurrentCartStore();
+        var journal = new FileCartJournal(store, catalogRegistry, properties);
+        var service = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), journal, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        service.addToCart("cart-1", order(1, 5));
+        service.addToCart("cart-2", order(2, 1));
+        journal.snapshot();
+        service.removeFromCart("cart-1", order(1, 2));
+        service.emptyCart("cart-2");
+        service.applyBatch("cart-3", BatchOrderRequest.builder()
+                .operations(List.of(
+                        OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(3).amount(4).build(),
+                        OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(3).amount(1).build()))
+                .build());
+
+        var recovered = new ConcurrentCartStore();
+        new FileCartJournal(recovered, catalogRegistry, properties);
+
+        Assertions.assertEquals(2, recovered.size());
+        Assertions.assertEquals(3, (int) recovered.read("cart-1", cart -> cart.getAmount(T_SHIRT)));
+        Assertions.assertTrue(recovered.read("cart-2", CompactCart::isEmpty));
+        Assertions.assertEquals(3, (int) recovered.read("cart-3", cart -> cart.getAmount(DRESS)));
+    }
+
+    @Test
+    void testShutdownSnapshotDropsReplayedSegments() throws Exception {
+        var store = new ConcurrentCartStore();
+        var journal = new FileCartJournal(store, catalogRegistry, properties);
+        var service = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), journal, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        service.addToCart("cart-1", order(1, 1));
+        journal.destroy();
+
+        var restarted = new ConcurrentCartStore();
+        var restartedJournal = new FileCartJournal(restarted, catalogRegistry, properties);
+        new CartServiceImpl(restarted, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), restartedJournal, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics())
+                .addToCart("cart-1", order(1, 1));
+        restartedJournal.destroy();
+
+        var recovered = new ConcurrentCartStore();
+        new FileCartJournal(recovered, catalogRegistry, properties);
+
+        Assertions.assertEquals(2, (int) recovered.read("cart-1", cart -> cart.getAmount(T_SHIRT)));
+        Assertions.assertEquals(1, files("snapshot-").size());
+    }
+
+    @Test
+    void testCartsKeepTheirVersionsAcrossRestarts() throws Exception {
+        var store = new ConcurrentCartStore();
+        var journal = new FileCartJournal(store, catalogRegistry, properties);
+        var service = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), journal, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        service.addToCart("cart-1", order(1, 1));
+        service.addToCart("cart-1", order(1, 1));
+        service.addToCart("cart-2", order(2, 1));
+        journal.snapshot();
+        service.addToCart("cart-1", order(1, 1));
+        for (int i = 0; i < 5; i++) {
+            service.addToCart("cart-2", order(2, 1));
+        }
+        long version = store.read("cart-1", CompactCart::getVersion);
+        long emptiedVersion = service.emptyCart("cart-2").getCartVersion();
+
+        var recovered = new ConcurrentCartStore();
+        new FileCartJournal(recovered, catalogRegistry, properties);
+
+        Assertions.assertEquals(version, (long) recovered.read("cart-1", CompactCart::getVersion));
+        Assertions.assertTrue(recovered.read("cart-2", CompactCart::getVersion) >= emptiedVersion);
+        Assertions.assertTrue(recovered.read("cart-3", CompactCart::getVersion) >= emptiedVersion);
+
+        // Recovered once more, then shut down, which leaves a snapshot alone
+        new FileCartJournal(new ConcurrentCartStore(), catalogRegistry, properties).destroy();
+        var fromSnapshot = new ConcurrentCartStore();
+        new FileCartJournal(fromSnapshot, catalogRegistry, properties);
+
+        Assertions.assertEquals(version, (long) fromSnapshot.read("cart-1", CompactCart::getVersion));
+        Assertions.assertTrue(fromSnapshot.read("cart-2", CompactCart::getVersion) >= emptiedVersion);
+    }
+
+    @Test
+    void testChangesOfConcurrentCartsAreAllRecovered() throws Exception {
+        var store = new ConcurrentCartStore();
+        var journal = new FileCartJournal(store, catalogRegistry, properties);
+        var service = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), journal, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        var threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 4; t++) {
+            var cartId = "cart-" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    service.addToCart(cartId, order(1, 1));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (var thread : threads) {
+            thread.join();
+        }
+        journal.destroy();
+
+        Assertions.assertThrows(IllegalStateException.class, () -> service.addToCart("cart-0", order(1, 1)));
+
+        var recovered = new ConcurrentCartStore();
+        new FileCartJournal(recovered, catalogRegistry, properties);
+        for (int t = 0; t < 4; t++) {
+            Assertions.assertEquals(500, (int) recovered.read("cart-" + t, cart -> cart.getAmount(T_SHIRT)));
+        }
+    }
+
+    @Test
+    void testTornTailIsTruncated() throws Exception {
+        var service = newService(new ConcurrentCartStore());
+
+        service.addToCart("cart-1", order(1, 1));
+        service.addToCart("cart-1", order(1, 1));
+
+        var segment = files("journal-").get(0);
+        long size = Files.size(segment);
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        var store = new ConcurrentCartStore();
+        new FileCartJournal(store, catalogRegistry, properties);
+
+        Assertions.assertEquals(1, (int) store.read("cart-1", cart -> cart.getAmount(T_SHIRT)));
+        Assertions.assertTrue(Files.size(segment) < size - 3);
+    }
+
+    private CartServiceImpl newService(ConcurrentCartStore store) throws Exception {
+        return new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(new SimpleMeterRegistry()), new FileCartJournal(store, catalogRegistry, properties), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+    }
+
+    private List<Path> files(String prefix) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static OrderRequest order(int itemId, int amount) {
+        return OrderRequest.builder().itemId(itemId).amount(amount).build();
+    }
+}
@@ -0,0 +1,131 @@
+package com.navalia.shoppingcart.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
+import com.navalia.shoppingcart.dto.response.OrderResponse;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class CartResponseWriterTests {
+
+    private static final String CART_ID = "cart-1";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private CatalogRegistry catalogRegistry;
+    private CartService cartService;
+    private CartResponseWriter writer;
+
+    @BeforeEach
+    void setup() {
+        var catalog = new StringBuilder("1,Sweat-shirt \"à capuche\",3999,TOPS\n2,Jeans\\Slim,2500,BOTTOMS\n3,Dress,2065,DRESSES\n");
+        for (int id = 4; id <= 200; id++) {
+            catalog.append(id).append(",Product ").append(id).append(',').append(100 + id).append(",TOPS\n");
+        }
+
+        catalogRegistry = new CatalogRegistry(ProductCatalog.parse(catalog.toString().getBytes(StandardCharsets.UTF_8)));
+        cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        writer = new CartResponseWriter(catalogRegistry);
+    }
+
+    @Test
+    void testClosedOrderMatchesJackson() throws IOException {
+        cartService.addToCart(CART_ID, order(1, 3));
+        cartService.addToCart(CART_ID, order(2, 1));
+        cartService.addToCart(CART_ID, order(3, 12));
+
+        assertSameJson(cartService.closeOrder(CART_ID));
+        assertSameJson(cartService.closeOrder(CART_ID));
+    }
+
+    @Test
+    void testEmptyClosedOrderMatchesJackson() throws IOException {
+        var response = cartService.closeOrder(CART_ID);
+
+        Assertions.assertNull(response.getOrderId());
+        assertSameJson(response);
+    }
+
+    @Test
+    void testLargeClosedOrderMatchesJackson() throws IOException {
+        for (int id = 1; id <= 200; id++) {
+            cartService.addToCart(CART_ID, order(id, id));
+        }
+
+        assertSameJson(cartService.closeOrder(CART_ID));
+    }
+
+    @Test
+    void testClosedOrderOfAnOlderCatalogMatchesJackson() throws IOException {
+        cartService.addToCart(CART_ID, order(1, 2));
+        var response = cartService.closeOrder(CART_ID);
+        catalogRegistry.updatePrices("1,4999\n".getBytes(StandardCharsets.UTF_8));
+
+        assertSameJson(response);
+        assertSameJson(cartService.closeOrder(CART_ID));
+    }
+
+    @Test
+    void testClosedOrderWithItemsMatchesJackson() throws IOException {
+        cartService.addToCart(CART_ID, order(1, 3));
+        cartService.addToCart(CART_ID, order(3, 1));
+        var local = cartService.closeOrder(CART_ID);
+
+        // Orders answered by another instance of the cluster come with their items rather than lines
+        Assertions.assertNotNull(local.getLines());
+        assertSameJson(ClosedOrderResponse.builder()
+                .orderedItems(local.getOrderedItems())
+                .totalPrice(local.getTotalPrice())
+                .catalogVersion(local.getCatalogVersion())
+                .cartVersion(local.getCartVersion())
+                .orderId(local.getOrderId())
+                .build());
+    }
+
+    @Test
+    void testOrderResponsesMatchJackson() throws IOException {
+        assertSameJson(cartService.addToCart(CART_ID, order(1, 2)).getResponse());
+        assertSameJson(cartService.addToCart(CART_ID, order(1, 2)).getResponse());
+        assertSameJson(cartService.removeFromCart(CART_ID, order(1, 1)).getResponse());
+        assertSameJson(cartService.emptyCart(CART_ID));
+        assertSameJson(OrderResponse.builder().message("Line\nbreak \u0001 and \"quotes\"").cartVersion(-1).build());
+        assertSameJson(OrderResponse.builder().cartVersion(Long.MAX_VALUE).build());
+    }
+
+    private void assertSameJson(ClosedOrderResponse response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        writer.write(response, out);
+
+        Assertions.assertEquals(objectMapper.writeValueAsString(response), out.toString(StandardCharsets.UTF_8));
+    }
+
+    private void assertSameJson(OrderResponse response) throws IOException {
+        var out = new ByteArrayOutputStream();
+        writer.write(response, out);
+
+        Assertions.assertEquals(objectMapper.writeValueAsString(response), out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static OrderRequest order(int itemId, int amount) {
+        return OrderRequest.builder().itemId(itemId).amount(amount).build();
+    }
+}
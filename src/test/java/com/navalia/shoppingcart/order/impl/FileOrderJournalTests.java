@@ -0,0 +1,148 @@
+package com.navalia.shoppingcart.order.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.FinalizedOrder;
+import com.navalia.shoppingcart.order.OrderJournalProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileOrderJournalTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+
+    @TempDir
+    Path directory;
+
+    private OrderJournalProperties properties;
+
+    @BeforeEach
+    void setup() {
+        properties = new OrderJournalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(directory.toString());
+        properties.setBatchSize(4);
+    }
+
+    @Test
+    void testOrdersAreWrittenAsJsonLines() throws Exception {
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+
+        for (int i = 0; i < 10; i++) {
+            journal.submit(order(journal.nextOrderId(), "cart-" + i, 2));
+        }
+        journal.destroy();
+
+        var lines = Files.readAllLines(directory.resolve("orders.jsonl"), StandardCharsets.UTF_8);
+        Assertions.assertEquals(10, lines.size());
+
+        var last = new ObjectMapper().readTree(lines.get(9));
+        Assertions.assertEquals(10, last.get("orderId").asLong());
+        Assertions.assertEquals("cart-9", last.get("cartId").asText());
+        Assertions.assertEquals(1, last.get("items").get(0).get("itemId").asInt());
+        Assertions.assertEquals(2, last.get("items").get(0).get("amount").asInt());
+        Assertions.assertEquals(1299, last.get("items").get(0).get("priceInCents").asLong());
+        Assertions.assertEquals(2598, last.get("totalPrice").asLong());
+    }
+
+    @Test
+    void testOrderIdsContinueAfterRestart() throws Exception {
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        journal.submit(order(journal.nextOrderId(), "cart-1", 1));
+        journal.submit(order(journal.nextOrderId(), "cart-2", 1));
+        journal.destroy();
+
+        var restarted = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        Assertions.assertEquals(3, restarted.nextOrderId());
+        restarted.destroy();
+    }
+
+    @Test
+    void testOrderIdsContinueAfterTheHighestOneOfTheFile() throws Exception {
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        long first = journal.nextOrderId();
+        long second = journal.nextOrderId();
+        // Closed at the same time, the second order is queued first
+        journal.submit(order(second, "cart-2", 1));
+        journal.submit(order(first, "cart-1", 1));
+        journal.destroy();
+
+        var restarted = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        Assertions.assertEquals(3, restarted.nextOrderId());
+        restarted.destroy();
+    }
+
+    @Test
+    void testOrdersSubmittedWhileClosingAreWrittenOrRejected() throws Exception {
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        var accepted = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                while (true) {
+                    try {
+                        journal.submit(order(journal.nextOrderId(), "cart-1", 1));
+                        accepted.incrementAndGet();
+                    } catch (RejectedExecutionException ex) {
+                        return;
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(50);
+        journal.destroy();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        Assertions.assertEquals(accepted.get(), Files.readAllLines(directory.resolve("orders.jsonl"), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    void testPartiallyWrittenOrderIsDropped() throws Exception {
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        journal.submit(order(journal.nextOrderId(), "cart-1", 1));
+        journal.destroy();
+        Files.writeString(directory.resolve("orders.jsonl"), "{\"orderId\":2,\"cartId\":\"ca", StandardOpenOption.APPEND);
+
+        var restarted = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        Assertions.assertEquals(2, restarted.nextOrderId());
+        restarted.submit(order(2, "cart-2", 1));
+        restarted.destroy();
+
+        var lines = Files.readAllLines(directory.resolve("orders.jsonl"), StandardCharsets.UTF_8);
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertEquals("cart-2", new ObjectMapper().readTree(lines.get(1)).get("cartId").asText());
+    }
+
+    @Test
+    void testOrdersAreRejectedOnceTheJournalIsClosed() throws Exception {
+        properties.setSubmitTimeout(Duration.ZERO);
+        var journal = new FileOrderJournal(properties, new CartMetrics(new SimpleMeterRegistry()));
+        journal.destroy();
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> journal.submit(order(1, "cart-1", 1)));
+    }
+
+    private static FinalizedOrder order(long orderId, String cartId, int amount) {
+        var cart = new CompactCart();
+        cart.add(CATALOG, CATALOG.indexOf(1), amount);
+        return FinalizedOrder.of(orderId, cartId, cart, 1, cart.getTotalPriceInCents());
+    }
+}
@@ -0,0 +1,125 @@
+package com.navalia.shoppingcart.promotion.impl;
+
+import com.navalia.shoppingcart.constant.CategoryEnum;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.entity.CompactCart;
+import com.navalia.shoppingcart.promotion.PromotionRule;
+import com.navalia.shoppingcart.promotion.rule.BundleRule;
+import com.navalia.shoppingcart.promotion.rule.NForMRule;
+import com.navalia.shoppingcart.promotion.rule.PercentageOffCategoryRule;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompiledPromotionEngineTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final int T_SHIRT = CATALOG.indexOf(1);
+    private static final int JEANS = CATALOG.indexOf(2);
+    private static final int DRESS = CATALOG.indexOf(3);
+
+    private CompactCart cart;
+
+    @BeforeEach
+    void setup() {
+        cart = new CompactCart();
+        cart.add(CATALOG, T_SHIRT, 3);
+        cart.add(CATALOG, JEANS, 2);
+        cart.add(CATALOG, DRESS, 4);
+    }
+
+    @Test
+    void testDefaultRulesGiveCheapestThirdForFree() {
+        var engine = new CompiledPromotionEngine(new CatalogRegistry(CATALOG));
+
+        Assertions.assertEquals(3 * 1299, engine.discountInCents(cart));
+    }
+
+    @Test
+    void testNForMRule() {
+        var engine = new CompiledPromotionEngine(CATALOG, List.of(new NForMRule(4, 3)));
+
+        Assertions.assertEquals(2 * 1299, engine.discountInCents(cart));
+    }
+
+    @Test
+    void testPercentageOffCategoryRuleRoundsHalfUp() {
+        var engine = new CompiledPromotionEngine(CATALOG, List.of(new PercentageOffCategoryRule(CategoryEnum.DRESSES, 15)));
+
+        // 15% of 4 x 20.65 = 12.39
+        Assertions.assertEquals(1239, engine.discountInCents(cart));
+    }
+
+    @Test
+    void testBundleRuleCountsCompleteBundlesOnly() {
+        var engine = new CompiledPromotionEngine(CATALOG, List.of(new BundleRule(Map.of(1, 1, 2, 1), 3000)));
+
+        Assertions.assertEquals(2 * (1299 + 2500 - 3000), engine.discountInCents(cart));
+    }
+
+    @Test
+    void testRulesStackAndNeverExceedTotalPrice() {
+        var engine = new CompiledPromotionEngine(CATALOG, List.of(
+                new NForMRule(3, 2),
+                new PercentageOffCategoryRule(CategoryEnum.DRESSES, 15)));
+
+        Assertions.assertEquals(3 * 1299 + 1239, engine.discountInCents(cart));
+
+        engine.setRules(List.of(new NForMRule(2, 0), new NForMRule(2, 0)));
+        Assertions.assertEquals(cart.getTotalPriceInCents(), engine.discountInCents(cart));
+    }
+
+    @Test
+    void testSetRulesReplacesActiveRules() {
+        var engine = new CompiledPromotionEngine(new CatalogRegistry(CATALOG));
+        List<PromotionRule> rules = List.of(new PercentageOffCategoryRule(CategoryEnum.TOPS, 10));
+
+        engine.setRules(rules);
+
+        Assertions.assertEquals(rules, engine.getRules());
+        Assertions.assertEquals(390, engine.discountInCents(cart));
+    }
+
+    @Test
+    void testCartOfAnotherCatalogDoesNotCompileTheRulesOnEveryQuote() {
+        var registry = new CatalogRegistry(CATALOG);
+        var engine = new CompiledPromotionEngine(registry);
+        var compilations = new AtomicInteger();
+        var rule = new NForMRule(3, 2);
+        engine.setRules(List.of(catalog -> {
+            compilations.incrementAndGet();
+            return rule.compile(catalog);
+        }));
+
+        registry.updatePrices("1,1000\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(2, compilations.get());
+
+        // Until it is moved to the new catalog, the cart is priced with the plan of the previous one
+        for (int quote = 0; quote < 3; quote++) {
+            Assertions.assertEquals(3 * 1299, engine.discountInCents(cart));
+        }
+        Assertions.assertEquals(2, compilations.get());
+
+        var other = new CompactCart();
+        other.add(ProductCatalog.defaultCatalog(), T_SHIRT, 3);
+        for (int quote = 0; quote < 3; quote++) {
+            Assertions.assertEquals(1299, engine.discountInCents(other));
+        }
+        Assertions.assertEquals(3, compilations.get());
+    }
+
+    @Test
+    void testInvalidRulesAreRejected() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new NForMRule(2, 2));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PercentageOffCategoryRule(CategoryEnum.TOPS, 101));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BundleRule(Map.of(2, 0), 2000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CompiledPromotionEngine(CATALOG, List.of(new BundleRule(Map.of(2, 1), 2600))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new CompiledPromotionEngine(CATALOG, List.of(new BundleRule(Map.of(42, 1), 100))));
+    }
+}
@@ -1,27 +1,78 @@
 package com.navalia.shoppingcart.service.impl;
 
-import com.navalia.shoppingcart.constant.ItemEnum;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.cluster.ClusterProperties;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
 import com.navalia.shoppingcart.dto.request.OrderRequest;
 import com.navalia.shoppingcart.dto.response.ClosedOrderResponse;
 import com.navalia.shoppingcart.dto.response.OrderResponse;
 import com.navalia.shoppingcart.entity.Cart;
+import com.navalia.shoppingcart.entity.CompactCart;
 import com.navalia.shoppingcart.entity.Item;
-import com.navalia.shoppingcart.exception.InvalidOrderException;
-import com.navalia.shoppingcart.exception.ItemNotInCartException;
+import com.navalia.shoppingcart.entity.Product;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.inventory.InventoryProperties;
+import com.navalia.shoppingcart.inventory.impl.AtomicStockInventory;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.CartJournal;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.FinalizedOrder;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ExtendWith(MockitoExtension.class)
 public class CartServiceImplTests {
 
+    private static final String CART_ID = "cart-1";
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+
     @InjectMocks
     private CartServiceImpl cartServiceImpl;
 
+    private SimpleMeterRegistry meterRegistry;
+    private CatalogRegistry catalogRegistry;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        catalogRegistry = new CatalogRegistry(CATALOG);
+        cartServiceImpl = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+    }
+
     private OrderResponse getExpectedResponseForSuccessfulAddToCart() {
         return OrderResponse.builder()
                 .message("Order placed. Item(s) added to cart.")
@@ -40,17 +91,21 @@ public class CartServiceImplTests {
                 .build();
     }
 
+    private static Product product(int id) {
+        return CATALOG.getProduct(CATALOG.indexOf(id));
+    }
+
     private ClosedOrderResponse getExpectedResponseForSuccessfulCloseOrderExampleCase1() {
         var cart = new Cart();
         var items = new ArrayList<Item>();
 
-        items.add(Item.builder().itemData(ItemEnum.T_SHIRT).amount(3).build());
+        items.add(Item.builder().itemData(product(1)).amount(3).build());
 
         cart.setItems(items);
 
         return ClosedOrderResponse.builder()
                 .orderedItems(cart)
-                .totalPrice(25.98)
+                .totalPrice(2598)
                 .build();
     }
 
@@ -58,14 +113,14 @@ public class CartServiceImplTests {
         var cart = new Cart();
         var items = new ArrayList<Item>();
 
-        items.add(Item.builder().itemData(ItemEnum.T_SHIRT).amount(2).build());
-        items.add(Item.builder().itemData(ItemEnum.JEANS).amount(2).build());
+        items.add(Item.builder().itemData(product(1)).amount(2).build());
+        items.add(Item.builder().itemData(product(2)).amount(2).build());
 
         cart.setItems(items);
 
         return ClosedOrderResponse.builder()
                 .orderedItems(cart)
-                .totalPrice(62.99)
+                .totalPrice(6299)
                 .build();
     }
 
@@ -73,15 +128,15 @@ public class CartServiceImplTests {
         var cart = new Cart();
         var items = new ArrayList<Item>();
 
-        items.add(Item.builder().itemData(ItemEnum.T_SHIRT).amount(1).build());
-        items.add(Item.builder().itemData(ItemEnum.JEANS).amount(2).build());
-        items.add(Item.builder().itemData(ItemEnum.DRESS).amount(3).build());
+        items.add(Item.builder().itemData(product(1)).amount(1).build());
+        items.add(Item.builder().itemData(product(2)).amount(2).build());
+        items.add(Item.builder().itemData(product(3)).amount(3).build());
 
         cart.setItems(items);
 
         return ClosedOrderResponse.builder()
                 .orderedItems(cart)
-                .totalPrice(91.3)
+                .totalPrice(9130)
                 .build();
     }
 
@@ -89,33 +144,33 @@ public class CartServiceImplTests {
         var cart = new Cart();
         var items = new ArrayList<Item>();
 
-        items.add(Item.builder().itemData(ItemEnum.T_SHIRT).amount(3).build());
-        items.add(Item.builder().itemData(ItemEnum.JEANS).amount(2).build());
-        items.add(Item.builder().itemData(ItemEnum.DRESS).amount(4).build());
+        items.add(Item.builder().itemData(product(1)).amount(3).build());
+        items.add(Item.builder().itemData(product(2)).amount(2).build());
+        items.add(Item.builder().itemData(product(3)).amount(4).build());
 
         cart.setItems(items);
 
         return ClosedOrderResponse.builder()
                 .orderedItems(cart)
-                .totalPrice(132.6)
+                .totalPrice(13260)
                 .build();
     }
 
     @Test
-    void testSuccessfulRemoveFromCartWithNoItemsAdded() throws InvalidOrderException {
+    void testSuccessfulRemoveFromCartWithNoItemsAdded() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        var response = cartServiceImpl.addToCart(orderRequest);
+        var response = cartServiceImpl.addToCart(CART_ID, orderRequest);
         Assertions.assertEquals(getExpectedResponseForSuccessfulAddToCart().getMessage(), response.getMessage());
     }
 
     @Test
-    void testSuccessfulAddToCartWithItemsAdded() throws InvalidOrderException {
+    void testSuccessfulAddToCartWithItemsAdded() {
         var orderRequest1 = OrderRequest.builder().itemId(1).amount(3).build();
         var orderRequest2 = OrderRequest.builder().itemId(1).amount(1).build();
 
-        cartServiceImpl.addToCart(orderRequest1);
-        var response = cartServiceImpl.addToCart(orderRequest2);
+        cartServiceImpl.addToCart(CART_ID, orderRequest1);
+        var response = cartServiceImpl.addToCart(CART_ID, orderRequest2);
         Assertions.assertEquals(getExpectedResponseForSuccessfulAddToCart().getMessage(), response.getMessage());
     }
 
@@ -123,26 +178,38 @@ public class CartServiceImplTests {
     void testFailAddToCartWithInvalidData() {
         var orderRequest = OrderRequest.builder().itemId(5).amount(2).build();
 
-        Assertions.assertThrows(InvalidOrderException.class, () -> cartServiceImpl.addToCart(orderRequest));
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER, cartServiceImpl.addToCart(CART_ID, orderRequest).getError());
+    }
+
+    @Test
+    void testRepeatedInvalidOrdersShareTheirResult() {
+        var orderRequest = OrderRequest.builder().itemId(5).amount(2).build();
+
+        var first = cartServiceImpl.addToCart(CART_ID, orderRequest);
+        var second = cartServiceImpl.addToCart(CART_ID, orderRequest);
+
+        Assertions.assertFalse(first.isSuccess());
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER.getMessage(), first.getMessage());
     }
 
     @Test
-    void testSuccessfulRemoveFromCart() throws InvalidOrderException, ItemNotInCartException {
+    void testSuccessfulRemoveFromCart() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        cartServiceImpl.addToCart(orderRequest);
-        var response = cartServiceImpl.removeFromCart(orderRequest);
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        var response = cartServiceImpl.removeFromCart(CART_ID, orderRequest);
         Assertions.assertEquals(getExpectedResponseForSuccessfulRemoveFromCart().getMessage(), response.getMessage());
     }
 
     @Test
-    void testSuccessfulRemoveFromCartSetToZero() throws InvalidOrderException, ItemNotInCartException {
+    void testSuccessfulRemoveFromCartSetToZero() {
         var orderRequestAddOne = OrderRequest.builder().itemId(1).amount(1).build();
         var orderRequestRemoveFive = OrderRequest.builder().itemId(1).amount(5).build();
 
 
-        cartServiceImpl.addToCart(orderRequestAddOne);
-        var response = cartServiceImpl.removeFromCart(orderRequestRemoveFive);
+        cartServiceImpl.addToCart(CART_ID, orderRequestAddOne);
+        var response = cartServiceImpl.removeFromCart(CART_ID, orderRequestRemoveFive);
         Assertions.assertEquals(getExpectedResponseForSuccessfulRemoveFromCart().getMessage(), response.getMessage());
     }
 
@@ -150,78 +217,749 @@ public class CartServiceImplTests {
     void testFailRemoveFromCartWithInvalidData() {
         var orderRequest = OrderRequest.builder().itemId(5).amount(2).build();
 
-        Assertions.assertThrows(InvalidOrderException.class, () -> cartServiceImpl.addToCart(orderRequest));
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER, cartServiceImpl.addToCart(CART_ID, orderRequest).getError());
     }
 
     @Test
     void testFailRemoveFromCartWithNoItemInCart() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(3).build();
 
-        Assertions.assertThrows(ItemNotInCartException.class, () -> cartServiceImpl.removeFromCart(orderRequest));
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, cartServiceImpl.removeFromCart(CART_ID, orderRequest).getError());
     }
 
     @Test
-    void testSuccessfulEmptyCart() throws InvalidOrderException {
+    void testSuccessfulEmptyCart() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
 
-        cartServiceImpl.addToCart(orderRequest);
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
 
-        var response = cartServiceImpl.emptyCart();
+        var response = cartServiceImpl.emptyCart(CART_ID);
 
         Assertions.assertEquals(getExpectedResponseForSuccessfulEmptyCart().getMessage(), response.getMessage());
     }
 
     @Test
-    void testSuccessfulCloseOrderCase1() throws InvalidOrderException {
+    void testSuccessfulCloseOrderCase1() {
         var orderRequest = OrderRequest.builder().itemId(1).amount(3).build();
 
-        cartServiceImpl.addToCart(orderRequest);
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
 
-        var response = cartServiceImpl.closeOrder();
+        var response = cartServiceImpl.closeOrder(CART_ID);
 
         Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase1().getTotalPrice(), response.getTotalPrice());
     }
 
     @Test
-    void testSuccessfulCloseOrderCase2() throws InvalidOrderException {
+    void testSuccessfulCloseOrderCase2() {
         var orderRequest1 = OrderRequest.builder().itemId(1).amount(2).build();
         var orderRequest2 = OrderRequest.builder().itemId(2).amount(2).build();
 
-        cartServiceImpl.addToCart(orderRequest1);
-        cartServiceImpl.addToCart(orderRequest2);
+        cartServiceImpl.addToCart(CART_ID, orderRequest1);
+        cartServiceImpl.addToCart(CART_ID, orderRequest2);
 
-        var response = cartServiceImpl.closeOrder();
+        var response = cartServiceImpl.closeOrder(CART_ID);
 
         Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase2().getTotalPrice(), response.getTotalPrice());
     }
 
     @Test
-    void testSuccessfulCloseOrderCase3() throws InvalidOrderException {
+    void testSuccessfulCloseOrderCase3() {
         var orderRequest1 = OrderRequest.builder().itemId(1).amount(1).build();
         var orderRequest2 = OrderRequest.builder().itemId(2).amount(2).build();
         var orderRequest3 = OrderRequest.builder().itemId(3).amount(3).build();
 
-        cartServiceImpl.addToCart(orderRequest1);
-        cartServiceImpl.addToCart(orderRequest2);
-        cartServiceImpl.addToCart(orderRequest3);
+        cartServiceImpl.addToCart(CART_ID, orderRequest1);
+        cartServiceImpl.addToCart(CART_ID, orderRequest2);
+        cartServiceImpl.addToCart(CART_ID, orderRequest3);
 
-        var response = cartServiceImpl.closeOrder();
+        var response = cartServiceImpl.closeOrder(CART_ID);
 
         Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase3().getTotalPrice(), response.getTotalPrice());
     }
 
     @Test
-    void testSuccessfulCloseOrderCase4() throws InvalidOrderException {
+    void testSuccessfulCloseOrderCase4() {
         var orderRequest1 = OrderRequest.builder().itemId(1).amount(3).build();
         var orderRequest2 = OrderRequest.builder().itemId(2).amount(2).build();
         var orderRequest3 = OrderRequest.builder().itemId(3).amount(4).build();
 
-        cartServiceImpl.addToCart(orderRequest1);
-        cartServiceImpl.addToCart(orderRequest2);
-        cartServiceImpl.addToCart(orderRequest3);
+        cartServiceImpl.addToCart(CART_ID, orderRequest1);
+        cartServiceImpl.addToCart(CART_ID, orderRequest2);
+        cartServiceImpl.addToCart(CART_ID, orderRequest3);
+
+        var response = cartServiceImpl.closeOrder(CART_ID);
+
+        Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase4().getTotalPrice(), response.getTotalPrice());
+    }
+
+    @Test
+    void testRejectedRequestsDoNotCreateCarts() {
+        var store = new ConcurrentCartStore();
+        cartServiceImpl = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+        cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build(), 7);
+        cartServiceImpl.closeOrder(CART_ID);
+        cartServiceImpl.applyBatch(CART_ID, BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(2).amount(1).build())).build());
+
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertEquals(0, store.estimatedSizeInBytes());
+    }
+
+    @Test
+    void testCartsWithDifferentIdsAreIndependent() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(3).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+
+        Assertions.assertEquals(0, cartServiceImpl.closeOrder("cart-2").getTotalPrice());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, cartServiceImpl.removeFromCart("cart-2", orderRequest).getError());
+        Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase1().getTotalPrice(), cartServiceImpl.closeOrder(CART_ID).getTotalPrice());
+    }
+
+    @Test
+    void testSuccessfulEmptyCartClearsItems() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(3).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        cartServiceImpl.emptyCart(CART_ID);
+
+        Assertions.assertTrue(cartServiceImpl.closeOrder(CART_ID).getOrderedItems().getItems().isEmpty());
+    }
+
+    @Test
+    void testFailRemoveFromCartAfterItemWasFullyRemoved() {
+        var orderRequestAddOne = OrderRequest.builder().itemId(1).amount(1).build();
+        var orderRequestRemoveFive = OrderRequest.builder().itemId(1).amount(5).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequestAddOne);
+        cartServiceImpl.removeFromCart(CART_ID, orderRequestRemoveFive);
+
+        Assertions.assertTrue(cartServiceImpl.closeOrder(CART_ID).getOrderedItems().getItems().isEmpty());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, cartServiceImpl.removeFromCart(CART_ID, orderRequestAddOne).getError());
+    }
+
+    @Test
+    void testSuccessfulQuoteMatchesCloseOrder() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(2).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(3).amount(4).build());
 
-        var response = cartServiceImpl.closeOrder();
+        var response = cartServiceImpl.quote(CART_ID);
 
+        Assertions.assertEquals(9, response.getItemCount());
         Assertions.assertEquals(getExpectedResponseForSuccessfulCloseOrderExampleCase4().getTotalPrice(), response.getTotalPrice());
     }
+
+    @Test
+    void testCloseOrderMatchesSortBasedPromotionOnRandomCarts() {
+        var random = new Random(42);
+        var itemIds = new int[]{1, 2, 3};
+
+        for (int round = 0; round < 500; round++) {
+            cartServiceImpl.emptyCart(CART_ID);
+
+            for (int operation = 0; operation < 20; operation++) {
+                var orderRequest = OrderRequest.builder()
+                        .itemId(itemIds[random.nextInt(itemIds.length)])
+                        .amount(1 + random.nextInt(6))
+                        .build();
+
+                if (random.nextInt(3) == 0) {
+                    // removing an item that is not in the cart is part of the random walk
+                    cartServiceImpl.removeFromCart(CART_ID, orderRequest);
+                } else {
+                    cartServiceImpl.addToCart(CART_ID, orderRequest);
+                }
+
+                var response = cartServiceImpl.previewOrder(CART_ID);
+                Assertions.assertEquals(sortBasedPromotion(response.getOrderedItems().getItems()), response.getTotalPrice());
+            }
+        }
+    }
+
+    @Test
+    void testCloseOrderUsesCurrentCatalogVersion() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(1).build());
+
+        catalogRegistry.updatePrices("2,1000\n".getBytes(StandardCharsets.UTF_8));
+        var quote = cartServiceImpl.quote(CART_ID);
+        var response = cartServiceImpl.closeOrder(CART_ID);
+
+        // Jeans are now the cheapest unit, and free
+        Assertions.assertEquals(2, response.getCatalogVersion());
+        Assertions.assertEquals(2 * 1299, response.getTotalPrice());
+        Assertions.assertEquals(2, response.getOrderedItems().getItems().get(0).getItemData().getId());
+        Assertions.assertEquals(1000, response.getOrderedItems().getItems().get(0).getItemData().getPriceInCents());
+        Assertions.assertEquals(2 * 1299, quote.getTotalPrice());
+    }
+
+    @Test
+    void testEveryChangeMovesTheCartToTheNextVersion() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(2).build();
+
+        Assertions.assertEquals(0, cartServiceImpl.quote(CART_ID).getCartVersion());
+        Assertions.assertEquals(1, cartServiceImpl.addToCart(CART_ID, orderRequest).getResponse().getCartVersion());
+        Assertions.assertEquals(2, cartServiceImpl.removeFromCart(CART_ID, orderRequest).getResponse().getCartVersion());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, cartServiceImpl.removeFromCart(CART_ID, orderRequest).getError());
+        Assertions.assertEquals(2, cartServiceImpl.closeOrder(CART_ID).getCartVersion());
+    }
+
+    @Test
+    void testConditionalChangesFailOnVersionMismatch() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, cartServiceImpl.addToCart(CART_ID, orderRequest, 0).getError());
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, cartServiceImpl.removeFromCart(CART_ID, orderRequest, 0).getError());
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, cartServiceImpl.emptyCart(CART_ID, 0).getError());
+        Assertions.assertEquals(1, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(1, meterRegistry.get("cart.orders.rejected").tag("reason", "version_mismatch").counter().count(), 3);
+
+        Assertions.assertEquals(2, cartServiceImpl.addToCart(CART_ID, orderRequest, 1).getResponse().getCartVersion());
+        Assertions.assertEquals(3, cartServiceImpl.emptyCart(CART_ID, 2).getResponse().getCartVersion());
+        Assertions.assertTrue(cartServiceImpl.emptyCart(CART_ID, 3).isSuccess());
+    }
+
+    @Test
+    void testEmptiedCartNeverReusesAVersion() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        cartServiceImpl.emptyCart(CART_ID);
+
+        Assertions.assertEquals(3, cartServiceImpl.quote(CART_ID).getCartVersion());
+        Assertions.assertEquals(4, cartServiceImpl.addToCart(CART_ID, orderRequest).getResponse().getCartVersion());
+        Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, cartServiceImpl.addToCart(CART_ID, orderRequest, 2).getError());
+    }
+
+    @Test
+    void testConcurrentChangesToOneCartAreNeverLost() throws Exception {
+        int threads = 8;
+        int ordersPerThread = 2000;
+        var orderRequest = OrderRequest.builder().itemId(1).amount(1).build();
+        var versions = ConcurrentHashMap.<Long>newKeySet();
+        var mismatches = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            var tasks = new ArrayList<Callable<Void>>();
+            for (int thread = 0; thread < threads; thread++) {
+                int conditional = thread % 2;
+                tasks.add(() -> {
+                    for (int i = 0; i < ordersPerThread; i++) {
+                        if (conditional == 0) {
+                            versions.add(cartServiceImpl.addToCart(CART_ID, orderRequest).getResponse().getCartVersion());
+                            continue;
+                        }
+                        // Optimistic client: read the version, then retry until nobody changed the cart in between
+                        while (true) {
+                            var result = cartServiceImpl.addToCart(CART_ID, orderRequest, cartServiceImpl.quote(CART_ID).getCartVersion());
+                            if (result.isSuccess()) {
+                                versions.add(result.getResponse().getCartVersion());
+                                break;
+                            }
+                            Assertions.assertEquals(OrderErrorEnum.VERSION_MISMATCH, result.getError());
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (var future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        var quote = cartServiceImpl.quote(CART_ID);
+        Assertions.assertEquals(threads * ordersPerThread, quote.getItemCount());
+        Assertions.assertEquals(threads * ordersPerThread, quote.getCartVersion());
+        Assertions.assertEquals(threads * ordersPerThread, versions.size());
+        Assertions.assertEquals(mismatches.get(), meterRegistry.get("cart.orders.rejected").tag("reason", "version_mismatch").counter().count());
+    }
+
+    @Test
+    void testQuoteIsNotModifiedUntilTheCartChanges() {
+        var orderRequest = OrderRequest.builder().itemId(1).amount(3).build();
+
+        cartServiceImpl.addToCart(CART_ID, orderRequest);
+        var quote = cartServiceImpl.quote(CART_ID);
+
+        Assertions.assertNull(cartServiceImpl.quote(CART_ID, quote.getTag()));
+        Assertions.assertNull(cartServiceImpl.previewOrder(CART_ID, quote.getTag()));
+
+        cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build());
+        var changed = cartServiceImpl.quote(CART_ID, quote.getTag());
+
+        Assertions.assertNotEquals(quote.getTag(), changed.getTag());
+        Assertions.assertEquals(2 * 1299, changed.getTotalPrice());
+        Assertions.assertEquals(2, meterRegistry.get("cart.pricing").tag("result", "not_modified").counter().count());
+    }
+
+    @Test
+    void testQuoteIsModifiedByNewPricesAndRules() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        var quote = cartServiceImpl.quote(CART_ID);
+
+        catalogRegistry.updatePrices("1,1000\n".getBytes(StandardCharsets.UTF_8));
+        var repriced = cartServiceImpl.quote(CART_ID, quote.getTag());
+        Assertions.assertEquals(2 * 1000, repriced.getTotalPrice());
+
+        var engine = new CompiledPromotionEngine(catalogRegistry);
+        cartServiceImpl = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, engine, new CartMetrics(meterRegistry), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        quote = cartServiceImpl.quote(CART_ID);
+        engine.setRules(List.of());
+        Assertions.assertEquals(3 * 1000, cartServiceImpl.quote(CART_ID, quote.getTag()).getTotalPrice());
+    }
+
+    @Test
+    void testPriceIsKeptUntilTheCartChanges() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+
+        cartServiceImpl.quote(CART_ID);
+        cartServiceImpl.quote(CART_ID);
+        Assertions.assertEquals(2 * 1299, cartServiceImpl.previewOrder(CART_ID).getTotalPrice());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(1).build());
+        Assertions.assertEquals(2 * 1299 + 2500, cartServiceImpl.quote(CART_ID).getTotalPrice());
+
+        Assertions.assertEquals(2, meterRegistry.get("cart.pricing").tag("result", "computed").counter().count());
+        Assertions.assertEquals(2, meterRegistry.get("cart.pricing").tag("result", "cached").counter().count());
+    }
+
+    @Test
+    void testSuccessfulApplyBatch() {
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(3).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(2).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(1).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(1).build()
+        )).build();
+
+        var response = cartServiceImpl.applyBatch(CART_ID, batch);
+
+        Assertions.assertEquals("Batch placed. 4 operation(s) applied to cart.", response.getMessage());
+        Assertions.assertEquals(5, cartServiceImpl.quote(CART_ID).getItemCount());
+    }
+
+    @Test
+    void testFailApplyBatchWithInvalidOperationAppliesNothing() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build());
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(2).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(5).amount(2).build()
+        )).build();
+
+        Assertions.assertEquals(OrderErrorEnum.INVALID_BATCH, cartServiceImpl.applyBatch(CART_ID, batch).getError());
+        Assertions.assertEquals(OrderErrorEnum.INVALID_BATCH, cartServiceImpl.applyBatch(CART_ID, BatchOrderRequest.builder().operations(List.of()).build()).getError());
+        Assertions.assertEquals(1, cartServiceImpl.quote(CART_ID).getItemCount());
+    }
+
+    @Test
+    void testFailApplyBatchRemovingItemNotInCartAppliesNothing() {
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(1).build()
+        )).build();
+
+        var result = cartServiceImpl.applyBatch(CART_ID, batch);
+
+        Assertions.assertEquals(OrderErrorEnum.BATCH_ITEM_NOT_IN_CART, result.getError());
+        Assertions.assertEquals("The cart would not contain the item of operation 3 so it cannot be deleted. No operation was applied.", result.getMessage());
+        Assertions.assertEquals(0, cartServiceImpl.quote(CART_ID).getItemCount());
+    }
+
+    @Test
+    void testMetricsCountRejectedOrdersAndClosedCarts() {
+        var invalidOrder = OrderRequest.builder().itemId(5).amount(2).build();
+        var validOrder = OrderRequest.builder().itemId(1).amount(2).build();
+
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER, cartServiceImpl.addToCart(CART_ID, invalidOrder).getError());
+        Assertions.assertEquals(OrderErrorEnum.ITEM_NOT_IN_CART, cartServiceImpl.removeFromCart(CART_ID, validOrder).getError());
+        cartServiceImpl.addToCart(CART_ID, validOrder);
+        cartServiceImpl.closeOrder(CART_ID);
+        cartServiceImpl.closeOrder(CART_ID);
+        cartServiceImpl.closeOrder("cart-2");
+
+        Assertions.assertEquals(1, meterRegistry.get("cart.orders.rejected").tag("reason", "invalid_order").counter().count());
+        Assertions.assertEquals(1, meterRegistry.get("cart.orders.rejected").tag("reason", "item_not_in_cart").counter().count());
+        // Retries and empty carts are priced, but close no new order
+        Assertions.assertEquals(1, meterRegistry.get("cart.lines").summary().count());
+        Assertions.assertEquals(2, meterRegistry.get("cart.promotion").timer().count());
+    }
+
+    @Test
+    void testAddBeyondTheStockIsRejected() throws Exception {
+        var inventory = withInventory("1,5\n");
+
+        Assertions.assertTrue(cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build()).isSuccess());
+        var rejected = cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+
+        Assertions.assertEquals(OrderErrorEnum.OUT_OF_STOCK, rejected.getError());
+        Assertions.assertEquals(3, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(1, cartServiceImpl.quote(CART_ID).getCartVersion());
+        Assertions.assertEquals(2, inventory.available(1));
+        Assertions.assertEquals(1, meterRegistry.get("cart.orders.rejected").tag("reason", "out_of_stock").counter().count());
+    }
+
+    @Test
+    void testAddBeyondTheUnitsOfALineIsRejected() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(Integer.MAX_VALUE).build());
+
+        var added = cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build());
+        var batch = cartServiceImpl.applyBatch(CART_ID, BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(1).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(2).build())).build());
+
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER, added.getError());
+        Assertions.assertEquals(OrderErrorEnum.INVALID_BATCH, batch.getError());
+        Assertions.assertEquals(Integer.MAX_VALUE, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(1, cartServiceImpl.quote(CART_ID).getCartVersion());
+    }
+
+    @Test
+    void testRemovedAndEmptiedItemsGoBackToStock() throws Exception {
+        var inventory = withInventory("1,5\n2,5\n");
+
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(4).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(2).build());
+        cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build());
+        Assertions.assertEquals(2, inventory.available(1));
+
+        cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(2).amount(10).build());
+        Assertions.assertEquals(5, inventory.available(2));
+
+        cartServiceImpl.emptyCart(CART_ID);
+        Assertions.assertEquals(5, inventory.available(1));
+    }
+
+    @Test
+    void testItemsDroppedFromTheCatalogGoBackToStock() throws Exception {
+        var inventory = withInventory("1,5\n3,5\n");
+
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(3).amount(4).build());
+        catalogRegistry.replace("1,T-shirt,1299,TOPS\n2,Jeans,2500,BOTTOMS\n".getBytes(StandardCharsets.UTF_8));
+
+        Assertions.assertEquals(2, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(5, inventory.available(3));
+        Assertions.assertEquals(3, inventory.available(1));
+    }
+
+    @Test
+    void testChangesTheJournalRefusesAreUndoneWithTheirReservations() throws Exception {
+        var refusing = new AtomicBoolean();
+        var inventory = withInventory("1,5\n2,5\n", new NoOpCartJournal() {
+            @Override
+            public long itemsAdded(String cartId, CompactCart cart, int itemId, int amount) {
+                return refuse(refusing);
+            }
+
+            @Override
+            public long itemsRemoved(String cartId, CompactCart cart, int itemId, int amount) {
+                return refuse(refusing);
+            }
+
+            @Override
+            public long batchApplied(String cartId, CompactCart cart, List<OrderOperationRequest> operations) {
+                return refuse(refusing);
+            }
+
+            @Override
+            public long cartEmptied(String cartId, CompactCart cart) {
+                return refuse(refusing);
+            }
+        });
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        refusing.set(true);
+
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(2).build()));
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(2).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(2).amount(4).build()
+        )).build();
+        Assertions.assertThrows(IllegalStateException.class, () -> cartServiceImpl.applyBatch(CART_ID, batch));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build()));
+        Assertions.assertThrows(IllegalStateException.class, () -> cartServiceImpl.emptyCart(CART_ID));
+        Assertions.assertThrows(IllegalStateException.class, () -> cartServiceImpl.emptyCart(CART_ID, 1));
+
+        var quote = cartServiceImpl.quote(CART_ID);
+        Assertions.assertEquals(3, quote.getItemCount());
+        Assertions.assertEquals(1, quote.getCartVersion());
+        Assertions.assertEquals(2, inventory.available(1));
+        Assertions.assertEquals(5, inventory.available(2));
+
+        refusing.set(false);
+        cartServiceImpl.emptyCart(CART_ID);
+        Assertions.assertEquals(5, inventory.available(1));
+    }
+
+    @Test
+    void testChangesWaitForTheirJournalRecordOnceTheCartIsReleased() throws Exception {
+        var waiting = new CountDownLatch(1);
+        var durable = new CountDownLatch(1);
+        var first = new AtomicBoolean(true);
+        cartServiceImpl = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry), new NoOpCartJournal() {
+            @Override
+            public void awaitDurable(long sequence) {
+                if (first.getAndSet(false)) {
+                    waiting.countDown();
+                    try {
+                        durable.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            var waitingAdd = executor.submit(() -> cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(1).build()));
+            Assertions.assertTrue(waiting.await(5, TimeUnit.SECONDS));
+
+            // The cart is not held while the first change waits for its record to be durable
+            cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(2).build());
+            cartServiceImpl.removeFromCart(CART_ID, OrderRequest.builder().itemId(2).amount(1).build());
+            cartServiceImpl.applyBatch(CART_ID, BatchOrderRequest.builder().operations(List.of(
+                    OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(3).amount(1).build()
+            )).build());
+            Assertions.assertEquals(3, cartServiceImpl.closeOrder(CART_ID).getOrderedItems().getItems().size());
+            Assertions.assertFalse(waitingAdd.isDone());
+
+            durable.countDown();
+            Assertions.assertTrue(waitingAdd.get(5, TimeUnit.SECONDS).isSuccess());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testBatchReservesItsNetChangeOrNothing() throws Exception {
+        var inventory = withInventory("1,5\n");
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+
+        var batch = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(4).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(2).build()
+        )).build();
+        Assertions.assertTrue(cartServiceImpl.applyBatch(CART_ID, batch).isSuccess());
+        Assertions.assertEquals(1, inventory.available(1));
+
+        var tooLarge = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(2).amount(1).build(),
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(1).amount(2).build()
+        )).build();
+        Assertions.assertEquals(OrderErrorEnum.OUT_OF_STOCK, cartServiceImpl.applyBatch(CART_ID, tooLarge).getError());
+        Assertions.assertEquals(4, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(1, inventory.available(1));
+
+        var shrinking = BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.REMOVE).itemId(1).amount(3).build()
+        )).build();
+        Assertions.assertTrue(cartServiceImpl.applyBatch(CART_ID, shrinking).isSuccess());
+        Assertions.assertEquals(4, inventory.available(1));
+    }
+
+    @Test
+    void testClosingEmptiesTheCartAndRetriesReturnTheSameOrder() {
+        var submitted = withSubmittedOrders();
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+        var closed = cartServiceImpl.closeOrder(CART_ID);
+
+        Assertions.assertNotNull(closed.getOrderId());
+        Assertions.assertEquals(2, closed.getCartVersion());
+        Assertions.assertEquals(2, closed.getOrderedItems().getItems().get(0).getAmount());
+        Assertions.assertEquals(0, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertSame(closed, cartServiceImpl.closeOrder(CART_ID));
+        Assertions.assertEquals(1, submitted.size());
+
+        cartServiceImpl.emptyCart(CART_ID);
+        Assertions.assertNull(cartServiceImpl.closeOrder(CART_ID).getOrderId());
+        Assertions.assertEquals(1, submitted.size());
+    }
+
+    @Test
+    void testClosingAfterAnAddOnlyOrdersTheNewItems() {
+        var submitted = withSubmittedOrders();
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+        Long orderId = cartServiceImpl.closeOrder(CART_ID).getOrderId();
+
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(2).amount(1).build());
+        var next = cartServiceImpl.closeOrder(CART_ID);
+
+        Assertions.assertTrue(next.getOrderId() > orderId);
+        Assertions.assertEquals(1, next.getOrderedItems().getItems().size());
+        Assertions.assertEquals(2500, next.getTotalPrice());
+        Assertions.assertEquals(2, submitted.size());
+        Assertions.assertEquals(1, submitted.get(1).getLines());
+        Assertions.assertEquals(2, submitted.get(1).getLineItemId(0));
+    }
+
+    @Test
+    void testRetriedCloseIsIdempotentAcrossCatalogAndRulesChanges() {
+        var engine = new CompiledPromotionEngine(catalogRegistry);
+        var submitted = withSubmittedOrders(engine);
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        var closed = cartServiceImpl.closeOrder(CART_ID);
+
+        catalogRegistry.updatePrices("1,1000\n".getBytes(StandardCharsets.UTF_8));
+        var afterReload = cartServiceImpl.closeOrder(CART_ID);
+        engine.setRules(List.of());
+        var afterRules = cartServiceImpl.closeOrder(CART_ID);
+
+        Assertions.assertEquals(closed.getOrderId(), afterReload.getOrderId());
+        Assertions.assertEquals(closed.getOrderId(), afterRules.getOrderId());
+        Assertions.assertEquals(2 * 1299, afterRules.getTotalPrice());
+        Assertions.assertEquals(1, submitted.size());
+    }
+
+    @Test
+    void testClosedOrderKeepsItsStock() throws Exception {
+        var inventory = withInventory("1,5\n");
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+        cartServiceImpl.closeOrder(CART_ID);
+
+        cartServiceImpl.emptyCart(CART_ID);
+        Assertions.assertEquals(2, inventory.available(1));
+        catalogRegistry.replace("2,Jeans,2500,BOTTOMS\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(0, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(2, inventory.available(1));
+    }
+
+    @Test
+    void testClosingMovesTheTagOfThePreview() {
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+        var preview = cartServiceImpl.previewOrder(CART_ID);
+        var closed = cartServiceImpl.closeOrder(CART_ID);
+
+        Assertions.assertNotEquals(preview.getTag(), closed.getTag());
+        Assertions.assertEquals(closed.getOrderId(), cartServiceImpl.previewOrder(CART_ID, preview.getTag()).getOrderId());
+        Assertions.assertNull(cartServiceImpl.previewOrder(CART_ID, closed.getTag()));
+    }
+
+    @Test
+    void testPreviewingTheOrderNeverFinalizesIt() {
+        var submitted = withSubmittedOrders();
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(2).build());
+
+        var preview = cartServiceImpl.previewOrder(CART_ID);
+        Assertions.assertNull(preview.getOrderId());
+        Assertions.assertEquals(2 * 1299, preview.getTotalPrice());
+        Assertions.assertNull(cartServiceImpl.previewOrder(CART_ID, preview.getTag()));
+        Assertions.assertTrue(submitted.isEmpty());
+
+        Long orderId = cartServiceImpl.closeOrder(CART_ID).getOrderId();
+        Assertions.assertEquals(orderId, cartServiceImpl.previewOrder(CART_ID).getOrderId());
+        Assertions.assertEquals(1, submitted.size());
+    }
+
+    @Test
+    void testOrderRejectedByAFullJournalIsFinalizedAgain() {
+        var submitted = new ArrayList<FinalizedOrder>();
+        var full = new boolean[]{true};
+        var orderJournal = new NoOpOrderJournal() {
+            @Override
+            public void submit(FinalizedOrder order) {
+                if (full[0]) {
+                    throw new RejectedExecutionException("The order journal is full.");
+                }
+                submitted.add(order);
+            }
+        };
+        cartServiceImpl = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry), new NoOpCartJournal(), new NoOpInventory(), orderJournal, new NoOpCartAnalytics());
+        cartServiceImpl.addToCart(CART_ID, OrderRequest.builder().itemId(1).amount(3).build());
+
+        Assertions.assertThrows(RejectedExecutionException.class, () -> cartServiceImpl.closeOrder(CART_ID));
+        Assertions.assertEquals(3, cartServiceImpl.quote(CART_ID).getItemCount());
+        Assertions.assertEquals(0, meterRegistry.get("cart.lines").summary().count());
+
+        full[0] = false;
+        var response = cartServiceImpl.closeOrder(CART_ID);
+        Assertions.assertEquals(1, submitted.size());
+        Assertions.assertEquals(response.getOrderId(), submitted.get(0).getOrderId());
+        Assertions.assertEquals(3, submitted.get(0).getLineAmount(0));
+        Assertions.assertEquals(1299, submitted.get(0).getLinePriceInCents(0));
+        Assertions.assertEquals(response.getTotalPrice(), submitted.get(0).getTotalPriceInCents());
+    }
+
+    /**
+     * Rebuilds the service with an order journal that keeps the orders submitted to it.
+     */
+    private List<FinalizedOrder> withSubmittedOrders() {
+        return withSubmittedOrders(new CompiledPromotionEngine(catalogRegistry));
+    }
+
+    private List<FinalizedOrder> withSubmittedOrders(CompiledPromotionEngine engine) {
+        var submitted = new ArrayList<FinalizedOrder>();
+        var orderJournal = new NoOpOrderJournal() {
+            @Override
+            public void submit(FinalizedOrder order) {
+                submitted.add(order);
+            }
+        };
+        cartServiceImpl = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, engine, new CartMetrics(meterRegistry), new NoOpCartJournal(), new NoOpInventory(), orderJournal, new NoOpCartAnalytics());
+        return submitted;
+    }
+
+    /**
+     * Rebuilds the service with the stock of the given inventory file.
+     */
+    private Inventory withInventory(String stock) throws Exception {
+        return withInventory(stock, new NoOpCartJournal());
+    }
+
+    /**
+     * Rebuilds the service with the stock of the given inventory file and the given journal.
+     */
+    private Inventory withInventory(String stock, CartJournal cartJournal) throws Exception {
+        var properties = new InventoryProperties();
+        var store = new ConcurrentCartStore();
+
+        properties.setEnabled(true);
+        properties.setFile(Files.writeString(directory.resolve("inventory.csv"), stock, StandardCharsets.UTF_8).toString());
+        var inventory = new AtomicStockInventory(store, new NoOpCartJournal(), properties, new ClusterProperties());
+        cartServiceImpl = new CartServiceImpl(store, catalogRegistry, new CompiledPromotionEngine(catalogRegistry), new CartMetrics(meterRegistry), cartJournal, inventory, new NoOpOrderJournal(), new NoOpCartAnalytics());
+        return inventory;
+    }
+
+    private static long refuse(AtomicBoolean refusing) {
+        if (refusing.get()) {
+            throw new IllegalStateException("The cart journal is not accepting records.");
+        }
+        return 0;
+    }
+
+    /**
+     * The promotion as it was computed before carts kept their totals up to date: sort by price and
+     * give away the cheapest third of the units.
+     */
+    private long sortBasedPromotion(List<Item> cartItems) {
+        var items = new ArrayList<>(cartItems);
+        int totalAmountOfItemsInCart = items.stream().mapToInt(Item::getAmount).sum();
+        long totalPrice = items.stream().mapToLong(i -> i.getItemData().getPriceInCents() * i.getAmount()).sum();
+        Collections.sort(items);
+
+        int discountsToGive = totalAmountOfItemsInCart / 3;
+        int pos = 0;
+
+        while (discountsToGive > 0) {
+            var discountItem = items.get(pos);
+            int discounted = Math.min(discountItem.getAmount(), discountsToGive);
+
+            totalPrice -= discountItem.getItemData().getPriceInCents() * discounted;
+            discountsToGive -= discounted;
+            pos += 1;
+        }
+
+        return totalPrice;
+    }
 }
@@ -0,0 +1,429 @@
+package com.navalia.shoppingcart.service.impl;
+
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.binary.BinaryCartServer;
+import com.navalia.shoppingcart.binary.BinaryProperties;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.cluster.CartRebalancer;
+import com.navalia.shoppingcart.cluster.ClusterMembership;
+import com.navalia.shoppingcart.cluster.ClusterProperties;
+import com.navalia.shoppingcart.cluster.NodeClients;
+import com.navalia.shoppingcart.cluster.StockBalancer;
+import com.navalia.shoppingcart.constant.OperationEnum;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.BatchOrderRequest;
+import com.navalia.shoppingcart.dto.request.OrderOperationRequest;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.execution.ExecutionProperties;
+import com.navalia.shoppingcart.inventory.Inventory;
+import com.navalia.shoppingcart.inventory.InventoryProperties;
+import com.navalia.shoppingcart.inventory.impl.AtomicStockInventory;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.service.CartService;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+public class PartitionedCartServiceTests {
+
+    private static final int CARTS = 300;
+    private static final String CATALOG = "1,T-shirt,1299,TOPS\n2,Jeans,2500,BOTTOMS\n3,Dress,2065,DRESSES\n";
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setup() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new Node());
+        }
+        var names = names(nodes);
+        for (var node : nodes) {
+            node.join(names);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        for (var node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    void testCartsLiveOnTheirOwner() {
+        var entry = nodes.get(0).service;
+
+        for (int i = 0; i < CARTS; i++) {
+            Assertions.assertTrue(entry.addToCart("cart-" + i, order(1, 1)).isSuccess());
+        }
+
+        int total = 0;
+        for (var node : nodes) {
+            for (var cartId : node.cartStore.cartIds()) {
+                Assertions.assertNull(node.membership.remoteOwner(cartId), cartId);
+            }
+            Assertions.assertTrue(node.cartStore.size() > CARTS / 6, node.name);
+            total += node.cartStore.size();
+        }
+        Assertions.assertEquals(CARTS, total);
+    }
+
+    @Test
+    void testAnyNodeAnswersForAnyCart() {
+        var cartId = remoteCartOf(nodes.get(0));
+
+        var added = nodes.get(0).service.addToCart(cartId, order(1, 3));
+        Assertions.assertTrue(added.isSuccess());
+        Assertions.assertEquals("Order placed. Item(s) added to cart.", added.getMessage());
+        Assertions.assertEquals(1, added.getResponse().getCartVersion());
+        Assertions.assertTrue(nodes.get(1).service.applyBatch(cartId, BatchOrderRequest.builder().operations(List.of(
+                OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(2).amount(1).build())).build()).isSuccess());
+
+        for (var node : nodes) {
+            var quote = node.service.quote(cartId);
+            Assertions.assertEquals(4, quote.getItemCount());
+            Assertions.assertEquals(2 * 1299 + 2500, quote.getTotalPrice());
+            Assertions.assertNull(node.service.quote(cartId, quote.getTag()));
+        }
+
+        var closed = nodes.get(0).service.closeOrder(cartId);
+        var local = nodes.stream().filter(node -> node.membership.remoteOwner(cartId) == null).findFirst().orElseThrow();
+        var expected = local.service.closeOrder(cartId);
+        Assertions.assertEquals(expected.getTag(), closed.getTag());
+        Assertions.assertEquals(expected.getOrderId(), closed.getOrderId());
+        Assertions.assertEquals(expected.getTotalPrice(), closed.getTotalPrice());
+        Assertions.assertEquals(expected.getOrderedItems().getItems().size(), closed.getOrderedItems().getItems().size());
+        for (int i = 0; i < expected.getOrderedItems().getItems().size(); i++) {
+            var expectedItem = expected.getOrderedItems().getItems().get(i);
+            var item = closed.getOrderedItems().getItems().get(i);
+            Assertions.assertEquals(expectedItem.getAmount(), item.getAmount());
+            Assertions.assertEquals(expectedItem.getItemData().getName(), item.getItemData().getName());
+            Assertions.assertEquals(expectedItem.getItemData().getPriceInCents(), item.getItemData().getPriceInCents());
+        }
+        Assertions.assertNull(nodes.get(1).service.previewOrder(cartId, closed.getTag()));
+    }
+
+    @Test
+    void testForwardedRejectionsKeepTheirError() {
+        var entry = nodes.get(0);
+        var cartId = remoteCartOf(entry);
+
+        Assertions.assertSame(OrderErrorEnum.ITEM_NOT_IN_CART, entry.service.removeFromCart(cartId, order(1, 1)).getError());
+        Assertions.assertSame(OrderErrorEnum.VERSION_MISMATCH, entry.service.addToCart(cartId, order(1, 1), 5).getError());
+        Assertions.assertSame(OrderErrorEnum.INVALID_ORDER, entry.service.addToCart(cartId, order(99, 1)).getError());
+        Assertions.assertEquals(2, entry.metrics.get("cart.cluster.forwarded").counter().count());
+
+        Assertions.assertTrue(entry.service.addToCart(cartId, order(1, 1)).isSuccess());
+        Assertions.assertEquals(2, entry.service.emptyCart(cartId).getCartVersion());
+        Assertions.assertEquals(0, entry.service.quote(cartId).getItemCount());
+    }
+
+    @Test
+    void testLeavingNodeHandsItsCartsOver() {
+        var entry = nodes.get(0).service;
+        for (int i = 0; i < CARTS; i++) {
+            entry.addToCart("cart-" + i, order(1 + i % 3, 1 + i % 5));
+        }
+
+        var leaving = nodes.get(2);
+        var remaining = names(nodes.subList(0, 2));
+        for (var node : nodes) {
+            node.membership.update(remaining);
+        }
+        int handedOver = leaving.rebalancer.rebalance();
+
+        Assertions.assertTrue(handedOver > 0);
+        Assertions.assertEquals(0, leaving.cartStore.size());
+        Assertions.assertEquals(CARTS, nodes.get(0).cartStore.size() + nodes.get(1).cartStore.size());
+        for (int i = 0; i < CARTS; i++) {
+            Assertions.assertEquals(1 + i % 5, nodes.get(1).service.quote("cart-" + i).getItemCount());
+        }
+    }
+
+    @Test
+    void testHandedOverCartMovesOnFromItsVersion() {
+        var entry = nodes.get(0).service;
+        var cartId = "cart-1";
+        for (int i = 0; i < 5; i++) {
+            entry.addToCart(cartId, order(1, 1));
+        }
+        var owner = nodes.stream().filter(node -> node.membership.remoteOwner(cartId) == null).findFirst().orElseThrow();
+        var remaining = nodes.stream().filter(node -> node != owner).collect(Collectors.toList());
+
+        for (var node : nodes) {
+            node.membership.update(names(remaining));
+        }
+        Assertions.assertEquals(1, owner.rebalancer.rebalance());
+
+        var quote = remaining.get(0).service.quote(cartId);
+        Assertions.assertEquals(5, quote.getItemCount());
+        Assertions.assertEquals(6, quote.getCartVersion());
+        Assertions.assertTrue(remaining.get(0).service.addToCart(cartId, order(2, 1), 6).isSuccess());
+    }
+
+    @Test
+    void testUnreachableOwnerKeepsTheCart() {
+        var node = nodes.get(0);
+        node.service.addToCart("cart-1", order(1, 2));
+        var owner = nodes.stream().filter(candidate -> candidate.membership.remoteOwner("cart-1") == null).findFirst().orElseThrow();
+
+        // Nothing listens on port 1
+        owner.membership.update(List.of("localhost:1"));
+
+        Assertions.assertEquals(0, owner.rebalancer.rebalance());
+        Assertions.assertEquals(2, owner.cartService.quote("cart-1").getItemCount());
+        Assertions.assertTrue(owner.cartService.quote("cart-1").getCartVersion() > 1);
+    }
+
+    @Test
+    void testCartTheOwnerRejectsIsPutBack() {
+        var node = nodes.get(0);
+        node.service.addToCart("cart-1", order(3, 2));
+        var owner = nodes.stream().filter(candidate -> candidate.membership.remoteOwner("cart-1") == null).findFirst().orElseThrow();
+        var other = nodes.stream().filter(candidate -> candidate != owner).findFirst().orElseThrow();
+        // The new owner no longer sells the product
+        other.catalogRegistry.replace("1,T-shirt,1299,TOPS\n2,Jeans,2500,BOTTOMS\n".getBytes(StandardCharsets.UTF_8));
+
+        owner.membership.update(List.of(other.name));
+
+        Assertions.assertEquals(0, owner.rebalancer.rebalance());
+        Assertions.assertEquals(2, owner.cartService.quote("cart-1").getItemCount());
+    }
+
+    @Test
+    void testCartLeftBehindIsHandedOverByARetry() throws Exception {
+        var node = nodes.get(0);
+        node.service.addToCart("cart-1", order(3, 2));
+        var owner = nodes.stream().filter(candidate -> candidate.membership.remoteOwner("cart-1") == null).findFirst().orElseThrow();
+        var other = nodes.stream().filter(candidate -> candidate != owner).findFirst().orElseThrow();
+        other.catalogRegistry.replace("1,T-shirt,1299,TOPS\n2,Jeans,2500,BOTTOMS\n".getBytes(StandardCharsets.UTF_8));
+        owner.rebalancer.afterPropertiesSet();
+
+        owner.membership.update(List.of(other.name));
+        // Put back after the first rebalance, then taken once the owner sells the product again
+        awaitTrue(() -> owner.cartService.quote("cart-1").getCartVersion() > 1);
+        other.catalogRegistry.replace(CATALOG.getBytes(StandardCharsets.UTF_8));
+        awaitTrue(() -> other.cartService.quote("cart-1").getItemCount() == 2);
+
+        Assertions.assertEquals(0, owner.cartStore.size());
+    }
+
+    @Test
+    void testPartlyHandedOverCartIsTakenBack() {
+        var large = new StringBuilder();
+        for (int id = 1; id <= 5000; id++) {
+            large.append(id).append(",Product ").append(id).append(',').append(100 + id).append(",TOPS\n");
+        }
+        var batch = new ArrayList<OrderOperationRequest>();
+        for (int id = 1; id <= 5000; id++) {
+            batch.add(OrderOperationRequest.builder().operation(OperationEnum.ADD).itemId(id).amount(1).build());
+        }
+        var owner = nodes.stream().filter(candidate -> candidate.membership.remoteOwner("cart-1") == null).findFirst().orElseThrow();
+        var other = nodes.stream().filter(candidate -> candidate != owner).findFirst().orElseThrow();
+        owner.catalogRegistry.replace(large.toString().getBytes(StandardCharsets.UTF_8));
+        // The new owner does not sell the last products, which the second part of the hand-over holds
+        other.catalogRegistry.replace(large.substring(0, large.indexOf("\n4500,") + 1).getBytes(StandardCharsets.UTF_8));
+        for (int from = 0; from < batch.size(); from += 1000) {
+            Assertions.assertTrue(owner.cartService.applyBatch("cart-1", BatchOrderRequest.builder().operations(batch.subList(from, from + 1000)).build()).isSuccess());
+        }
+
+        owner.membership.update(List.of(other.name));
+
+        Assertions.assertEquals(0, owner.rebalancer.rebalance());
+        Assertions.assertEquals(5000, owner.cartService.quote("cart-1").getItemCount());
+        Assertions.assertEquals(0, other.cartService.quote("cart-1").getItemCount());
+    }
+
+    @Test
+    void testShortStockIsBorrowedFromAnotherInstance() throws Exception {
+        var stocked = stockNodes("1,0\n", "1,10\n");
+        var cartId = localCartOf(stocked.get(0));
+
+        Assertions.assertTrue(stocked.get(1).service.addToCart(cartId, order(1, 3)).isSuccess());
+
+        // Half of the stock of the lender moved, three units of which the cart holds
+        Assertions.assertEquals(2, stocked.get(0).inventory.available(1));
+        Assertions.assertEquals(5, stocked.get(1).inventory.available(1));
+        Assertions.assertTrue(stocked.get(1).service.addToCart(cartId, order(1, 7)).isSuccess());
+        Assertions.assertSame(OrderErrorEnum.OUT_OF_STOCK, stocked.get(1).service.addToCart(cartId, order(1, 1)).getError());
+        Assertions.assertEquals(0, stocked.get(0).inventory.available(1) + stocked.get(1).inventory.available(1));
+    }
+
+    @Test
+    void testHandedOverCartTakesItsUnitsAlong() throws Exception {
+        var stocked = stockNodes("1,10\n", "1,0\n");
+        var from = stocked.get(0);
+        var to = stocked.get(1);
+        var cartId = localCartOf(from);
+        Assertions.assertTrue(from.service.addToCart(cartId, order(1, 4)).isSuccess());
+
+        from.membership.update(List.of(to.name));
+
+        Assertions.assertEquals(1, from.rebalancer.rebalance());
+        Assertions.assertEquals(4, to.cartService.quote(cartId).getItemCount());
+        Assertions.assertEquals(6, from.inventory.available(1));
+        Assertions.assertEquals(0, to.inventory.available(1));
+        to.cartService.emptyCart(cartId);
+        Assertions.assertEquals(4, to.inventory.available(1));
+    }
+
+    @Test
+    void testStockIsSpreadBetweenTheMembers() throws Exception {
+        var stocked = stockNodes("1,11\n2,1\n", "1,0\n2,0\n", "1,0\n2,0\n");
+        var names = names(stocked);
+
+        Assertions.assertEquals(6, stocked.get(0).stockBalancer.spread(stocked.get(0).membership.update(names)));
+        Assertions.assertEquals(5, stocked.get(0).inventory.available(1));
+        Assertions.assertEquals(1, stocked.get(0).inventory.available(2));
+        Assertions.assertEquals(3, stocked.get(1).inventory.available(1));
+
+        // Leaving, it gives everything away, the remainder going to the first members
+        var remaining = names.subList(1, 3);
+        Assertions.assertEquals(6, stocked.get(0).stockBalancer.spread(stocked.get(0).membership.update(remaining)));
+        Assertions.assertEquals(0, stocked.get(0).inventory.available(1) + stocked.get(0).inventory.available(2));
+        Assertions.assertEquals(12, stocked.stream().mapToLong(node -> node.inventory.available(1) + node.inventory.available(2)).sum());
+    }
+
+    /**
+     * Starts a cluster of instances that each hold the given stock.
+     */
+    private List<Node> stockNodes(String... stocks) throws Exception {
+        var stocked = new ArrayList<Node>();
+        for (int i = 0; i < stocks.length; i++) {
+            stocked.add(new Node(Files.writeString(directory.resolve("stock-" + i + ".csv"), stocks[i], StandardCharsets.UTF_8)));
+        }
+        nodes.addAll(stocked);
+        for (var node : stocked) {
+            node.join(names(stocked));
+        }
+        return stocked;
+    }
+
+    private static String localCartOf(Node node) {
+        for (int i = 0; ; i++) {
+            if (node.membership.remoteOwner("cart-" + i) == null) {
+                return "cart-" + i;
+            }
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private String remoteCartOf(Node node) {
+        for (int i = 0; ; i++) {
+            if (node.membership.remoteOwner("cart-" + i) != null) {
+                return "cart-" + i;
+            }
+        }
+    }
+
+    private static List<String> names(List<Node> nodes) {
+        return nodes.stream().map(node -> node.name).collect(Collectors.toList());
+    }
+
+    private static OrderRequest order(int itemId, int amount) {
+        return OrderRequest.builder().itemId(itemId).amount(amount).build();
+    }
+
+    /**
+     * One instance of the cluster, with its own carts, binary protocol server and view of the ring.
+     */
+    private static final class Node {
+
+        private final ConcurrentCartStore cartStore = new ConcurrentCartStore();
+        private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+        private final CartMetrics cartMetrics = new CartMetrics(metrics);
+        private final CatalogRegistry catalogRegistry = new CatalogRegistry(ProductCatalog.defaultCatalog());
+        private final Inventory inventory;
+        private final CartServiceImpl cartService;
+        private final BinaryCartServer server;
+        private final String name;
+        private ClusterMembership membership;
+        private NodeClients nodeClients;
+        private CartService service;
+        private CartRebalancer rebalancer;
+        private StockBalancer stockBalancer;
+
+        private Node() throws Exception {
+            this(null);
+        }
+
+        /**
+         * @param stockFile stock of the products held by this instance, or null to leave the stock untracked
+         */
+        private Node(Path stockFile) throws Exception {
+            if (stockFile == null) {
+                inventory = new NoOpInventory();
+            } else {
+                var inventoryProperties = new InventoryProperties();
+                inventoryProperties.setEnabled(true);
+                inventoryProperties.setFile(stockFile.toString());
+                inventory = new AtomicStockInventory(cartStore, new NoOpCartJournal(), inventoryProperties, new ClusterProperties());
+            }
+            cartService = new CartServiceImpl(cartStore, catalogRegistry, new CompiledPromotionEngine(catalogRegistry),
+                    cartMetrics, new NoOpCartJournal(), inventory, new NoOpOrderJournal(), new NoOpCartAnalytics());
+
+            var properties = new BinaryProperties();
+            properties.setPort(0);
+            properties.setWorkers(2);
+            server = new BinaryCartServer(cartService, properties, new ExecutionProperties());
+            server.afterPropertiesSet();
+            name = "localhost:" + server.getPort();
+        }
+
+        private void join(List<String> nodes) {
+            var properties = new ClusterProperties();
+            properties.setEnabled(true);
+            properties.setSelf(name);
+            properties.setNodes(nodes);
+            properties.setConnectionsPerNode(2);
+            properties.setHandOverRetryInterval(Duration.ofMillis(20));
+
+            membership = new ClusterMembership(properties);
+            nodeClients = new NodeClients(properties);
+            service = new PartitionedCartService(cartService, membership, nodeClients, catalogRegistry, cartMetrics);
+            rebalancer = new CartRebalancer(cartStore, cartService, membership, nodeClients, cartMetrics, properties);
+            if (inventory instanceof AtomicStockInventory) {
+                stockBalancer = new StockBalancer((AtomicStockInventory) inventory, membership, nodeClients);
+                ((AtomicStockInventory) inventory).setLenders(stockBalancer);
+            }
+        }
+
+        private void close() throws Exception {
+            nodeClients.destroy();
+            rebalancer.destroy();
+            if (stockBalancer != null) {
+                stockBalancer.destroy();
+            }
+            server.destroy();
+        }
+    }
+}
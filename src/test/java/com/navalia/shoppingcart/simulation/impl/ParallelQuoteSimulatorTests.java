@@ -0,0 +1,138 @@
+package com.navalia.shoppingcart.simulation.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.navalia.shoppingcart.analytics.impl.NoOpCartAnalytics;
+import com.navalia.shoppingcart.catalog.CatalogRegistry;
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.constant.OrderErrorEnum;
+import com.navalia.shoppingcart.dto.request.OrderRequest;
+import com.navalia.shoppingcart.inventory.impl.NoOpInventory;
+import com.navalia.shoppingcart.journal.impl.NoOpCartJournal;
+import com.navalia.shoppingcart.metrics.CartMetrics;
+import com.navalia.shoppingcart.order.impl.NoOpOrderJournal;
+import com.navalia.shoppingcart.promotion.impl.CompiledPromotionEngine;
+import com.navalia.shoppingcart.promotion.rule.BundleRule;
+import com.navalia.shoppingcart.service.impl.CartServiceImpl;
+import com.navalia.shoppingcart.simulation.SimulationProperties;
+import com.navalia.shoppingcart.store.impl.ConcurrentCartStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ParallelQuoteSimulatorTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private CatalogRegistry catalogRegistry;
+    private CompiledPromotionEngine promotionEngine;
+    private ParallelQuoteSimulator quoteSimulator;
+
+    @BeforeEach
+    void setup() {
+        var simulationProperties = new SimulationProperties();
+        simulationProperties.setParallelism(4);
+        simulationProperties.setChunkSize(7);
+
+        catalogRegistry = new CatalogRegistry(CATALOG);
+        promotionEngine = new CompiledPromotionEngine(catalogRegistry);
+        quoteSimulator = new ParallelQuoteSimulator(catalogRegistry, promotionEngine, simulationProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        quoteSimulator.destroy();
+    }
+
+    @Test
+    void testBasketsArePricedLikeLiveCartsAndInOrder() throws IOException {
+        var cartService = new CartServiceImpl(new ConcurrentCartStore(), catalogRegistry, promotionEngine, new CartMetrics(new SimpleMeterRegistry()), new NoOpCartJournal(), new NoOpInventory(), new NoOpOrderJournal(), new NoOpCartAnalytics());
+        var random = new Random(42);
+        var input = new StringBuilder();
+        var expectedPrices = new ArrayList<Long>();
+
+        for (int basket = 0; basket < 500; basket++) {
+            var cartId = "basket-" + basket;
+            var items = new ArrayList<String>();
+            for (int line = random.nextInt(4); line >= 0; line--) {
+                var order = OrderRequest.builder().itemId(1 + random.nextInt(3)).amount(1 + random.nextInt(5)).build();
+                cartService.addToCart(cartId, order);
+                items.add("{\"itemId\":" + order.getItemId() + ",\"amount\":" + order.getAmount() + "}");
+            }
+            input.append("{\"items\":[").append(String.join(",", items)).append("]}\n");
+            expectedPrices.add(cartService.quote(cartId).getTotalPrice());
+        }
+
+        var results = simulate(input.toString());
+
+        Assertions.assertEquals(501, results.size());
+        for (int basket = 0; basket < 500; basket++) {
+            Assertions.assertEquals(basket, results.get(basket).get("basket").asLong());
+            Assertions.assertEquals(expectedPrices.get(basket), results.get(basket).get("totalPrice").asLong());
+        }
+        Assertions.assertEquals(500, results.get(500).get("summary").get("baskets").asLong());
+        Assertions.assertEquals(0, results.get(500).get("summary").get("rejected").asLong());
+    }
+
+    @Test
+    void testInvalidBasketsAreRejectedOneByOne() throws IOException {
+        var results = simulate("{\"items\":[{\"itemId\":1,\"amount\":3}]}\r\n"
+                + "\n"
+                + "not json\n"
+                + "{\"items\":[{\"itemId\":42,\"amount\":1}]}\n"
+                + "   \n"
+                + "{\"items\":[{\"itemId\":2,\"amount\":0}]}\n"
+                + "{}\n"
+                + "{\"items\":[{\"itemId\":2,\"amount\":1}]}");
+
+        Assertions.assertEquals(7, results.size());
+        Assertions.assertEquals(2 * 1299, results.get(0).get("totalPrice").asLong());
+        Assertions.assertEquals("The basket is not a valid JSON object.", results.get(1).get("error").asText());
+        Assertions.assertEquals(OrderErrorEnum.INVALID_ORDER.getMessage(), results.get(2).get("error").asText());
+        Assertions.assertEquals(3, results.get(3).get("basket").asLong());
+        Assertions.assertTrue(results.get(3).has("error"));
+        Assertions.assertTrue(results.get(4).has("error"));
+        Assertions.assertEquals(5, results.get(5).get("basket").asLong());
+        Assertions.assertEquals(2500, results.get(5).get("totalPrice").asLong());
+        Assertions.assertEquals(6, results.get(6).get("summary").get("baskets").asLong());
+        Assertions.assertEquals(4, results.get(6).get("summary").get("rejected").asLong());
+    }
+
+    @Test
+    void testBasketsCanBePricedWithOtherRules() throws IOException {
+        var basket = "{\"items\":[{\"itemId\":1,\"amount\":3},{\"itemId\":2,\"amount\":1}]}\n";
+        var results = new ByteArrayOutputStream();
+
+        quoteSimulator.quote(new ByteArrayInputStream(basket.getBytes(StandardCharsets.UTF_8)), results,
+                List.of(new BundleRule(Map.of(1, 1, 2, 1), 3000)));
+
+        var result = OBJECT_MAPPER.readTree(results.toString(StandardCharsets.UTF_8).split("\n")[0]);
+        Assertions.assertEquals(2 * 1299 + 3000, result.get("totalPrice").asLong());
+        Assertions.assertEquals(CompiledPromotionEngine.DEFAULT_RULES, promotionEngine.getRules());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> quoteSimulator.quote(new ByteArrayInputStream(new byte[0]), results,
+                List.of(new BundleRule(Map.of(42, 1), 100))));
+    }
+
+    private List<JsonNode> simulate(String input) throws IOException {
+        var results = new ByteArrayOutputStream();
+        var nodes = new ArrayList<JsonNode>();
+
+        quoteSimulator.quote(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), results);
+        for (var line : results.toString(StandardCharsets.UTF_8).split("\n")) {
+            nodes.add(OBJECT_MAPPER.readTree(line));
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,99 @@
+package com.navalia.shoppingcart.store.impl;
+
+import com.navalia.shoppingcart.catalog.ProductCatalog;
+import com.navalia.shoppingcart.entity.CompactCart;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentCartStoreTests {
+
+    private static final ProductCatalog CATALOG = ProductCatalog.defaultCatalog();
+    private static final int T_SHIRT = CATALOG.indexOf(1);
+    private static final int JEANS = CATALOG.indexOf(2);
+
+    private ConcurrentCartStore cartStore;
+
+    @BeforeEach
+    void setup() {
+        cartStore = new ConcurrentCartStore();
+    }
+
+    @Test
+    void testReadUnknownCartDoesNotCreateIt() {
+        boolean empty = cartStore.read("unknown", CompactCart::isEmpty);
+
+        Assertions.assertTrue(empty);
+        Assertions.assertEquals(0, cartStore.size());
+    }
+
+    @Test
+    void testMutateCreatesCartAndRemoveDropsIt() {
+        cartStore.mutate("cart-1", cart -> {
+            cart.add(CATALOG, JEANS, 1);
+            return null;
+        });
+
+        Assertions.assertEquals(1, cartStore.size());
+        Assertions.assertEquals(1, (int) cartStore.read("cart-1", cart -> cart.getAmount(JEANS)));
+
+        cartStore.remove("cart-1", CompactCart::isEmpty);
+        Assertions.assertEquals(0, cartStore.size());
+        Assertions.assertEquals(0, cartStore.estimatedSizeInBytes());
+    }
+
+    @Test
+    void testMutationLeavingANewCartUnchangedDoesNotKeepIt() {
+        var created = new AtomicInteger();
+        cartStore.setCreationListener((cartId, cart) -> created.incrementAndGet());
+
+        boolean found = cartStore.mutate("unknown", cart -> cart.remove(CATALOG, JEANS, 1));
+        Assertions.assertThrows(IllegalStateException.class, () -> cartStore.mutate("failing", cart -> {
+            cart.add(CATALOG, JEANS, 1);
+            cart.nextVersion();
+            throw new IllegalStateException("The change cannot be journaled.");
+        }));
+
+        Assertions.assertFalse(found);
+        Assertions.assertEquals(0, cartStore.size());
+        Assertions.assertEquals(0, cartStore.estimatedSizeInBytes());
+        Assertions.assertEquals(0, created.get());
+
+        cartStore.mutate("versioned", CompactCart::nextVersion);
+        Assertions.assertEquals(1, cartStore.size());
+        Assertions.assertEquals(1, created.get());
+    }
+
+    @Test
+    void testConcurrentMutationsAreNotLost() throws InterruptedException {
+        int threads = 8;
+        int mutationsPerThread = 10_000;
+        var executor = Executors.newFixedThreadPool(threads);
+        var done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            var cartId = "cart-" + (t % 2);
+            executor.execute(() -> {
+                for (int i = 0; i < mutationsPerThread; i++) {
+                    cartStore.mutate(cartId, cart -> {
+                        cart.add(CATALOG, T_SHIRT, 1);
+                        return null;
+                    });
+                }
+                done.countDown();
+            });
+        }
+
+        Assertions.assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        int expectedPerCart = threads / 2 * mutationsPerThread;
+        Assertions.assertEquals(expectedPerCart, (int) cartStore.read("cart-0", cart -> cart.getAmount(T_SHIRT)));
+        Assertions.assertEquals(expectedPerCart, (int) cartStore.read("cart-1", cart -> cart.getAmount(T_SHIRT)));
+    }
+}